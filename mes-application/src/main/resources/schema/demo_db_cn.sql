@@ -2816,6 +2816,7 @@ BEGIN
             DELETE FROM orders_operationaltask WHERE order_id = _order.id;
             DELETE FROM productflowthrudivision_materialavailability WHERE order_id = _order.id;
             DELETE FROM productioncounting_productiontracking WHERE order_id = _order.id;
+            DELETE FROM productioncounting_productionanalysisaggregate WHERE order_id = _order.id;
             DELETE FROM productionpershift_productionpershift WHERE order_id = _order.id;
             DELETE FROM simplematerialbalance_simplematerialbalanceorderscomponent WHERE order_id = _order.id;
             DELETE FROM urcmaterialavailability_requiredcomponent WHERE order_id = _order.id;
@@ -27195,6 +27196,44 @@ CREATE SEQUENCE public.productioncounting_prodoutresourceattrval_id_seq
 ALTER SEQUENCE public.productioncounting_prodoutresourceattrval_id_seq OWNED BY public.productioncounting_prodoutresourceattrval.id;
 
 
+--
+-- Name: productioncounting_productionanalysisaggregate; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE public.productioncounting_productionanalysisaggregate (
+    id bigint NOT NULL,
+    productionline_id bigint,
+    shift_id bigint,
+    day date,
+    order_id bigint,
+    product_id bigint,
+    usedquantity numeric(14,5) DEFAULT 0,
+    wastesquantity numeric(14,5) DEFAULT 0,
+    donequantity numeric(14,5) DEFAULT 0,
+    trackingsnumber integer DEFAULT 0,
+    updatedate timestamp without time zone
+);
+
+
+--
+-- Name: productioncounting_productionanalysisaggregate_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE public.productioncounting_productionanalysisaggregate_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: productioncounting_productionanalysisaggregate_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE public.productioncounting_productionanalysisaggregate_id_seq OWNED BY public.productioncounting_productionanalysisaggregate.id;
+
+
 --
 -- Name: productioncounting_productionanalysisdto; Type: VIEW; Schema: public; Owner: -
 --
@@ -36328,6 +36367,13 @@ ALTER TABLE ONLY public.productioncounting_orderbalance ALTER COLUMN id SET DEFA
 ALTER TABLE ONLY public.productioncounting_prodoutresourceattrval ALTER COLUMN id SET DEFAULT nextval('public.productioncounting_prodoutresourceattrval_id_seq'::regclass);
 
 
+--
+-- Name: productioncounting_productionanalysisaggregate id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.productioncounting_productionanalysisaggregate ALTER COLUMN id SET DEFAULT nextval('public.productioncounting_productionanalysisaggregate_id_seq'::regclass);
+
+
 --
 -- Name: productioncounting_productionbalance id; Type: DEFAULT; Schema: public; Owner: -
 --
@@ -43023,6 +43069,14 @@ COPY public.productioncounting_prodoutresourceattrval (id, trackingoperationprod
 \.
 
 
+--
+-- Data for Name: productioncounting_productionanalysisaggregate; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY public.productioncounting_productionanalysisaggregate (id, productionline_id, shift_id, day, order_id, product_id, usedquantity, wastesquantity, donequantity, trackingsnumber, updatedate) FROM stdin;
+\.
+
+
 --
 -- Data for Name: productioncounting_productionbalance; Type: TABLE DATA; Schema: public; Owner: -
 --
@@ -49160,6 +49214,13 @@ SELECT pg_catalog.setval('public.productioncounting_performanceanalysismv_id_seq
 SELECT pg_catalog.setval('public.productioncounting_prodoutresourceattrval_id_seq', 1, false);
 
 
+--
+-- Name: productioncounting_productionanalysisaggregate_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('public.productioncounting_productionanalysisaggregate_id_seq', 1, false);
+
+
 --
 -- Name: productioncounting_productionanalysisdto_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
 --
@@ -54767,6 +54828,14 @@ ALTER TABLE ONLY public.productioncounting_prodoutresourceattrval
     ADD CONSTRAINT productioncounting_prodoutresourceattrval_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: productioncounting_productionanalysisaggregate productioncounting_productionanalysisaggregate_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.productioncounting_productionanalysisaggregate
+    ADD CONSTRAINT productioncounting_productionanalysisaggregate_pkey PRIMARY KEY (id);
+
+
 --
 -- Name: productioncounting_productionbalance productioncounting_productionbalance_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -57343,6 +57412,27 @@ CREATE INDEX idx_ord_rderstatechange_order_id ON public.orders_orderstatechange
 CREATE INDEX idx_ord_suborders_ordersgroup_id ON public.ordersforsubproductsgeneration_suborders USING btree (ordersgroup_id);
 
 
+--
+-- Name: idx_pro_alysisaggregate_key; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE UNIQUE INDEX idx_pro_alysisaggregate_key ON public.productioncounting_productionanalysisaggregate USING btree (COALESCE(productionline_id, (0)::bigint), COALESCE(shift_id, (0)::bigint), day, order_id, product_id);
+
+
+--
+-- Name: idx_pro_alysisaggregate_order_id; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX idx_pro_alysisaggregate_order_id ON public.productioncounting_productionanalysisaggregate USING btree (order_id);
+
+
+--
+-- Name: idx_pro_alysisaggregate_updatedate; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX idx_pro_alysisaggregate_updatedate ON public.productioncounting_productionanalysisaggregate USING btree (updatedate);
+
+
 --
 -- Name: idx_pro_dailyprogress_progressforday_id; Type: INDEX; Schema: public; Owner: -
 --
@@ -64278,6 +64368,38 @@ ALTER TABLE ONLY public.productflowthrudivision_productstoissue
     ADD CONSTRAINT productincomponent_productstoissue_fkey FOREIGN KEY (productincomponent_id) REFERENCES public.technologies_operationproductincomponent(id) DEFERRABLE;
 
 
+--
+-- Name: productioncounting_productionanalysisaggregate productionanalysisaggregate_order_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.productioncounting_productionanalysisaggregate
+    ADD CONSTRAINT productionanalysisaggregate_order_fkey FOREIGN KEY (order_id) REFERENCES public.orders_order(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_productionanalysisaggregate productionanalysisaggregate_product_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.productioncounting_productionanalysisaggregate
+    ADD CONSTRAINT productionanalysisaggregate_product_fkey FOREIGN KEY (product_id) REFERENCES public.basic_product(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_productionanalysisaggregate productionanalysisaggregate_productionline_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.productioncounting_productionanalysisaggregate
+    ADD CONSTRAINT productionanalysisaggregate_productionline_fkey FOREIGN KEY (productionline_id) REFERENCES public.productionlines_productionline(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_productionanalysisaggregate productionanalysisaggregate_shift_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY public.productioncounting_productionanalysisaggregate
+    ADD CONSTRAINT productionanalysisaggregate_shift_fkey FOREIGN KEY (shift_id) REFERENCES public.basic_shift(id) DEFERRABLE;
+
+
 --
 -- Name: ordersgroups_productionbalance productionbalance_ordersgroup_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
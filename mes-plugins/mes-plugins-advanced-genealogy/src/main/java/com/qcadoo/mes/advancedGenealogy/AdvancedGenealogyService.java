@@ -23,6 +23,7 @@
  */
 package com.qcadoo.mes.advancedGenealogy;
 
+import java.util.List;
 import java.util.Objects;
 
 import com.google.common.base.Strings;
@@ -132,33 +133,36 @@ public class AdvancedGenealogyService {
     }
 
     public String getNumberFromNumberPattern(Entity product) {
-        Entity numberPattern;
-        Entity batchNumberPattern = product.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN);
-        Entity parent = product.getBelongsToField(ProductFields.PARENT);
-        if (batchNumberPattern != null) {
-            numberPattern = batchNumberPattern;
-        } else if (parent != null && parent.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN) != null) {
-            numberPattern = parent.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN);
-        } else {
-            numberPattern = parameterService.getParameter().getBelongsToField(
-                    ParameterFieldsAG.NUMBER_PATTERN);
-        }
-        return numberPatternGeneratorService.generateNumber(numberPattern);
+        return getNumbersFromNumberPattern(product, 1).get(0);
+    }
+
+    public List<String> getNumbersFromNumberPattern(final Entity product, final int count) {
+        Entity numberPattern = getBatchNumberPattern(product, ParameterFieldsAG.NUMBER_PATTERN);
+
+        return numberPatternGeneratorService.generateNumbers(numberPattern, count);
     }
 
     public String getNumberDeliveryProductFromNumberPattern(Entity product) {
-        Entity numberPattern;
+        return getNumbersDeliveryProductFromNumberPattern(product, 1).get(0);
+    }
+
+    public List<String> getNumbersDeliveryProductFromNumberPattern(final Entity product, final int count) {
+        Entity numberPattern = getBatchNumberPattern(product, L_PRODUCT_DELIVERY_BATCH_NUMBER_PATTERN);
+
+        return numberPatternGeneratorService.generateNumbers(numberPattern, count);
+    }
+
+    private Entity getBatchNumberPattern(final Entity product, final String parameterNumberPatternField) {
         Entity batchNumberPattern = product.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN);
         Entity parent = product.getBelongsToField(ProductFields.PARENT);
+
         if (batchNumberPattern != null) {
-            numberPattern = batchNumberPattern;
+            return batchNumberPattern;
         } else if (parent != null && parent.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN) != null) {
-            numberPattern = parent.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN);
+            return parent.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN);
         } else {
-            numberPattern = parameterService.getParameter().getBelongsToField(
-                    L_PRODUCT_DELIVERY_BATCH_NUMBER_PATTERN);
+            return parameterService.getParameter().getBelongsToField(parameterNumberPatternField);
         }
-        return numberPatternGeneratorService.generateNumber(numberPattern);
     }
 
 }
@@ -35,14 +35,18 @@ import static com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordFields.ST
 import static com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordFields.USED_BATCHES_SIMPLE;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.advancedGenealogy.constants.AdvancedGenealogyConstants;
 import com.qcadoo.mes.advancedGenealogy.constants.BatchFields;
@@ -56,6 +60,7 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.plugin.api.PluginAccessor;
 
 @Service
@@ -78,12 +83,17 @@ public class AdvancedGenealogyTreeService {
     @Autowired
     private TranslationService translationService;
 
+    @Autowired
+    private BatchUsagesDataProvider batchUsagesDataProvider;
+
     public List<Entity> getProducedFromTree(final Entity batch, final boolean includeDrafts, final boolean makeIdsUnique) {
         List<Entity> tree = new ArrayList<>();
 
+        long realParentId = batch.getId();
+
         addChild(tree, batch, makeIdsUnique);
 
-        generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
+        generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique, realParentId, Sets.newHashSet());
 
         return tree;
     }
@@ -95,16 +105,19 @@ public class AdvancedGenealogyTreeService {
 
         addChild(tree, batch, true);
 
-        generateUsedToProduceTree(batch, tree, includeDrafts, true, realParentId);
+        Map<Long, List<Long>> producedBatchesIdsByUsedBatchId = batchUsagesDataProvider.getProducedBatchesIdsByUsedBatchId(
+                realParentId, includeDrafts, isEnabled(L_ADVANCED_GENEALOGY_FOR_ORDERS));
+
+        generateUsedToProduceTree(batch, tree, true, realParentId, producedBatchesIdsByUsedBatchId, Sets.newHashSet());
 
         return tree;
     }
 
-    private boolean addChild(final List<Entity> tree, final Entity child, final boolean makeIdsUnique) {
+    private void addChild(final List<Entity> tree, final Entity child, final boolean makeIdsUnique) {
         child.setField(PARENT, null);
         String genealogyTreeNodeLabel = createGenealogyTreeNodeLabel(child);
         child.setField(GENEALOGY_TREE_NODE_LABEL, genealogyTreeNodeLabel);
-        return addToList(tree, child, makeIdsUnique);
+        addToList(tree, child, makeIdsUnique);
     }
 
     private String createGenealogyTreeNodeLabel(Entity batch) {
@@ -130,97 +143,66 @@ public class AdvancedGenealogyTreeService {
         return sb.toString();
     }
 
-    private boolean addChild(final List<Entity> tree, final Entity child, final Entity parent, final boolean makeIdsUnique) {
+    private void addChild(final List<Entity> tree, final Entity child, final Entity parent, final boolean makeIdsUnique) {
         child.setField(PARENT, parent);
         String genealogyTreeNodeLabel = createGenealogyTreeNodeLabel(child);
         child.setField(GENEALOGY_TREE_NODE_LABEL, genealogyTreeNodeLabel);
-        return addToList(tree, child, makeIdsUnique);
+        addToList(tree, child, makeIdsUnique);
     }
 
-    private boolean addToList(final List<Entity> tree, final Entity child, final boolean makeIdsUnique) {
+    private void addToList(final List<Entity> tree, final Entity child, final boolean makeIdsUnique) {
         child.setField(PRIORITY, 1);
         child.setField(ENTITY_TYPE, L_BATCH);
 
-        if (checkIfTreeContainsEntity(tree, child)) {
-            return false;
-        } else {
-            if (makeIdsUnique) {
-                child.setId((long) tree.size());
-            }
-            tree.add(child);
-            return true;
+        if (makeIdsUnique) {
+            child.setId((long) tree.size());
         }
+        tree.add(child);
     }
 
-    private boolean checkIfTreeContainsEntity(final List<Entity> tree, final Entity child) {
-        for (Entity entity : tree) {
-            if (child.getField(PARENT).equals(entity.getField(PARENT))
-                    && entity.getField(NUMBER).equals(child.getField(NUMBER))) {
-                return true;
-            }
-        }
-        return false;
+    private boolean canAddChild(final Entity child, final long realId, final Set<Object> childrenNumbers,
+            final Set<Long> ancestorsIds) {
+        return !ancestorsIds.contains(realId) && childrenNumbers.add(child.getField(NUMBER));
     }
 
-    private void generateUsedToProduceTree(final Entity parent, final List<Entity> tree, final boolean includeDrafts,
-            final boolean makeIdsUnique, final long realParentId) {
-        List<Entity> batches = getDD().find().list().getEntities();
+    private void generateUsedToProduceTree(final Entity parent, final List<Entity> tree, final boolean makeIdsUnique,
+            final long realParentId, final Map<Long, List<Long>> producedBatchesIdsByUsedBatchId, final Set<Long> ancestorsIds) {
+        List<Long> producedBatchesIds = producedBatchesIdsByUsedBatchId.getOrDefault(realParentId, Collections.emptyList());
 
-        for (Entity producedBatch : batches) {
-            EntityList trackingRecords = producedBatch.getHasManyField(TRACKING_RECORDS);
-            for (Entity trackingRecord : trackingRecords) {
-                String entityType = trackingRecord.getStringField(ENTITY_TYPE);
-                if (entityType == null) {
-                    continue;
-                }
+        if (producedBatchesIds.isEmpty()) {
+            return;
+        }
 
-                String state = trackingRecord.getStringField(STATE);
+        ancestorsIds.add(realParentId);
 
-                if (!TrackingRecordState.ACCEPTED.getStringValue().equals(state)) {
-                    boolean isDraftAndWeIncludeDrafts = TrackingRecordState.DRAFT.getStringValue().equals(state) && includeDrafts;
+        Set<Object> childrenNumbers = Sets.newHashSet();
 
-                    if (!isDraftAndWeIncludeDrafts) {
-                        continue;
-                    }
-                }
+        for (Entity producedBatch : getBatches(producedBatchesIds)) {
+            long realId = producedBatch.getId();
 
-                if (TrackingRecordType.SIMPLE.equals(entityType)) {
-                    EntityList usedBatches = trackingRecord.getHasManyField(USED_BATCHES_SIMPLE);
-                    for (Entity usedBatch : usedBatches) {
-                        Entity batch = usedBatch.getBelongsToField(UsedBatchSimpleFields.BATCH);
-                        if (batch.getId().equals(realParentId)) {
-                            long realId = producedBatch.getId();
-                            boolean addedChild = addChild(tree, producedBatch, parent, makeIdsUnique);
-                            if (addedChild) {
-                                generateUsedToProduceTree(producedBatch, tree, includeDrafts, makeIdsUnique, realId);
-                            }
-                        }
-                    }
-                } else if (TrackingRecordType.FOR_ORDER.equals(entityType) && isEnabled(L_ADVANCED_GENEALOGY_FOR_ORDERS)) {
-                    EntityList genealogyProductInComponents = trackingRecord.getHasManyField("genealogyProductInComponents");
-                    for (Entity genealogyProductInComponent : genealogyProductInComponents) {
-                        EntityList productInBatches = genealogyProductInComponent.getHasManyField("productInBatches");
-                        for (Entity producedInBatch : productInBatches) {
-                            Entity batch = producedInBatch.getBelongsToField(L_BATCH);
-                            if (batch == null) {
-                                continue;
-                            }
-                            if (batch.getId().equals(realParentId)) {
-                                long realId = producedBatch.getId();
-                                boolean addedChild = addChild(tree, producedBatch, parent, makeIdsUnique);
-                                if (addedChild) {
-                                    generateUsedToProduceTree(producedBatch, tree, includeDrafts, makeIdsUnique, realId);
-                                }
-                            }
-                        }
-                    }
-                }
+            if (canAddChild(producedBatch, realId, childrenNumbers, ancestorsIds)) {
+                addChild(tree, producedBatch, parent, makeIdsUnique);
+                generateUsedToProduceTree(producedBatch, tree, makeIdsUnique, realId, producedBatchesIdsByUsedBatchId,
+                        ancestorsIds);
             }
         }
+
+        ancestorsIds.remove(realParentId);
+    }
+
+    private List<Entity> getBatches(final List<Long> batchesIds) {
+        Map<Long, Entity> batchesByIds = getDD().find().add(SearchRestrictions.in("id", Sets.newHashSet(batchesIds))).list()
+                .getEntities().stream().collect(Collectors.toMap(Entity::getId, batch -> batch));
+
+        return batchesIds.stream().distinct().map(batchesByIds::get).filter(Objects::nonNull).collect(Collectors.toList());
     }
 
     private void generateProducedFromTree(final Entity producedBatch, final List<Entity> tree, final boolean includeDrafts,
-            final boolean makeIdsUnique) {
+            final boolean makeIdsUnique, final long realParentId, final Set<Long> ancestorsIds) {
+        ancestorsIds.add(realParentId);
+
+        Set<Object> childrenNumbers = Sets.newHashSet();
+
         EntityList trackingRecords = producedBatch.getHasManyField(BatchFields.TRACKING_RECORDS);
         for (Entity trackingRecord : trackingRecords) {
             String type = trackingRecord.getStringField(TrackingRecordFields.ENTITY_TYPE);
@@ -242,10 +224,8 @@ public class AdvancedGenealogyTreeService {
                 EntityList usedBatches = trackingRecord.getHasManyField(USED_BATCHES_SIMPLE);
                 for (Entity usedBatch : usedBatches) {
                     Entity batch = usedBatch.getBelongsToField(UsedBatchSimpleFields.BATCH);
-                    boolean addedChild = addChild(tree, batch, producedBatch, makeIdsUnique);
-                    if (addedChild) {
-                        generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
-                    }
+                    addChildAndGenerateProducedFromTree(batch, producedBatch, tree, includeDrafts, makeIdsUnique,
+                            childrenNumbers, ancestorsIds);
                 }
             } else if (TrackingRecordType.FOR_ORDER.equals(type) && isEnabled(L_ADVANCED_GENEALOGY_FOR_ORDERS)) {
                 EntityList genealogyProductInComponents = trackingRecord.getHasManyField("genealogyProductInComponents");
@@ -256,14 +236,25 @@ public class AdvancedGenealogyTreeService {
                         if (batch == null) {
                             continue;
                         }
-                        boolean addedChild = addChild(tree, batch, producedBatch, makeIdsUnique);
-                        if (addedChild) {
-                            generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
-                        }
+                        addChildAndGenerateProducedFromTree(batch, producedBatch, tree, includeDrafts, makeIdsUnique,
+                                childrenNumbers, ancestorsIds);
                     }
                 }
             }
         }
+
+        ancestorsIds.remove(realParentId);
+    }
+
+    private void addChildAndGenerateProducedFromTree(final Entity batch, final Entity producedBatch, final List<Entity> tree,
+            final boolean includeDrafts, final boolean makeIdsUnique, final Set<Object> childrenNumbers,
+            final Set<Long> ancestorsIds) {
+        long realId = batch.getId();
+
+        if (canAddChild(batch, realId, childrenNumbers, ancestorsIds)) {
+            addChild(tree, batch, producedBatch, makeIdsUnique);
+            generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique, realId, ancestorsIds);
+        }
     }
 
     private DataDefinition getDD() {
@@ -0,0 +1,117 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.advancedGenealogy.tree;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordType;
+import com.qcadoo.mes.advancedGenealogy.states.constants.TrackingRecordState;
+
+/**
+ * Provides links between batches used in tracking records and batches produced by them, for all batches reachable from the
+ * given one, in a single recursive query.
+ */
+@Service
+public class BatchUsagesDataProvider {
+
+    private static final String L_BATCH_ID = "batchId";
+
+    private static final String L_STATES = "states";
+
+    private static final String L_SIMPLE = "simple";
+
+    private static final String L_FOR_ORDER = "forOrder";
+
+    private static final String SIMPLE_USAGES_QUERY = "SELECT usedbatchsimple.batch_id AS usedbatchid, "
+            + "trackingrecord.producedbatch_id AS producedbatchid, trackingrecord.id AS trackingrecordid, "
+            + "usedbatchsimple.id AS usageid "
+            + "FROM advancedgenealogy_usedbatchsimple usedbatchsimple "
+            + "JOIN advancedgenealogy_trackingrecord trackingrecord ON trackingrecord.id = usedbatchsimple.trackingrecord_id "
+            + "WHERE trackingrecord.entitytype = :" + L_SIMPLE + " AND trackingrecord.state IN (:" + L_STATES + ")";
+
+    private static final String FOR_ORDER_USAGES_QUERY = "SELECT genealogyproductinbatch.batch_id AS usedbatchid, "
+            + "trackingrecord.producedbatch_id AS producedbatchid, trackingrecord.id AS trackingrecordid, "
+            + "genealogyproductinbatch.id AS usageid "
+            + "FROM advancedgenealogyfororders_genealogyproductinbatch genealogyproductinbatch "
+            + "JOIN advancedgenealogyfororders_genealogyproductincomponent genealogyproductincomponent "
+            + "ON genealogyproductincomponent.id = genealogyproductinbatch.genealogyproductincomponent_id "
+            + "JOIN advancedgenealogy_trackingrecord trackingrecord ON trackingrecord.id = genealogyproductincomponent.trackingrecord_id "
+            + "WHERE trackingrecord.entitytype = :" + L_FOR_ORDER + " AND trackingrecord.state IN (:" + L_STATES + ") "
+            + "AND genealogyproductinbatch.batch_id IS NOT NULL";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Returns ids of batches produced from each batch used to produce the given one, directly or indirectly, in order of produced
+     * batch and tracking record. A batch may be listed many times for one used batch.
+     */
+    public Map<Long, List<Long>> getProducedBatchesIdsByUsedBatchId(final Long batchId, final boolean includeDrafts,
+            final boolean includeForOrders) {
+        String usagesQuery = includeForOrders ? SIMPLE_USAGES_QUERY + " UNION ALL " + FOR_ORDER_USAGES_QUERY
+                : SIMPLE_USAGES_QUERY;
+
+        StringBuilder query = new StringBuilder();
+
+        query.append("WITH RECURSIVE reachable(batchid) AS (");
+        query.append("SELECT CAST(:" + L_BATCH_ID + " AS bigint) ");
+        query.append("UNION ");
+        query.append("SELECT usages.producedbatchid FROM reachable ");
+        query.append("JOIN (" + usagesQuery + ") usages ON usages.usedbatchid = reachable.batchid) ");
+        query.append("SELECT usages.usedbatchid, usages.producedbatchid FROM reachable ");
+        query.append("JOIN (" + usagesQuery + ") usages ON usages.usedbatchid = reachable.batchid ");
+        query.append("ORDER BY usages.producedbatchid, usages.trackingrecordid, usages.usageid");
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue(L_BATCH_ID, batchId);
+        params.addValue(L_SIMPLE, TrackingRecordType.SIMPLE);
+        params.addValue(L_FOR_ORDER, TrackingRecordType.FOR_ORDER);
+
+        if (includeDrafts) {
+            params.addValue(L_STATES, Lists.newArrayList(TrackingRecordState.ACCEPTED.getStringValue(),
+                    TrackingRecordState.DRAFT.getStringValue()));
+        } else {
+            params.addValue(L_STATES, Lists.newArrayList(TrackingRecordState.ACCEPTED.getStringValue()));
+        }
+
+        Map<Long, List<Long>> producedBatchesIdsByUsedBatchId = Maps.newHashMap();
+
+        jdbcTemplate.query(query.toString(), params, resultSet -> {
+            producedBatchesIdsByUsedBatchId.computeIfAbsent(resultSet.getLong("usedbatchid"), id -> Lists.newArrayList())
+                    .add(resultSet.getLong("producedbatchid"));
+        });
+
+        return producedBatchesIdsByUsedBatchId;
+    }
+
+}
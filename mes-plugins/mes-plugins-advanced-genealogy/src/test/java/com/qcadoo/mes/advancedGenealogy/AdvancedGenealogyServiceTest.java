@@ -0,0 +1,115 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.advancedGenealogy;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.advancedGenealogy.constants.ParameterFieldsAG;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.services.NumberPatternGeneratorService;
+import com.qcadoo.model.api.Entity;
+
+public class AdvancedGenealogyServiceTest {
+
+    private AdvancedGenealogyService advancedGenealogyService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private NumberPatternGeneratorService numberPatternGeneratorService;
+
+    @Mock
+    private Entity product, parent, parameter, productNumberPattern, parentNumberPattern, parameterNumberPattern;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+        advancedGenealogyService = new AdvancedGenealogyService();
+        ReflectionTestUtils.setField(advancedGenealogyService, "parameterService", parameterService);
+        ReflectionTestUtils.setField(advancedGenealogyService, "numberPatternGeneratorService", numberPatternGeneratorService);
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(parameter.getBelongsToField(ParameterFieldsAG.NUMBER_PATTERN)).willReturn(parameterNumberPattern);
+        given(parameter.getBelongsToField(AdvancedGenealogyService.L_PRODUCT_DELIVERY_BATCH_NUMBER_PATTERN)).willReturn(
+                parameterNumberPattern);
+    }
+
+    @Test
+    public final void shouldGenerateBatchNumbersWithOneCallForProductNumberPattern() {
+        // given
+        given(product.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN)).willReturn(productNumberPattern);
+        given(numberPatternGeneratorService.generateNumbers(productNumberPattern, 3)).willReturn(asList("B1", "B2", "B3"));
+
+        // when
+        List<String> numbers = advancedGenealogyService.getNumbersFromNumberPattern(product, 3);
+
+        // then
+        assertEquals(asList("B1", "B2", "B3"), numbers);
+        verify(numberPatternGeneratorService).generateNumbers(productNumberPattern, 3);
+        verifyNoMoreInteractions(numberPatternGeneratorService);
+    }
+
+    @Test
+    public final void shouldGenerateBatchNumbersForParentNumberPattern() {
+        // given
+        given(product.getBelongsToField(ProductFields.PARENT)).willReturn(parent);
+        given(parent.getBelongsToField(ProductFields.BATCH_NUMBER_PATTERN)).willReturn(parentNumberPattern);
+        given(numberPatternGeneratorService.generateNumbers(parentNumberPattern, 2)).willReturn(asList("P1", "P2"));
+
+        // when
+        List<String> numbers = advancedGenealogyService.getNumbersDeliveryProductFromNumberPattern(product, 2);
+
+        // then
+        assertEquals(asList("P1", "P2"), numbers);
+    }
+
+    @Test
+    public final void shouldGenerateSingleDeliveryBatchNumberForParameterNumberPattern() {
+        // given
+        given(numberPatternGeneratorService.generateNumbers(parameterNumberPattern, 1)).willReturn(asList("D1"));
+
+        // when
+        String number = advancedGenealogyService.getNumberDeliveryProductFromNumberPattern(product);
+
+        // then
+        assertEquals("D1", number);
+        verify(numberPatternGeneratorService).generateNumbers(parameterNumberPattern, 1);
+        verifyNoMoreInteractions(numberPatternGeneratorService);
+    }
+
+}
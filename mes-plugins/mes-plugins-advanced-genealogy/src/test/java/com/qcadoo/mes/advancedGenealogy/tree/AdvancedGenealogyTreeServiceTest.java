@@ -25,6 +25,9 @@ package com.qcadoo.mes.advancedGenealogy.tree;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -32,6 +35,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -48,7 +52,9 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
+import com.google.common.collect.ImmutableMap;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
 import com.qcadoo.model.api.search.SearchResult;
 import com.qcadoo.plugin.api.Plugin;
 import com.qcadoo.plugin.api.PluginAccessor;
@@ -72,6 +78,9 @@ public class AdvancedGenealogyTreeServiceTest {
     @Mock
     private PluginAccessor pluginAccessor;
 
+    @Mock
+    private BatchUsagesDataProvider batchUsagesDataProvider;
+
     @Mock
     private SearchResult searchResult;
 
@@ -99,6 +108,7 @@ public class AdvancedGenealogyTreeServiceTest {
 
         ReflectionTestUtils.setField(treeService, "dataDefinitionService", dataDefinitionService);
         ReflectionTestUtils.setField(treeService, "pluginAccessor", pluginAccessor);
+        ReflectionTestUtils.setField(treeService, "batchUsagesDataProvider", batchUsagesDataProvider);
 
         when(pluginAccessor.getPlugin("advancedGenealogyForOrders")).thenReturn(null);
 
@@ -122,6 +132,7 @@ public class AdvancedGenealogyTreeServiceTest {
 
         SearchCriteriaBuilder searchCriteriaBuilder = Mockito.mock(SearchCriteriaBuilder.class);
         when(dataDefinition.find()).thenReturn(searchCriteriaBuilder);
+        when(searchCriteriaBuilder.add(any(SearchCriterion.class))).thenReturn(searchCriteriaBuilder);
         when(searchCriteriaBuilder.list()).thenReturn(searchResult);
         when(searchResult.getEntities()).thenReturn(asList(batch1));
 
@@ -139,6 +150,10 @@ public class AdvancedGenealogyTreeServiceTest {
         when(product2.getStringField("number")).thenReturn(productNumber2);
         when(batch1.getField("number")).thenReturn(number1);
         when(batch2.getField("number")).thenReturn(number2);
+
+        Map<Long, List<Long>> producedBatchesIdsByUsedBatchId = ImmutableMap.of(2L, asList(1L));
+        when(batchUsagesDataProvider.getProducedBatchesIdsByUsedBatchId(anyLong(), anyBoolean(), anyBoolean())).thenReturn(
+                producedBatchesIdsByUsedBatchId);
     }
 
     @Test
@@ -168,6 +183,8 @@ public class AdvancedGenealogyTreeServiceTest {
         when(product1.getStringField("number")).thenReturn(productNumber1);
 
         when(searchResult.getEntities()).thenReturn(new LinkedList<Entity>());
+        when(batchUsagesDataProvider.getProducedBatchesIdsByUsedBatchId(anyLong(), anyBoolean(), anyBoolean())).thenReturn(
+                Collections.<Long, List<Long>> emptyMap());
 
         // when
         List<Entity> tree = treeService.getUsedToProduceTree(batch, true, false);
@@ -26,10 +26,17 @@ package com.qcadoo.mes.basic;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.google.common.base.Preconditions;
 import com.qcadoo.mes.basic.constants.BasicConstants;
@@ -38,6 +45,7 @@ import com.qcadoo.mes.basic.constants.ReportColumnWidthFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantUtil;
 
 /**
  * Service for accessing parameters
@@ -47,6 +55,8 @@ import com.qcadoo.model.api.Entity;
 @Service
 public class ParameterService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(ParameterService.class);
+
     private static final Integer SMALL_CHAR_IN_PIXEL = 9;
 
     private static final Integer LARGE_CHAR_IN_PIXEL = 11;
@@ -54,6 +64,14 @@ public class ParameterService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    private final Map<Integer, ParameterSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    private final Map<Integer, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final AtomicLong snapshotHits = new AtomicLong();
+
+    private final AtomicLong snapshotMisses = new AtomicLong();
+
     /**
      * Returns basic parameter entity id for current user
      * 
@@ -88,6 +106,71 @@ public class ParameterService {
         return parameter;
     }
 
+    /**
+     * Returns immutable copy of basic parameter entity for current tenant. The copy is cached until parameter (or a parameter
+     * entity of a plugin referenced from it) is saved, so it should be preferred over {@link #getParameter()} in loops which
+     * only read parameters.
+     * 
+     * @return parameter snapshot
+     * 
+     */
+    public ParameterSnapshot getParameterSnapshot() {
+        Integer tenantId = MultiTenantUtil.getCurrentTenantId();
+        long version = getVersion(tenantId).get();
+
+        ParameterSnapshot snapshot = snapshots.get(tenantId);
+
+        if (Objects.nonNull(snapshot) && (snapshot.getVersion() == version)) {
+            snapshotHits.incrementAndGet();
+
+            return snapshot;
+        }
+
+        snapshot = ParameterSnapshot.of(getParameter(), version);
+
+        snapshots.put(tenantId, snapshot);
+
+        long misses = snapshotMisses.incrementAndGet();
+
+        LOG.debug("Parameter snapshot of tenant {} loaded in version {} ({} hits, {} misses)", tenantId, version,
+                snapshotHits.get(), misses);
+
+        return snapshot;
+    }
+
+    /**
+     * Drops cached parameter snapshot of current tenant once the current transaction commits (immediately when there is no
+     * transaction). Has to be called by save hooks of parameter entities.
+     */
+    public void invalidateParameterSnapshot() {
+        AtomicLong version = getVersion(MultiTenantUtil.getCurrentTenantId());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    version.incrementAndGet();
+                }
+
+            });
+        } else {
+            version.incrementAndGet();
+        }
+    }
+
+    public long getParameterSnapshotHits() {
+        return snapshotHits.get();
+    }
+
+    public long getParameterSnapshotMisses() {
+        return snapshotMisses.get();
+    }
+
+    private AtomicLong getVersion(final Integer tenantId) {
+        return versions.computeIfAbsent(tenantId, id -> new AtomicLong());
+    }
+
     private Entity createParameter(final DataDefinition dataDefinition) {
         Entity parameter = dataDefinition.create();
         parameter = dataDefinition.save(parameter);
@@ -0,0 +1,150 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Immutable copy of a parameter entity, safe to share between threads. BelongsTo fields of the parameter are copied one level
+ * deep (fields of the referenced entity, with their own belongsTo fields reduced to ids); hasMany fields are not copied.
+ */
+public final class ParameterSnapshot {
+
+    private final Long id;
+
+    private final long version;
+
+    private final Map<String, Object> fields;
+
+    private ParameterSnapshot(final Long id, final long version, final Map<String, Object> fields) {
+        this.id = id;
+        this.version = version;
+        this.fields = fields;
+    }
+
+    public static ParameterSnapshot of(final Entity entity, final long version) {
+        return of(entity, version, true);
+    }
+
+    private static ParameterSnapshot of(final Entity entity, final long version, final boolean withBelongsTo) {
+        Map<String, Object> fields = Maps.newHashMap();
+
+        for (Map.Entry<String, Object> field : entity.getFields().entrySet()) {
+            Object value = field.getValue();
+
+            if (value instanceof Entity) {
+                Entity belongsTo = (Entity) value;
+
+                if (withBelongsTo) {
+                    fields.put(field.getKey(), of(belongsTo, version, false));
+                } else {
+                    fields.put(field.getKey(), belongsTo.getId());
+                }
+            } else if (value instanceof Date) {
+                fields.put(field.getKey(), new Date(((Date) value).getTime()));
+            } else if (!(value instanceof Collection)) {
+                fields.put(field.getKey(), value);
+            }
+        }
+
+        return new ParameterSnapshot(entity.getId(), version, Collections.unmodifiableMap(fields));
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean getBooleanField(final String fieldName) {
+        Object value = fields.get(fieldName);
+
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+
+        return "1".equals(value) || Boolean.parseBoolean(Objects.toString(value, null));
+    }
+
+    public String getStringField(final String fieldName) {
+        return Objects.toString(fields.get(fieldName), null);
+    }
+
+    public Integer getIntegerField(final String fieldName) {
+        Object value = fields.get(fieldName);
+
+        return (value instanceof Number) ? Integer.valueOf(((Number) value).intValue()) : null;
+    }
+
+    public BigDecimal getDecimalField(final String fieldName) {
+        Object value = fields.get(fieldName);
+
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof Number) {
+            return new BigDecimal(value.toString());
+        }
+
+        return null;
+    }
+
+    public Date getDateField(final String fieldName) {
+        Object value = fields.get(fieldName);
+
+        return (value instanceof Date) ? new Date(((Date) value).getTime()) : null;
+    }
+
+    /**
+     * Returns copy of the entity referenced by the given belongsTo field of the parameter, or null if the field is empty.
+     */
+    public ParameterSnapshot getBelongsToField(final String fieldName) {
+        Object value = fields.get(fieldName);
+
+        return (value instanceof ParameterSnapshot) ? (ParameterSnapshot) value : null;
+    }
+
+    /**
+     * Returns id of the entity referenced by the given belongsTo field, or null if the field is empty.
+     */
+    public Long getBelongsToId(final String fieldName) {
+        Object value = fields.get(fieldName);
+
+        if (value instanceof ParameterSnapshot) {
+            return ((ParameterSnapshot) value).getId();
+        }
+
+        return (value instanceof Long) ? (Long) value : null;
+    }
+
+}
@@ -55,7 +55,6 @@ import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
 import org.joda.time.Days;
 import org.joda.time.IllegalFieldValueException;
 import org.joda.time.Interval;
@@ -94,8 +93,6 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final int MAX_LOOPS = 1000;
 
-    private static final int MILLS = 1000;
-
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -105,6 +102,9 @@ public class ShiftsServiceImpl implements ShiftsService {
     @Autowired
     private ShiftExceptionService shiftExceptionService;
 
+    @Autowired
+    private WorkingTimeCalendarService workingTimeCalendarService;
+
     private static final String[] WEEK_DAYS = { L_MONDAY, L_TUESDAY, L_WENSDAY, L_THURSDAY, L_FRIDAY, L_SATURDAY, L_SUNDAY };
 
     private static final Map<Integer, String> DAY_OF_WEEK = buildDayNumToNameMap();
@@ -162,29 +162,12 @@ public class ShiftsServiceImpl implements ShiftsService {
     @Override
     public Optional<DateTime> getNearestWorkingDate(DateTime dateFrom, Entity productionLine) {
         List<Shift> shifts = findAll(productionLine);
-        List<DateTimeRange> finalShiftWorkTimes = Lists.newArrayList();
-
-        DateTime currentDate = dateFrom.minusDays(1);
 
         if (shifts.stream().noneMatch(shift -> checkShiftWorkingAfterDate(dateFrom, productionLine, shift))) {
             return Optional.empty();
         }
 
-        while (finalShiftWorkTimes.isEmpty()) {
-            for (Shift shift : shifts) {
-                getNearestWorkingDateForShift(shift, productionLine, dateFrom, currentDate, finalShiftWorkTimes);
-            }
-
-            currentDate = currentDate.plusDays(1);
-        }
-
-        DateTime result = finalShiftWorkTimes.stream().min(Comparator.comparing(DateTimeRange::getFrom)).get().getFrom();
-
-        if (result.compareTo(dateFrom) <= 0) {
-            return Optional.of(dateFrom);
-        }
-
-        return Optional.of(result);
+        return workingTimeCalendarService.findNearestWorkingDate(productionLine, dateFrom);
     }
 
     private void getNearestWorkingDateForShift(final Shift shift, final Entity productionLine, final DateTime dateFrom,
@@ -347,37 +330,8 @@ public class ShiftsServiceImpl implements ShiftsService {
             return Date.from(dateFrom.toInstant().plusSeconds(seconds));
         }
 
-        DateTime dateFromDT = new DateTime(dateFrom, DateTimeZone.getDefault());
-
-        List<Shift> shifts = findAll(productionLine);
-        DateTime dateOfDay = new DateTime(dateFrom);
-        dateOfDay = dateOfDay.minusDays(1);
-        dateOfDay = dateOfDay.toLocalDate().toDateTimeAtStartOfDay();
-        long leftMilliseconds = seconds * MILLS;
-        int loopCount = 0;
-        while (leftMilliseconds > 0L) {
-            if (loopCount > MAX_LOOPS) {
-                return Date.from(dateFrom.toInstant().plusSeconds(seconds));
-            }
-            for (Shift shift : shifts) {
-                for (DateTimeRange range : shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay, true)) {
-                    if (dateFrom.after(dateOfDay.toDate())) {
-                        range = range.trimBefore(dateFromDT);
-                    }
-                    if (range != null) {
-                        if (leftMilliseconds > range.durationMillis()) {
-                            leftMilliseconds = leftMilliseconds - range.durationMillis();
-                        } else {
-                            return range.getFrom().plusMillis((int) leftMilliseconds).toDate();
-                        }
-                    }
-                }
-            }
-            loopCount++;
-            dateOfDay = dateOfDay.plusDays(1);
-        }
-
-        return Date.from(dateFrom.toInstant().plusSeconds(seconds));
+        return workingTimeCalendarService.addWorkingSeconds(productionLine, dateFrom, seconds)
+                .orElseGet(() -> Date.from(dateFrom.toInstant().plusSeconds(seconds)));
     }
 
     @Override
@@ -386,25 +340,8 @@ public class ShiftsServiceImpl implements ShiftsService {
             return (dateTo.getTime() - dateFrom.getTime()) / 1000;
         }
 
-        long totalAvailableTime = 0;
-
-        List<Shift> shifts = findAll(productionLine);
-        DateTime dateOfDay = new DateTime(dateFrom);
-        int loopCount = 0;
-        while (!dateOfDay.isAfter(new DateTime(dateTo))) {
-            if (loopCount > MAX_LOOPS) {
-                return (dateTo.getTime() - dateFrom.getTime()) / 1000;
-            }
-            for (Shift shift : shifts) {
-                for (DateTimeRange range : shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay, false)) {
-                    totalAvailableTime += range.durationMillis();
-                }
-            }
-            loopCount++;
-            dateOfDay = dateOfDay.plusDays(1);
-        }
-
-        return totalAvailableTime / 1000;
+        return workingTimeCalendarService.getWorkingSeconds(productionLine, dateFrom, dateTo, false)
+                .orElseGet(() -> (dateTo.getTime() - dateFrom.getTime()) / 1000);
     }
 
     @Override
@@ -0,0 +1,289 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendar;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.mes.basic.util.IntervalSet;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Keeps working time calendars of production lines built from shifts and timetable exceptions. Calendars are built once per
+ * production line and horizon, extended when a later date is requested, and dropped when a change of shifts, timetable
+ * exceptions or production lines is committed.
+ */
+@Service
+public class WorkingTimeCalendarService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkingTimeCalendarService.class);
+
+    private static final int MIN_DAYS = 31;
+
+    private static final int MAX_DAYS = 1000;
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private ShiftExceptionService shiftExceptionService;
+
+    private final Map<CalendarKey, WorkingTimeCalendar> calendars = new ConcurrentHashMap<>();
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Drops all calendars once the current transaction commits, so calendars rebuilt in the meantime from data not yet
+     * committed are dropped too. Outside of a transaction calendars are dropped right away.
+     */
+    public void invalidate() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    clear();
+                }
+            });
+        } else {
+            clear();
+        }
+    }
+
+    private void clear() {
+        version.incrementAndGet();
+
+        calendars.clear();
+    }
+
+    /**
+     * Returns date at which given working time, counted from the given date, is completed, or empty when there are no shifts or
+     * the working time doesn't fit in the calendar limit.
+     */
+    public Optional<Date> addWorkingSeconds(final Entity productionLine, final Date dateFrom, final long seconds) {
+        long from = dateFrom.getTime();
+
+        for (int days = MIN_DAYS;; days = Math.min(days * 2, MAX_DAYS)) {
+            Optional<WorkingTimeCalendar> maybeCalendar = getCalendar(productionLine, true, from, plusDays(from, days));
+
+            if (!maybeCalendar.isPresent()) {
+                return Optional.empty();
+            }
+
+            Optional<Long> dateTo = maybeCalendar.get().addWorkingMillis(from, seconds * 1000L);
+
+            if (dateTo.isPresent()) {
+                return Optional.of(new Date(dateTo.get()));
+            }
+
+            if (days == MAX_DAYS) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    /**
+     * Returns working time between given dates in seconds, or empty when there are no shifts or the dates are too far apart.
+     */
+    public Optional<Long> getWorkingSeconds(final Entity productionLine, final Date dateFrom, final Date dateTo,
+            final boolean removeFreeTimeException) {
+        long from = dateFrom.getTime();
+        long to = Math.max(from, dateTo.getTime());
+
+        if (to > plusDays(from, MAX_DAYS)) {
+            return Optional.empty();
+        }
+
+        return getCalendar(productionLine, removeFreeTimeException, from, to)
+                .map(calendar -> calendar.getWorkingMillis(from, to) / 1000L);
+    }
+
+    /**
+     * Returns working intervals between given dates, or empty set when there are no shifts. Dates further apart than the calendar
+     * limit are cut at the limit.
+     */
+    public IntervalSet getWorkingIntervals(final Entity productionLine, final Date dateFrom, final Date dateTo,
+            final boolean removeFreeTimeException) {
+        long from = dateFrom.getTime();
+        long to = Math.min(Math.max(from, dateTo.getTime()), plusDays(from, MAX_DAYS));
+
+        return getCalendar(productionLine, removeFreeTimeException, from, to)
+                .map(calendar -> calendar.getWorkingIntervals(from, to)).orElse(IntervalSet.EMPTY);
+    }
+
+    /**
+     * Returns the given date if the production line works at it, otherwise start of its next working time, or empty when there
+     * is no working time in the calendar limit.
+     */
+    public Optional<DateTime> findNearestWorkingDate(final Entity productionLine, final DateTime dateFrom) {
+        long from = dateFrom.getMillis();
+
+        for (int days = MIN_DAYS;; days = Math.min(days * 2, MAX_DAYS)) {
+            Optional<WorkingTimeCalendar> maybeCalendar = getCalendar(productionLine, true, from, plusDays(from, days));
+
+            if (!maybeCalendar.isPresent()) {
+                return Optional.empty();
+            }
+
+            Optional<Long> nearestWorkingTime = maybeCalendar.get().findNearestWorkingTime(from);
+
+            if (nearestWorkingTime.isPresent()) {
+                return Optional.of(new DateTime(nearestWorkingTime.get(), dateFrom.getZone()));
+            }
+
+            if (days == MAX_DAYS) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    private Optional<WorkingTimeCalendar> getCalendar(final Entity productionLine, final boolean removeFreeTimeException,
+            final long from, final long to) {
+        CalendarKey key = new CalendarKey(MultiTenantUtil.getCurrentTenantId(),
+                Objects.isNull(productionLine) ? null : productionLine.getId(), removeFreeTimeException);
+
+        WorkingTimeCalendar calendar = calendars.get(key);
+
+        if (Objects.nonNull(calendar) && calendar.covers(from, to)) {
+            return Optional.of(calendar);
+        }
+
+        long currentVersion = version.get();
+
+        List<Shift> shifts = shiftsService.findAll(productionLine);
+
+        if (shifts.isEmpty()) {
+            return Optional.empty();
+        }
+
+        long horizonFrom = startOfDay(from);
+        long horizonTo = plusDays(startOfDay(to), 1);
+
+        if (Objects.nonNull(calendar) && calendar.getHorizonFrom() <= horizonTo && horizonFrom <= calendar.getHorizonTo()
+                && Math.max(horizonTo, calendar.getHorizonTo()) <= plusDays(Math.min(horizonFrom, calendar.getHorizonFrom()),
+                        2 * MAX_DAYS)) {
+            horizonFrom = Math.min(horizonFrom, calendar.getHorizonFrom());
+            horizonTo = Math.max(horizonTo, calendar.getHorizonTo());
+        }
+
+        calendar = buildCalendar(productionLine, shifts, removeFreeTimeException, horizonFrom, horizonTo);
+
+        if (version.get() == currentVersion) {
+            calendars.put(key, calendar);
+        }
+
+        return Optional.of(calendar);
+    }
+
+    private WorkingTimeCalendar buildCalendar(final Entity productionLine, final List<Shift> shifts,
+            final boolean removeFreeTimeException, final long horizonFrom, final long horizonTo) {
+        List<DateTimeRange> ranges = Lists.newArrayList();
+
+        DateTime dateOfDay = new DateTime(horizonFrom).minusDays(1);
+
+        while (dateOfDay.getMillis() < horizonTo) {
+            for (Shift shift : shifts) {
+                ranges.addAll(shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay,
+                        removeFreeTimeException));
+            }
+
+            dateOfDay = dateOfDay.plusDays(1);
+        }
+
+        WorkingTimeCalendar calendar = WorkingTimeCalendar.build(horizonFrom, horizonTo, ranges);
+
+        LOG.debug("Working time calendar built: productionLine = {}, from = {}, to = {}, intervals = {}",
+                Objects.isNull(productionLine) ? null : productionLine.getId(), new Date(horizonFrom), new Date(horizonTo),
+                calendar.size());
+
+        return calendar;
+    }
+
+    private long startOfDay(final long date) {
+        return new DateTime(date).withTimeAtStartOfDay().getMillis();
+    }
+
+    private long plusDays(final long date, final int days) {
+        return new DateTime(date).plusDays(days).getMillis();
+    }
+
+    private static final class CalendarKey {
+
+        private final int tenantId;
+
+        private final Long productionLineId;
+
+        private final boolean removeFreeTimeException;
+
+        private CalendarKey(final int tenantId, final Long productionLineId, final boolean removeFreeTimeException) {
+            this.tenantId = tenantId;
+            this.productionLineId = productionLineId;
+            this.removeFreeTimeException = removeFreeTimeException;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+
+            CalendarKey other = (CalendarKey) obj;
+
+            return new EqualsBuilder().append(tenantId, other.tenantId).append(productionLineId, other.productionLineId)
+                    .append(removeFreeTimeException, other.removeFreeTimeException).isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder().append(tenantId).append(productionLineId).append(removeFreeTimeException)
+                    .toHashCode();
+        }
+
+    }
+
+}
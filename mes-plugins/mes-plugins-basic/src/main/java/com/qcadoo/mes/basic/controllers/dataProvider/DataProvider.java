@@ -8,6 +8,8 @@ import com.qcadoo.mes.basic.constants.WorkstationFields;
 import com.qcadoo.mes.basic.controllers.dataProvider.dto.*;
 import com.qcadoo.mes.basic.controllers.dataProvider.requests.FaultTypeRequest;
 import com.qcadoo.mes.basic.controllers.dataProvider.responses.*;
+import com.qcadoo.mes.basic.product.ProductSearchResult;
+import com.qcadoo.mes.basic.product.ProductSearchService;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.DictionaryService;
 import com.qcadoo.model.api.Entity;
@@ -37,17 +39,12 @@ public class DataProvider {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
-    public static final int MAX_RESULTS = 20;
+    @Autowired
+    private ProductSearchService productSearchService;
 
-    private String prepareProductsQuery() {
-        return "SELECT product.id AS id, product.number AS code, product.number AS number, product.unit AS unit, product.name AS name "
-                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query ;";
-    }
+    public static final int MAX_RESULTS = 20;
 
-    private String prepareProductsQueryWithLimit(int limit) {
-        return "SELECT product.id AS id, product.number AS code, product.number AS number, product.unit AS unit, product.name AS name "
-                + "FROM basic_product product WHERE product.active = true AND product.number ilike :query LIMIT " + limit + ";";
-    }
+    public static final int MAX_COUNT = 1000;
 
     private String preparePalletNumbersQuery() {
         return "SELECT palletnumber.id AS id, palletnumber.number AS code, palletnumber.number AS number "
@@ -79,7 +76,8 @@ public class DataProvider {
     }
 
     private int countQueryResults(final String preparedQuery, final String query, final Map<String, Object> paramMap) {
-        String countQuery = "SELECT count(*) AS cnt FROM (" + preparedQuery.replace(";", "") + ") sq;";
+        String countQuery = "SELECT count(*) AS cnt FROM (SELECT 1 FROM (" + preparedQuery.replace(";", "") + ") q LIMIT "
+                + MAX_COUNT + ") sq;";
 
         String ilikeQuery = buildConditionParameterForIlike(query);
         paramMap.put("query", ilikeQuery);
@@ -88,7 +86,14 @@ public class DataProvider {
     }
 
     public DataResponse getProductsResponseByQuery(final String query) {
-        return getDataResponse(query, prepareProductsQuery(), getProductsByQuery(query), Maps.newHashMap());
+        ProductSearchResult searchResult = productSearchService.search(buildConditionParameterForIlike(query), MAX_RESULTS,
+                MAX_COUNT);
+
+        if (searchResult.getCount() > MAX_RESULTS) {
+            return new DataResponse(Lists.newArrayList(), searchResult.getCount());
+        }
+
+        return new DataResponse(searchResult.getProducts(), searchResult.getCount());
     }
 
     public DataResponse getPalletNumbersResponseByQuery(final String query) {
@@ -127,19 +132,9 @@ public class DataProvider {
     }
 
     public DataResponse getProductsTypeahead(String query) {
-        StringBuilder queryBuilder = new StringBuilder();
-        queryBuilder
-                .append("SELECT product.id AS id, product.number AS code, product.number AS number, product.unit AS unit, product.name AS name ");
-        queryBuilder
-                .append("FROM basic_product product WHERE product.active = true AND product.number ilike :query ORDER BY product.number ASC LIMIT 10 ");
-
-        Map<String, Object> parameters = Maps.newHashMap();
-
         String ilikeQuery = "%" + query + "%";
-        parameters.put("query", ilikeQuery);
 
-        List<ProductDTO> products = jdbcTemplate.query(queryBuilder.toString(), parameters, new BeanPropertyRowMapper(
-                ProductDTO.class));
+        List<ProductDTO> products = productSearchService.search(ilikeQuery, 10, 10).getProducts();
         return new DataResponse(products, products.size());
     }
 
@@ -180,16 +175,10 @@ public class DataProvider {
     }
 
     public List<AbstractDTO> getProductsByQuery(final String query) {
-        String _query = prepareProductsQueryWithLimit(MAX_RESULTS);
-
-        Map<String, Object> parameters = Maps.newHashMap();
-
         String ilikeQuery = buildConditionParameterForIlike(query);
-        parameters.put("query", ilikeQuery);
-
-        SqlParameterSource nParameters = new MapSqlParameterSource(parameters);
 
-        List<AbstractDTO> products = jdbcTemplate.query(_query, nParameters, new BeanPropertyRowMapper(ProductDTO.class));
+        List<AbstractDTO> products = Lists.newArrayList(productSearchService.search(ilikeQuery, MAX_RESULTS, MAX_RESULTS)
+                .getProducts());
 
         return products;
     }
@@ -23,6 +23,7 @@
  */
 package com.qcadoo.mes.basic.hooks;
 
+import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.CurrencyFields;
 import com.qcadoo.mes.basic.constants.ParameterFields;
 import com.qcadoo.mes.basic.util.CurrencyService;
@@ -47,7 +48,12 @@ public class ParameterModelHooks {
     @Autowired
     private CurrencyService currencyService;
 
+    @Autowired
+    private ParameterService parameterService;
+
     public void onSave(final DataDefinition parameterDD, final Entity parameter) {
+        parameterService.invalidateParameterSnapshot();
+
         if (Objects.isNull(parameter.getId())) {
             return;
         }
@@ -25,6 +25,7 @@ package com.qcadoo.mes.basic.hooks;
 
 import com.qcadoo.mes.basic.ProductService;
 import com.qcadoo.mes.basic.constants.*;
+import com.qcadoo.mes.basic.product.ProductSearchService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -50,6 +51,9 @@ public class ProductHooks {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private ProductSearchService productSearchService;
+
     public void onCreate(final DataDefinition productDD, final Entity product) {
         productService.fillUnit(productDD, product);
         calculateConversionOnCreate(product);
@@ -68,6 +72,14 @@ public class ProductHooks {
 
     public void onSave(final DataDefinition productDD, final Entity product) {
         updateModelAndAssortment(productDD, product);
+
+        productSearchService.invalidate(product.getId());
+    }
+
+    public boolean onDelete(final DataDefinition productDD, final Entity product) {
+        productSearchService.invalidate(product.getId());
+
+        return true;
     }
 
     private void updateModelAndAssortment(final DataDefinition productDD, final Entity product) {
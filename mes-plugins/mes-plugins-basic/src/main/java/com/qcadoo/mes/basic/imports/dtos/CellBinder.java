@@ -103,7 +103,7 @@ public abstract class CellBinder {
 
     public abstract void bind(final String cellValue, final Entity entity, final CellErrorsAccessor errorsAccessor);
 
-    private static String formatCell(final Cell cell) {
+    public static String formatCell(final Cell cell) {
         Locale locale = LocaleContextHolder.getLocale();
 
         final DataFormatter dataFormatter = new DataFormatter(Objects.isNull(locale) ? Locale.getDefault() : locale);
@@ -111,7 +111,7 @@ public abstract class CellBinder {
         return dataFormatter.formatCellValue(cell).trim();
     }
 
-    private static String formatCell(final String cellValue) {
+    public static String formatCell(final String cellValue) {
         return cellValue.trim();
     }
 
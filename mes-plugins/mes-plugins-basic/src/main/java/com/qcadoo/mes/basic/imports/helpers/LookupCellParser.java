@@ -0,0 +1,99 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.imports.helpers;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+/**
+ * Cell parser resolving the cell value to an entity by its lookup field.
+ *
+ * While an import is in progress the resolved entities are kept in a cache bound to the importing thread, so rows of a chunk
+ * can be resolved with one query using {@link #prefetch(Collection)} instead of one query per cell.
+ */
+public abstract class LookupCellParser implements CellParser {
+
+    private static final int L_MAX_VALUES_PER_QUERY = 1000;
+
+    private final ThreadLocal<Map<String, Optional<Entity>>> cache = new ThreadLocal<>();
+
+    public void startCaching() {
+        cache.set(Maps.newHashMap());
+    }
+
+    public void stopCaching() {
+        cache.remove();
+    }
+
+    public void prefetch(final Collection<String> values) {
+        Map<String, Optional<Entity>> cachedEntities = cache.get();
+
+        if (Objects.isNull(cachedEntities)) {
+            return;
+        }
+
+        List<String> valuesToFetch = values.stream().filter(StringUtils::isNotEmpty)
+                .filter(value -> !cachedEntities.containsKey(value)).distinct().collect(Collectors.toList());
+
+        for (List<String> partition : Lists.partition(valuesToFetch, L_MAX_VALUES_PER_QUERY)) {
+            List<Entity> entities = getDataDefinition().find().add(SearchRestrictions.in(getLookupFieldName(), partition))
+                    .list().getEntities();
+
+            partition.forEach(value -> cachedEntities.put(value, Optional.empty()));
+            entities.forEach(entity -> cachedEntities.put(entity.getStringField(getLookupFieldName()), Optional.of(entity)));
+        }
+    }
+
+    protected Entity getEntity(final String value) {
+        Map<String, Optional<Entity>> cachedEntities = cache.get();
+
+        if (Objects.isNull(cachedEntities)) {
+            return getEntityByLookupField(value);
+        }
+
+        return cachedEntities.computeIfAbsent(value, key -> Optional.ofNullable(getEntityByLookupField(key))).orElse(null);
+    }
+
+    private Entity getEntityByLookupField(final String value) {
+        return getDataDefinition().find().add(SearchRestrictions.eq(getLookupFieldName(), value)).setMaxResults(1)
+                .uniqueResult();
+    }
+
+    protected abstract DataDefinition getDataDefinition();
+
+    protected abstract String getLookupFieldName();
+
+}
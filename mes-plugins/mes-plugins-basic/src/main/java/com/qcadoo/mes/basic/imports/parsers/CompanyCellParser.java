@@ -32,14 +32,13 @@ import org.springframework.stereotype.Component;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.CompanyFields;
 import com.qcadoo.mes.basic.imports.helpers.CellErrorsAccessor;
-import com.qcadoo.mes.basic.imports.helpers.CellParser;
+import com.qcadoo.mes.basic.imports.helpers.LookupCellParser;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Component
-public class CompanyCellParser implements CellParser {
+public class CompanyCellParser extends LookupCellParser {
 
     private static final String L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND = "qcadooView.validate.field.error.lookupCodeNotFound";
 
@@ -49,7 +48,7 @@ public class CompanyCellParser implements CellParser {
     @Override
     public void parse(final String cellValue, final String dependentCellValue, final CellErrorsAccessor errorsAccessor,
             final Consumer<Object> valueConsumer) {
-        Entity company = getCompanyByNumber(cellValue);
+        Entity company = getEntity(cellValue);
 
         if (Objects.isNull(company)) {
             errorsAccessor.addError(L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND);
@@ -58,12 +57,14 @@ public class CompanyCellParser implements CellParser {
         }
     }
 
-    private Entity getCompanyByNumber(final String number) {
-        return getCompanyDD().find().add(SearchRestrictions.eq(CompanyFields.NUMBER, number)).setMaxResults(1).uniqueResult();
+    @Override
+    protected DataDefinition getDataDefinition() {
+        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_COMPANY);
     }
 
-    private DataDefinition getCompanyDD() {
-        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_COMPANY);
+    @Override
+    protected String getLookupFieldName() {
+        return CompanyFields.NUMBER;
     }
 
 }
@@ -32,14 +32,13 @@ import org.springframework.stereotype.Component;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.WorkstationFields;
 import com.qcadoo.mes.basic.imports.helpers.CellErrorsAccessor;
-import com.qcadoo.mes.basic.imports.helpers.CellParser;
+import com.qcadoo.mes.basic.imports.helpers.LookupCellParser;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Component
-public class WorkstationCellParser implements CellParser {
+public class WorkstationCellParser extends LookupCellParser {
 
     private static final String L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND = "qcadooView.validate.field.error.lookupCodeNotFound";
 
@@ -49,7 +48,7 @@ public class WorkstationCellParser implements CellParser {
     @Override
     public void parse(final String cellValue, final String dependentCellValue, final CellErrorsAccessor errorsAccessor,
             final Consumer<Object> valueConsumer) {
-        Entity workstation = getWorkstationByNumber(cellValue);
+        Entity workstation = getEntity(cellValue);
 
         if (Objects.isNull(workstation)) {
             errorsAccessor.addError(L_QCADOO_VIEW_VALIDATE_FIELD_ERROR_LOOKUP_CODE_NOT_FOUND);
@@ -58,13 +57,14 @@ public class WorkstationCellParser implements CellParser {
         }
     }
 
-    private Entity getWorkstationByNumber(final String number) {
-        return getWorkstationDD().find().add(SearchRestrictions.eq(WorkstationFields.NUMBER, number)).setMaxResults(1)
-                .uniqueResult();
+    @Override
+    protected DataDefinition getDataDefinition() {
+        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_WORKSTATION);
     }
 
-    private DataDefinition getWorkstationDD() {
-        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_WORKSTATION);
+    @Override
+    protected String getLookupFieldName() {
+        return WorkstationFields.NUMBER;
     }
 
 }
@@ -23,16 +23,20 @@
  */
 package com.qcadoo.mes.basic.imports.services;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.opencsv.CSVParser;
 import com.opencsv.CSVParserBuilder;
 import com.opencsv.CSVReader;
 import com.opencsv.CSVReaderBuilder;
+import com.qcadoo.mes.basic.imports.dtos.CellBinder;
 import com.qcadoo.mes.basic.imports.dtos.CellBinderRegistry;
 import com.qcadoo.mes.basic.imports.dtos.ImportStatus;
+import com.qcadoo.mes.basic.imports.helpers.LookupCellParser;
 import com.qcadoo.mes.basic.imports.helpers.RowProcessorHelper;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchCriterion;
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
@@ -41,6 +45,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
 
@@ -60,45 +65,65 @@ public class CsvImportService extends ImportService {
         CSVParser parser = new CSVParserBuilder().withSeparator(';').build();
         CSVReader csvReader = new CSVReaderBuilder(new InputStreamReader(fis)).withCSVParser(parser).withSkipLines(1).build();
 
-        List<String[]> rows = csvReader.readAll();
+        Map<Integer, LookupCellParser> lookupCellParsers = getLookupCellParsers(cellBinderRegistry);
 
-        int rowIndex = 0;
+        lookupCellParsers.values().forEach(LookupCellParser::startCaching);
 
-        for (String[] row : rows) {
-            Entity entity = createEntity(pluginIdentifier, modelName);
+        try {
+            int rowIndex = 0;
+            boolean finished = false;
 
-            if (Objects.nonNull(belongsTo) && Objects.nonNull(belongsToName)) {
-                entity.setField(belongsToName, belongsTo);
-            }
+            List<String[]> rows = readRows(csvReader);
 
-            RowProcessorHelper rowProcessorService = new RowProcessorHelper(entity, cellBinderRegistry, importStatus, rowIndex);
+            while (!finished && !rows.isEmpty()) {
+                prefetchLookups(lookupCellParsers, rows, this::getCellValue);
 
-            for (int columnIndex = 0; columnIndex < cellBinderRegistry.getSize(); columnIndex++) {
-                rowProcessorService.append(row[columnIndex]);
-            }
+                for (String[] row : rows) {
+                    Entity entity = createEntity(pluginIdentifier, modelName);
 
-            if (rowProcessorService.isEmpty()) {
-                break;
-            }
+                    if (Objects.nonNull(belongsTo) && Objects.nonNull(belongsToName)) {
+                        entity.setField(belongsToName, belongsTo);
+                    }
 
-            if (shouldSkip && !Objects.isNull(criteriaSupplier)) {
-                Entity entityToSkip = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
-                if (!Objects.isNull(entityToSkip)) {
-                    continue;
-                }
-            }
+                    RowProcessorHelper rowProcessorService = new RowProcessorHelper(entity, cellBinderRegistry, importStatus,
+                            rowIndex);
 
-            if (shouldUpdate && !Objects.isNull(criteriaSupplier)) {
-                Entity entityToUpdate = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
+                    for (int columnIndex = 0; columnIndex < cellBinderRegistry.getSize(); columnIndex++) {
+                        rowProcessorService.append(row[columnIndex]);
+                    }
 
-                rowProcessorService.update(entityToUpdate, checkOnUpdate);
-            }
+                    if (rowProcessorService.isEmpty()) {
+                        finished = true;
+
+                        break;
+                    }
+
+                    if (shouldSkip && !Objects.isNull(criteriaSupplier)) {
+                        Entity entityToSkip = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
+                        if (!Objects.isNull(entityToSkip)) {
+                            continue;
+                        }
+                    }
+
+                    if (shouldUpdate && !Objects.isNull(criteriaSupplier)) {
+                        Entity entityToUpdate = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
+
+                        rowProcessorService.update(entityToUpdate, checkOnUpdate);
+                    }
+
+                    validateEntity(entity, entity.getDataDefinition());
+
+                    rowProcessorService.process();
 
-            validateEntity(entity, entity.getDataDefinition());
+                    rowIndex++;
+                }
 
-            rowProcessorService.process();
+                logImportProgress(modelName, importStatus);
 
-            rowIndex++;
+                rows = readRows(csvReader);
+            }
+        } finally {
+            lookupCellParsers.values().forEach(LookupCellParser::stopCaching);
         }
 
         if (rollbackOnError && importStatus.hasErrors()) {
@@ -108,6 +133,26 @@ public class CsvImportService extends ImportService {
         return importStatus;
     }
 
+    private List<String[]> readRows(final CSVReader csvReader) throws IOException {
+        List<String[]> rows = Lists.newArrayList();
+
+        String[] row;
+
+        while (rows.size() < CHUNK_SIZE && Objects.nonNull(row = csvReader.readNext())) {
+            rows.add(row);
+        }
+
+        return rows;
+    }
+
+    private String getCellValue(final String[] row, final Integer columnIndex) {
+        if (columnIndex >= row.length || StringUtils.isEmpty(row[columnIndex])) {
+            return null;
+        }
+
+        return CellBinder.formatCell(row[columnIndex]);
+    }
+
     public boolean checkFileExtension(final String filePath) {
         return Files.getFileExtension(filePath).equalsIgnoreCase(L_CSV);
     }
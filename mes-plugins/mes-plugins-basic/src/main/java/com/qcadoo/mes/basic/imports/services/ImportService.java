@@ -32,6 +32,8 @@ import com.qcadoo.mes.basic.constants.LogFields;
 import com.qcadoo.mes.basic.imports.dtos.CellBinderRegistry;
 import com.qcadoo.mes.basic.imports.dtos.ImportError;
 import com.qcadoo.mes.basic.imports.dtos.ImportStatus;
+import com.qcadoo.mes.basic.imports.helpers.CellParser;
+import com.qcadoo.mes.basic.imports.helpers.LookupCellParser;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -58,9 +60,12 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public abstract class ImportService {
@@ -117,6 +122,7 @@ public abstract class ImportService {
 
     public static final String L_XLSX = "xlsx";
 
+    protected static final int CHUNK_SIZE = 500;
 
     @Autowired
     private DataDefinitionService dataDefinitionService;
@@ -292,6 +298,33 @@ public abstract class ImportService {
     public void validateEntity(final Entity entity, final DataDefinition entityDD) {
     }
 
+    protected Map<Integer, LookupCellParser> getLookupCellParsers(final CellBinderRegistry cellBinderRegistry) {
+        Map<Integer, LookupCellParser> lookupCellParsers = Maps.newHashMap();
+
+        for (int columnIndex = 0; columnIndex < cellBinderRegistry.getSize(); columnIndex++) {
+            CellParser cellParser = cellBinderRegistry.getCellBinder(columnIndex).getCellParser();
+
+            if (cellParser instanceof LookupCellParser) {
+                lookupCellParsers.put(columnIndex, (LookupCellParser) cellParser);
+            }
+        }
+
+        return lookupCellParsers;
+    }
+
+    protected <R> void prefetchLookups(final Map<Integer, LookupCellParser> lookupCellParsers, final List<R> rows,
+            final BiFunction<R, Integer, String> cellValueExtractor) {
+        lookupCellParsers.forEach((columnIndex, lookupCellParser) -> lookupCellParser.prefetch(rows.stream()
+                .map(row -> cellValueExtractor.apply(row, columnIndex)).filter(Objects::nonNull).collect(Collectors.toList())));
+    }
+
+    protected void logImportProgress(final String modelName, final ImportStatus importStatus) {
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Import of {}: {} rows processed, {} rows with errors", modelName, importStatus.getRowsProcessed(),
+                    importStatus.getErrorsSize());
+        }
+    }
+
     public DataDefinition getDataDefinition(final String pluginIdentifier, final String modelName) {
         return dataDefinitionService.get(pluginIdentifier, modelName);
     }
@@ -23,14 +23,17 @@
  */
 package com.qcadoo.mes.basic.imports.services;
 
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.qcadoo.mes.basic.imports.dtos.CellBinder;
 import com.qcadoo.mes.basic.imports.dtos.CellBinderRegistry;
 import com.qcadoo.mes.basic.imports.dtos.ImportStatus;
+import com.qcadoo.mes.basic.imports.helpers.LookupCellParser;
 import com.qcadoo.mes.basic.imports.helpers.RowProcessorHelper;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchCriterion;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
@@ -40,6 +43,8 @@ import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.function.Function;
 
@@ -59,53 +64,69 @@ public class XlsxImportService extends ImportService {
         XSSFWorkbook workbook = new XSSFWorkbook(fis);
         XSSFSheet sheet = workbook.getSheetAt(0);
 
-        for (int rowIndex = 1; rowIndex <= sheet.getLastRowNum(); rowIndex++) {
-            Row row = sheet.getRow(rowIndex);
+        Map<Integer, LookupCellParser> lookupCellParsers = getLookupCellParsers(cellBinderRegistry);
 
-            if (Objects.isNull(row)) {
-                break;
-            }
+        lookupCellParsers.values().forEach(LookupCellParser::startCaching);
 
-            Entity entity = createEntity(pluginIdentifier, modelName);
+        try {
+            for (int rowIndex = 1; rowIndex <= sheet.getLastRowNum(); rowIndex++) {
+                if ((rowIndex - 1) % CHUNK_SIZE == 0) {
+                    if (rowIndex > 1) {
+                        logImportProgress(modelName, importStatus);
+                    }
 
-            if (Objects.nonNull(belongsTo) && Objects.nonNull(belongsToName)) {
-                entity.setField(belongsToName, belongsTo);
-            }
+                    prefetchLookups(lookupCellParsers, getRows(sheet, rowIndex), this::getCellValue);
+                }
+
+                Row row = sheet.getRow(rowIndex);
 
-            RowProcessorHelper rowProcessorHelper = new RowProcessorHelper(entity, cellBinderRegistry, importStatus, rowIndex);
-
-            for (int columnIndex = 0; columnIndex < cellBinderRegistry.getSize(); columnIndex++) {
-                CellBinder cell = cellBinderRegistry.getCellBinder(columnIndex);
-                String dependentFieldName = cell.getDependentFieldName();
-                if (StringUtils.isEmpty(dependentFieldName)) {
-                    rowProcessorHelper.append(row.getCell(columnIndex, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL));
-                } else {
-                    int dependentIndex = getDependentIndex(dependentFieldName, cellBinderRegistry);
-                    rowProcessorHelper.append(row.getCell(columnIndex, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL),
-                            row.getCell(dependentIndex, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL));
+                if (Objects.isNull(row)) {
+                    break;
                 }
-            }
 
-            if (rowProcessorHelper.isEmpty()) {
-                break;
-            }
+                Entity entity = createEntity(pluginIdentifier, modelName);
 
-            if (shouldSkip && !Objects.isNull(criteriaSupplier)) {
-                Entity entityToSkip = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
-                if (!Objects.isNull(entityToSkip)) {
-                    continue;
+                if (Objects.nonNull(belongsTo) && Objects.nonNull(belongsToName)) {
+                    entity.setField(belongsToName, belongsTo);
                 }
-            }
 
-            if (shouldUpdate && !Objects.isNull(criteriaSupplier)) {
-                Entity entityToUpdate = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
+                RowProcessorHelper rowProcessorHelper = new RowProcessorHelper(entity, cellBinderRegistry, importStatus, rowIndex);
+
+                for (int columnIndex = 0; columnIndex < cellBinderRegistry.getSize(); columnIndex++) {
+                    CellBinder cell = cellBinderRegistry.getCellBinder(columnIndex);
+                    String dependentFieldName = cell.getDependentFieldName();
+                    if (StringUtils.isEmpty(dependentFieldName)) {
+                        rowProcessorHelper.append(row.getCell(columnIndex, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL));
+                    } else {
+                        int dependentIndex = getDependentIndex(dependentFieldName, cellBinderRegistry);
+                        rowProcessorHelper.append(row.getCell(columnIndex, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL),
+                                row.getCell(dependentIndex, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL));
+                    }
+                }
 
-                rowProcessorHelper.update(entityToUpdate, checkOnUpdate);
-            }
+                if (rowProcessorHelper.isEmpty()) {
+                    break;
+                }
+
+                if (shouldSkip && !Objects.isNull(criteriaSupplier)) {
+                    Entity entityToSkip = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
+                    if (!Objects.isNull(entityToSkip)) {
+                        continue;
+                    }
+                }
+
+                if (shouldUpdate && !Objects.isNull(criteriaSupplier)) {
+                    Entity entityToUpdate = getEntity(pluginIdentifier, modelName, criteriaSupplier.apply(entity));
+
+                    rowProcessorHelper.update(entityToUpdate, checkOnUpdate);
+                }
 
-            validateEntity(entity, entity.getDataDefinition());
+                validateEntity(entity, entity.getDataDefinition());
 
-            rowProcessorHelper.process();
+                rowProcessorHelper.process();
+            }
+        } finally {
+            lookupCellParsers.values().forEach(LookupCellParser::stopCaching);
         }
 
         if (rollbackOnError && importStatus.hasErrors()) {
@@ -115,6 +136,32 @@ public class XlsxImportService extends ImportService {
         return importStatus;
     }
 
+    private List<Row> getRows(final XSSFSheet sheet, final int fromRowIndex) {
+        List<Row> rows = Lists.newArrayList();
+
+        for (int rowIndex = fromRowIndex; rowIndex <= sheet.getLastRowNum() && rows.size() < CHUNK_SIZE; rowIndex++) {
+            Row row = sheet.getRow(rowIndex);
+
+            if (Objects.isNull(row)) {
+                break;
+            }
+
+            rows.add(row);
+        }
+
+        return rows;
+    }
+
+    private String getCellValue(final Row row, final Integer columnIndex) {
+        Cell cell = row.getCell(columnIndex, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
+
+        if (Objects.isNull(cell)) {
+            return null;
+        }
+
+        return CellBinder.formatCell(cell);
+    }
+
     private int getDependentIndex(final String dependentFieldName, final CellBinderRegistry cellBinderRegistry) {
         for (int columnIndex = 0; columnIndex < cellBinderRegistry.getSize(); columnIndex++) {
             if (cellBinderRegistry.getCellBinder(columnIndex).getFieldName().equals(dependentFieldName)) {
@@ -0,0 +1,103 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.jobs;
+
+import java.util.Date;
+
+/**
+ * Duration and outcome statistics of one scheduled job in one tenant, collected by {@link MultiTenantJobRunner}.
+ */
+class MultiTenantJobMetrics {
+
+    private long runs;
+
+    private long failures;
+
+    private long timeouts;
+
+    private long skips;
+
+    private long lastDurationMillis;
+
+    private long maxDurationMillis;
+
+    private long totalDurationMillis;
+
+    private Date lastStartDate;
+
+    private String lastFailureMessage;
+
+    synchronized void started(final Date startDate) {
+        lastStartDate = startDate;
+    }
+
+    synchronized void finished(final long durationMillis, final Throwable failure) {
+        runs++;
+        lastDurationMillis = durationMillis;
+        maxDurationMillis = Math.max(maxDurationMillis, durationMillis);
+        totalDurationMillis += durationMillis;
+
+        if (failure != null) {
+            failures++;
+            lastFailureMessage = failure.toString();
+        }
+    }
+
+    synchronized void timedOut() {
+        timeouts++;
+    }
+
+    synchronized void skipped() {
+        skips++;
+    }
+
+    synchronized long getRuns() {
+        return runs;
+    }
+
+    synchronized long getFailures() {
+        return failures;
+    }
+
+    synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    synchronized long getSkips() {
+        return skips;
+    }
+
+    synchronized long getAverageDurationMillis() {
+        return runs == 0 ? 0 : totalDurationMillis / runs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "runs: " + runs + ", failures: " + failures + ", timeouts: " + timeouts + ", skips: " + skips
+                + ", last duration: " + lastDurationMillis + " ms, average duration: " + getAverageDurationMillis()
+                + " ms, max duration: " + maxDurationMillis + " ms, last start: " + lastStartDate + ", last failure: "
+                + lastFailureMessage;
+    }
+
+}
@@ -0,0 +1,221 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.jobs;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Runs scheduled jobs for all tenants on a bounded pool shared by all jobs, instead of one tenant after another on the
+ * scheduler thread. Each run waits for its tenants until the job timeout passes, then cancels the rest. A job which is still
+ * running for a tenant is not started again for it. Duration and failures are kept per tenant and job, and logged with each
+ * finished, timed out or skipped run.
+ */
+@Service
+public class MultiTenantJobRunner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiTenantJobRunner.class);
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            new ThreadFactoryBuilder().setNameFormat("multiTenantJob-%d").setDaemon(true).build());
+
+    private final Map<String, MultiTenantJobMetrics> metrics = Maps.newConcurrentMap();
+
+    private final Set<String> runningJobs = Sets.newConcurrentHashSet();
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    /**
+     * Runs job in context of each tenant, in parallel, and waits until all tenants are done or timeout passes.
+     *
+     * @param jobName
+     *            name of the job, metrics are kept under it
+     * @param timeout
+     *            time given to all tenants together, should be shorter than interval of the job
+     * @param unit
+     *            unit of timeout
+     * @param callback
+     *            job
+     */
+    public void runForAllTenants(final String jobName, final long timeout, final TimeUnit unit,
+            final MultiTenantCallback callback) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        Map<TenantJob, Future<?>> futures = Maps.newLinkedHashMap();
+
+        for (Integer tenantId : getTenantIds()) {
+            TenantJob tenantJob = new TenantJob(tenantId, jobName, callback);
+
+            if (!runningJobs.add(tenantJob.key)) {
+                MultiTenantJobMetrics jobMetrics = getMetrics(tenantId, jobName);
+
+                jobMetrics.skipped();
+
+                LOG.warn("Job {} is still running for tenant {}, skipped ({})", jobName, tenantId, jobMetrics);
+
+                continue;
+            }
+
+            try {
+                futures.put(tenantJob, executorService.submit(tenantJob));
+            } catch (RejectedExecutionException e) {
+                runningJobs.remove(tenantJob.key);
+
+                LOG.error("Job {} rejected for tenant {}", jobName, tenantId, e);
+            }
+        }
+
+        for (Map.Entry<TenantJob, Future<?>> entry : futures.entrySet()) {
+            TenantJob tenantJob = entry.getKey();
+            Future<?> future = entry.getValue();
+
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                cancel(tenantJob, future);
+
+                LOG.error("Job {} timed out for tenant {} ({})", jobName, tenantJob.tenantId,
+                        getMetrics(tenantJob.tenantId, jobName));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+                futures.forEach(this::cancel);
+
+                return;
+            } catch (ExecutionException e) {
+                LOG.error("Job {} failed for tenant {}", jobName, tenantJob.tenantId, e.getCause());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    Collection<Integer> getTenantIds() {
+        List<Integer> tenantIds = Lists.newArrayList();
+
+        multiTenantService.doInMultiTenantContext(() -> tenantIds.add(MultiTenantUtil.getCurrentTenantId()));
+
+        return tenantIds;
+    }
+
+    private void cancel(final TenantJob tenantJob, final Future<?> future) {
+        if (future.isDone()) {
+            return;
+        }
+
+        future.cancel(true);
+
+        getMetrics(tenantJob.tenantId, tenantJob.jobName).timedOut();
+
+        if (!tenantJob.started) {
+            runningJobs.remove(tenantJob.key);
+        }
+    }
+
+    MultiTenantJobMetrics getMetrics(final int tenantId, final String jobName) {
+        return metrics.computeIfAbsent(getKey(tenantId, jobName), key -> new MultiTenantJobMetrics());
+    }
+
+    private static String getKey(final int tenantId, final String jobName) {
+        return tenantId + "." + jobName;
+    }
+
+    private final class TenantJob implements Runnable {
+
+        private final int tenantId;
+
+        private final String jobName;
+
+        private final String key;
+
+        private final MultiTenantCallback callback;
+
+        private volatile boolean started;
+
+        private TenantJob(final int tenantId, final String jobName, final MultiTenantCallback callback) {
+            this.tenantId = tenantId;
+            this.jobName = jobName;
+            this.key = getKey(tenantId, jobName);
+            this.callback = callback;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+
+            MultiTenantJobMetrics jobMetrics = getMetrics(tenantId, jobName);
+            Throwable failure = null;
+            long start = System.currentTimeMillis();
+
+            jobMetrics.started(new Date(start));
+
+            try {
+                multiTenantService.doInMultiTenantContext(tenantId, callback);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+
+                LOG.error("Job {} failed for tenant {}", jobName, tenantId, e);
+            } finally {
+                long duration = System.currentTimeMillis() - start;
+
+                jobMetrics.finished(duration, failure);
+                runningJobs.remove(key);
+
+                LOG.info("Job {} finished for tenant {} in {} ms ({})", jobName, tenantId, duration, jobMetrics);
+            }
+        }
+
+    }
+
+}
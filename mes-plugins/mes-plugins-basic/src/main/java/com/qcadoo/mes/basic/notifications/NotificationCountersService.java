@@ -0,0 +1,230 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.notifications;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.ImmutableSet;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Keeps notification counters in memory, so notification polls are answered without database queries. Each counter holds
+ * entities to notify about, together with keys (e.g. locations or factories) they concern, and counts entities per key. Model
+ * hooks report changed entities, which are applied after their transaction commits. Counters are loaded on first use and
+ * reloaded periodically, to catch up with changes made outside of model hooks.
+ */
+@Service
+public class NotificationCountersService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NotificationCountersService.class);
+
+    private static final long L_RELOAD_INTERVAL = 10 * 60 * 1000L;
+
+    private final Map<Integer, Map<String, Counter>> counters = new ConcurrentHashMap<>();
+
+    /**
+     * @param name
+     *            counter name
+     * @param keys
+     *            keys to check, or empty collection to check all entities
+     * @param loader
+     *            loads all entities to notify about, with keys they concern
+     * @return true if there is any entity concerning any of given keys
+     */
+    public boolean exists(final String name, final Collection<Long> keys, final Supplier<Map<Long, Set<Long>>> loader) {
+        Counter counter = getCounter(name, loader);
+
+        if (keys.isEmpty()) {
+            return !counter.keysByEntity.isEmpty();
+        }
+
+        return keys.stream().anyMatch(key -> counter.countsByKey.getOrDefault(key, 0) > 0);
+    }
+
+    /**
+     * @param name
+     *            counter name
+     * @param userId
+     *            user id
+     * @param loader
+     *            loads keys of user
+     * @return keys of user, loaded once until {@link #invalidateUserKeys()}
+     */
+    public Set<Long> getUserKeys(final String name, final Long userId, final Function<Long, Set<Long>> loader) {
+        return getTenantCounters().computeIfAbsent(name, counterName -> new Counter()).keysByUser.computeIfAbsent(userId,
+                id -> ImmutableSet.copyOf(loader.apply(id)));
+    }
+
+    /**
+     * Sets keys of entity after transaction commits. Id of new entity is read after commit, when it is already assigned.
+     * Counter is reloaded on next use instead, if entity still has no id.
+     *
+     * @param name
+     *            counter name
+     * @param entity
+     *            saved entity
+     * @param keys
+     *            keys entity concerns, or null if there is no need to notify about entity
+     */
+    public void update(final String name, final Entity entity, final Set<Long> keys) {
+        Map<String, Counter> tenantCounters = getTenantCounters();
+
+        afterCommit(() -> {
+            Counter counter = tenantCounters.get(name);
+
+            if (Objects.isNull(counter)) {
+                return;
+            }
+
+            Long entityId = entity.getId();
+
+            if (Objects.isNull(entityId)) {
+                counter.loadTime = 0L;
+            } else {
+                counter.update(entityId, keys);
+            }
+        });
+    }
+
+    public void remove(final String name, final Long entityId) {
+        if (Objects.isNull(entityId)) {
+            return;
+        }
+
+        Map<String, Counter> tenantCounters = getTenantCounters();
+
+        afterCommit(() -> {
+            Counter counter = tenantCounters.get(name);
+
+            if (Objects.nonNull(counter)) {
+                counter.update(entityId, null);
+            }
+        });
+    }
+
+    public void invalidateUserKeys() {
+        Map<String, Counter> tenantCounters = getTenantCounters();
+
+        afterCommit(() -> tenantCounters.values().forEach(counter -> counter.keysByUser.clear()));
+    }
+
+    private void afterCommit(final Runnable runnable) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    runnable.run();
+                }
+            });
+        } else {
+            runnable.run();
+        }
+    }
+
+    private Map<String, Counter> getTenantCounters() {
+        return counters.computeIfAbsent(getCurrentTenantId(), tenantId -> new ConcurrentHashMap<>());
+    }
+
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
+
+    private Counter getCounter(final String name, final Supplier<Map<Long, Set<Long>>> loader) {
+        Counter counter = getTenantCounters().computeIfAbsent(name, counterName -> new Counter());
+
+        if (counter.loadTime + L_RELOAD_INTERVAL < System.currentTimeMillis()) {
+            synchronized (counter) {
+                if (counter.loadTime + L_RELOAD_INTERVAL < System.currentTimeMillis()) {
+                    counter.load(loader.get());
+
+                    LOG.debug("Notification counter {} loaded with {} entities", name, counter.keysByEntity.size());
+                }
+            }
+        }
+
+        return counter;
+    }
+
+    private static final class Counter {
+
+        private final Map<Long, Set<Long>> keysByUser = new ConcurrentHashMap<>();
+
+        private volatile Map<Long, Set<Long>> keysByEntity = new ConcurrentHashMap<>();
+
+        private volatile Map<Long, Integer> countsByKey = new ConcurrentHashMap<>();
+
+        private volatile long loadTime;
+
+        private synchronized void load(final Map<Long, Set<Long>> entities) {
+            Map<Long, Set<Long>> loadedKeysByEntity = new ConcurrentHashMap<>();
+            Map<Long, Integer> loadedCountsByKey = new ConcurrentHashMap<>();
+
+            entities.forEach((entityId, keys) -> {
+                Set<Long> entityKeys = copyKeys(keys);
+
+                loadedKeysByEntity.put(entityId, entityKeys);
+                entityKeys.forEach(key -> loadedCountsByKey.merge(key, 1, Integer::sum));
+            });
+
+            keysByEntity = loadedKeysByEntity;
+            countsByKey = loadedCountsByKey;
+            loadTime = System.currentTimeMillis();
+        }
+
+        private synchronized void update(final Long entityId, final Set<Long> keys) {
+            Set<Long> previousKeys = keysByEntity.remove(entityId);
+
+            if (Objects.nonNull(previousKeys)) {
+                previousKeys.forEach(key -> countsByKey.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null));
+            }
+
+            if (Objects.nonNull(keys)) {
+                Set<Long> entityKeys = copyKeys(keys);
+
+                keysByEntity.put(entityId, entityKeys);
+                entityKeys.forEach(key -> countsByKey.merge(key, 1, Integer::sum));
+            }
+        }
+
+        private Set<Long> copyKeys(final Set<Long> keys) {
+            return ImmutableSet.copyOf(keys.stream().filter(Objects::nonNull).iterator());
+        }
+
+    }
+
+}
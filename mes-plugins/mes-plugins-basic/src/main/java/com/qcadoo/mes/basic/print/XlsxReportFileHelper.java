@@ -0,0 +1,102 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.report.api.ReportService;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ViewDefinitionState;
+
+/**
+ * Serves xlsx reports written to the file named after the report's file name field. Older reports, generated before the xlsx
+ * files were written, are still printed by {@link ReportService}.
+ */
+@Service
+public class XlsxReportFileHelper {
+
+    private static final Logger LOG = LoggerFactory.getLogger(XlsxReportFileHelper.class);
+
+    public static final String L_XLSX_EXTENSION = ".xlsx";
+
+    private static final String L_FILE_NAME = "fileName";
+
+    private static final String L_XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    @Autowired
+    private ReportService reportService;
+
+    public void printReport(final ViewDefinitionState view, final ComponentState state, final String[] args,
+            final Entity report, final String url, final String pluginIdentifier, final String modelName) {
+        if (hasXlsxFile(report)) {
+            view.redirectTo(url + "?id=" + report.getId(), true, false);
+
+            return;
+        }
+
+        reportService.printGeneratedReport(view, state, new String[] { args[0], pluginIdentifier, modelName });
+    }
+
+    public void writeReport(final Entity report, final HttpServletResponse response) {
+        if (!hasXlsxFile(report)) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+
+            return;
+        }
+
+        File file = getXlsxFile(report);
+
+        response.setContentType(L_XLSX_CONTENT_TYPE);
+        response.setHeader("Content-disposition", "inline; filename=" + file.getName());
+
+        try (InputStream inputStream = new FileInputStream(file)) {
+            IOUtils.copy(inputStream, response.getOutputStream());
+            response.flushBuffer();
+        } catch (IOException e) {
+            LOG.error("Problem with printing report " + file.getName() + " - " + e.getMessage());
+        }
+    }
+
+    private boolean hasXlsxFile(final Entity report) {
+        return Objects.nonNull(report) && Objects.nonNull(report.getStringField(L_FILE_NAME)) && getXlsxFile(report).exists();
+    }
+
+    private File getXlsxFile(final Entity report) {
+        return new File(report.getStringField(L_FILE_NAME) + L_XLSX_EXTENSION);
+    }
+
+}
@@ -0,0 +1,325 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.product;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+
+/**
+ * Immutable trigram index over numbers of active products, answering the same questions as
+ * {@code product.number ilike :query}. Products changed after the index was built are kept in a small overlay, which is merged
+ * into the base index when it grows too large.
+ */
+public final class ProductSearchIndex {
+
+    private static final int MAX_CHANGES = 1000;
+
+    private static final Comparator<ProductDTO> NUMBER_ORDER = Comparator
+            .comparing(ProductDTO::getNumber, String.CASE_INSENSITIVE_ORDER).thenComparing(ProductDTO::getNumber);
+
+    private final ProductDTO[] products;
+
+    private final String[] keys;
+
+    private final Map<Long, int[]> trigrams;
+
+    private final Map<Long, ProductDTO> changes;
+
+    private final List<ProductDTO> changedProducts;
+
+    private final long maxId;
+
+    private ProductSearchIndex(final ProductDTO[] products, final String[] keys, final Map<Long, int[]> trigrams,
+            final Map<Long, ProductDTO> changes, final long maxId) {
+        this.products = products;
+        this.keys = keys;
+        this.trigrams = trigrams;
+        this.changes = changes;
+        this.changedProducts = changes.values().stream().filter(Objects::nonNull).sorted(NUMBER_ORDER)
+                .collect(Collectors.toList());
+        this.maxId = maxId;
+    }
+
+    public static ProductSearchIndex build(final Collection<ProductDTO> activeProducts) {
+        ProductDTO[] products = activeProducts.toArray(new ProductDTO[0]);
+
+        Arrays.sort(products, NUMBER_ORDER);
+
+        String[] keys = new String[products.length];
+        Map<Long, int[]> counts = Maps.newHashMap();
+        long maxId = 0L;
+
+        for (int position = 0; position < products.length; position++) {
+            keys[position] = toKey(products[position].getNumber());
+            maxId = Math.max(maxId, products[position].getId());
+
+            for (long trigram : getTrigrams(keys[position])) {
+                counts.computeIfAbsent(trigram, t -> new int[1])[0]++;
+            }
+        }
+
+        Map<Long, int[]> trigrams = Maps.newHashMapWithExpectedSize(counts.size());
+        Map<Long, int[]> fills = Maps.newHashMapWithExpectedSize(counts.size());
+
+        counts.forEach((trigram, count) -> {
+            trigrams.put(trigram, new int[count[0]]);
+            fills.put(trigram, new int[1]);
+        });
+
+        for (int position = 0; position < products.length; position++) {
+            for (long trigram : getTrigrams(keys[position])) {
+                int[] positions = trigrams.get(trigram);
+                int[] fill = fills.get(trigram);
+
+                if ((fill[0] == 0) || (positions[fill[0] - 1] != position)) {
+                    positions[fill[0]++] = position;
+                }
+            }
+        }
+
+        fills.forEach((trigram, fill) -> {
+            int[] positions = trigrams.get(trigram);
+
+            if (fill[0] < positions.length) {
+                trigrams.put(trigram, Arrays.copyOf(positions, fill[0]));
+            }
+        });
+
+        return new ProductSearchIndex(products, keys, trigrams, Collections.emptyMap(), maxId);
+    }
+
+    /**
+     * Returns index with given products changed. Active changed products replace their previous versions, products with given
+     * ids which are not among changed products are removed.
+     */
+    public ProductSearchIndex withChanges(final Collection<ProductDTO> changedActiveProducts, final Set<Long> removedIds) {
+        Map<Long, ProductDTO> newChanges = Maps.newHashMap(changes);
+        long newMaxId = maxId;
+
+        for (Long removedId : removedIds) {
+            newChanges.put(removedId, null);
+        }
+
+        for (ProductDTO product : changedActiveProducts) {
+            newChanges.put(product.getId(), product);
+            newMaxId = Math.max(newMaxId, product.getId());
+        }
+
+        if (newChanges.size() > MAX_CHANGES) {
+            List<ProductDTO> activeProducts = Stream.concat(
+                    Arrays.stream(products).filter(product -> !newChanges.containsKey(product.getId())),
+                    newChanges.values().stream().filter(Objects::nonNull)).collect(Collectors.toList());
+
+            ProductSearchIndex index = build(activeProducts);
+
+            return new ProductSearchIndex(index.products, index.keys, index.trigrams, Collections.emptyMap(),
+                    Math.max(index.maxId, newMaxId));
+        }
+
+        return new ProductSearchIndex(products, keys, trigrams, newChanges, newMaxId);
+    }
+
+    public long getMaxId() {
+        return maxId;
+    }
+
+    /**
+     * Finds products which numbers match the given {@code ilike} pattern, ordered by number.
+     *
+     * @param likePattern
+     *            pattern in the {@code ilike} syntax
+     * @param limit
+     *            maximum number of returned products
+     * @param maxCount
+     *            value at which counting of matching products stops
+     * @return first matching products and count of matching products, not greater than maxCount
+     */
+    public ProductSearchResult search(final String likePattern, final int limit, final int maxCount) {
+        LikePattern pattern = LikePattern.parse(likePattern);
+
+        List<ProductDTO> matchedChanges = changedProducts.stream().filter(product -> pattern.matches(toKey(product.getNumber())))
+                .collect(Collectors.toList());
+        List<ProductDTO> matched = Lists.newArrayList();
+        int count = matchedChanges.size();
+
+        int[] candidates = getCandidates(pattern);
+        int size = Objects.isNull(candidates) ? products.length : candidates.length;
+
+        for (int index = 0; (index < size) && ((count < maxCount) || (matched.size() < limit)); index++) {
+            int position = Objects.isNull(candidates) ? index : candidates[index];
+
+            if (!changes.containsKey(products[position].getId()) && pattern.matches(keys[position])) {
+                count++;
+
+                if (matched.size() < limit) {
+                    matched.add(products[position]);
+                }
+            }
+        }
+
+        List<ProductDTO> found = Stream.concat(matched.stream(), matchedChanges.stream()).sorted(NUMBER_ORDER).limit(limit)
+                .map(ProductSearchIndex::copy).collect(Collectors.toList());
+
+        return new ProductSearchResult(found, Math.min(count, maxCount));
+    }
+
+    private int[] getCandidates(final LikePattern pattern) {
+        int[] candidates = null;
+
+        for (String literal : pattern.getLiterals()) {
+            for (long trigram : getTrigrams(literal)) {
+                int[] positions = trigrams.get(trigram);
+
+                if (Objects.isNull(positions)) {
+                    return new int[0];
+                }
+
+                candidates = Objects.isNull(candidates) ? positions : intersect(candidates, positions);
+
+                if (candidates.length == 0) {
+                    return candidates;
+                }
+            }
+        }
+
+        return candidates;
+    }
+
+    private static int[] intersect(final int[] first, final int[] second) {
+        int[] result = new int[Math.min(first.length, second.length)];
+        int size = 0;
+
+        for (int i = 0, j = 0; (i < first.length) && (j < second.length);) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+
+        return Arrays.copyOf(result, size);
+    }
+
+    private static long[] getTrigrams(final String value) {
+        if (value.length() < 3) {
+            return new long[0];
+        }
+
+        long[] result = new long[value.length() - 2];
+
+        for (int index = 0; index < result.length; index++) {
+            result[index] = ((long) value.charAt(index) << 32) | ((long) value.charAt(index + 1) << 16) | value.charAt(index + 2);
+        }
+
+        return result;
+    }
+
+    private static String toKey(final String number) {
+        return number.toLowerCase(Locale.ROOT);
+    }
+
+    private static ProductDTO copy(final ProductDTO product) {
+        ProductDTO copy = new ProductDTO();
+
+        copy.setId(product.getId());
+        copy.setCode(product.getCode());
+        copy.setNumber(product.getNumber());
+        copy.setName(product.getName());
+        copy.setUnit(product.getUnit());
+
+        return copy;
+    }
+
+    private static final class LikePattern {
+
+        private final Pattern pattern;
+
+        private final List<String> literals;
+
+        private LikePattern(final Pattern pattern, final List<String> literals) {
+            this.pattern = pattern;
+            this.literals = literals;
+        }
+
+        static LikePattern parse(final String likePattern) {
+            String value = toKey(likePattern);
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            List<String> literals = Lists.newArrayList();
+
+            for (int index = 0; index < value.length(); index++) {
+                char character = value.charAt(index);
+
+                if ((character == '\\') && (index + 1 < value.length())) {
+                    literal.append(value.charAt(++index));
+                } else if ((character == '%') || (character == '_')) {
+                    appendLiteral(regex, literal, literals);
+                    regex.append(character == '%' ? ".*" : ".");
+                } else {
+                    literal.append(character);
+                }
+            }
+
+            appendLiteral(regex, literal, literals);
+
+            return new LikePattern(Pattern.compile(regex.toString(), Pattern.DOTALL), literals);
+        }
+
+        private static void appendLiteral(final StringBuilder regex, final StringBuilder literal, final List<String> literals) {
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literals.add(literal.toString());
+                literal.setLength(0);
+            }
+        }
+
+        boolean matches(final String key) {
+            return pattern.matcher(key).matches();
+        }
+
+        List<String> getLiterals() {
+            return literals;
+        }
+
+    }
+
+}
@@ -0,0 +1,181 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.product;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Searches active products by number using in-memory {@link ProductSearchIndex}, built per tenant on the first search. Product
+ * hooks report changed products, which are read again on the next search after their transaction commits.
+ */
+@Service
+public class ProductSearchService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductSearchService.class);
+
+    private static final String L_PRODUCTS_QUERY = "SELECT product.id AS id, product.number AS number, product.name AS name, "
+            + "product.unit AS unit, product.active AS active FROM basic_product product ";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final Map<Integer, TenantIndex> indexes = new ConcurrentHashMap<>();
+
+    public ProductSearchResult search(final String likePattern, final int limit, final int maxCount) {
+        return getIndex().search(likePattern, limit, maxCount);
+    }
+
+    public void invalidate(final Long productId) {
+        int tenantId = MultiTenantUtil.getCurrentTenantId();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    markChanged(tenantId, productId);
+                }
+            });
+        } else {
+            markChanged(tenantId, productId);
+        }
+    }
+
+    private void markChanged(final int tenantId, final Long productId) {
+        TenantIndex tenantIndex = indexes.get(tenantId);
+
+        if (Objects.nonNull(tenantIndex)) {
+            if (Objects.nonNull(productId)) {
+                tenantIndex.changedIds.add(productId);
+            }
+
+            tenantIndex.changed.set(true);
+        }
+    }
+
+    private ProductSearchIndex getIndex() {
+        TenantIndex tenantIndex = indexes.computeIfAbsent(MultiTenantUtil.getCurrentTenantId(), tenantId -> new TenantIndex());
+
+        synchronized (tenantIndex) {
+            if (Objects.isNull(tenantIndex.index)) {
+                tenantIndex.changed.set(false);
+                tenantIndex.changedIds.clear();
+                tenantIndex.index = loadIndex();
+            } else if (tenantIndex.changed.getAndSet(false)) {
+                Set<Long> changedIds = Sets.newHashSet(tenantIndex.changedIds);
+
+                tenantIndex.changedIds.removeAll(changedIds);
+                tenantIndex.index = refreshIndex(tenantIndex.index, changedIds);
+            }
+
+            return tenantIndex.index;
+        }
+    }
+
+    private ProductSearchIndex loadIndex() {
+        long start = System.currentTimeMillis();
+
+        List<ProductDTO> products = Lists.newArrayList();
+
+        jdbcTemplate.query(L_PRODUCTS_QUERY + "WHERE product.active = true", new MapSqlParameterSource(),
+                (RowCallbackHandler) rs -> products.add(createProduct(rs.getLong("id"), rs.getString("number"),
+                        rs.getString("name"), rs.getString("unit"))));
+
+        ProductSearchIndex index = ProductSearchIndex.build(products);
+
+        LOG.info("Product search index of {} products built in {} ms", products.size(), System.currentTimeMillis() - start);
+
+        return index;
+    }
+
+    private ProductSearchIndex refreshIndex(final ProductSearchIndex index, final Set<Long> changedIds) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource("maxId", index.getMaxId());
+        StringBuilder query = new StringBuilder(L_PRODUCTS_QUERY);
+
+        query.append("WHERE product.id > :maxId ");
+
+        if (!changedIds.isEmpty()) {
+            query.append("OR product.id IN (:ids) ");
+            parameters.addValue("ids", changedIds);
+        }
+
+        List<ProductDTO> changedProducts = Lists.newArrayList();
+        Set<Long> removedIds = Sets.newHashSet(changedIds);
+
+        jdbcTemplate.query(query.toString(), parameters, (RowCallbackHandler) rs -> {
+            if (rs.getBoolean("active")) {
+                changedProducts.add(createProduct(rs.getLong("id"), rs.getString("number"), rs.getString("name"),
+                        rs.getString("unit")));
+                removedIds.remove(rs.getLong("id"));
+            } else {
+                removedIds.add(rs.getLong("id"));
+            }
+        });
+
+        return index.withChanges(changedProducts, removedIds);
+    }
+
+    private ProductDTO createProduct(final Long id, final String number, final String name, final String unit) {
+        ProductDTO product = new ProductDTO();
+
+        product.setId(id);
+        product.setCode(number);
+        product.setNumber(number);
+        product.setName(name);
+        product.setUnit(unit);
+
+        return product;
+    }
+
+    private static final class TenantIndex {
+
+        private final Set<Long> changedIds = ConcurrentHashMap.newKeySet();
+
+        private final AtomicBoolean changed = new AtomicBoolean();
+
+        private volatile ProductSearchIndex index;
+
+    }
+
+}
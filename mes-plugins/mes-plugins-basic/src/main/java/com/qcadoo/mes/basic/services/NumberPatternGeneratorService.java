@@ -1,102 +1,122 @@
 package com.qcadoo.mes.basic.services;
 
+import com.google.common.collect.Lists;
 import com.qcadoo.mes.basic.constants.NumberPatternElement;
 import com.qcadoo.mes.basic.constants.NumberPatternElementFields;
 import com.qcadoo.mes.basic.constants.NumberPatternFields;
 import com.qcadoo.model.api.Entity;
 
-import java.text.DecimalFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateFormatUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class NumberPatternGeneratorService {
 
-    private static final DecimalFormat threeCharacterNumber = new DecimalFormat("000");
-
-    private static final DecimalFormat fourCharacterNumber = new DecimalFormat("0000");
-
-    private static final DecimalFormat fiveCharacterNumber = new DecimalFormat("00000");
-
     public static final String L_MONTHLY = "01monthly";
 
     public static final String L_ANNUAL = "02annual";
 
+    private static final String L_SEQUENCE_VALUE_QUERY = "select get_sequence_value_for_pattern(:patternNumber, :monthly, :annual)";
+
+    private static final String L_NEXT_SEQUENCE_VALUES_QUERY = "select nextval(case "
+            + "when :monthly then 'number_pattern_' || :patternNumber || '_' || to_char(current_timestamp, 'YYMM') || '_seq' "
+            + "when :annual then 'number_pattern_' || :patternNumber || '_' || to_char(current_timestamp, 'YY')::numeric || '_seq' "
+            + "else 'number_pattern_' || :patternNumber || '_seq' end) from generate_series(1, :count)";
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
     public String generateNumber(Entity numberPattern) {
-        StringBuilder number = new StringBuilder();
+        return generateNumbers(numberPattern, 1).get(0);
+    }
+
+    /**
+     * Generates given count of numbers for the pattern. Sequence values are reserved in blocks, so the database is queried
+     * once or twice for each sequence element of the pattern, regardless of the count.
+     *
+     * @param numberPattern
+     *            number pattern
+     * @param count
+     *            count of numbers to generate
+     * @return generated numbers, in the order of the sequence values
+     */
+    @Transactional
+    public List<String> generateNumbers(Entity numberPattern, int count) {
+        Date now = new Date();
+        List<StringBuilder> numbers = Stream.generate(StringBuilder::new).limit(count).collect(Collectors.toList());
         for (Entity element : numberPattern.getHasManyField(NumberPatternFields.NUMBER_PATTERN_ELEMENTS)) {
-            addElementToNumber(number, element);
+            addElementToNumbers(numbers, numberPattern, element, now);
         }
-        return number.toString();
+        return numbers.stream().map(StringBuilder::toString).collect(Collectors.toList());
     }
 
-    private void addElementToNumber(StringBuilder number, Entity element) {
-        Date now = new Date();
-        long sequenceNumber;
+    private void addElementToNumbers(List<StringBuilder> numbers, Entity numberPattern, Entity element, Date now) {
         switch (NumberPatternElement.parseString(element.getStringField(NumberPatternElementFields.ELEMENT))) {
             case DD:
-                number.append(DateFormatUtils.format(now, "dd"));
+                appendToNumbers(numbers, DateFormatUtils.format(now, "dd"));
                 break;
             case MM:
-                number.append(DateFormatUtils.format(now, "MM"));
+                appendToNumbers(numbers, DateFormatUtils.format(now, "MM"));
                 break;
             case RR:
-                number.append(DateFormatUtils.format(now, "yy"));
+                appendToNumbers(numbers, DateFormatUtils.format(now, "yy"));
                 break;
             case RRRR:
-                number.append(DateFormatUtils.format(now, "yyyy"));
+                appendToNumbers(numbers, DateFormatUtils.format(now, "yyyy"));
                 break;
             case N999:
-                sequenceNumber = getSequenceNumber(element);
-                if (sequenceNumber <= 999) {
-                    number.append(threeCharacterNumber.format(sequenceNumber));
-                } else {
-                    number.append(sequenceNumber);
-                }
+                appendSequenceNumbers(numbers, numberPattern, element, 3);
                 break;
             case N9999:
-                sequenceNumber = getSequenceNumber(element);
-                if (sequenceNumber <= 9999) {
-                    number.append(fourCharacterNumber.format(sequenceNumber));
-                } else {
-                    number.append(sequenceNumber);
-                }
+                appendSequenceNumbers(numbers, numberPattern, element, 4);
                 break;
             case N99999:
-                sequenceNumber = getSequenceNumber(element);
-                if (sequenceNumber <= 99999) {
-                    number.append(fiveCharacterNumber.format(sequenceNumber));
-                } else {
-                    number.append(sequenceNumber);
-                }
+                appendSequenceNumbers(numbers, numberPattern, element, 5);
                 break;
             case XX:
-                number.append(element.getStringField(NumberPatternElementFields.VALUE));
+                appendToNumbers(numbers, element.getStringField(NumberPatternElementFields.VALUE));
         }
     }
 
-    private long getSequenceNumber(Entity element) {
-        Entity numberPattern = element.getBelongsToField(NumberPatternElementFields.NUMBER_PATTERN);
+    private void appendToNumbers(List<StringBuilder> numbers, String value) {
+        for (StringBuilder number : numbers) {
+            number.append(value);
+        }
+    }
+
+    private void appendSequenceNumbers(List<StringBuilder> numbers, Entity numberPattern, Entity element, int size) {
+        List<Long> sequenceNumbers = getSequenceNumbers(numberPattern, element, numbers.size());
+        for (int index = 0; index < numbers.size(); index++) {
+            numbers.get(index).append(StringUtils.leftPad(String.valueOf(sequenceNumbers.get(index)), size, '0'));
+        }
+    }
 
+    private List<Long> getSequenceNumbers(Entity numberPattern, Entity element, int count) {
         Map<String, Object> parameters = new HashMap<String, Object>();
         parameters.put("patternNumber", numberPattern.getStringField(NumberPatternFields.NUMBER));
         parameters.put("monthly", isMonthly(element));
         parameters.put("annual", isAnnual(element));
 
-        Long value = jdbcTemplate.queryForObject("select get_sequence_value_for_pattern(:patternNumber, :monthly, :annual)",
-                parameters, Long.class);
+        List<Long> values = Lists.newArrayList(jdbcTemplate.queryForObject(L_SEQUENCE_VALUE_QUERY, parameters, Long.class));
+
+        if (count > 1) {
+            parameters.put("count", count - 1);
+
+            values.addAll(jdbcTemplate.queryForList(L_NEXT_SEQUENCE_VALUES_QUERY, parameters, Long.class));
+        }
 
-        return value;
+        return values;
     }
 
     private Boolean isMonthly(Entity element) {
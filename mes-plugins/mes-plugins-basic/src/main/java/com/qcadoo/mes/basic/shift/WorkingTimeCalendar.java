@@ -0,0 +1,176 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.base.Preconditions;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.mes.basic.util.IntervalSet;
+
+/**
+ * Working time of a production line in a bounded horizon, kept as sorted, disjoint intervals with prefix sums of working time.
+ * 
+ * Adding working time to a date and summing working time between two dates are binary searches over these arrays, so callers
+ * don't have to walk the calendar day by day.
+ */
+public final class WorkingTimeCalendar {
+
+    private final long horizonFrom;
+
+    private final long horizonTo;
+
+    private final IntervalSet intervals;
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    private final long[] workingMillisBefore;
+
+    private WorkingTimeCalendar(final long horizonFrom, final long horizonTo, final IntervalSet intervals) {
+        this.horizonFrom = horizonFrom;
+        this.horizonTo = horizonTo;
+        this.intervals = intervals;
+        this.starts = intervals.getStarts();
+        this.ends = intervals.getEnds();
+        this.workingMillisBefore = new long[starts.length + 1];
+
+        for (int i = 0; i < starts.length; i++) {
+            workingMillisBefore[i + 1] = workingMillisBefore[i] + ends[i] - starts[i];
+        }
+    }
+
+    /**
+     * Builds calendar from work time ranges, which may overlap and come in any order. Ranges are merged and clipped to the
+     * horizon.
+     */
+    public static WorkingTimeCalendar build(final long horizonFrom, final long horizonTo, final List<DateTimeRange> ranges) {
+        Preconditions.checkArgument(horizonFrom <= horizonTo, "Horizon should not end before it starts.");
+
+        IntervalSet.Builder builder = IntervalSet.builder();
+
+        for (DateTimeRange range : ranges) {
+            long from = Math.max(range.getFrom().getMillis(), horizonFrom);
+            long to = Math.min(range.getTo().getMillis(), horizonTo);
+
+            if (from < to) {
+                builder.add(from, to);
+            }
+        }
+
+        return new WorkingTimeCalendar(horizonFrom, horizonTo, builder.build());
+    }
+
+    public long getHorizonFrom() {
+        return horizonFrom;
+    }
+
+    public long getHorizonTo() {
+        return horizonTo;
+    }
+
+    public boolean covers(final long from, final long to) {
+        return horizonFrom <= from && to <= horizonTo;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Returns working intervals between given dates, clipped to them and to the horizon.
+     */
+    public IntervalSet getWorkingIntervals(final long from, final long to) {
+        return intervals.intersect(from, to);
+    }
+
+    /**
+     * Returns working time between given dates, both clipped to the horizon.
+     */
+    public long getWorkingMillis(final long from, final long to) {
+        if (to <= from) {
+            return 0L;
+        }
+
+        return getWorkingMillisBefore(to) - getWorkingMillisBefore(from);
+    }
+
+    /**
+     * Returns the earliest date at which given working time, counted from the given date, is completed, or empty when the
+     * horizon ends before that.
+     */
+    public Optional<Long> addWorkingMillis(final long from, final long millis) {
+        if (millis <= 0L) {
+            return Optional.of(from);
+        }
+
+        long target = getWorkingMillisBefore(from) + millis;
+
+        if (target > workingMillisBefore[starts.length]) {
+            return Optional.empty();
+        }
+
+        int index = Arrays.binarySearch(workingMillisBefore, 1, workingMillisBefore.length, target);
+
+        if (index < 0) {
+            index = -index - 1;
+        }
+
+        return Optional.of(starts[index - 1] + target - workingMillisBefore[index - 1]);
+    }
+
+    /**
+     * Returns the given date if it is working time, otherwise start of the next working interval, or empty when there is none
+     * in the horizon.
+     */
+    public Optional<Long> findNearestWorkingTime(final long from) {
+        int index = findFirstIntervalEndingAfter(from);
+
+        if (index == starts.length) {
+            return Optional.empty();
+        }
+
+        return Optional.of(Math.max(starts[index], from));
+    }
+
+    private long getWorkingMillisBefore(final long date) {
+        int index = findFirstIntervalEndingAfter(date);
+
+        if (index == starts.length) {
+            return workingMillisBefore[starts.length];
+        }
+
+        return workingMillisBefore[index] + Math.max(0L, date - starts[index]);
+    }
+
+    private int findFirstIntervalEndingAfter(final long date) {
+        int index = Arrays.binarySearch(ends, date);
+
+        return index < 0 ? -index - 1 : index + 1;
+    }
+
+}
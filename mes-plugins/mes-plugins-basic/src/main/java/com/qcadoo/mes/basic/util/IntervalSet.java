@@ -0,0 +1,354 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.joda.time.Interval;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Immutable set of time intervals [start, end) in milliseconds, kept as sorted, disjoint and not abutting intervals in two
+ * primitive arrays.
+ * 
+ * Union, intersection and subtraction are single linear sweeps over both sets, so they don't allocate per interval and stay
+ * cheap over long horizons.
+ */
+public final class IntervalSet {
+
+    public static final IntervalSet EMPTY = new IntervalSet(new long[0], new long[0]);
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    private IntervalSet(final long[] starts, final long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    public static IntervalSet of(final long start, final long end) {
+        if (end <= start) {
+            return EMPTY;
+        }
+
+        return new IntervalSet(new long[] { start }, new long[] { end });
+    }
+
+    public static IntervalSet of(final Interval interval) {
+        return of(interval.getStartMillis(), interval.getEndMillis());
+    }
+
+    public static IntervalSet of(final Iterable<Interval> intervals) {
+        Builder builder = builder();
+
+        for (Interval interval : intervals) {
+            builder.add(interval.getStartMillis(), interval.getEndMillis());
+        }
+
+        return builder.build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    public long getStart(final int index) {
+        return starts[index];
+    }
+
+    public long getEnd(final int index) {
+        return ends[index];
+    }
+
+    public long[] getStarts() {
+        return Arrays.copyOf(starts, starts.length);
+    }
+
+    public long[] getEnds() {
+        return Arrays.copyOf(ends, ends.length);
+    }
+
+    public long getTotalLength() {
+        long totalLength = 0L;
+
+        for (int i = 0; i < starts.length; i++) {
+            totalLength += ends[i] - starts[i];
+        }
+
+        return totalLength;
+    }
+
+    public IntervalSet union(final IntervalSet other) {
+        if (other.isEmpty()) {
+            return this;
+        } else if (isEmpty()) {
+            return other;
+        }
+
+        long[] resultStarts = new long[starts.length + other.starts.length];
+        long[] resultEnds = new long[resultStarts.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+
+        while (i < starts.length || j < other.starts.length) {
+            long start;
+            long end;
+
+            if (j == other.starts.length || (i < starts.length && starts[i] <= other.starts[j])) {
+                start = starts[i];
+                end = ends[i++];
+            } else {
+                start = other.starts[j];
+                end = other.ends[j++];
+            }
+
+            if (size > 0 && start <= resultEnds[size - 1]) {
+                resultEnds[size - 1] = Math.max(resultEnds[size - 1], end);
+            } else {
+                resultStarts[size] = start;
+                resultEnds[size++] = end;
+            }
+        }
+
+        return create(resultStarts, resultEnds, size);
+    }
+
+    public IntervalSet intersect(final IntervalSet other) {
+        if (isEmpty() || other.isEmpty()) {
+            return EMPTY;
+        }
+
+        long[] resultStarts = new long[starts.length + other.starts.length];
+        long[] resultEnds = new long[resultStarts.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+
+        while (i < starts.length && j < other.starts.length) {
+            long start = Math.max(starts[i], other.starts[j]);
+            long end = Math.min(ends[i], other.ends[j]);
+
+            if (start < end) {
+                resultStarts[size] = start;
+                resultEnds[size++] = end;
+            }
+
+            if (ends[i] < other.ends[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+
+        return create(resultStarts, resultEnds, size);
+    }
+
+    public IntervalSet intersect(final long start, final long end) {
+        return intersect(of(start, end));
+    }
+
+    public IntervalSet subtract(final IntervalSet other) {
+        if (isEmpty() || other.isEmpty()) {
+            return this;
+        }
+
+        long[] resultStarts = new long[starts.length + other.starts.length];
+        long[] resultEnds = new long[resultStarts.length];
+        int size = 0;
+        int j = 0;
+
+        for (int i = 0; i < starts.length; i++) {
+            long start = starts[i];
+            long end = ends[i];
+
+            while (j < other.starts.length && other.ends[j] <= start) {
+                j++;
+            }
+
+            int k = j;
+
+            while (k < other.starts.length && other.starts[k] < end) {
+                if (start < other.starts[k]) {
+                    resultStarts[size] = start;
+                    resultEnds[size++] = other.starts[k];
+                }
+
+                start = Math.max(start, other.ends[k]);
+
+                if (end <= start) {
+                    break;
+                }
+
+                k++;
+            }
+
+            if (start < end) {
+                resultStarts[size] = start;
+                resultEnds[size++] = end;
+            }
+        }
+
+        return create(resultStarts, resultEnds, size);
+    }
+
+    /**
+     * @return set of the given interval without intervals of this set
+     */
+    public IntervalSet complement(final long start, final long end) {
+        return of(start, end).subtract(this);
+    }
+
+    public List<Interval> toIntervals() {
+        List<Interval> intervals = Lists.newArrayListWithCapacity(starts.length);
+
+        for (int i = 0; i < starts.length; i++) {
+            intervals.add(new Interval(starts[i], ends[i]));
+        }
+
+        return intervals;
+    }
+
+    private static IntervalSet create(final long[] starts, final long[] ends, final int size) {
+        if (size == 0) {
+            return EMPTY;
+        }
+
+        return new IntervalSet(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+
+        IntervalSet other = (IntervalSet) obj;
+
+        return Arrays.equals(starts, other.starts) && Arrays.equals(ends, other.ends);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(starts) + Arrays.hashCode(ends);
+    }
+
+    @Override
+    public String toString() {
+        return toIntervals().toString();
+    }
+
+    /**
+     * Collects intervals in any order, which may overlap. Empty intervals are ignored.
+     */
+    public static final class Builder {
+
+        private long[] starts = new long[16];
+
+        private long[] ends = new long[16];
+
+        private int size;
+
+        private Builder() {
+        }
+
+        public Builder add(final long start, final long end) {
+            Preconditions.checkArgument(start <= end, "Interval should not end before it starts.");
+
+            if (start == end) {
+                return this;
+            }
+
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+
+            starts[size] = start;
+            ends[size++] = end;
+
+            return this;
+        }
+
+        public Builder add(final Interval interval) {
+            return add(interval.getStartMillis(), interval.getEndMillis());
+        }
+
+        /**
+         * Merges collected intervals. Starts and ends are sorted separately, then swept with a count of open intervals, which
+         * gives the same union as sorting whole intervals.
+         */
+        public IntervalSet build() {
+            long[] sortedStarts = Arrays.copyOf(starts, size);
+            long[] sortedEnds = Arrays.copyOf(ends, size);
+
+            Arrays.sort(sortedStarts);
+            Arrays.sort(sortedEnds);
+
+            long[] resultStarts = new long[size];
+            long[] resultEnds = new long[size];
+            int resultSize = 0;
+            int open = 0;
+            int j = 0;
+
+            for (int i = 0; i < size; i++) {
+                while (sortedEnds[j] < sortedStarts[i]) {
+                    if (--open == 0) {
+                        resultEnds[resultSize++] = sortedEnds[j];
+                    }
+
+                    j++;
+                }
+
+                if (open++ == 0) {
+                    resultStarts[resultSize] = sortedStarts[i];
+                }
+            }
+
+            if (size > 0) {
+                resultEnds[resultSize++] = sortedEnds[size - 1];
+            }
+
+            return create(resultStarts, resultEnds, resultSize);
+        }
+
+    }
+
+}
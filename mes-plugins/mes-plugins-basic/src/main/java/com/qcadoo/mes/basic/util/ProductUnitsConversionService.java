@@ -14,13 +14,9 @@ import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.search.CustomRestriction;
-import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.units.PossibleUnitConversions;
-import com.qcadoo.model.api.units.UnitConversionService;
 
 /**
  * Helper class to avoid boilerplate code when converting between units for a particular product.
@@ -28,11 +24,11 @@ import com.qcadoo.model.api.units.UnitConversionService;
 @Service
 public final class ProductUnitsConversionService {
 
-    private final UnitConversionService unitConversionService;
+    private final UnitConversionsCache unitConversionsCache;
 
     @Autowired
-    public ProductUnitsConversionService(UnitConversionService unitConversionService) {
-        this.unitConversionService = requireNonNull(unitConversionService);
+    public ProductUnitsConversionService(UnitConversionsCache unitConversionsCache) {
+        this.unitConversionsCache = requireNonNull(unitConversionsCache);
     }
 
     /**
@@ -46,7 +42,7 @@ public final class ProductUnitsConversionService {
         DataDefinition dataDefinition = product.getDataDefinition();
         Assert.isTrue(BasicConstants.PLUGIN_IDENTIFIER.equals(dataDefinition.getPluginIdentifier()));
         Assert.isTrue(BasicConstants.MODEL_PRODUCT.equals(dataDefinition.getName()));
-        return new FromUnitConverter(product, unitConversionService);
+        return new FromUnitConverter(product, unitConversionsCache);
     }
 
     public interface ConversionResultsHolder {
@@ -70,15 +66,11 @@ public final class ProductUnitsConversionService {
 
         private final Entity product;
 
-        private final CustomRestriction productRestriction;
+        private final UnitConversionsCache unitConversionsCache;
 
-        private final UnitConversionService unitConversionService;
-
-        private FromUnitConverter(Entity product, UnitConversionService unitConversionService) {
+        private FromUnitConverter(Entity product, UnitConversionsCache unitConversionsCache) {
             this.product = requireNonNull(product);
-            this.unitConversionService = requireNonNull(unitConversionService);
-            this.productRestriction = searchCriteriaBuilder -> searchCriteriaBuilder
-                    .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, product));
+            this.unitConversionsCache = requireNonNull(unitConversionsCache);
         }
 
         /**
@@ -92,7 +84,7 @@ public final class ProductUnitsConversionService {
          */
         public ToUnitConverter from(String unit) {
             Assert.state(isNotBlank(unit), "Convert-From unit is blank");
-            return new ToUnitConverter(() -> unitConversionService.getPossibleConversions(unit, productRestriction), unit);
+            return new ToUnitConverter(() -> unitConversionsCache.getPossibleConversions(product, unit), unit);
         }
 
         /**
@@ -113,7 +105,7 @@ public final class ProductUnitsConversionService {
         private final String fromUnit;
 
         private ToUnitConverter(Supplier<PossibleUnitConversions> possibleUnitConversionsSupplier, String fromUnit) {
-            // Memoization technique used to prevent unnecessary database requests. Only one (lazy) request will be issued.
+            // Memoization technique used to prevent unnecessary cache lookups. Only one (lazy) lookup will be issued.
             this.possibleUnitConversionsSupplier = Suppliers.memoize(requireNonNull(possibleUnitConversionsSupplier));
             this.fromUnit = fromUnit;
         }
@@ -0,0 +1,128 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.util;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.units.PossibleUnitConversions;
+import com.qcadoo.model.api.units.UnitConversionService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Keeps resolved {@link PossibleUnitConversions} per tenant, product and source unit. Conversion graph is traversed by
+ * {@link UnitConversionService} only once for each of them; cached conversions hold precomputed ratios to all reachable units.
+ * Unit conversion item hooks drop cached conversions of the tenant after their transaction commits. There is no bulk lookup
+ * for many products; batch callers look up each product and unit, which is a cache hit after the first call.
+ */
+@Service
+public class UnitConversionsCache {
+
+    private static final Long L_GLOBAL = 0L;
+
+    private static final int L_MAX_SIZE = 100000;
+
+    @Autowired
+    private UnitConversionService unitConversionService;
+
+    private final Map<Integer, ConcurrentMap<Long, ConcurrentMap<String, PossibleUnitConversions>>> conversions = Maps
+            .newConcurrentMap();
+
+    /**
+     * @param unit
+     *            source unit
+     * @return global conversions from given unit
+     */
+    public PossibleUnitConversions getPossibleConversions(final String unit) {
+        return getTenantConversions().computeIfAbsent(L_GLOBAL, productId -> new ConcurrentHashMap<>()).computeIfAbsent(unit,
+                fromUnit -> unitConversionService.getPossibleConversions(fromUnit));
+    }
+
+    /**
+     * @param product
+     *            product
+     * @param unit
+     *            source unit
+     * @return conversions from given unit defined for product, same as
+     *         {@link UnitConversionService#getPossibleConversions(String, com.qcadoo.model.api.search.CustomRestriction)} with
+     *         product restriction
+     */
+    public PossibleUnitConversions getPossibleConversions(final Entity product, final String unit) {
+        if (Objects.isNull(product.getId())) {
+            return loadConversions(product, unit);
+        }
+
+        return getTenantConversions().computeIfAbsent(product.getId(), productId -> new ConcurrentHashMap<>())
+                .computeIfAbsent(unit, fromUnit -> loadConversions(product, fromUnit));
+    }
+
+    public void invalidate() {
+        int tenantId = getCurrentTenantId();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    conversions.remove(tenantId);
+                }
+            });
+        } else {
+            conversions.remove(tenantId);
+        }
+    }
+
+    private ConcurrentMap<Long, ConcurrentMap<String, PossibleUnitConversions>> getTenantConversions() {
+        ConcurrentMap<Long, ConcurrentMap<String, PossibleUnitConversions>> tenantConversions = conversions
+                .computeIfAbsent(getCurrentTenantId(), tenantId -> new ConcurrentHashMap<>());
+
+        if (tenantConversions.size() > L_MAX_SIZE) {
+            tenantConversions.clear();
+        }
+
+        return tenantConversions;
+    }
+
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
+
+    private PossibleUnitConversions loadConversions(final Entity product, final String unit) {
+        return unitConversionService.getPossibleConversions(unit,
+                searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT,
+                        product)));
+    }
+
+}
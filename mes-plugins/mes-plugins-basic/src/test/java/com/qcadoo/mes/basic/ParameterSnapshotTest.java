@@ -0,0 +1,130 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.Entity;
+
+public class ParameterSnapshotTest {
+
+    private Entity parameter;
+
+    private Entity documentPositionParameters;
+
+    private Entity location;
+
+    @Before
+    public final void init() {
+        parameter = mock(Entity.class);
+        documentPositionParameters = mock(Entity.class);
+        location = mock(Entity.class);
+
+        given(parameter.getId()).willReturn(1L);
+        given(documentPositionParameters.getId()).willReturn(2L);
+        given(location.getId()).willReturn(3L);
+
+        Map<String, Object> locationFields = Maps.newHashMap();
+        locationFields.put("number", "L1");
+
+        Map<String, Object> documentPositionParametersFields = Maps.newHashMap();
+        documentPositionParametersFields.put("fillResourceIrrespectiveOfConversion", true);
+        documentPositionParametersFields.put("defaultLocation", location);
+
+        Map<String, Object> parameterFields = Maps.newHashMap();
+        parameterFields.put("realizationFromStock", "1");
+        parameterFields.put("currency", "PLN");
+        parameterFields.put("numberOfMonths", 3);
+        parameterFields.put("additionalTime", new BigDecimal("1.5"));
+        parameterFields.put("lastUpdate", new Date(1000L));
+        parameterFields.put("documentPositionParameters", documentPositionParameters);
+        parameterFields.put("realizationLocations", Lists.newArrayList(location));
+
+        given(location.getFields()).willReturn(locationFields);
+        given(documentPositionParameters.getFields()).willReturn(documentPositionParametersFields);
+        given(parameter.getFields()).willReturn(parameterFields);
+    }
+
+    @Test
+    public void shouldCopyScalarFields() {
+        // when
+        ParameterSnapshot snapshot = ParameterSnapshot.of(parameter, 7L);
+
+        // then
+        assertEquals(Long.valueOf(1L), snapshot.getId());
+        assertEquals(7L, snapshot.getVersion());
+        assertTrue(snapshot.getBooleanField("realizationFromStock"));
+        assertFalse(snapshot.getBooleanField("notExistingField"));
+        assertEquals("PLN", snapshot.getStringField("currency"));
+        assertEquals(Integer.valueOf(3), snapshot.getIntegerField("numberOfMonths"));
+        assertEquals(new BigDecimal("1.5"), snapshot.getDecimalField("additionalTime"));
+        assertEquals(new Date(1000L), snapshot.getDateField("lastUpdate"));
+        assertNull(snapshot.getStringField("realizationLocations"));
+    }
+
+    @Test
+    public void shouldNotShareDatesWithEntity() {
+        // given
+        ParameterSnapshot snapshot = ParameterSnapshot.of(parameter, 7L);
+        Date date = snapshot.getDateField("lastUpdate");
+
+        // when
+        date.setTime(2000L);
+        ((Date) parameter.getFields().get("lastUpdate")).setTime(3000L);
+
+        // then
+        assertEquals(new Date(1000L), snapshot.getDateField("lastUpdate"));
+        assertNotSame(date, snapshot.getDateField("lastUpdate"));
+    }
+
+    @Test
+    public void shouldCopyBelongsToFieldsOneLevelDeep() {
+        // when
+        ParameterSnapshot snapshot = ParameterSnapshot.of(parameter, 7L);
+        ParameterSnapshot documentPositionParametersSnapshot = snapshot.getBelongsToField("documentPositionParameters");
+
+        // then
+        assertEquals(Long.valueOf(2L), snapshot.getBelongsToId("documentPositionParameters"));
+        assertTrue(documentPositionParametersSnapshot.getBooleanField("fillResourceIrrespectiveOfConversion"));
+        assertEquals(Long.valueOf(3L), documentPositionParametersSnapshot.getBelongsToId("defaultLocation"));
+        assertNull(documentPositionParametersSnapshot.getBelongsToField("defaultLocation"));
+        assertNull(snapshot.getBelongsToField("currency"));
+    }
+
+}
@@ -0,0 +1,196 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.jobs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+public class MultiTenantJobRunnerTest {
+
+    private static final String L_JOB_NAME = "testJob";
+
+    private MultiTenantJobRunner multiTenantJobRunner;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    private final ThreadLocal<Integer> currentTenantId = new ThreadLocal<>();
+
+    private final Set<Integer> invokedTenantIds = Sets.newConcurrentHashSet();
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        multiTenantJobRunner = spy(new MultiTenantJobRunner());
+
+        ReflectionTestUtils.setField(multiTenantJobRunner, "multiTenantService", multiTenantService);
+
+        doReturn(Lists.newArrayList(1, 2, 3)).when(multiTenantJobRunner).getTenantIds();
+
+        willAnswer(invocation -> {
+            currentTenantId.set((Integer) invocation.getArguments()[0]);
+
+            try {
+                ((MultiTenantCallback) invocation.getArguments()[1]).invoke();
+            } finally {
+                currentTenantId.remove();
+            }
+
+            return null;
+        }).given(multiTenantService).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+    }
+
+    @After
+    public final void shutdown() {
+        multiTenantJobRunner.shutdown();
+    }
+
+    @Test
+    public final void shouldRunJobForOtherTenantsIfOneFails() {
+        // when
+        multiTenantJobRunner.runForAllTenants(L_JOB_NAME, 10, TimeUnit.SECONDS, () -> {
+            int tenantId = currentTenantId.get();
+
+            invokedTenantIds.add(tenantId);
+
+            if (tenantId == 2) {
+                throw new IllegalStateException("failure of tenant 2");
+            }
+        });
+
+        // then
+        assertEquals(Sets.newHashSet(1, 2, 3), invokedTenantIds);
+
+        for (int tenantId = 1; tenantId <= 3; tenantId++) {
+            MultiTenantJobMetrics jobMetrics = multiTenantJobRunner.getMetrics(tenantId, L_JOB_NAME);
+
+            assertEquals(1, jobMetrics.getRuns());
+            assertEquals(tenantId == 2 ? 1 : 0, jobMetrics.getFailures());
+            assertEquals(0, jobMetrics.getTimeouts());
+        }
+    }
+
+    @Test
+    public final void shouldCancelTenantWhichExceedsTimeout() throws InterruptedException {
+        // given
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        // when
+        long start = System.nanoTime();
+
+        multiTenantJobRunner.runForAllTenants(L_JOB_NAME, 200, TimeUnit.MILLISECONDS, () -> {
+            int tenantId = currentTenantId.get();
+
+            invokedTenantIds.add(tenantId);
+
+            if (tenantId == 1) {
+                try {
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+
+        long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // then
+        assertTrue(duration < 5000);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(Sets.newHashSet(1, 2, 3), invokedTenantIds);
+        assertEquals(1, multiTenantJobRunner.getMetrics(1, L_JOB_NAME).getTimeouts());
+        assertEquals(0, multiTenantJobRunner.getMetrics(2, L_JOB_NAME).getTimeouts());
+        assertEquals(1, multiTenantJobRunner.getMetrics(2, L_JOB_NAME).getRuns());
+        assertEquals(0, multiTenantJobRunner.getMetrics(3, L_JOB_NAME).getTimeouts());
+    }
+
+    @Test
+    public final void shouldSkipTenantWhoseJobIsStillRunning() throws InterruptedException {
+        // given
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger invocations = new AtomicInteger();
+
+        doReturn(Lists.newArrayList(1)).when(multiTenantJobRunner).getTenantIds();
+
+        MultiTenantCallback callback = () -> {
+            invocations.incrementAndGet();
+            started.countDown();
+
+            Uninterruptibles.awaitUninterruptibly(release);
+        };
+
+        Thread firstRun = new Thread(() -> multiTenantJobRunner.runForAllTenants(L_JOB_NAME, 10, TimeUnit.SECONDS, callback));
+
+        firstRun.start();
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // when
+        multiTenantJobRunner.runForAllTenants(L_JOB_NAME, 10, TimeUnit.SECONDS, callback);
+
+        // then
+        MultiTenantJobMetrics jobMetrics = multiTenantJobRunner.getMetrics(1, L_JOB_NAME);
+
+        assertEquals(1, invocations.get());
+        assertEquals(1, jobMetrics.getSkips());
+
+        // when
+        release.countDown();
+        firstRun.join(5000);
+
+        multiTenantJobRunner.runForAllTenants(L_JOB_NAME, 10, TimeUnit.SECONDS, callback);
+
+        // then
+        assertEquals(2, invocations.get());
+        assertEquals(2, jobMetrics.getRuns());
+        assertEquals(1, jobMetrics.getSkips());
+        assertEquals(0, jobMetrics.getTimeouts());
+    }
+
+}
@@ -0,0 +1,272 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.notifications;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.Entity;
+
+public class NotificationCountersServiceTest {
+
+    private static final String L_COUNTER = "counter";
+
+    private static final int L_TENANT_ID = 1;
+
+    private static final Long L_LOCATION_1 = 1L;
+
+    private static final Long L_LOCATION_2 = 2L;
+
+    private NotificationCountersService notificationCountersService;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Map<Long, Set<Long>> entities;
+
+    @Before
+    public void init() {
+        notificationCountersService = spy(new NotificationCountersService());
+        doReturn(L_TENANT_ID).when(notificationCountersService).getCurrentTenantId();
+
+        entities = Maps.newHashMap();
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private Supplier<Map<Long, Set<Long>>> loader() {
+        return () -> {
+            loads.incrementAndGet();
+
+            return ImmutableMap.copyOf(entities);
+        };
+    }
+
+    private boolean exists(final Long... keys) {
+        return notificationCountersService.exists(L_COUNTER, ImmutableSet.copyOf(keys), loader());
+    }
+
+    private void commit() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCommit();
+        }
+
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    public void shouldApplyInsertAfterCommitWithoutReload() {
+        // given
+        assertFalse(exists(L_LOCATION_1));
+
+        Entity document = mockEntity();
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        // when
+        notificationCountersService.update(L_COUNTER, document, ImmutableSet.of(L_LOCATION_1));
+
+        // then
+        assertFalse(exists(L_LOCATION_1));
+
+        // when
+        given(document.getId()).willReturn(5L);
+        commit();
+
+        // then
+        assertTrue(exists(L_LOCATION_1));
+        assertFalse(exists(L_LOCATION_2));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldReloadIfInsertedEntityHasNoId() {
+        // given
+        assertFalse(exists(L_LOCATION_1));
+
+        entities.put(5L, ImmutableSet.of(L_LOCATION_1));
+
+        // when
+        notificationCountersService.update(L_COUNTER, mockEntity(), ImmutableSet.of(L_LOCATION_1));
+
+        // then
+        assertTrue(exists(L_LOCATION_1));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void shouldMoveUpdatedEntityBetweenKeys() {
+        // given
+        entities.put(5L, ImmutableSet.of(L_LOCATION_1));
+
+        assertTrue(exists(L_LOCATION_1));
+
+        // when
+        notificationCountersService.update(L_COUNTER, mockEntity(5L), ImmutableSet.of(L_LOCATION_2));
+
+        // then
+        assertFalse(exists(L_LOCATION_1));
+        assertTrue(exists(L_LOCATION_2));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldCountEntitiesPerKeyOnStateTransitions() {
+        // given
+        entities.put(5L, ImmutableSet.of(L_LOCATION_1));
+        entities.put(6L, ImmutableSet.of(L_LOCATION_1, L_LOCATION_2));
+
+        assertTrue(exists(L_LOCATION_1));
+
+        // when
+        notificationCountersService.update(L_COUNTER, mockEntity(5L), null);
+
+        // then
+        assertTrue(exists(L_LOCATION_1));
+        assertTrue(exists());
+
+        // when
+        notificationCountersService.update(L_COUNTER, mockEntity(6L), null);
+
+        // then
+        assertFalse(exists(L_LOCATION_1));
+        assertFalse(exists(L_LOCATION_2));
+        assertFalse(exists());
+
+        // when
+        notificationCountersService.update(L_COUNTER, mockEntity(5L), ImmutableSet.of(L_LOCATION_2));
+
+        // then
+        assertTrue(exists(L_LOCATION_2));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldRemoveDeletedEntityAfterCommit() {
+        // given
+        entities.put(5L, ImmutableSet.of(L_LOCATION_1));
+
+        assertTrue(exists(L_LOCATION_1));
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        // when
+        notificationCountersService.remove(L_COUNTER, 5L);
+
+        // then
+        assertTrue(exists(L_LOCATION_1));
+
+        // when
+        commit();
+
+        // then
+        assertFalse(exists(L_LOCATION_1));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldNotApplyChangesOfRolledBackTransaction() {
+        // given
+        assertFalse(exists(L_LOCATION_1));
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        // when
+        notificationCountersService.update(L_COUNTER, mockEntity(5L), ImmutableSet.of(L_LOCATION_1));
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+
+        TransactionSynchronizationManager.clearSynchronization();
+
+        // then
+        assertFalse(exists(L_LOCATION_1));
+    }
+
+    @Test
+    public void shouldApplyUpdateCommittedDuringReload() throws Exception {
+        // given
+        CountDownLatch loadStarted = new CountDownLatch(1);
+        CountDownLatch loadReleased = new CountDownLatch(1);
+
+        Supplier<Map<Long, Set<Long>>> blockingLoader = () -> {
+            loads.incrementAndGet();
+            loadStarted.countDown();
+
+            try {
+                loadReleased.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            return Collections.emptyMap();
+        };
+
+        Thread poll = new Thread(() -> notificationCountersService.exists(L_COUNTER, Collections.emptySet(), blockingLoader));
+        Thread save = new Thread(
+                () -> notificationCountersService.update(L_COUNTER, mockEntity(5L), ImmutableSet.of(L_LOCATION_1)));
+
+        // when
+        poll.start();
+        assertTrue(loadStarted.await(10, TimeUnit.SECONDS));
+
+        save.start();
+        loadReleased.countDown();
+
+        poll.join(10000);
+        save.join(10000);
+
+        // then
+        assertTrue(exists(L_LOCATION_1));
+        assertEquals(1, loads.get());
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.product;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.controllers.dataProvider.dto.ProductDTO;
+
+public class ProductSearchIndexTest {
+
+    private ProductSearchIndex index;
+
+    @Before
+    public void init() {
+        index = ProductSearchIndex.build(Lists.newArrayList(product(1L, "PRD-0002"), product(2L, "prd-0001"),
+                product(3L, "ABC-100"), product(4L, "XABC_1"), product(5L, "AB")));
+    }
+
+    @Test
+    public void shouldFindProductsByInfixIgnoringCase() {
+        // when
+        ProductSearchResult result = index.search("%prd-000%", 20, 1000);
+
+        // then
+        assertEquals(Lists.newArrayList("prd-0001", "PRD-0002"), getNumbers(result));
+        assertEquals(2, result.getCount());
+    }
+
+    @Test
+    public void shouldMatchSingleCharacterWildcardAndEscapedUnderscore() {
+        // when
+        ProductSearchResult wildcardResult = index.search("%abc_1%", 20, 1000);
+        ProductSearchResult escapedResult = index.search("%abc\\_1%", 20, 1000);
+
+        // then
+        assertEquals(Lists.newArrayList("ABC-100", "XABC_1"), getNumbers(wildcardResult));
+        assertEquals(Lists.newArrayList("XABC_1"), getNumbers(escapedResult));
+    }
+
+    @Test
+    public void shouldMatchPrefixAndShortPatterns() {
+        // when
+        ProductSearchResult prefixResult = index.search("abc%", 20, 1000);
+        ProductSearchResult shortResult = index.search("%b%", 20, 1000);
+
+        // then
+        assertEquals(Lists.newArrayList("ABC-100"), getNumbers(prefixResult));
+        assertEquals(Lists.newArrayList("AB", "ABC-100", "XABC_1"), getNumbers(shortResult));
+    }
+
+    @Test
+    public void shouldLimitProductsAndCapCount() {
+        // when
+        ProductSearchResult result = index.search("%", 2, 4);
+
+        // then
+        assertEquals(Lists.newArrayList("AB", "ABC-100"), getNumbers(result));
+        assertEquals(4, result.getCount());
+    }
+
+    @Test
+    public void shouldApplyChangedAndRemovedProducts() {
+        // given
+        ProductSearchIndex changedIndex = index.withChanges(Lists.newArrayList(product(1L, "ABC-200"), product(6L, "ABC-050")),
+                Sets.newHashSet(1L, 3L));
+
+        // when
+        ProductSearchResult result = changedIndex.search("%abc-%", 20, 1000);
+        ProductSearchResult previousResult = index.search("%abc-%", 20, 1000);
+
+        // then
+        assertEquals(Lists.newArrayList("ABC-050", "ABC-200"), getNumbers(result));
+        assertEquals(Collections.emptyList(), getNumbers(changedIndex.search("prd-0002", 20, 1000)));
+        assertEquals(Lists.newArrayList("ABC-100"), getNumbers(previousResult));
+        assertEquals(6L, changedIndex.getMaxId());
+    }
+
+    private List<String> getNumbers(final ProductSearchResult result) {
+        return result.getProducts().stream().map(ProductDTO::getNumber).collect(Collectors.toList());
+    }
+
+    private ProductDTO product(final Long id, final String number) {
+        ProductDTO product = new ProductDTO();
+
+        product.setId(id);
+        product.setCode(number);
+        product.setNumber(number);
+
+        return product;
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.services;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.basic.constants.NumberPatternElement;
+import com.qcadoo.mes.basic.constants.NumberPatternElementFields;
+import com.qcadoo.mes.basic.constants.NumberPatternFields;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+
+public class NumberPatternGeneratorServiceTest {
+
+    private NumberPatternGeneratorService numberPatternGeneratorService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private Entity numberPattern;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+        numberPatternGeneratorService = new NumberPatternGeneratorService();
+        ReflectionTestUtils.setField(numberPatternGeneratorService, "jdbcTemplate", jdbcTemplate);
+
+        given(numberPattern.getStringField(NumberPatternFields.NUMBER)).willReturn("BATCH");
+    }
+
+    private EntityList mockEntityList(List<Entity> list) {
+        EntityList entityList = mock(EntityList.class);
+        given(entityList.iterator()).willReturn(list.iterator());
+        return entityList;
+    }
+
+    private Entity mockElement(final NumberPatternElement numberPatternElement, final String value) {
+        Entity element = mock(Entity.class);
+        given(element.getStringField(NumberPatternElementFields.ELEMENT)).willReturn(numberPatternElement.getStringValue());
+        given(element.getStringField(NumberPatternElementFields.VALUE)).willReturn(value);
+        return element;
+    }
+
+    @Test
+    public void shouldGenerateNumber() {
+        // given
+        EntityList elements = mockEntityList(asList(mockElement(NumberPatternElement.XX, "B-"),
+                mockElement(NumberPatternElement.N999, null)));
+        given(numberPattern.getHasManyField(NumberPatternFields.NUMBER_PATTERN_ELEMENTS)).willReturn(elements);
+        given(jdbcTemplate.queryForObject(startsWith("select get_sequence_value_for_pattern"), anyMap(), eq(Long.class)))
+                .willReturn(7L);
+
+        // when
+        String number = numberPatternGeneratorService.generateNumber(numberPattern);
+
+        // then
+        assertEquals("B-007", number);
+        verify(jdbcTemplate, never()).queryForList(startsWith("select nextval"), anyMap(), eq(Long.class));
+    }
+
+    @Test
+    public void shouldGenerateNumbersWithReservedSequenceValues() {
+        // given
+        EntityList elements = mockEntityList(asList(mockElement(NumberPatternElement.XX, "B-"),
+                mockElement(NumberPatternElement.N999, null)));
+        given(numberPattern.getHasManyField(NumberPatternFields.NUMBER_PATTERN_ELEMENTS)).willReturn(elements);
+        given(jdbcTemplate.queryForObject(startsWith("select get_sequence_value_for_pattern"), anyMap(), eq(Long.class)))
+                .willReturn(998L);
+        given(jdbcTemplate.queryForList(startsWith("select nextval"), anyMap(), eq(Long.class))).willReturn(asList(999L, 1000L));
+
+        // when
+        List<String> numbers = numberPatternGeneratorService.generateNumbers(numberPattern, 3);
+
+        // then
+        assertEquals(asList("B-998", "B-999", "B-1000"), numbers);
+        verify(jdbcTemplate, times(1)).queryForObject(startsWith("select get_sequence_value_for_pattern"), anyMap(),
+                eq(Long.class));
+        verify(jdbcTemplate, times(1)).queryForList(startsWith("select nextval"), anyMap(), eq(Long.class));
+    }
+
+    @Test
+    public void shouldGenerateSameNumbersInBulkAsSequentially() {
+        // given
+        given(numberPattern.getHasManyField(NumberPatternFields.NUMBER_PATTERN_ELEMENTS)).willAnswer(
+                invocation -> mockEntityList(asList(mockElement(NumberPatternElement.XX, "B-"),
+                        mockElement(NumberPatternElement.N999, null))));
+        given(jdbcTemplate.queryForObject(startsWith("select get_sequence_value_for_pattern"), anyMap(), eq(Long.class)))
+                .willReturn(98L, 99L, 100L, 98L);
+        given(jdbcTemplate.queryForList(startsWith("select nextval"), anyMap(), eq(Long.class))).willReturn(asList(99L, 100L));
+
+        // when
+        List<String> sequentialNumbers = asList(numberPatternGeneratorService.generateNumber(numberPattern),
+                numberPatternGeneratorService.generateNumber(numberPattern),
+                numberPatternGeneratorService.generateNumber(numberPattern));
+        List<String> bulkNumbers = numberPatternGeneratorService.generateNumbers(numberPattern, 3);
+
+        // then
+        assertEquals(asList("B-098", "B-099", "B-100"), sequentialNumbers);
+        assertEquals(sequentialNumbers, bulkNumbers);
+        verify(jdbcTemplate, times(4)).queryForObject(startsWith("select get_sequence_value_for_pattern"), anyMap(),
+                eq(Long.class));
+        verify(jdbcTemplate, times(1)).queryForList(startsWith("select nextval"), anyMap(), eq(Long.class));
+    }
+
+}
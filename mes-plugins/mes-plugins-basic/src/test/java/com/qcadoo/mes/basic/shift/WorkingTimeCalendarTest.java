@@ -0,0 +1,133 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.List;
+import java.util.Optional;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+
+public class WorkingTimeCalendarTest {
+
+    private static final DateTime DAY = new DateTime(2020, 3, 2, 0, 0);
+
+    private static final long HOUR = 60L * 60L * 1000L;
+
+    private WorkingTimeCalendar buildCalendar() {
+        List<DateTimeRange> ranges = Lists.newArrayList(new DateTimeRange(at(0, 14), at(0, 22)),
+                new DateTimeRange(at(0, 6), at(0, 14)), new DateTimeRange(at(0, 12), at(0, 16)),
+                new DateTimeRange(at(1, 6), at(1, 14)));
+
+        return WorkingTimeCalendar.build(DAY.getMillis(), DAY.plusDays(2).getMillis(), ranges);
+    }
+
+    private static DateTime at(final int day, final int hour) {
+        return DAY.plusDays(day).withHourOfDay(hour);
+    }
+
+    @Test
+    public final void shouldMergeOverlappingRanges() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar();
+
+        // when
+        long workingMillis = calendar.getWorkingMillis(DAY.getMillis(), DAY.plusDays(2).getMillis());
+
+        // then
+        assertEquals(2, calendar.size());
+        assertEquals(24 * HOUR, workingMillis);
+    }
+
+    @Test
+    public final void shouldSumWorkingTimeBetweenDatesInsideRanges() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar();
+
+        // when
+        long workingMillis = calendar.getWorkingMillis(at(0, 20).getMillis(), at(1, 7).getMillis());
+
+        // then
+        assertEquals(3 * HOUR, workingMillis);
+    }
+
+    @Test
+    public final void shouldAddWorkingTimeSkippingBreaks() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar();
+
+        // when
+        Optional<Long> dateTo = calendar.addWorkingMillis(at(0, 20).getMillis(), 5 * HOUR);
+
+        // then
+        assertEquals(Optional.of(at(1, 9).getMillis()), dateTo);
+    }
+
+    @Test
+    public final void shouldAddWorkingTimeEndingExactlyAtEndOfRange() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar();
+
+        // when
+        Optional<Long> dateTo = calendar.addWorkingMillis(at(0, 4).getMillis(), 16 * HOUR);
+
+        // then
+        assertEquals(Optional.of(at(0, 22).getMillis()), dateTo);
+    }
+
+    @Test
+    public final void shouldReturnEmptyWhenWorkingTimeExceedsHorizon() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar();
+
+        // when
+        Optional<Long> dateTo = calendar.addWorkingMillis(at(1, 10).getMillis(), 5 * HOUR);
+
+        // then
+        assertFalse(dateTo.isPresent());
+    }
+
+    @Test
+    public final void shouldFindNearestWorkingTime() {
+        // given
+        WorkingTimeCalendar calendar = buildCalendar();
+
+        // when
+        Optional<Long> insideRange = calendar.findNearestWorkingTime(at(0, 8).getMillis());
+        Optional<Long> betweenRanges = calendar.findNearestWorkingTime(at(0, 22).getMillis());
+        Optional<Long> afterRanges = calendar.findNearestWorkingTime(at(1, 14).getMillis());
+
+        // then
+        assertEquals(Optional.of(at(0, 8).getMillis()), insideRange);
+        assertEquals(Optional.of(at(1, 6).getMillis()), betweenRanges);
+        assertFalse(afterRanges.isPresent());
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IntervalSetTest {
+
+    private static IntervalSet intervals(final long... bounds) {
+        IntervalSet.Builder builder = IntervalSet.builder();
+
+        for (int i = 0; i < bounds.length; i += 2) {
+            builder.add(bounds[i], bounds[i + 1]);
+        }
+
+        return builder.build();
+    }
+
+    @Test
+    public final void shouldMergeOverlappingAbuttingAndContainedIntervals() {
+        // when
+        IntervalSet intervals = intervals(10, 20, 0, 5, 5, 8, 12, 15, 18, 25, 30, 30, 40, 50);
+
+        // then
+        assertEquals(3, intervals.size());
+        assertEquals(intervals(0, 8, 10, 25, 40, 50), intervals);
+        assertEquals(33, intervals.getTotalLength());
+    }
+
+    @Test
+    public final void shouldBuildEmptySetFromNoIntervals() {
+        // when
+        IntervalSet intervals = intervals(3, 3);
+
+        // then
+        assertTrue(intervals.isEmpty());
+    }
+
+    @Test
+    public final void shouldUnionSets() {
+        // when
+        IntervalSet union = intervals(0, 10, 20, 30).union(intervals(5, 20, 40, 50));
+
+        // then
+        assertEquals(intervals(0, 30, 40, 50), union);
+    }
+
+    @Test
+    public final void shouldIntersectSets() {
+        // when
+        IntervalSet intersection = intervals(0, 10, 20, 30, 40, 50).intersect(intervals(5, 25, 28, 45));
+
+        // then
+        assertEquals(intervals(5, 10, 20, 25, 28, 30, 40, 45), intersection);
+    }
+
+    @Test
+    public final void shouldSubtractSets() {
+        // when
+        IntervalSet difference = intervals(0, 10, 20, 30, 40, 50).subtract(intervals(2, 4, 6, 22, 25, 26, 45, 60));
+
+        // then
+        assertEquals(intervals(0, 2, 4, 6, 22, 25, 26, 30, 40, 45), difference);
+    }
+
+    @Test
+    public final void shouldComplementSetInGivenInterval() {
+        // when
+        IntervalSet complement = intervals(-5, 10, 20, 30).complement(0, 40);
+
+        // then
+        assertEquals(intervals(10, 20, 30, 40), complement);
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.util;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.qcadoo.mes.basic.hooks.UnitConversionItemHooksB;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.CustomRestriction;
+import com.qcadoo.model.api.units.PossibleUnitConversions;
+import com.qcadoo.model.api.units.UnitConversionService;
+
+public class UnitConversionsCacheTest {
+
+    private static final String L_KG = "kg";
+
+    private static final int L_TENANT_ID = 1;
+
+    private UnitConversionsCache unitConversionsCache;
+
+    private UnitConversionItemHooksB unitConversionItemHooksB;
+
+    @Mock
+    private UnitConversionService unitConversionService;
+
+    @Mock
+    private DataDefinition unitConversionItemDD;
+
+    @Mock
+    private Entity unitConversionItem;
+
+    private Entity product;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        unitConversionsCache = spy(new UnitConversionsCache());
+        doReturn(L_TENANT_ID).when(unitConversionsCache).getCurrentTenantId();
+        ReflectionTestUtils.setField(unitConversionsCache, "unitConversionService", unitConversionService);
+
+        unitConversionItemHooksB = new UnitConversionItemHooksB();
+        ReflectionTestUtils.setField(unitConversionItemHooksB, "unitConversionsCache", unitConversionsCache);
+
+        product = mockEntity(1L);
+
+        given(unitConversionService.getPossibleConversions(anyString(), any(CustomRestriction.class))).willAnswer(
+                invocation -> mock(PossibleUnitConversions.class));
+        given(unitConversionService.getPossibleConversions(anyString())).willAnswer(
+                invocation -> mock(PossibleUnitConversions.class));
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void shouldLoadProductConversionsOnlyOnce() {
+        // when
+        PossibleUnitConversions first = unitConversionsCache.getPossibleConversions(product, L_KG);
+        PossibleUnitConversions second = unitConversionsCache.getPossibleConversions(product, L_KG);
+
+        // then
+        assertSame(first, second);
+        verify(unitConversionService, times(1)).getPossibleConversions(eq(L_KG), any(CustomRestriction.class));
+    }
+
+    @Test
+    public void shouldLoadGlobalConversionsOnlyOnce() {
+        // when
+        PossibleUnitConversions first = unitConversionsCache.getPossibleConversions(L_KG);
+        PossibleUnitConversions second = unitConversionsCache.getPossibleConversions(L_KG);
+
+        // then
+        assertSame(first, second);
+        verify(unitConversionService, times(1)).getPossibleConversions(L_KG);
+    }
+
+    @Test
+    public void shouldNotCacheConversionsOfNotSavedProduct() {
+        // given
+        Entity notSavedProduct = mockEntity();
+
+        // when
+        unitConversionsCache.getPossibleConversions(notSavedProduct, L_KG);
+        unitConversionsCache.getPossibleConversions(notSavedProduct, L_KG);
+
+        // then
+        verify(unitConversionService, times(2)).getPossibleConversions(eq(L_KG), any(CustomRestriction.class));
+    }
+
+    @Test
+    public void shouldReloadConversionsAfterConversionIsSaved() {
+        // given
+        unitConversionsCache.getPossibleConversions(product, L_KG);
+
+        // when
+        unitConversionItemHooksB.onSave(unitConversionItemDD, unitConversionItem);
+        unitConversionsCache.getPossibleConversions(product, L_KG);
+
+        // then
+        verify(unitConversionService, times(2)).getPossibleConversions(eq(L_KG), any(CustomRestriction.class));
+    }
+
+    @Test
+    public void shouldReloadConversionsOnlyAfterSavingTransactionCommits() {
+        // given
+        PossibleUnitConversions cached = unitConversionsCache.getPossibleConversions(product, L_KG);
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        // when
+        unitConversionItemHooksB.onSave(unitConversionItemDD, unitConversionItem);
+
+        // then
+        assertSame(cached, unitConversionsCache.getPossibleConversions(product, L_KG));
+
+        // when
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCommit();
+        }
+        unitConversionsCache.getPossibleConversions(product, L_KG);
+
+        // then
+        verify(unitConversionService, times(2)).getPossibleConversions(eq(L_KG), any(CustomRestriction.class));
+    }
+
+    @Test
+    public void shouldReloadConversionsAfterConversionIsDeleted() {
+        // given
+        unitConversionsCache.getPossibleConversions(product, L_KG);
+
+        // when
+        unitConversionItemHooksB.onDelete(unitConversionItemDD, unitConversionItem);
+        unitConversionsCache.getPossibleConversions(product, L_KG);
+
+        // then
+        verify(unitConversionService, times(2)).getPossibleConversions(eq(L_KG), any(CustomRestriction.class));
+    }
+
+}
@@ -23,6 +23,9 @@
  */
 package com.qcadoo.mes.cmmsMachineParts;
 
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.notifications.NotificationCountersService;
 import com.qcadoo.mes.cmmsMachineParts.constants.CmmsMachinePartsConstants;
 import com.qcadoo.mes.cmmsMachineParts.constants.MaintenanceEventFields;
 import com.qcadoo.mes.cmmsMachineParts.constants.MaintenanceEventType;
@@ -31,22 +34,39 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchOrders;
-import com.qcadoo.model.api.search.SearchProjections;
 import com.qcadoo.model.api.search.SearchRestrictions;
-import com.qcadoo.security.constants.QcadooSecurityConstants;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class MaintenanceEventService {
 
+    private static final String L_NEW_EVENTS = "newMaintenanceEvents";
+
+    private static final String L_USER_FACTORY_QUERY = "SELECT factory_id AS factoryId FROM qcadoosecurity_user "
+            + "WHERE id = :userId AND factory_id IS NOT NULL";
+
+    private static final String L_EVENTS_TO_NOTIFICATION_QUERY = "SELECT id, factory_id AS factoryId "
+            + "FROM cmmsmachineparts_maintenanceevent WHERE soundnotifications = true";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private NotificationCountersService notificationCountersService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public boolean existOpenFailrueForObjectFromEvent(final Entity event) {
 
         return !getExistingEventsForEvent(event, MaintenanceEventType.FAILURE.getStringValue()).isEmpty();
@@ -113,25 +133,39 @@ public class MaintenanceEventService {
     }
 
     public boolean existsNewEventsToNotification(Long currentUserId) {
-        Entity user = dataDefinitionService.get(QcadooSecurityConstants.PLUGIN_IDENTIFIER, QcadooSecurityConstants.MODEL_USER)
-                .get(currentUserId);
-        Entity factory = user.getBelongsToField("factory");
+        Set<Long> factoryIds = notificationCountersService.getUserKeys(L_NEW_EVENTS, currentUserId, this::getUserFactoryIds);
 
-       SearchCriteriaBuilder scb = getMaintenanceEventDD()
-                .find()
-                .setProjection(SearchProjections.alias(SearchProjections.rowCount(), "countrows"))
-                .add(SearchRestrictions.eq(MaintenanceEventFields.SOUND_NOTIFICATIONS, true));
+        return notificationCountersService.exists(L_NEW_EVENTS, factoryIds, this::getEventsToNotification);
+    }
 
-        if (factory != null) {
-            scb = scb.add(SearchRestrictions.belongsTo("factory", factory));
-        }
+    public void onMaintenanceEventSave(final Entity event) {
+        Set<Long> factoryIds = null;
 
-        scb = scb.addOrder(SearchOrders.asc("countrows"));
+        if (event.getBooleanField(MaintenanceEventFields.SOUND_NOTIFICATIONS)) {
+            Entity factory = event.getBelongsToField(MaintenanceEventFields.FACTORY);
 
-        Entity entity = scb.setFirstResult(0).setMaxResults(1).uniqueResult();
-        if (entity.getLongField("countrows") > 0) {
-            return true;
+            factoryIds = Sets.newHashSet(Objects.isNull(factory) ? null : factory.getId());
         }
-        return false;
+
+        notificationCountersService.update(L_NEW_EVENTS, event, factoryIds);
     }
+
+    public void onMaintenanceEventDelete(final Entity event) {
+        notificationCountersService.remove(L_NEW_EVENTS, event.getId());
+    }
+
+    private Set<Long> getUserFactoryIds(final Long userId) {
+        return Sets.newHashSet(jdbcTemplate.queryForList(L_USER_FACTORY_QUERY, new MapSqlParameterSource("userId", userId),
+                Long.class));
+    }
+
+    private Map<Long, Set<Long>> getEventsToNotification() {
+        Map<Long, Set<Long>> events = Maps.newHashMap();
+
+        jdbcTemplate.query(L_EVENTS_TO_NOTIFICATION_QUERY, new MapSqlParameterSource(),
+                (RowCallbackHandler) rs -> events.put(rs.getLong("id"), Sets.newHashSet((Long) rs.getObject("factoryId"))));
+
+        return events;
+    }
+
 }
@@ -18,6 +18,7 @@ import org.springframework.stereotype.Service;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
 import com.qcadoo.mes.costCalculation.print.dto.ComponentCostKey;
+import com.qcadoo.mes.costCalculation.print.dto.ComponentsCalculation;
 import com.qcadoo.mes.costCalculation.print.dto.ComponentsCalculationHolder;
 import com.qcadoo.mes.costNormsForOperation.constants.CalculationOperationComponentFields;
 import com.qcadoo.mes.technologies.ProductQuantitiesWithComponentsService;
@@ -28,9 +29,6 @@ import com.qcadoo.mes.timeNormsForOperations.constants.TechnologyOperationCompon
 @Service
 public class CostCalculationComponentsService {
 
-    @Autowired
-    private ProductsCostCalculationService productsCostCalculationService;
-
     @Autowired
     private ProductStructureTreeService productStructureTreeService;
 
@@ -44,19 +42,16 @@ public class CostCalculationComponentsService {
     private DataDefinitionService dataDefinitionService;
 
     private void addMaterialCost(final Entity costCalculation, final List<ComponentsCalculationHolder> allOperationComponents,
-                                 final Entity technology, final BigDecimal quantity) {
+                                 final Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC,
+                                 final MaterialPriceResolver materialPriceResolver) {
         MathContext mathContext = numberService.getMathContext();
-        Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC = productQuantitiesWithComponentsService
-                .getNeededProductQuantitiesByOPC(technology, quantity, MrpAlgorithm.ONLY_MATERIALS);
         DataDefinition operationProductComponentDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
-        Entity offer = costCalculation.getBelongsToField(CostCalculationFields.OFFER);
         for (Map.Entry<OperationProductComponentHolder, BigDecimal> neededProductQuantity : materialQuantitiesByOPC.entrySet()) {
             Entity product = neededProductQuantity.getKey().getProduct();
             Entity operationProductComponent = operationProductComponentDD.get(neededProductQuantity.getKey()
                     .getOperationProductComponentId());
-            BigDecimal costPerUnit = productsCostCalculationService.calculateOperationProductCostPerUnit(costCalculation,
-                    product, operationProductComponent);
+            BigDecimal costPerUnit = materialPriceResolver.getOperationProductCostPerUnit(product, operationProductComponent);
 
             BigDecimal productQuantity = neededProductQuantity.getValue();
             BigDecimal costForGivenQuantity = costPerUnit.multiply(BigDecimalUtils.convertNullToZero(productQuantity),
@@ -70,10 +65,7 @@ public class CostCalculationComponentsService {
                 for (Entity pbs : productsBySize) {
                     Entity p = pbs.getBelongsToField(ProductBySizeGroupFields.PRODUCT);
 
-                    BigDecimal costPerUnitPBS = productsCostCalculationService.calculateProductCostPerUnit(p,
-                            costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
-                            costCalculation.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED),
-                            offer);
+                    BigDecimal costPerUnitPBS = materialPriceResolver.getProductCostPerUnit(p);
                     BigDecimal q = costCalculation.getDecimalField(CostCalculationFields.QUANTITY).multiply(
                             pbs.getDecimalField(ProductBySizeGroupFields.QUANTITY), numberService.getMathContext());
 
@@ -125,8 +117,18 @@ public class CostCalculationComponentsService {
         }
     }
 
-    public Collection<ComponentsCalculationHolder> getComponentCosts(final Entity costCalculation, final Entity technology,
-                                                                     List<Entity> calculationOperationComponents) {
+    /**
+     * Prepares component costs of the technology - its material costs and component quantities - without touching the cost
+     * calculation, so technologies can be prepared in parallel.
+     *
+     * @param materialQuantitiesByOPC
+     *            needed quantities of materials of the technology with its components, as given by
+     *            {@link ProductQuantitiesWithComponentsService#getNeededProductQuantitiesByOPC} for
+     *            {@link MrpAlgorithm#ONLY_MATERIALS}
+     */
+    public ComponentsCalculation prepareComponentCosts(final Entity costCalculation, final Entity technology,
+                                                       final Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC,
+                                                       final MaterialPriceResolver materialPriceResolver) {
         EntityTree operationComponents = productStructureTreeService.getOperationComponentsFromTechnology(technology);
         List<ComponentsCalculationHolder> components = operationComponents
                 .stream()
@@ -141,12 +143,22 @@ public class CostCalculationComponentsService {
                         .getBelongsToField(TechnologyOperationComponentFields.PRODUCT_FROM_STRUCTURE_TREE), technology))
                 .collect(Collectors.toList());
         BigDecimal quantity = costCalculation.getDecimalField(CostCalculationFields.QUANTITY);
-        addMaterialCost(costCalculation, allOperationComponents, technology, quantity);
-        addLaborCost(costCalculation, allOperationComponents, calculationOperationComponents);
+        addMaterialCost(costCalculation, allOperationComponents, materialQuantitiesByOPC, materialPriceResolver);
         fillComponentsQuantity(components, technology, quantity);
-        fillComponentsCosts(operationComponents, components, allOperationComponents, quantity);
         fillAdditionalProductsMark(components);
-        return groupComponentCosts(components);
+        return new ComponentsCalculation(operationComponents, components, allOperationComponents, quantity);
+    }
+
+    /**
+     * Completes prepared component costs with labour costs of the technology's calculation operation components.
+     */
+    public Collection<ComponentsCalculationHolder> getComponentCosts(final Entity costCalculation,
+                                                                     final ComponentsCalculation componentsCalculation,
+                                                                     List<Entity> calculationOperationComponents) {
+        addLaborCost(costCalculation, componentsCalculation.getAllOperationComponents(), calculationOperationComponents);
+        fillComponentsCosts(componentsCalculation.getOperationComponents(), componentsCalculation.getComponents(),
+                componentsCalculation.getAllOperationComponents(), componentsCalculation.getQuantity());
+        return groupComponentCosts(componentsCalculation.getComponents());
     }
 
     private void fillAdditionalProductsMark(List<ComponentsCalculationHolder> components) {
@@ -62,9 +62,6 @@ public class CostCalculationMaterialsService {
     @Autowired
     private PluginManager pluginManager;
 
-    @Autowired
-    private ProductsCostCalculationService productsCostCalculationService;
-
     @Autowired
     private NumberService numberService;
 
@@ -78,22 +75,19 @@ public class CostCalculationMaterialsService {
     private ProductQuantitiesWithComponentsService productQuantitiesWithComponentsService;
 
     public List<CostCalculationMaterial> getSortedMaterialsFromProductQuantities(final Entity costCalculation,
-                                                                                 final Entity technology) {
+                                                                                 final Entity technology,
+                                                                                 final Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC,
+                                                                                 final MaterialPriceResolver materialPriceResolver) {
         List<CostCalculationMaterial> materialCosts = Lists.newArrayList();
-        BigDecimal quantity = costCalculation.getDecimalField(CostCalculationFields.QUANTITY);
-        Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC = getNeededProductQuantitiesByOPC(
-                costCalculation, technology, quantity);
         DataDefinition operationProductComponentDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
         String technologyNumber = technology.getStringField(TechnologyFields.NUMBER);
         String finalProductNumber = technology.getBelongsToField(TechnologyFields.PRODUCT).getStringField(ProductFields.NUMBER);
-        Entity offer = costCalculation.getBelongsToField(CostCalculationFields.OFFER);
         for (Map.Entry<OperationProductComponentHolder, BigDecimal> neededProductQuantity : materialQuantitiesByOPC.entrySet()) {
             Entity product = neededProductQuantity.getKey().getProduct();
             Entity operationProductComponent = operationProductComponentDD.get(neededProductQuantity.getKey()
                     .getOperationProductComponentId());
-            BigDecimal costPerUnit = productsCostCalculationService.calculateOperationProductCostPerUnit(costCalculation,
-                    product, operationProductComponent);
+            BigDecimal costPerUnit = materialPriceResolver.getOperationProductCostPerUnit(product, operationProductComponent);
 
             BigDecimal productQuantity = neededProductQuantity.getValue();
             BigDecimal costForGivenQuantity = costPerUnit.multiply(BigDecimalUtils.convertNullToZero(productQuantity),
@@ -109,10 +103,7 @@ public class CostCalculationMaterialsService {
                 for (Entity pbs : productsBySize) {
                     Entity p = pbs.getBelongsToField(ProductBySizeGroupFields.PRODUCT);
 
-                    BigDecimal costPerUnitPBS = productsCostCalculationService.calculateProductCostPerUnit(p,
-                            costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
-                            costCalculation.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED),
-                            offer);
+                    BigDecimal costPerUnitPBS = materialPriceResolver.getProductCostPerUnit(p);
                     BigDecimal q = costCalculation.getDecimalField(CostCalculationFields.QUANTITY).multiply(
                             pbs.getDecimalField(ProductBySizeGroupFields.QUANTITY), numberService.getMathContext());
 
@@ -191,14 +182,22 @@ public class CostCalculationMaterialsService {
         return groupedMaterialCostsList;
     }
 
-    private Map<OperationProductComponentHolder, BigDecimal> getNeededProductQuantitiesByOPC(final Entity costCalculation,
-                                                                                             final Entity technology, final BigDecimal quantity) {
-        boolean includeComponents = costCalculation.getBooleanField(CostCalculationFields.INCLUDE_COMPONENTS);
-        if (pluginManager.isPluginEnabled(ORDERS_FOR_SUBPRODUCTS_GENERATION) && includeComponents) {
+    public Map<OperationProductComponentHolder, BigDecimal> getNeededProductQuantitiesByOPC(final Entity costCalculation,
+                                                                                            final Entity technology, final BigDecimal quantity) {
+        if (includesComponents(costCalculation)) {
             return productQuantitiesWithComponentsService.getNeededProductQuantitiesByOPC(technology, quantity,
                     MrpAlgorithm.ONLY_MATERIALS);
         }
         return productQuantitiesService.getNeededProductQuantitiesByOPC(technology, quantity, MrpAlgorithm.ONLY_COMPONENTS);
     }
 
+    /**
+     * @return true if materials of the cost calculation are taken from the technology with its components, which is the case
+     *         when components are included and subproducts orders can be generated
+     */
+    public boolean includesComponents(final Entity costCalculation) {
+        return pluginManager.isPluginEnabled(ORDERS_FOR_SUBPRODUCTS_GENERATION)
+                && costCalculation.getBooleanField(CostCalculationFields.INCLUDE_COMPONENTS);
+    }
+
 }
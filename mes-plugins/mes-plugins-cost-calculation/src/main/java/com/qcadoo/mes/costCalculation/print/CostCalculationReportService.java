@@ -24,12 +24,12 @@
 package com.qcadoo.mes.costCalculation.print;
 
 import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.print.XlsxReportFileHelper;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.file.FileService;
-import com.qcadoo.report.api.ReportService;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ComponentState.MessageType;
 import com.qcadoo.view.api.ViewDefinitionState;
@@ -55,14 +55,15 @@ public class CostCalculationReportService {
     private FileService fileService;
 
     @Autowired
-    private ReportService reportService;
+    private XlsxReportFileHelper xlsxReportFileHelper;
 
     @Autowired
     private CostCalculationXlsService costCalculationXlsService;
 
     public void printCostCalculationReport(final ViewDefinitionState view, final ComponentState state, final String[] args) {
-        reportService.printGeneratedReport(view, state, new String[] { args[0], CostCalculationConstants.PLUGIN_IDENTIFIER,
-                CostCalculationConstants.MODEL_COST_CALCULATION });
+        xlsxReportFileHelper.printReport(view, state, args, getCostCalculation((Long) state.getFieldValue()),
+                "/rest/costCalculation/costCalculation.xlsx", CostCalculationConstants.PLUGIN_IDENTIFIER,
+                CostCalculationConstants.MODEL_COST_CALCULATION);
     }
 
     public void generateCostCalculationReport(final ViewDefinitionState view, final ComponentState state, final String[] args) {
@@ -117,7 +118,7 @@ public class CostCalculationReportService {
         }
     }
 
-    private Entity getCostCalculation(final Long costCalculationId) {
+    public Entity getCostCalculation(final Long costCalculationId) {
         return dataDefinitionService
                 .get(CostCalculationConstants.PLUGIN_IDENTIFIER, CostCalculationConstants.MODEL_COST_CALCULATION)
                 .get(costCalculationId);
@@ -1,40 +1,40 @@
 package com.qcadoo.mes.costCalculation.print;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
 
-import com.google.common.base.Strings;
-import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
-import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingServiceImpl;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityTypeOfMaterial;
 import com.qcadoo.mes.costCalculation.print.dto.TechnologyProduct;
-import com.qcadoo.mes.technologies.ProductQuantitiesService;
-import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
-import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
-import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFCellStyle;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
-import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.BorderStyle;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
 import org.apache.poi.ss.usermodel.FillPatternType;
 import org.apache.poi.ss.usermodel.Font;
 import org.apache.poi.ss.usermodel.HorizontalAlignment;
 import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.VerticalAlignment;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.print.XlsxReportFileHelper;
 import com.qcadoo.mes.costCalculation.constants.CalculationResultFields;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
@@ -55,10 +55,13 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.report.api.xls.XlsDocumentService;
 
 @Service
-public class CostCalculationXlsService extends XlsDocumentService {
+public class CostCalculationXlsService {
+
+    public static final String L_XLSX_EXTENSION = XlsxReportFileHelper.L_XLSX_EXTENSION;
+
+    private static final int ROW_ACCESS_WINDOW_SIZE = 100;
 
     @Autowired
     private TranslationService translationService;
@@ -67,7 +70,7 @@ public class CostCalculationXlsService extends XlsDocumentService {
     private NumberService numberService;
 
     @Autowired
-    private CostCalculationMaterialsService costCalculationMaterialsService;
+    private TechnologyCostsService technologyCostsService;
 
     @Autowired
     private CostCalculationComponentsService costCalculationComponentsService;
@@ -87,9 +90,6 @@ public class CostCalculationXlsService extends XlsDocumentService {
     @Autowired
     private TechnologyService technologyService;
 
-    @Autowired
-    private ProductQuantitiesService productQuantitiesService;
-
     private static final List<String> CALCULATION_RESULTS_HEADERS = Lists.newArrayList("technologyNumber", "technologyName",
             "productNumber", "quantity", "unit", "additionalProductsQuantity", "materialCosts", "labourCost", "productionCosts", "materialCostMargin",
             "materialCostMarginValue", "labourCostMargin", "labourCostMarginValue", "additionalOverhead", "totalCost",
@@ -97,94 +97,94 @@ public class CostCalculationXlsService extends XlsDocumentService {
             "technicalProductionCostOverhead", "technicalProductionCostOverheadValue", "totalManufacturingCost", "profit",
             "profitValue", "sellingPrice", "containsComponents");
 
-    @Override
-    protected void addHeader(HSSFSheet sheet, Locale locale, Entity entity) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        HSSFRow headerRow = sheet.createRow(0);
-        int columnIndex = 0;
-        for (String key : CALCULATION_RESULTS_HEADERS) {
-            createHeaderCell(stylesContainer, headerRow,
-                    translationService.translate("costCalculation.costCalculation.report.xls.header." + key, locale),
-                    columnIndex);
-            columnIndex++;
+    /**
+     * Writes cost calculation to the xlsx file named after its file name field. Technologies are calculated in parallel by
+     * {@link TechnologyCostsService}, rows of each of them are written to all sheets in order of the technologies. Only the
+     * last {@link #ROW_ACCESS_WINDOW_SIZE} rows of each sheet are kept in memory.
+     */
+    public void generateDocument(final Entity entity, final Locale locale) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW_SIZE);
+
+        workbook.setCompressTempFiles(true);
+
+        try (OutputStream outputStream = new FileOutputStream(entity.getStringField(CostCalculationFields.FILE_NAME)
+                + L_XLSX_EXTENSION)) {
+            final StylesContainer stylesContainer = new StylesContainer(workbook, new FontsContainer(workbook));
+
+            addSheets(workbook, stylesContainer, entity, locale);
+
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
         }
     }
 
-    @Override
-    public String getReportTitle(Locale locale) {
+    public String getReportTitle(final Locale locale) {
         return translationService.translate("costCalculation.costCalculation.report.xls.sheet.calculationResults", locale);
     }
 
-    @Override
-    protected void addExtraSheets(final HSSFWorkbook workbook, Entity entity, Locale locale) {
-        List<CostCalculationMaterial> materialCosts = Lists.newArrayList();
-        List<ComponentsCalculationHolder> componentCosts = Lists.newArrayList();
-        List<Entity> calculationOperationComponents = Lists.newArrayList();
-        List<Entity> calculationResults = Lists.newArrayList();
-        Map<Long, Boolean> hasComponents = Maps.newHashMap();
-        List<TechnologyProduct> technologyProducts = Lists.newArrayList();
-
+    private void addSheets(final Workbook workbook, final StylesContainer stylesContainer, final Entity entity,
+            final Locale locale) {
         boolean includeComponents = entity.getBooleanField(CostCalculationFields.INCLUDE_COMPONENTS);
+        boolean standardLaborCosts = SourceOfOperationCosts.STANDARD_LABOR_COSTS
+                .equals(SourceOfOperationCosts.parseString(entity.getStringField(CostCalculationFields.SOURCE_OF_OPERATION_COSTS)));
+
+        Sheet calculationResultsSheet = createSheet(workbook, getReportTitle(locale));
+        Sheet technologyProductsSheet = createSheet(workbook,
+                translationService.translate("costCalculation.costCalculation.report.xls.sheet.technologyProducts", locale));
+        Sheet materialCostsSheet = createSheet(workbook,
+                translationService.translate("costCalculation.costCalculation.report.xls.sheet.materialCosts", locale));
+        Sheet materialsBySizeSheet = createSheet(workbook,
+                translationService.translate("costCalculation.costCalculation.report.xls.sheet.materialsBySize", locale));
+        Sheet labourCostSheet = standardLaborCosts ? null : createSheet(workbook,
+                translationService.translate("costCalculation.costCalculation.report.xls.sheet.labourCost", locale));
+        Sheet componentCostsSheet = includeComponents ? createSheet(workbook,
+                translationService.translate("costCalculation.costCalculation.report.xls.sheet.componentCosts", locale)) : null;
+
+        createCalculationResultsHeader(calculationResultsSheet, stylesContainer, locale);
+        createTechnologyProductsHeader(technologyProductsSheet, stylesContainer, locale);
+        createMaterialCostsHeader(materialCostsSheet, stylesContainer, locale);
+
+        if (Objects.nonNull(labourCostSheet)) {
+            createLabourCostHeader(labourCostSheet, stylesContainer, locale);
+        }
+        if (Objects.nonNull(componentCostsSheet)) {
+            createComponentCostsHeader(componentCostsSheet, stylesContainer, locale);
+        }
 
-        HSSFSheet sheet = workbook.getSheetAt(0);
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        for (Entity technology : entity.getHasManyField(CostCalculationFields.TECHNOLOGIES)) {
-
-            ProductQuantitiesHolder productComponentQuantities = productQuantitiesService.getProductComponentQuantities(technology, entity.getDecimalField(CostCalculationFields.QUANTITY));
-            Map<OperationProductComponentHolder, BigDecimal> productQuantities = productComponentQuantities.getProductQuantities();
-            for (Map.Entry<OperationProductComponentHolder, BigDecimal> entry : productQuantities.entrySet()) {
+        MaterialPriceResolver materialPriceResolver = productsCostCalculationService.createMaterialPriceResolver(entity);
+        List<Long> technologyIds = entity.getHasManyField(CostCalculationFields.TECHNOLOGIES).stream().map(Entity::getId)
+                .collect(Collectors.toList());
+        BigDecimal[] additionalProductsQuantity = { BigDecimal.ZERO };
 
-                if (!entry.getKey().isEntityTypeSame(TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT)) {
-                    continue;
-                }
-
-                OperationProductComponentHolder operationProductComponentHolder = entry.getKey();
-                Entity product = operationProductComponentHolder.getProduct();
-                if (product == null) {
-                    continue;
-                }
+        technologyCostsService.calculateTechnologyCosts(entity, technologyIds, materialPriceResolver, technologyCosts -> {
+            Entity technology = technologyCosts.getTechnology();
 
-                Entity technologyOperationComponent = operationProductComponentHolder.getTechnologyOperationComponent();
-                Entity root = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot();
-                if (!technologyOperationComponent.getId().equals(root.getId())) {
-                    continue;
+            for (TechnologyProduct technologyProduct : technologyCosts.getTechnologyProducts()) {
+                if (ProductionCountingQuantityTypeOfMaterial.ADDITIONAL_FINAL_PRODUCT.getStringValue()
+                        .equals(technologyProduct.getProductType())) {
+                    additionalProductsQuantity[0] = additionalProductsQuantity[0].add(technologyProduct.getProductQuantity());
                 }
 
-                TechnologyProduct technologyProduct = new TechnologyProduct();
-                technologyProduct.setTechnologyNumber(technology.getStringField(TechnologyFields.NUMBER));
-                technologyProduct.setProductName(product.getStringField(ProductFields.NAME));
-                technologyProduct.setProductNumber(product.getStringField(ProductFields.NUMBER));
-                technologyProduct.setProductQuantity(entry.getValue());
-                technologyProduct.setUnit(product.getStringField(ProductFields.UNIT));
-
-                if (operationProductComponentHolder.isWaste()) {
-                    technologyProduct.setProductType(ProductionCountingQuantityTypeOfMaterial.WASTE.getStringValue());
-                } else if (product.getId().equals(technology.getBelongsToField(TechnologyFields.PRODUCT).getId())) {
-                    technologyProduct.setProductType(ProductionCountingQuantityTypeOfMaterial.FINAL_PRODUCT.getStringValue());
-                } else {
-                    technologyProduct.setProductType(ProductionCountingQuantityTypeOfMaterial.ADDITIONAL_FINAL_PRODUCT.getStringValue());
-                }
-                technologyProducts.add(technologyProduct);
+                addTechnologyProductRow(technologyProductsSheet, technologyProduct, stylesContainer, locale);
             }
 
-            List<CostCalculationMaterial> technologyMaterialCosts = costCalculationMaterialsService
-                    .getSortedMaterialsFromProductQuantities(entity, technology);
-            materialCosts.addAll(technologyMaterialCosts);
             BigDecimal technologyMaterialsCostsSum = BigDecimal.ZERO;
             boolean noMaterialPrice = false;
-            for (CostCalculationMaterial technologyMaterialCost : technologyMaterialCosts) {
+            for (CostCalculationMaterial technologyMaterialCost : technologyCosts.getMaterialCosts()) {
                 BigDecimal costForGivenQuantity = technologyMaterialCost.getCostForGivenQuantity();
                 if (BigDecimalUtils.valueEquals(costForGivenQuantity, BigDecimal.ZERO)) {
                     noMaterialPrice = true;
                 }
                 technologyMaterialsCostsSum = technologyMaterialsCostsSum.add(costForGivenQuantity,
                         numberService.getMathContext());
+
+                addMaterialCostRow(materialCostsSheet, technologyMaterialCost, stylesContainer, locale);
             }
+
+            List<Entity> technologyCalculationOperationComponents = Lists.newArrayList();
             BigDecimal labourCost;
-            if (SourceOfOperationCosts.STANDARD_LABOR_COSTS.equals(
-                    SourceOfOperationCosts.parseString(entity.getStringField(CostCalculationFields.SOURCE_OF_OPERATION_COSTS)))) {
+            if (standardLaborCosts) {
                 labourCost = entity.getBelongsToField(CostCalculationFields.STANDARD_LABOR_COST)
                         .getDecimalField(StandardLaborCostFields.LABOR_COST);
             } else if (technology.getBooleanField(TechnologyOperationComponentFieldsTNFO.PIECEWORK_PRODUCTION)) {
@@ -193,62 +193,52 @@ public class CostCalculationXlsService extends XlsDocumentService {
                                 .getBelongsToField(TechnologyOperationComponentFieldsCNFO.PIECE_RATE)), numberService.getMathContext());
             } else {
                 labourCost = operationsCostCalculationService.calculateOperationsCost(entity, technology);
-                List<Entity> technologyCalculationOperationComponents = entity
+                technologyCalculationOperationComponents = entity
                         .getHasManyField(CostCalculationFields.CALCULATION_OPERATION_COMPONENTS);
                 technologyCalculationOperationComponents
                         .forEach(e -> e.setField(CalculationOperationComponentFields.TECHNOLOGY, technology));
-                calculationOperationComponents.addAll(technologyCalculationOperationComponents);
+
+                for (Entity calculationOperationComponent : technologyCalculationOperationComponents) {
+                    addLabourCostRow(labourCostSheet, calculationOperationComponent, stylesContainer);
+                }
             }
-            BigDecimal additionalProductsQuantity = technologyProducts
-                    .stream()
-                    .filter(tp -> tp.getProductType().equals(ProductionCountingQuantityTypeOfMaterial.ADDITIONAL_FINAL_PRODUCT.getStringValue()))
-                    .map(TechnologyProduct::getProductQuantity).reduce(BigDecimal.ZERO, BigDecimal::add);
 
-            calculationResults.add(costCalculationService.createCalculationResults(entity, technology,
-                    technologyMaterialsCostsSum, labourCost, additionalProductsQuantity, noMaterialPrice));
-        }
-        if (includeComponents) {
-            for (Entity technology : entity.getHasManyField(CostCalculationFields.TECHNOLOGIES)) {
+            Entity calculationResult = costCalculationService.createCalculationResults(entity, technology,
+                    technologyMaterialsCostsSum, labourCost, additionalProductsQuantity[0], noMaterialPrice);
+
+            boolean containsComponents = false;
+            if (includeComponents) {
                 Collection<ComponentsCalculationHolder> technologyComponentCosts = costCalculationComponentsService
-                        .getComponentCosts(entity, technology, calculationOperationComponents);
-                componentCosts.addAll(technologyComponentCosts);
-                hasComponents.put(technology.getId(), !technologyComponentCosts.isEmpty());
+                        .getComponentCosts(entity, technologyCosts.getComponentsCalculation(),
+                                technologyCalculationOperationComponents);
+                containsComponents = !technologyComponentCosts.isEmpty();
+
+                createComponentCosts(entity, technologyComponentCosts);
+
+                for (ComponentsCalculationHolder componentCost : technologyComponentCosts) {
+                    addComponentCostRow(componentCostsSheet, componentCost, stylesContainer);
+                }
             }
 
-            createComponentCosts(entity, componentCosts);
-        }
-        createCalculationResultsSheet(sheet, entity, calculationResults, hasComponents, stylesContainer, locale);
-
-        createTechnologyProductsSheet(technologyProducts,
-                createSheet(workbook,
-                        translationService.translate("costCalculation.costCalculation.report.xls.sheet.technologyProducts", locale)),
-                locale);
-
-        createMaterialCostsSheet(materialCosts,
-                createSheet(workbook,
-                        translationService.translate("costCalculation.costCalculation.report.xls.sheet.materialCosts", locale)),
-                locale);
-
-
-        createMaterialsBySizeSheet(entity,
-                createSheet(workbook,
-                        translationService.translate("costCalculation.costCalculation.report.xls.sheet.materialsBySize", locale)),
-                locale);
-        if (!SourceOfOperationCosts.STANDARD_LABOR_COSTS.equals(
-                SourceOfOperationCosts.parseString(entity.getStringField(CostCalculationFields.SOURCE_OF_OPERATION_COSTS)))) {
-            createLabourCostSheet(calculationOperationComponents,
-                    createSheet(workbook,
-                            translationService.translate("costCalculation.costCalculation.report.xls.sheet.labourCost", locale)),
+            addCalculationResultRow(calculationResultsSheet, entity, calculationResult, containsComponents, stylesContainer,
                     locale);
+        });
+
+        createMaterialsBySizeSheet(entity, materialsBySizeSheet, stylesContainer, locale, materialPriceResolver);
+
+        autoSizeColumns(calculationResultsSheet, CALCULATION_RESULTS_HEADERS.size() - 1);
+        autoSizeColumns(technologyProductsSheet, 9);
+        autoSizeColumns(materialCostsSheet, 9);
+
+        if (Objects.nonNull(labourCostSheet)) {
+            autoSizeColumns(labourCostSheet, 10);
         }
-        if (includeComponents) {
-            createComponentCostsSheet(componentCosts, createSheet(workbook,
-                            translationService.translate("costCalculation.costCalculation.report.xls.sheet.componentCosts", locale)),
-                    locale);
+        if (Objects.nonNull(componentCostsSheet)) {
+            autoSizeColumns(componentCostsSheet, 9);
         }
     }
 
-    private void createComponentCosts(Entity entity, List<ComponentsCalculationHolder> componentCosts) {
+    private void createComponentCosts(Entity entity, Collection<ComponentsCalculationHolder> componentCosts) {
         DataDefinition ccDD = dataDefinitionService.get(CostCalculationConstants.PLUGIN_IDENTIFIER,
                 CostCalculationConstants.MODEL_COMPONENT_COST);
         for (ComponentsCalculationHolder component : componentCosts) {
@@ -260,69 +250,87 @@ public class CostCalculationXlsService extends XlsDocumentService {
         }
     }
 
-    private void createCalculationResultsSheet(HSSFSheet sheet, Entity costCalculation, List<Entity> calculationResults,
-                                               Map<Long, Boolean> hasComponents, StylesContainer stylesContainer, Locale locale) {
-        int rowIndex = 1;
-        for (Entity calculationResult : calculationResults) {
-            HSSFRow row = sheet.createRow(rowIndex);
-            Entity technology = calculationResult.getBelongsToField(CalculationResultFields.TECHNOLOGY);
-            Entity product = calculationResult.getBelongsToField(CalculationResultFields.PRODUCT);
-            boolean containsComponents = hasComponents.get(technology.getId()) != null && hasComponents.get(technology.getId());
-            createRegularCell(stylesContainer, row, 0, technology.getStringField(TechnologyFields.NUMBER));
-            createRegularCell(stylesContainer, row, 1, technology.getStringField(TechnologyFields.NAME));
-            createRegularCell(stylesContainer, row, 2, product.getStringField(ProductFields.NUMBER));
-            createNumericCell(stylesContainer, row, 3, costCalculation.getDecimalField(CostCalculationFields.QUANTITY));
-            createRegularCell(stylesContainer, row, 4, product.getStringField(ProductFields.UNIT));
-            createNumericCell(stylesContainer, row, 5, calculationResult.getDecimalField(CalculationResultFields.ADDITIONAL_PRODUCTS_QUANTITY));
-            createNumericCell(stylesContainer, row, 6, calculationResult.getDecimalField(CalculationResultFields.MATERIAL_COSTS));
-            createNumericCell(stylesContainer, row, 7, calculationResult.getDecimalField(CalculationResultFields.LABOUR_COST));
-            createNumericCell(stylesContainer, row, 8,
-                    calculationResult.getDecimalField(CalculationResultFields.PRODUCTION_COSTS));
-            createNumericCell(stylesContainer, row, 9,
-                    costCalculation.getDecimalField(CostCalculationFields.MATERIAL_COST_MARGIN));
-            createNumericCell(stylesContainer, row, 10,
-                    calculationResult.getDecimalField(CalculationResultFields.MATERIAL_COST_MARGIN_VALUE));
-            createNumericCell(stylesContainer, row, 11,
-                    costCalculation.getDecimalField(CostCalculationFields.PRODUCTION_COST_MARGIN));
-            createNumericCell(stylesContainer, row, 12,
-                    calculationResult.getDecimalField(CalculationResultFields.LABOUR_COST_MARGIN_VALUE));
-            createNumericCell(stylesContainer, row, 13,
-                    costCalculation.getDecimalField(CostCalculationFields.ADDITIONAL_OVERHEAD));
-            createNumericCell(stylesContainer, row, 14, calculationResult.getDecimalField(CalculationResultFields.TOTAL_COST));
-            createNumericCell(stylesContainer, row, 15,
-                    calculationResult.getDecimalField(CalculationResultFields.REGISTRATION_PRICE));
-            createNumericCell(stylesContainer, row, 16,
-                    costCalculation.getDecimalField(CostCalculationFields.REGISTRATION_PRICE_OVERHEAD));
-            createNumericCell(stylesContainer, row, 17,
-                    calculationResult.getDecimalField(CalculationResultFields.REGISTRATION_PRICE_OVERHEAD_VALUE));
-            createNumericCell(stylesContainer, row, 18,
-                    calculationResult.getDecimalField(CalculationResultFields.TECHNICAL_PRODUCTION_COST));
-            createNumericCell(stylesContainer, row, 19,
-                    costCalculation.getDecimalField(CostCalculationFields.TECHNICAL_PRODUCTION_COST_OVERHEAD));
-            createNumericCell(stylesContainer, row, 20,
-                    calculationResult.getDecimalField(CalculationResultFields.TECHNICAL_PRODUCTION_COST_OVERHEAD_VALUE));
-            createNumericCell(stylesContainer, row, 21,
-                    calculationResult.getDecimalField(CalculationResultFields.TOTAL_MANUFACTURING_COST));
-            createNumericCell(stylesContainer, row, 22, costCalculation.getDecimalField(CostCalculationFields.PROFIT));
-            createNumericCell(stylesContainer, row, 23, calculationResult.getDecimalField(CalculationResultFields.PROFIT_VALUE));
-            createNumericCell(stylesContainer, row, 24, calculationResult.getDecimalField(CalculationResultFields.SELLING_PRICE));
-            createRegularCell(stylesContainer, row, 25,
-                    containsComponents ? translationService.translate("qcadooView.true", locale)
-                            : translationService.translate("qcadooView.false", locale));
-            rowIndex++;
+    private Sheet createSheet(final Workbook workbook, final String sheetName) {
+        Sheet sheet = workbook.createSheet(WorkbookUtil.createSafeSheetName(sheetName));
+
+        if (sheet instanceof SXSSFSheet) {
+            ((SXSSFSheet) sheet).trackAllColumnsForAutoSizing();
         }
 
-        for (int i = 0; i < CALCULATION_RESULTS_HEADERS.size(); i++) {
+        return sheet;
+    }
+
+    private Row createNextRow(final Sheet sheet) {
+        return sheet.createRow(sheet.getLastRowNum() + 1);
+    }
+
+    private void autoSizeColumns(final Sheet sheet, final int lastColumn) {
+        for (int i = 0; i <= lastColumn; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
+    private void createCalculationResultsHeader(final Sheet sheet, final StylesContainer stylesContainer, final Locale locale) {
+        Row headerRow = sheet.createRow(0);
+        int columnIndex = 0;
+        for (String key : CALCULATION_RESULTS_HEADERS) {
+            createHeaderCell(stylesContainer, headerRow,
+                    translationService.translate("costCalculation.costCalculation.report.xls.header." + key, locale),
+                    columnIndex);
+            columnIndex++;
+        }
+    }
 
-    private void createTechnologyProductsSheet(List<TechnologyProduct> technologyProducts, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void addCalculationResultRow(Sheet sheet, Entity costCalculation, Entity calculationResult,
+                                         boolean containsComponents, StylesContainer stylesContainer, Locale locale) {
+        Row row = createNextRow(sheet);
+        Entity technology = calculationResult.getBelongsToField(CalculationResultFields.TECHNOLOGY);
+        Entity product = calculationResult.getBelongsToField(CalculationResultFields.PRODUCT);
+        createRegularCell(stylesContainer, row, 0, technology.getStringField(TechnologyFields.NUMBER));
+        createRegularCell(stylesContainer, row, 1, technology.getStringField(TechnologyFields.NAME));
+        createRegularCell(stylesContainer, row, 2, product.getStringField(ProductFields.NUMBER));
+        createNumericCell(stylesContainer, row, 3, costCalculation.getDecimalField(CostCalculationFields.QUANTITY));
+        createRegularCell(stylesContainer, row, 4, product.getStringField(ProductFields.UNIT));
+        createNumericCell(stylesContainer, row, 5, calculationResult.getDecimalField(CalculationResultFields.ADDITIONAL_PRODUCTS_QUANTITY));
+        createNumericCell(stylesContainer, row, 6, calculationResult.getDecimalField(CalculationResultFields.MATERIAL_COSTS));
+        createNumericCell(stylesContainer, row, 7, calculationResult.getDecimalField(CalculationResultFields.LABOUR_COST));
+        createNumericCell(stylesContainer, row, 8,
+                calculationResult.getDecimalField(CalculationResultFields.PRODUCTION_COSTS));
+        createNumericCell(stylesContainer, row, 9,
+                costCalculation.getDecimalField(CostCalculationFields.MATERIAL_COST_MARGIN));
+        createNumericCell(stylesContainer, row, 10,
+                calculationResult.getDecimalField(CalculationResultFields.MATERIAL_COST_MARGIN_VALUE));
+        createNumericCell(stylesContainer, row, 11,
+                costCalculation.getDecimalField(CostCalculationFields.PRODUCTION_COST_MARGIN));
+        createNumericCell(stylesContainer, row, 12,
+                calculationResult.getDecimalField(CalculationResultFields.LABOUR_COST_MARGIN_VALUE));
+        createNumericCell(stylesContainer, row, 13,
+                costCalculation.getDecimalField(CostCalculationFields.ADDITIONAL_OVERHEAD));
+        createNumericCell(stylesContainer, row, 14, calculationResult.getDecimalField(CalculationResultFields.TOTAL_COST));
+        createNumericCell(stylesContainer, row, 15,
+                calculationResult.getDecimalField(CalculationResultFields.REGISTRATION_PRICE));
+        createNumericCell(stylesContainer, row, 16,
+                costCalculation.getDecimalField(CostCalculationFields.REGISTRATION_PRICE_OVERHEAD));
+        createNumericCell(stylesContainer, row, 17,
+                calculationResult.getDecimalField(CalculationResultFields.REGISTRATION_PRICE_OVERHEAD_VALUE));
+        createNumericCell(stylesContainer, row, 18,
+                calculationResult.getDecimalField(CalculationResultFields.TECHNICAL_PRODUCTION_COST));
+        createNumericCell(stylesContainer, row, 19,
+                costCalculation.getDecimalField(CostCalculationFields.TECHNICAL_PRODUCTION_COST_OVERHEAD));
+        createNumericCell(stylesContainer, row, 20,
+                calculationResult.getDecimalField(CalculationResultFields.TECHNICAL_PRODUCTION_COST_OVERHEAD_VALUE));
+        createNumericCell(stylesContainer, row, 21,
+                calculationResult.getDecimalField(CalculationResultFields.TOTAL_MANUFACTURING_COST));
+        createNumericCell(stylesContainer, row, 22, costCalculation.getDecimalField(CostCalculationFields.PROFIT));
+        createNumericCell(stylesContainer, row, 23, calculationResult.getDecimalField(CalculationResultFields.PROFIT_VALUE));
+        createNumericCell(stylesContainer, row, 24, calculationResult.getDecimalField(CalculationResultFields.SELLING_PRICE));
+        createRegularCell(stylesContainer, row, 25,
+                containsComponents ? translationService.translate("qcadooView.true", locale)
+                        : translationService.translate("qcadooView.false", locale));
+    }
+
+    private void createTechnologyProductsHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService
                 .translate("costCalculation.costCalculation.report.xls.sheet.technologyProducts.technologyNumber", locale), 0);
         createHeaderCell(stylesContainer, row, translationService
@@ -335,31 +343,21 @@ public class CostCalculationXlsService extends XlsDocumentService {
                 .translate("costCalculation.costCalculation.report.xls.sheet.technologyProducts.productQuantity", locale), 4);
         createHeaderCell(stylesContainer, row, translationService
                 .translate("costCalculation.costCalculation.report.xls.sheet.technologyProducts.unit", locale), 5);
+    }
 
-
-        int rowCounter = 0;
-
-        for (TechnologyProduct technologyProduct : technologyProducts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, technologyProduct.getTechnologyNumber());
-            createRegularCell(stylesContainer, row, 1, translationService.translate("basicProductionCounting.productionCountingQuantity.typeOfMaterial.value." + technologyProduct.getProductType(), locale));
-            createRegularCell(stylesContainer, row, 2, technologyProduct.getProductNumber());
-            createRegularCell(stylesContainer, row, 3, technologyProduct.getProductName());
-            createNumericCell(stylesContainer, row, 4, technologyProduct.getProductQuantity());
-            createRegularCell(stylesContainer, row, 5, technologyProduct.getUnit());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 9; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
-
+    private void addTechnologyProductRow(Sheet sheet, TechnologyProduct technologyProduct, StylesContainer stylesContainer,
+                                         Locale locale) {
+        Row row = createNextRow(sheet);
+        createRegularCell(stylesContainer, row, 0, technologyProduct.getTechnologyNumber());
+        createRegularCell(stylesContainer, row, 1, translationService.translate("basicProductionCounting.productionCountingQuantity.typeOfMaterial.value." + technologyProduct.getProductType(), locale));
+        createRegularCell(stylesContainer, row, 2, technologyProduct.getProductNumber());
+        createRegularCell(stylesContainer, row, 3, technologyProduct.getProductName());
+        createNumericCell(stylesContainer, row, 4, technologyProduct.getProductQuantity());
+        createRegularCell(stylesContainer, row, 5, technologyProduct.getUnit());
     }
 
-    private void createMaterialCostsSheet(List<CostCalculationMaterial> materialCosts, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createMaterialCostsHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService
                 .translate("costCalculation.costCalculation.report.xls.sheet.materialCosts.technologyNumber", locale), 0);
         createHeaderCell(stylesContainer, row, translationService
@@ -381,35 +379,28 @@ public class CostCalculationXlsService extends XlsDocumentService {
                 .translate("costCalculation.costCalculation.report.xls.sheet.materialCosts.costPerUnit", locale), 8);
         createHeaderCell(stylesContainer, row,
                 translationService.translate("costCalculation.costCalculation.report.xls.sheet.materialCosts.cost", locale), 9);
+    }
 
-        int rowCounter = 0;
-
-        for (CostCalculationMaterial materialCost : materialCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, materialCost.getTechnologyNumber());
-            createRegularCell(stylesContainer, row, 1, materialCost.getFinalProductNumber());
-            createRegularCell(stylesContainer, row, 2, materialCost.getTechnologyInputProductType());
-            createRegularCell(stylesContainer, row, 3,
-                    materialCost.isDifferentProductsInDifferentSizes() ? translationService.translate("qcadooView.true", locale)
-                            : translationService.translate("qcadooView.false", locale));
-            createRegularCell(stylesContainer, row, 4, materialCost.getProductNumber());
-            createRegularCell(stylesContainer, row, 5, materialCost.getProductName());
-            createNumericWithNullCell(stylesContainer, row, 6, materialCost.getProductQuantity());
-            createRegularCell(stylesContainer, row, 7, materialCost.getUnit());
-            createNumericCell(stylesContainer, row, 8, materialCost.getCostPerUnit());
-            createNumericCell(stylesContainer, row, 9, materialCost.getCostForGivenQuantity());
-            rowCounter++;
-        }
-        for (int i = 0; i <= 9; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+    private void addMaterialCostRow(Sheet sheet, CostCalculationMaterial materialCost, StylesContainer stylesContainer,
+                                    Locale locale) {
+        Row row = createNextRow(sheet);
+        createRegularCell(stylesContainer, row, 0, materialCost.getTechnologyNumber());
+        createRegularCell(stylesContainer, row, 1, materialCost.getFinalProductNumber());
+        createRegularCell(stylesContainer, row, 2, materialCost.getTechnologyInputProductType());
+        createRegularCell(stylesContainer, row, 3,
+                materialCost.isDifferentProductsInDifferentSizes() ? translationService.translate("qcadooView.true", locale)
+                        : translationService.translate("qcadooView.false", locale));
+        createRegularCell(stylesContainer, row, 4, materialCost.getProductNumber());
+        createRegularCell(stylesContainer, row, 5, materialCost.getProductName());
+        createNumericWithNullCell(stylesContainer, row, 6, materialCost.getProductQuantity());
+        createRegularCell(stylesContainer, row, 7, materialCost.getUnit());
+        createNumericCell(stylesContainer, row, 8, materialCost.getCostPerUnit());
+        createNumericCell(stylesContainer, row, 9, materialCost.getCostForGivenQuantity());
     }
 
-    private void createMaterialsBySizeSheet(Entity entity, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createMaterialsBySizeSheet(Entity entity, Sheet sheet, StylesContainer stylesContainer, Locale locale,
+                                            MaterialPriceResolver materialPriceResolver) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService
                 .translate("costCalculation.costCalculation.report.xls.sheet.materialsBySize.technologyNumber", locale), 0);
         createHeaderCell(stylesContainer, row, translationService
@@ -437,23 +428,18 @@ public class CostCalculationXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row,
                 translationService.translate("costCalculation.costCalculation.report.xls.sheet.materialsBySize.cost", locale), 8);
 
-        int rowCounter = 0;
         DataDefinition productDataDefinition = dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER,
                 BasicConstants.MODEL_PRODUCT);
-        Entity offer = entity.getBelongsToField(CostCalculationFields.OFFER);
         for (CostCalculationMaterialBySize costCalculationMaterialBySize : costCalculationService.getMaterialsBySize(entity)) {
             Entity product = productDataDefinition.get(costCalculationMaterialBySize.getMaterialId());
-            BigDecimal costPerUnit = productsCostCalculationService.calculateProductCostPerUnit(product,
-                    entity.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
-                    entity.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED),
-                    offer);
+            BigDecimal costPerUnit = materialPriceResolver.getProductCostPerUnit(product);
 
             BigDecimal quantity = entity.getDecimalField(CostCalculationFields.QUANTITY)
                     .multiply(costCalculationMaterialBySize.getQuantity(), numberService.getMathContext());
 
             BigDecimal cost = numberService.setScaleWithDefaultMathContext(costPerUnit.multiply(quantity));
 
-            row = sheet.createRow(rowOffset + rowCounter);
+            row = createNextRow(sheet);
             createRegularCell(stylesContainer, row, 0, costCalculationMaterialBySize.getTechnologyNumber());
             createRegularCell(stylesContainer, row, 1, costCalculationMaterialBySize.getProductNumber());
             createRegularCell(stylesContainer, row, 2, costCalculationMaterialBySize.getTechnologyInputProductType());
@@ -463,19 +449,12 @@ public class CostCalculationXlsService extends XlsDocumentService {
             createRegularCell(stylesContainer, row, 6, costCalculationMaterialBySize.getUnit());
             createNumericCell(stylesContainer, row, 7, costPerUnit);
             createNumericCell(stylesContainer, row, 8, cost);
-
-            rowCounter++;
-        }
-        for (int i = 0; i <= 5; i++) {
-            sheet.autoSizeColumn(i, false);
         }
+        autoSizeColumns(sheet, 5);
     }
 
-    private void createLabourCostSheet(List<Entity> calculationOperationComponents, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createLabourCostHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService
                 .translate("costCalculation.costCalculation.report.xls.sheet.labourCost.technologyNumber", locale), 0);
         createHeaderCell(stylesContainer, row,
@@ -502,50 +481,42 @@ public class CostCalculationXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row,
                 translationService.translate("costCalculation.costCalculation.report.xls.sheet.labourCost.labourCost", locale),
                 10);
+    }
 
-        int rowCounter = 0;
-        for (Entity calculationOperationComponent : calculationOperationComponents) {
-            Entity technologyOperationComponent = calculationOperationComponent
-                    .getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT);
-            if (!technologyOperationComponent
-                    .getBooleanField(TechnologyOperationComponentFieldsTNFO.PIECEWORK_PRODUCTION)) {
-                row = sheet.createRow(rowOffset + rowCounter);
-                Entity technology = calculationOperationComponent.getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY);
-                Entity mainOutputProductComponent = technologyService.getMainOutputProductComponent(technologyOperationComponent);
-                createRegularCell(stylesContainer, row, 0, technology.getStringField(TechnologyFields.NUMBER));
-                createRegularCell(stylesContainer, row, 1,
-                        technology.getBelongsToField(TechnologyFields.PRODUCT).getStringField(ProductFields.NUMBER));
-                createRegularCell(stylesContainer, row, 2, mainOutputProductComponent
-                        .getBelongsToField(OperationProductOutComponentFields.PRODUCT).getStringField(ProductFields.NUMBER));
-                createRegularCell(stylesContainer, row, 3,
-                        calculationOperationComponent.getStringField(CalculationOperationComponentFields.NODE_NUMBER));
-                createRegularCell(stylesContainer, row, 4, calculationOperationComponent
-                        .getBelongsToField(CalculationOperationComponentFields.OPERATION).getStringField(OperationFields.NUMBER));
-                createTimeCell(stylesContainer, row, 5,
-                        calculationOperationComponent.getIntegerField(CalculationOperationComponentFields.MACHINE_WORK_TIME));
-                createNumericCell(stylesContainer, row, 6, calculationOperationComponent
-                        .getDecimalField(CalculationOperationComponentFields.TOTAL_MACHINE_OPERATION_COST));
-                createTimeCell(stylesContainer, row, 7,
-                        calculationOperationComponent.getIntegerField(CalculationOperationComponentFields.LABOR_WORK_TIME));
-                createNumericCell(stylesContainer, row, 8,
-                        technologyOperationComponent.getIntegerField(TechnologyOperationComponentFieldsTNFO.MIN_STAFF));
-                createNumericCell(stylesContainer, row, 9, calculationOperationComponent
-                        .getDecimalField(CalculationOperationComponentFields.TOTAL_LABOR_OPERATION_COST));
-                createNumericCell(stylesContainer, row, 10,
-                        calculationOperationComponent.getDecimalField(CalculationOperationComponentFields.OPERATION_COST));
-                rowCounter++;
-            }
-        }
-        for (int i = 0; i <= 10; i++) {
-            sheet.autoSizeColumn(i, false);
+    private void addLabourCostRow(Sheet sheet, Entity calculationOperationComponent, StylesContainer stylesContainer) {
+        Entity technologyOperationComponent = calculationOperationComponent
+                .getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT);
+        if (!technologyOperationComponent
+                .getBooleanField(TechnologyOperationComponentFieldsTNFO.PIECEWORK_PRODUCTION)) {
+            Row row = createNextRow(sheet);
+            Entity technology = calculationOperationComponent.getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY);
+            Entity mainOutputProductComponent = technologyService.getMainOutputProductComponent(technologyOperationComponent);
+            createRegularCell(stylesContainer, row, 0, technology.getStringField(TechnologyFields.NUMBER));
+            createRegularCell(stylesContainer, row, 1,
+                    technology.getBelongsToField(TechnologyFields.PRODUCT).getStringField(ProductFields.NUMBER));
+            createRegularCell(stylesContainer, row, 2, mainOutputProductComponent
+                    .getBelongsToField(OperationProductOutComponentFields.PRODUCT).getStringField(ProductFields.NUMBER));
+            createRegularCell(stylesContainer, row, 3,
+                    calculationOperationComponent.getStringField(CalculationOperationComponentFields.NODE_NUMBER));
+            createRegularCell(stylesContainer, row, 4, calculationOperationComponent
+                    .getBelongsToField(CalculationOperationComponentFields.OPERATION).getStringField(OperationFields.NUMBER));
+            createTimeCell(stylesContainer, row, 5,
+                    calculationOperationComponent.getIntegerField(CalculationOperationComponentFields.MACHINE_WORK_TIME));
+            createNumericCell(stylesContainer, row, 6, calculationOperationComponent
+                    .getDecimalField(CalculationOperationComponentFields.TOTAL_MACHINE_OPERATION_COST));
+            createTimeCell(stylesContainer, row, 7,
+                    calculationOperationComponent.getIntegerField(CalculationOperationComponentFields.LABOR_WORK_TIME));
+            createNumericCell(stylesContainer, row, 8,
+                    technologyOperationComponent.getIntegerField(TechnologyOperationComponentFieldsTNFO.MIN_STAFF));
+            createNumericCell(stylesContainer, row, 9, calculationOperationComponent
+                    .getDecimalField(CalculationOperationComponentFields.TOTAL_LABOR_OPERATION_COST));
+            createNumericCell(stylesContainer, row, 10,
+                    calculationOperationComponent.getDecimalField(CalculationOperationComponentFields.OPERATION_COST));
         }
     }
 
-    private void createComponentCostsSheet(List<ComponentsCalculationHolder> componentCosts, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
-        HSSFRow row = sheet.createRow(0);
+    private void createComponentCostsHeader(Sheet sheet, StylesContainer stylesContainer, Locale locale) {
+        Row row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService
                 .translate("costCalculation.costCalculation.report.xls.sheet.componentCosts.technologyNumber", locale), 0);
         createHeaderCell(stylesContainer, row, translationService.translate(
@@ -569,28 +540,21 @@ public class CostCalculationXlsService extends XlsDocumentService {
                 .translate("costCalculation.costCalculation.report.xls.sheet.componentCosts.sumOfCosts", locale), 9);
         createHeaderCell(stylesContainer, row, translationService
                 .translate("costCalculation.costCalculation.report.xls.sheet.componentCosts.costPerUnit", locale), 10);
+    }
 
-        int rowCounter = 0;
-
-        for (ComponentsCalculationHolder componentCost : componentCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, componentCost.getTechnology().getStringField(TechnologyFields.NUMBER));
-            createRegularCell(stylesContainer, row, 1, componentCost.getTechnologyInputProductType());
-            createRegularCell(stylesContainer, row, 2, componentCost.getProduct().getStringField(ProductFields.NUMBER));
-            createRegularCell(stylesContainer, row, 3, componentCost.getProduct().getStringField(ProductFields.NAME));
-            createRegularCell(stylesContainer, row, 4, toYesOrNoFromString(componentCost.getAdditionalProducts(), LocaleContextHolder.getLocale()));
-            createNumericCell(stylesContainer, row, 5, componentCost.getQuantity());
-            createRegularCell(stylesContainer, row, 6, componentCost.getProduct().getStringField(ProductFields.UNIT));
-            createNumericCell(stylesContainer, row, 7, componentCost.getMaterialCost());
-            createNumericCell(stylesContainer, row, 8, componentCost.getLaborCost());
-            createNumericCell(stylesContainer, row, 9, componentCost.getSumOfCost());
-            createNumericCell(stylesContainer, row, 10, componentCost.getCostPerUnit());
-            rowCounter++;
-        }
-
-        for (int i = 0; i <= 9; i++) {
-            sheet.autoSizeColumn(i, false);
-        }
+    private void addComponentCostRow(Sheet sheet, ComponentsCalculationHolder componentCost, StylesContainer stylesContainer) {
+        Row row = createNextRow(sheet);
+        createRegularCell(stylesContainer, row, 0, componentCost.getTechnology().getStringField(TechnologyFields.NUMBER));
+        createRegularCell(stylesContainer, row, 1, componentCost.getTechnologyInputProductType());
+        createRegularCell(stylesContainer, row, 2, componentCost.getProduct().getStringField(ProductFields.NUMBER));
+        createRegularCell(stylesContainer, row, 3, componentCost.getProduct().getStringField(ProductFields.NAME));
+        createRegularCell(stylesContainer, row, 4, toYesOrNoFromString(componentCost.getAdditionalProducts(), LocaleContextHolder.getLocale()));
+        createNumericCell(stylesContainer, row, 5, componentCost.getQuantity());
+        createRegularCell(stylesContainer, row, 6, componentCost.getProduct().getStringField(ProductFields.UNIT));
+        createNumericCell(stylesContainer, row, 7, componentCost.getMaterialCost());
+        createNumericCell(stylesContainer, row, 8, componentCost.getLaborCost());
+        createNumericCell(stylesContainer, row, 9, componentCost.getSumOfCost());
+        createNumericCell(stylesContainer, row, 10, componentCost.getCostPerUnit());
     }
 
     private String toYesOrNoFromString(Boolean additionalFinalProducts, Locale locale) {
@@ -599,15 +563,15 @@ public class CostCalculationXlsService extends XlsDocumentService {
     }
 
 
-    private HSSFCell createRegularCell(StylesContainer stylesContainer, HSSFRow row, int column, String content) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createRegularCell(StylesContainer stylesContainer, Row row, int column, String content) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HorizontalAlignment.LEFT));
         return cell;
     }
 
-    private HSSFCell createNumericWithNullCell(StylesContainer stylesContainer, HSSFRow row, int column, BigDecimal value) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createNumericWithNullCell(StylesContainer stylesContainer, Row row, int column, BigDecimal value) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         if (value == null) {
             cell.setCellValue("");
             cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HorizontalAlignment.LEFT));
@@ -621,8 +585,8 @@ public class CostCalculationXlsService extends XlsDocumentService {
 
     }
 
-    private HSSFCell createNumericCell(StylesContainer stylesContainer, HSSFRow row, int column, BigDecimal value) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createNumericCell(StylesContainer stylesContainer, Row row, int column, BigDecimal value) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         if (value == null) {
             value = BigDecimal.ZERO;
         }
@@ -631,15 +595,15 @@ public class CostCalculationXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createNumericCell(StylesContainer stylesContainer, HSSFRow row, int column, int value) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createNumericCell(StylesContainer stylesContainer, Row row, int column, int value) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         cell.setCellValue(value);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HorizontalAlignment.RIGHT));
         return cell;
     }
 
-    private HSSFCell createTimeCell(StylesContainer stylesContainer, HSSFRow row, int column, Integer value) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private Cell createTimeCell(StylesContainer stylesContainer, Row row, int column, Integer value) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
         if (value == null) {
             value = 0;
         }
@@ -648,8 +612,8 @@ public class CostCalculationXlsService extends XlsDocumentService {
         return cell;
     }
 
-    private HSSFCell createHeaderCell(StylesContainer stylesContainer, HSSFRow row, String content, int column) {
-        HSSFCell cell = row.createCell(column);
+    private Cell createHeaderCell(StylesContainer stylesContainer, Row row, String content, int column) {
+        Cell cell = row.createCell(column);
         cell.setCellValue(content);
         cell.setCellStyle(stylesContainer.headerStyle);
         return cell;
@@ -657,15 +621,15 @@ public class CostCalculationXlsService extends XlsDocumentService {
 
     private static class StylesContainer {
 
-        private final HSSFCellStyle regularStyle;
+        private final CellStyle regularStyle;
 
-        private final HSSFCellStyle headerStyle;
+        private final CellStyle headerStyle;
 
-        private final HSSFCellStyle timeStyle;
+        private final CellStyle timeStyle;
 
-        private final HSSFCellStyle numberStyle;
+        private final CellStyle numberStyle;
 
-        StylesContainer(HSSFWorkbook workbook, FontsContainer fontsContainer) {
+        StylesContainer(Workbook workbook, FontsContainer fontsContainer) {
             regularStyle = workbook.createCellStyle();
             regularStyle.setVerticalAlignment(VerticalAlignment.CENTER);
 
@@ -683,7 +647,7 @@ public class CostCalculationXlsService extends XlsDocumentService {
             numberStyle.setDataFormat(workbook.createDataFormat().getFormat("0.00###"));
         }
 
-        private static HSSFCellStyle aligned(HSSFCellStyle style, HorizontalAlignment horizontalAlignment) {
+        private static CellStyle aligned(CellStyle style, HorizontalAlignment horizontalAlignment) {
             style.setAlignment(horizontalAlignment);
             return style;
         }
@@ -693,7 +657,7 @@ public class CostCalculationXlsService extends XlsDocumentService {
 
         private final Font boldFont;
 
-        FontsContainer(HSSFWorkbook workbook) {
+        FontsContainer(Workbook workbook) {
             boldFont = workbook.createFont();
             boldFont.setBold(true);
         }
@@ -0,0 +1,91 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.print;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Resolves prices of materials during one run of the cost calculation. Offer prices and currencies are loaded once, by
+ * {@link ProductsCostCalculationService#createMaterialPriceResolver}, cost per unit of each product is computed once and
+ * remembered. Gives the same values as {@link ProductsCostCalculationService#calculateProductCostPerUnit}. Thread safe.
+ */
+public final class MaterialPriceResolver {
+
+    private final ProductsCostCalculationServiceImpl productsCostCalculationService;
+
+    private final String materialCostsUsed;
+
+    private final boolean useNominalCostPriceNotSpecified;
+
+    private final Map<Long, BigDecimal> offerPrices;
+
+    private final Map<Long, Entity> currencies;
+
+    private final Entity currentCurrency;
+
+    private final String currency;
+
+    private final Map<Long, BigDecimal> costsPerUnit = new ConcurrentHashMap<>();
+
+    MaterialPriceResolver(final ProductsCostCalculationServiceImpl productsCostCalculationService, final String materialCostsUsed,
+            final boolean useNominalCostPriceNotSpecified, final Map<Long, BigDecimal> offerPrices,
+            final Map<Long, Entity> currencies, final Entity currentCurrency, final String currency) {
+        this.productsCostCalculationService = productsCostCalculationService;
+        this.materialCostsUsed = materialCostsUsed;
+        this.useNominalCostPriceNotSpecified = useNominalCostPriceNotSpecified;
+        this.offerPrices = offerPrices;
+        this.currencies = currencies;
+        this.currentCurrency = currentCurrency;
+        this.currency = currency;
+    }
+
+    public BigDecimal getProductCostPerUnit(final Entity product) {
+        return costsPerUnit.computeIfAbsent(product.getId(), productId -> calculateProductCostPerUnit(product));
+    }
+
+    public BigDecimal getOperationProductCostPerUnit(final Entity product, final Entity operationProductComponent) {
+        return productsCostCalculationService.calculateOperationProductCostPerUnit(product, operationProductComponent,
+                this::getProductCostPerUnit);
+    }
+
+    private BigDecimal calculateProductCostPerUnit(final Entity product) {
+        BigDecimal offerPrice = offerPrices.get(product.getId());
+
+        if (offerPrice != null) {
+            return offerPrice;
+        }
+
+        return productsCostCalculationService.calculateProductCostPerUnit(product, materialCostsUsed,
+                useNominalCostPriceNotSpecified, this::getCurrency, () -> currentCurrency, currency);
+    }
+
+    private Entity getCurrency(final Entity materialCurrency) {
+        return currencies.getOrDefault(materialCurrency.getId(), materialCurrency);
+    }
+
+}
@@ -33,4 +33,14 @@ public interface ProductsCostCalculationService {
 
     BigDecimal calculateProductCostPerUnit(final Entity product, final String materialCostsUsed,
                                            final boolean useNominalCostPriceNotSpecified, final Entity offer);
+
+    /**
+     * Creates resolver of material prices for one run of the cost calculation. Offer prices and currencies are loaded once,
+     * prices of products are computed once and remembered.
+     *
+     * @param costCalculation
+     *            cost calculation
+     * @return price resolver, valid as long as prices, currencies and offer of the cost calculation don't change
+     */
+    MaterialPriceResolver createMaterialPriceResolver(final Entity costCalculation);
 }
@@ -23,6 +23,8 @@
  */
 package com.qcadoo.mes.costCalculation.print;
 
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.CurrencyFields;
 import com.qcadoo.mes.basic.util.CurrencyService;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
@@ -33,6 +35,7 @@ import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
 import com.qcadoo.mes.technologies.constants.ProductBySizeGroupFields;
 import com.qcadoo.mes.technologies.constants.TechnologyInputProductTypeFields;
 import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 
@@ -40,7 +43,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Service
 public class ProductsCostCalculationServiceImpl implements ProductsCostCalculationService {
@@ -54,10 +61,50 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
     @Autowired
     private SupplyNegotiationsService supplyNegotiationsService;
 
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
     @Override
     public BigDecimal calculateOperationProductCostPerUnit(Entity costCalculation, Entity product,
                                                            Entity operationProductComponent) {
         Entity offer = costCalculation.getBelongsToField(CostCalculationFields.OFFER);
+        String materialCostsUsed = costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED);
+        boolean useNominalCostPriceNotSpecified = costCalculation
+                .getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED);
+        return calculateOperationProductCostPerUnit(product, operationProductComponent,
+                p -> calculateProductCostPerUnit(p, materialCostsUsed, useNominalCostPriceNotSpecified, offer));
+    }
+
+    @Override
+    public BigDecimal calculateProductCostPerUnit(final Entity product, final String materialCostsUsed,
+                                                  final boolean useNominalCostPriceNotSpecified, final Entity offer) {
+        if (offer != null) {
+            BigDecimal offerProductPricePerUnit = supplyNegotiationsService.getPricePerUnit(offer, product);
+            if(offerProductPricePerUnit != null){
+                return offerProductPricePerUnit;
+            }
+        }
+        return calculateProductCostPerUnit(product, materialCostsUsed, useNominalCostPriceNotSpecified, Function.identity(),
+                currencyService::getCurrentCurrency, currencyService.getCurrencyAlphabeticCode());
+    }
+
+    @Override
+    public MaterialPriceResolver createMaterialPriceResolver(final Entity costCalculation) {
+        Entity offer = costCalculation.getBelongsToField(CostCalculationFields.OFFER);
+        Map<Long, BigDecimal> offerPrices = offer == null ? Collections.emptyMap()
+                : supplyNegotiationsService.getPricesPerUnit(offer);
+        Map<Long, Entity> currencies = Maps.newHashMap();
+        for (Entity currency : dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_CURRENCY).find()
+                .list().getEntities()) {
+            currencies.put(currency.getId(), currency);
+        }
+        return new MaterialPriceResolver(this, costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
+                costCalculation.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED), offerPrices,
+                currencies, currencyService.getCurrentCurrency(), currencyService.getCurrencyAlphabeticCode());
+    }
+
+    BigDecimal calculateOperationProductCostPerUnit(final Entity product, final Entity operationProductComponent,
+                                                    final Function<Entity, BigDecimal> productCostPerUnit) {
         BigDecimal costPerUnit;
         if (operationProductComponent.getBooleanField(OperationProductInComponentFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES)) {
             List<Entity> productBySizeGroups = operationProductComponent
@@ -66,10 +113,7 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
                 BigDecimal productBySizeGroupsCost = BigDecimal.ZERO;
                 for (Entity productBySizeGroup : productBySizeGroups) {
                     productBySizeGroupsCost = productBySizeGroupsCost.add(
-                            calculateProductCostPerUnit(productBySizeGroup.getBelongsToField(ProductBySizeGroupFields.PRODUCT),
-                                    costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
-                                    costCalculation.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED),
-                                    offer),
+                            productCostPerUnit.apply(productBySizeGroup.getBelongsToField(ProductBySizeGroupFields.PRODUCT)),
                             numberService.getMathContext());
                 }
                 costPerUnit = productBySizeGroupsCost.divide(new BigDecimal(productBySizeGroups.size()),
@@ -78,10 +122,7 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
                 costPerUnit = BigDecimal.ZERO;
             }
         } else if (product != null) {
-            costPerUnit = calculateProductCostPerUnit(product,
-                    costCalculation.getStringField(CostCalculationFields.MATERIAL_COSTS_USED),
-                    costCalculation.getBooleanField(CostCalculationFields.USE_NOMINAL_COST_PRICE_NOT_SPECIFIED),
-                    offer);
+            costPerUnit = productCostPerUnit.apply(product);
         } else {
             costPerUnit = BigDecimalUtils.convertNullToZero(
                     operationProductComponent.getBelongsToField(OperationProductInComponentFields.TECHNOLOGY_INPUT_PRODUCT_TYPE)
@@ -90,15 +131,15 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
         return costPerUnit;
     }
 
-    @Override
-    public BigDecimal calculateProductCostPerUnit(final Entity product, final String materialCostsUsed,
-                                                  final boolean useNominalCostPriceNotSpecified, final Entity offer) {
-        if (offer != null) {
-            BigDecimal offerProductPricePerUnit = supplyNegotiationsService.getPricePerUnit(offer, product);
-            if(offerProductPricePerUnit != null){
-                return offerProductPricePerUnit;
-            }
-        }
+    /**
+     * Calculates cost per unit from cost fields of the product, without offer prices.
+     *
+     * @param currencyLoader
+     *            gives currency entity, with exchange rate, for currency of the product
+     */
+    BigDecimal calculateProductCostPerUnit(final Entity product, final String materialCostsUsed,
+                                           final boolean useNominalCostPriceNotSpecified, final Function<Entity, Entity> currencyLoader,
+                                           final Supplier<Entity> currentCurrency, final String currency) {
         Entity materialCurrency = null;
         BigDecimal cost = BigDecimalUtils
                 .convertNullToZero(product.getField(ProductsCostFields.forMode(materialCostsUsed).getStrValue()));
@@ -111,10 +152,11 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
             materialCurrency = product.getBelongsToField(ProductFieldsCNFP.LAST_PURCHASE_COST_CURRENCY);
         }
         if (materialCurrency == null) {
-            materialCurrency = currencyService.getCurrentCurrency();
+            materialCurrency = currentCurrency.get();
+        } else {
+            materialCurrency = currencyLoader.apply(materialCurrency);
         }
 
-        String currency = currencyService.getCurrencyAlphabeticCode();
         if (!currency.isEmpty() && materialCurrency != null && !currency.equals(materialCurrency.getStringField(CurrencyFields.ALPHABETIC_CODE))) {
             if (CurrencyService.PLN.equals(currency)) {
                 cost = currencyService.getConvertedValue(cost, materialCurrency);
@@ -0,0 +1,241 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.print;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityTypeOfMaterial;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
+import com.qcadoo.mes.costCalculation.print.dto.ComponentsCalculation;
+import com.qcadoo.mes.costCalculation.print.dto.CostCalculationMaterial;
+import com.qcadoo.mes.costCalculation.print.dto.TechnologyCosts;
+import com.qcadoo.mes.costCalculation.print.dto.TechnologyProduct;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.ProductQuantitiesWithComponentsService;
+import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+@Service
+public class TechnologyCostsService {
+
+    private static final int L_MAX_THREADS = 4;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Autowired
+    private ProductQuantitiesWithComponentsService productQuantitiesWithComponentsService;
+
+    @Autowired
+    private CostCalculationMaterialsService costCalculationMaterialsService;
+
+    @Autowired
+    private CostCalculationComponentsService costCalculationComponentsService;
+
+    /**
+     * Calculates costs of given technologies of the cost calculation on a bounded pool of workers, which share the material
+     * price resolver of the run, so price of a material used by many technologies is resolved once. Costs are passed to the
+     * consumer in the caller thread, in order of the technologies, while at most twice as many technologies as there are
+     * workers are being calculated, so memory used doesn't depend on number of technologies.
+     */
+    public void calculateTechnologyCosts(final Entity costCalculation, final List<Long> technologyIds,
+            final MaterialPriceResolver materialPriceResolver, final Consumer<TechnologyCosts> consumer) {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), L_MAX_THREADS));
+
+        calculateTechnologyCosts(costCalculation, technologyIds, materialPriceResolver, consumer, threads,
+                MultiTenantUtil.getCurrentTenantId());
+    }
+
+    void calculateTechnologyCosts(final Entity costCalculation, final List<Long> technologyIds,
+            final MaterialPriceResolver materialPriceResolver, final Consumer<TechnologyCosts> consumer, final int threads,
+            final int tenantId) {
+        Entity costCalculationCopy = copyCostCalculation(costCalculation);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+        try {
+            Deque<Future<TechnologyCosts>> futures = new ArrayDeque<>();
+            Iterator<Long> technologyIdsIterator = technologyIds.iterator();
+
+            while (technologyIdsIterator.hasNext() || !futures.isEmpty()) {
+                while (technologyIdsIterator.hasNext() && (futures.size() < 2 * threads)) {
+                    Long technologyId = technologyIdsIterator.next();
+
+                    futures.add(executorService.submit(() -> calculateTechnologyCosts(tenantId, costCalculationCopy,
+                            technologyId, materialPriceResolver)));
+                }
+
+                consumer.accept(futures.poll().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Cost calculation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Cost calculation failed", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Workers get a detached copy of the fields they read, because the caller thread keeps changing the cost calculation while
+     * it consumes calculated costs.
+     */
+    private Entity copyCostCalculation(final Entity costCalculation) {
+        Entity costCalculationCopy = costCalculation.getDataDefinition().create();
+
+        costCalculationCopy.setId(costCalculation.getId());
+        costCalculationCopy.setField(CostCalculationFields.QUANTITY,
+                costCalculation.getDecimalField(CostCalculationFields.QUANTITY));
+        costCalculationCopy.setField(CostCalculationFields.INCLUDE_COMPONENTS,
+                costCalculation.getBooleanField(CostCalculationFields.INCLUDE_COMPONENTS));
+
+        return costCalculationCopy;
+    }
+
+    private TechnologyCosts calculateTechnologyCosts(final int tenantId, final Entity costCalculation, final Long technologyId,
+            final MaterialPriceResolver materialPriceResolver) {
+        List<TechnologyCosts> technologyCosts = Lists.newArrayList();
+
+        multiTenantService.doInMultiTenantContext(tenantId,
+                () -> technologyCosts.add(calculateTechnologyCosts(costCalculation, technologyId, materialPriceResolver)));
+
+        return technologyCosts.get(0);
+    }
+
+    /**
+     * Calculates costs of the technology which don't depend on other technologies. Component costs are prepared on a separately
+     * loaded technology, because expanding its components replaces its operation components, which are still used to
+     * calculate operation costs.
+     */
+    TechnologyCosts calculateTechnologyCosts(final Entity costCalculation, final Long technologyId,
+            final MaterialPriceResolver materialPriceResolver) {
+        Entity technology = getTechnologyDD().get(technologyId);
+        BigDecimal quantity = costCalculation.getDecimalField(CostCalculationFields.QUANTITY);
+
+        List<TechnologyProduct> technologyProducts = getTechnologyProducts(costCalculation, technology);
+
+        Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC = costCalculationMaterialsService
+                .getNeededProductQuantitiesByOPC(costCalculation, technology, quantity);
+        List<CostCalculationMaterial> materialCosts = costCalculationMaterialsService
+                .getSortedMaterialsFromProductQuantities(costCalculation, technology, materialQuantitiesByOPC,
+                        materialPriceResolver);
+
+        ComponentsCalculation componentsCalculation = null;
+
+        if (costCalculation.getBooleanField(CostCalculationFields.INCLUDE_COMPONENTS)) {
+            Entity componentsTechnology = getTechnologyDD().get(technologyId);
+
+            if (!costCalculationMaterialsService.includesComponents(costCalculation)) {
+                materialQuantitiesByOPC = productQuantitiesWithComponentsService.getNeededProductQuantitiesByOPC(
+                        componentsTechnology, quantity, MrpAlgorithm.ONLY_MATERIALS);
+            }
+
+            componentsCalculation = costCalculationComponentsService.prepareComponentCosts(costCalculation,
+                    componentsTechnology, materialQuantitiesByOPC, materialPriceResolver);
+        }
+
+        return new TechnologyCosts(technology, technologyProducts, materialCosts, componentsCalculation);
+    }
+
+    private List<TechnologyProduct> getTechnologyProducts(final Entity costCalculation, final Entity technology) {
+        List<TechnologyProduct> technologyProducts = Lists.newArrayList();
+
+        ProductQuantitiesHolder productComponentQuantities = productQuantitiesService.getProductComponentQuantities(technology,
+                costCalculation.getDecimalField(CostCalculationFields.QUANTITY));
+        Map<OperationProductComponentHolder, BigDecimal> productQuantities = productComponentQuantities.getProductQuantities();
+        Entity root = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot();
+        for (Map.Entry<OperationProductComponentHolder, BigDecimal> entry : productQuantities.entrySet()) {
+
+            if (!entry.getKey().isEntityTypeSame(TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT)) {
+                continue;
+            }
+
+            OperationProductComponentHolder operationProductComponentHolder = entry.getKey();
+            Entity product = operationProductComponentHolder.getProduct();
+            if (product == null) {
+                continue;
+            }
+
+            Entity technologyOperationComponent = operationProductComponentHolder.getTechnologyOperationComponent();
+            if (Objects.isNull(root) || !technologyOperationComponent.getId().equals(root.getId())) {
+                continue;
+            }
+
+            TechnologyProduct technologyProduct = new TechnologyProduct();
+            technologyProduct.setTechnologyNumber(technology.getStringField(TechnologyFields.NUMBER));
+            technologyProduct.setProductName(product.getStringField(ProductFields.NAME));
+            technologyProduct.setProductNumber(product.getStringField(ProductFields.NUMBER));
+            technologyProduct.setProductQuantity(entry.getValue());
+            technologyProduct.setUnit(product.getStringField(ProductFields.UNIT));
+
+            if (operationProductComponentHolder.isWaste()) {
+                technologyProduct.setProductType(ProductionCountingQuantityTypeOfMaterial.WASTE.getStringValue());
+            } else if (product.getId().equals(technology.getBelongsToField(TechnologyFields.PRODUCT).getId())) {
+                technologyProduct.setProductType(ProductionCountingQuantityTypeOfMaterial.FINAL_PRODUCT.getStringValue());
+            } else {
+                technologyProduct.setProductType(ProductionCountingQuantityTypeOfMaterial.ADDITIONAL_FINAL_PRODUCT.getStringValue());
+            }
+            technologyProducts.add(technologyProduct);
+        }
+
+        return technologyProducts;
+    }
+
+    private DataDefinition getTechnologyDD() {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY);
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.qcadoo.mes.costCalculation.print.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.qcadoo.model.api.EntityTree;
+
+/**
+ * Component costs of a technology prepared before its calculation operation components are known - operations of the
+ * technology with its components, their material costs and component quantities.
+ */
+public class ComponentsCalculation {
+
+    private final EntityTree operationComponents;
+
+    private final List<ComponentsCalculationHolder> components;
+
+    private final List<ComponentsCalculationHolder> allOperationComponents;
+
+    private final BigDecimal quantity;
+
+    public ComponentsCalculation(final EntityTree operationComponents, final List<ComponentsCalculationHolder> components,
+            final List<ComponentsCalculationHolder> allOperationComponents, final BigDecimal quantity) {
+        this.operationComponents = operationComponents;
+        this.components = components;
+        this.allOperationComponents = allOperationComponents;
+        this.quantity = quantity;
+    }
+
+    public EntityTree getOperationComponents() {
+        return operationComponents;
+    }
+
+    public List<ComponentsCalculationHolder> getComponents() {
+        return components;
+    }
+
+    public List<ComponentsCalculationHolder> getAllOperationComponents() {
+        return allOperationComponents;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.qcadoo.mes.costCalculation.print.dto;
+
+import java.util.List;
+
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Costs of a single technology of a cost calculation which don't depend on other technologies - its products, material costs
+ * and, if components are included, prepared component costs.
+ */
+public class TechnologyCosts {
+
+    private final Entity technology;
+
+    private final List<TechnologyProduct> technologyProducts;
+
+    private final List<CostCalculationMaterial> materialCosts;
+
+    private final ComponentsCalculation componentsCalculation;
+
+    public TechnologyCosts(final Entity technology, final List<TechnologyProduct> technologyProducts,
+            final List<CostCalculationMaterial> materialCosts, final ComponentsCalculation componentsCalculation) {
+        this.technology = technology;
+        this.technologyProducts = technologyProducts;
+        this.materialCosts = materialCosts;
+        this.componentsCalculation = componentsCalculation;
+    }
+
+    public Entity getTechnology() {
+        return technology;
+    }
+
+    public List<TechnologyProduct> getTechnologyProducts() {
+        return technologyProducts;
+    }
+
+    public List<CostCalculationMaterial> getMaterialCosts() {
+        return materialCosts;
+    }
+
+    public ComponentsCalculation getComponentsCalculation() {
+        return componentsCalculation;
+    }
+
+}
@@ -36,10 +36,13 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 
 import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
 import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ProductsCostCalculationServiceTest {
@@ -117,4 +120,28 @@ public class ProductsCostCalculationServiceTest {
         // then
         assertTrue(BigDecimalUtils.valueEquals(result, BigDecimal.valueOf(10L)));
     }
+
+    @Test
+    public void shouldResolveMaterialPriceFromOfferAndRememberCalculatedCosts() throws Exception {
+        // given
+        Entity offerProduct = mockProduct(BigDecimal.TEN, BigDecimal.ONE);
+        Entity product = mockEntity(2L);
+        stubDecimalField(product, ProductFieldsCNFP.AVERAGE_COST, BigDecimal.TEN);
+        stubDecimalField(product, ProductFieldsCNFP.COST_FOR_NUMBER, BigDecimal.valueOf(2L));
+
+        MaterialPriceResolver materialPriceResolver = new MaterialPriceResolver(
+                (ProductsCostCalculationServiceImpl) productsCostCalculationService, ProductsCostFields.AVERAGE.getMode(), false,
+                Collections.singletonMap(1L, BigDecimal.valueOf(3L)), Collections.emptyMap(), null, currency);
+
+        // when
+        BigDecimal offerResult = materialPriceResolver.getProductCostPerUnit(offerProduct);
+        BigDecimal result = materialPriceResolver.getProductCostPerUnit(product);
+        BigDecimal secondResult = materialPriceResolver.getProductCostPerUnit(product);
+
+        // then
+        assertTrue(BigDecimalUtils.valueEquals(offerResult, BigDecimal.valueOf(3L)));
+        assertTrue(BigDecimalUtils.valueEquals(result, BigDecimal.valueOf(5L)));
+        assertTrue(BigDecimalUtils.valueEquals(secondResult, BigDecimal.valueOf(5L)));
+        verify(product, times(1)).getDecimalField(ProductFieldsCNFP.COST_FOR_NUMBER);
+    }
 }
@@ -0,0 +1,472 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.print;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.util.CurrencyService;
+import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
+import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
+import com.qcadoo.mes.costCalculation.print.dto.ComponentsCalculationHolder;
+import com.qcadoo.mes.costCalculation.print.dto.CostCalculationMaterial;
+import com.qcadoo.mes.costCalculation.print.dto.TechnologyCosts;
+import com.qcadoo.mes.costNormsForMaterials.constants.ProductsCostFields;
+import com.qcadoo.mes.costNormsForOperation.constants.CalculationOperationComponentFields;
+import com.qcadoo.mes.costNormsForProduct.constants.ProductFieldsCNFP;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.ProductQuantitiesWithComponentsService;
+import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.mes.technologies.tree.ProductStructureTreeService;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.plugin.api.PluginManager;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.testing.model.NumberServiceMock;
+
+public class TechnologyCostsServiceTest {
+
+    private static final BigDecimal L_QUANTITY = BigDecimal.valueOf(3L);
+
+    private static final int L_TECHNOLOGIES = 12;
+
+    private static final long L_COMPONENTS_TECHNOLOGY_ID = 50L;
+
+    private TechnologyCostsService technologyCostsService;
+
+    private ProductsCostCalculationServiceImpl productsCostCalculationService;
+
+    private CostCalculationComponentsService costCalculationComponentsService;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private PluginManager pluginManager;
+
+    @Mock
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Mock
+    private ProductQuantitiesWithComponentsService productQuantitiesWithComponentsService;
+
+    @Mock
+    private CurrencyService currencyService;
+
+    @Mock
+    private ProductStructureTreeService productStructureTreeService;
+
+    @Mock
+    private DataDefinition technologyDD, operationProductComponentDD, productDD, costCalculationDD;
+
+    @Mock
+    private Entity costCalculation;
+
+    private Entity costCalculationCopy;
+
+    private final List<Entity> materials = Lists.newArrayList();
+
+    private final List<Long> technologyIds = Lists.newArrayList();
+
+    private long nextId = 100L;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        CostCalculationMaterialsService costCalculationMaterialsService = new CostCalculationMaterialsService();
+
+        ReflectionTestUtils.setField(costCalculationMaterialsService, "pluginManager", pluginManager);
+        ReflectionTestUtils.setField(costCalculationMaterialsService, "numberService", NumberServiceMock.scaleAware());
+        ReflectionTestUtils.setField(costCalculationMaterialsService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(costCalculationMaterialsService, "productQuantitiesService", productQuantitiesService);
+        ReflectionTestUtils.setField(costCalculationMaterialsService, "productQuantitiesWithComponentsService",
+                productQuantitiesWithComponentsService);
+
+        productsCostCalculationService = new ProductsCostCalculationServiceImpl();
+
+        ReflectionTestUtils.setField(productsCostCalculationService, "numberService", NumberServiceMock.scaleAware());
+        ReflectionTestUtils.setField(productsCostCalculationService, "currencyService", currencyService);
+
+        costCalculationComponentsService = new CostCalculationComponentsService();
+
+        ReflectionTestUtils.setField(costCalculationComponentsService, "productStructureTreeService",
+                productStructureTreeService);
+        ReflectionTestUtils.setField(costCalculationComponentsService, "productQuantitiesWithComponentsService",
+                productQuantitiesWithComponentsService);
+        ReflectionTestUtils.setField(costCalculationComponentsService, "numberService", NumberServiceMock.scaleAware());
+        ReflectionTestUtils.setField(costCalculationComponentsService, "dataDefinitionService", dataDefinitionService);
+
+        technologyCostsService = new TechnologyCostsService();
+
+        ReflectionTestUtils.setField(technologyCostsService, "multiTenantService", multiTenantService);
+        ReflectionTestUtils.setField(technologyCostsService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(technologyCostsService, "productQuantitiesService", productQuantitiesService);
+        ReflectionTestUtils.setField(technologyCostsService, "productQuantitiesWithComponentsService",
+                productQuantitiesWithComponentsService);
+        ReflectionTestUtils.setField(technologyCostsService, "costCalculationMaterialsService", costCalculationMaterialsService);
+        ReflectionTestUtils.setField(technologyCostsService, "costCalculationComponentsService",
+                costCalculationComponentsService);
+
+        doAnswer(invocation -> {
+            ((MultiTenantCallback) invocation.getArguments()[1]).invoke();
+
+            return null;
+        }).when(multiTenantService).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+
+        given(dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY))
+                .willReturn(technologyDD);
+        given(dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT)).willReturn(operationProductComponentDD);
+        given(operationProductComponentDD.getName()).willReturn(TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT);
+
+        costCalculationCopy = mockEntity(1L);
+
+        given(costCalculation.getId()).willReturn(1L);
+        given(costCalculation.getDataDefinition()).willReturn(costCalculationDD);
+        given(costCalculationDD.create()).willReturn(costCalculationCopy);
+        stubDecimalField(costCalculation, CostCalculationFields.QUANTITY, L_QUANTITY);
+        stubDecimalField(costCalculationCopy, CostCalculationFields.QUANTITY, L_QUANTITY);
+
+        materials.add(mockMaterial("A", BigDecimal.TEN, BigDecimal.valueOf(4L)));
+        materials.add(mockMaterial("B", BigDecimal.valueOf(7L), BigDecimal.ONE));
+        materials.add(mockMaterial("C", BigDecimal.valueOf(3L), BigDecimal.valueOf(2L)));
+
+        for (long index = 1; index <= L_TECHNOLOGIES; index++) {
+            mockTechnology(index);
+        }
+    }
+
+    private Entity mockMaterial(final String number, final BigDecimal averageCost, final BigDecimal costForNumber) {
+        Entity product = mockEntity(nextId++);
+
+        given(product.getDataDefinition()).willReturn(productDD);
+        given(product.getStringField(ProductFields.NUMBER)).willReturn(number);
+        given(product.getStringField(ProductFields.NAME)).willReturn(number);
+        given(product.getStringField(ProductFields.UNIT)).willReturn("szt");
+        stubDecimalField(product, ProductFieldsCNFP.AVERAGE_COST, averageCost);
+        given(product.getField(ProductFieldsCNFP.AVERAGE_COST)).willReturn(averageCost);
+        stubDecimalField(product, ProductFieldsCNFP.COST_FOR_NUMBER, costForNumber);
+        given(productDD.get(product.getId())).willReturn(product);
+
+        return product;
+    }
+
+    private void mockTechnology(final long technologyId) {
+        Entity technology = mockEntity(technologyId);
+        Entity product = mockEntity(nextId++);
+        Entity toc = mockEntity(nextId++);
+        EntityTree operationComponents = mock(EntityTree.class);
+
+        given(technology.getStringField(TechnologyFields.NUMBER)).willReturn("T" + technologyId);
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(product);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponents);
+        given(product.getStringField(ProductFields.NUMBER)).willReturn("P" + technologyId);
+        given(technologyDD.get(technologyId)).willReturn(technology);
+
+        Map<OperationProductComponentHolder, BigDecimal> materialQuantities = Maps.newLinkedHashMap();
+
+        materialQuantities.put(mockOperationProductComponent(toc, materials.get(0)), BigDecimal.valueOf(technologyId));
+        materialQuantities.put(mockOperationProductComponent(toc, materials.get(1 + (int) (technologyId % 2))),
+                BigDecimal.valueOf(technologyId + 1));
+
+        given(productQuantitiesService.getProductComponentQuantities(technology, L_QUANTITY))
+                .willReturn(new ProductQuantitiesHolder());
+        given(productQuantitiesService.getNeededProductQuantitiesByOPC(technology, L_QUANTITY, MrpAlgorithm.ONLY_COMPONENTS))
+                .willReturn(materialQuantities);
+
+        technologyIds.add(technologyId);
+    }
+
+    private OperationProductComponentHolder mockOperationProductComponent(final Entity toc, final Entity product) {
+        Entity operationProductComponent = mockEntity(nextId++);
+
+        given(operationProductComponent.getDataDefinition()).willReturn(operationProductComponentDD);
+        given(operationProductComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT)).willReturn(product);
+        given(operationProductComponent.getBelongsToField(OperationProductInComponentFields.OPERATION_COMPONENT))
+                .willReturn(toc);
+        given(operationProductComponentDD.get(operationProductComponent.getId())).willReturn(operationProductComponent);
+
+        return new OperationProductComponentHolder(operationProductComponent);
+    }
+
+    /**
+     * Technology with operation R producing the final product, which takes component K made by operation K from material A
+     * and the product of operation S made from material C. Operation R also takes material B.
+     */
+    private List<Entity> mockComponentsTechnology() {
+        Entity technology = mockEntity(L_COMPONENTS_TECHNOLOGY_ID);
+        Entity product = mockEntity(nextId++);
+        Entity component = mockMaterial("K", BigDecimal.ZERO, BigDecimal.ONE);
+
+        Entity rootToc = mockEntity(nextId++);
+        Entity componentToc = mockEntity(nextId++);
+        Entity childToc = mockEntity(nextId++);
+
+        mockStructureTreeToc(rootToc, "operation", product, null, childrenList(componentToc));
+        mockStructureTreeToc(componentToc, ProductStructureTreeService.L_COMPONENT, component, rootToc,
+                childrenList(childToc));
+        mockStructureTreeToc(childToc, "operation", mockEntity(nextId++), componentToc, childrenList());
+
+        EntityTree technologyOperationComponents = mock(EntityTree.class);
+        EntityTree operationComponents = mock(EntityTree.class);
+        List<Entity> tocs = Lists.newArrayList(rootToc, componentToc, childToc);
+
+        given(operationComponents.getRoot()).willReturn(rootToc);
+        given(operationComponents.iterator()).willAnswer(invocation -> tocs.iterator());
+        given(operationComponents.stream()).willAnswer(invocation -> tocs.stream());
+
+        given(technology.getStringField(TechnologyFields.NUMBER)).willReturn("TK");
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(product);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(technologyOperationComponents);
+        given(product.getStringField(ProductFields.NUMBER)).willReturn("PK");
+        given(technologyDD.get(L_COMPONENTS_TECHNOLOGY_ID)).willReturn(technology);
+        given(productStructureTreeService.getOperationComponentsFromTechnology(technology)).willReturn(operationComponents);
+
+        Map<OperationProductComponentHolder, BigDecimal> materialQuantities = Maps.newLinkedHashMap();
+
+        materialQuantities.put(mockOperationProductComponent(componentToc, materials.get(0)), BigDecimal.valueOf(6L));
+        materialQuantities.put(mockOperationProductComponent(rootToc, materials.get(1)), BigDecimal.valueOf(2L));
+        materialQuantities.put(mockOperationProductComponent(childToc, materials.get(2)), BigDecimal.valueOf(2L));
+
+        Map<OperationProductComponentHolder, BigDecimal> componentQuantities = Maps.newLinkedHashMap();
+
+        componentQuantities.put(mockOperationProductComponent(rootToc, component), L_QUANTITY);
+
+        given(productQuantitiesService.getProductComponentQuantities(technology, L_QUANTITY))
+                .willReturn(new ProductQuantitiesHolder());
+        given(productQuantitiesService.getNeededProductQuantitiesByOPC(technology, L_QUANTITY, MrpAlgorithm.ONLY_COMPONENTS))
+                .willReturn(materialQuantities);
+        given(productQuantitiesWithComponentsService.getNeededProductQuantitiesByOPC(technology, L_QUANTITY,
+                MrpAlgorithm.ONLY_MATERIALS)).willReturn(materialQuantities);
+        given(productQuantitiesWithComponentsService.getNeededProductQuantitiesByOPC(technology, L_QUANTITY,
+                MrpAlgorithm.ALL_PRODUCTS_IN)).willReturn(componentQuantities);
+
+        return tocs;
+    }
+
+    private void mockStructureTreeToc(final Entity toc, final String type, final Entity product, final Entity parent,
+            final EntityList children) {
+        EntityList outProducts = childrenList(mockEntity());
+
+        given(toc.getStringField(TechnologyOperationComponentFields.TYPE_FROM_STRUCTURE_TREE)).willReturn(type);
+        given(toc.getBelongsToField(TechnologyOperationComponentFields.PRODUCT_FROM_STRUCTURE_TREE)).willReturn(product);
+        given(toc.getBelongsToField(TechnologyOperationComponentFields.PARENT)).willReturn(parent);
+        given(toc.getHasManyField(TechnologyOperationComponentFields.CHILDREN)).willReturn(children);
+        given(toc.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS))
+                .willReturn(outProducts);
+    }
+
+    private EntityList childrenList(final Entity... entities) {
+        EntityList entityList = mock(EntityList.class);
+        List<Entity> elements = Lists.newArrayList(entities);
+
+        given(entityList.iterator()).willAnswer(invocation -> elements.iterator());
+        given(entityList.stream()).willAnswer(invocation -> elements.stream());
+
+        return entityList;
+    }
+
+    private Entity mockCalculationOperationComponent(final Entity toc, final BigDecimal machineCost,
+            final BigDecimal laborCost) {
+        Entity calculationOperationComponent = mockEntity();
+
+        given(calculationOperationComponent.getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT))
+                .willReturn(toc);
+        stubDecimalField(calculationOperationComponent, CalculationOperationComponentFields.TOTAL_MACHINE_OPERATION_COST,
+                machineCost);
+        stubDecimalField(calculationOperationComponent, CalculationOperationComponentFields.TOTAL_LABOR_OPERATION_COST,
+                laborCost);
+
+        return calculationOperationComponent;
+    }
+
+    private MaterialPriceResolver createMaterialPriceResolver() {
+        return new MaterialPriceResolver(productsCostCalculationService, ProductsCostFields.AVERAGE.getMode(), false,
+                Collections.emptyMap(), Collections.emptyMap(), null, "PLN");
+    }
+
+    @Test
+    public void shouldCalculateTechnologiesInParallelAsSequentially() {
+        // given
+        MaterialPriceResolver sequentialMaterialPriceResolver = createMaterialPriceResolver();
+        List<TechnologyCosts> sequentialCosts = Lists.newArrayList();
+
+        for (Long technologyId : technologyIds) {
+            sequentialCosts.add(technologyCostsService.calculateTechnologyCosts(costCalculation, technologyId,
+                    sequentialMaterialPriceResolver));
+        }
+
+        List<TechnologyCosts> parallelCosts = Lists.newArrayList();
+
+        // when
+        technologyCostsService.calculateTechnologyCosts(costCalculation, technologyIds, createMaterialPriceResolver(),
+                parallelCosts::add, 4, 1);
+
+        // then
+        assertEquals(sequentialCosts.size(), parallelCosts.size());
+
+        for (int index = 0; index < sequentialCosts.size(); index++) {
+            assertEquals(sequentialCosts.get(index).getTechnology(), parallelCosts.get(index).getTechnology());
+
+            List<CostCalculationMaterial> sequentialMaterialCosts = sequentialCosts.get(index).getMaterialCosts();
+            List<CostCalculationMaterial> parallelMaterialCosts = parallelCosts.get(index).getMaterialCosts();
+
+            assertEquals(sequentialMaterialCosts.size(), parallelMaterialCosts.size());
+
+            for (int materialIndex = 0; materialIndex < sequentialMaterialCosts.size(); materialIndex++) {
+                CostCalculationMaterial sequentialMaterialCost = sequentialMaterialCosts.get(materialIndex);
+                CostCalculationMaterial parallelMaterialCost = parallelMaterialCosts.get(materialIndex);
+
+                assertEquals(sequentialMaterialCost.getTechnologyNumber(), parallelMaterialCost.getTechnologyNumber());
+                assertEquals(sequentialMaterialCost.getProductNumber(), parallelMaterialCost.getProductNumber());
+                assertTrue(BigDecimalUtils.valueEquals(sequentialMaterialCost.getProductQuantity(),
+                        parallelMaterialCost.getProductQuantity()));
+                assertTrue(BigDecimalUtils.valueEquals(sequentialMaterialCost.getCostPerUnit(),
+                        parallelMaterialCost.getCostPerUnit()));
+                assertTrue(BigDecimalUtils.valueEquals(sequentialMaterialCost.getCostForGivenQuantity(),
+                        parallelMaterialCost.getCostForGivenQuantity()));
+            }
+        }
+    }
+
+    @Test
+    public void shouldCalculateComponentCostsOfTechnology() {
+        // given
+        List<Entity> tocs = mockComponentsTechnology();
+
+        given(costCalculationCopy.getBooleanField(CostCalculationFields.INCLUDE_COMPONENTS)).willReturn(true);
+        given(costCalculation.getStringField(CostCalculationFields.SOURCE_OF_OPERATION_COSTS))
+                .willReturn(SourceOfOperationCosts.TECHNOLOGY_OPERATION.getStringValue());
+
+        List<TechnologyCosts> parallelCosts = Lists.newArrayList();
+
+        // when
+        technologyCostsService.calculateTechnologyCosts(costCalculation, Lists.newArrayList(L_COMPONENTS_TECHNOLOGY_ID),
+                createMaterialPriceResolver(), parallelCosts::add, 2, 1);
+
+        // then
+        assertEquals(1, parallelCosts.size());
+
+        List<CostCalculationMaterial> materialCosts = parallelCosts.get(0).getMaterialCosts();
+
+        assertEquals(3, materialCosts.size());
+        assertEquals("C", materialCosts.get(0).getProductNumber());
+        assertTrue(BigDecimalUtils.valueEquals(BigDecimal.valueOf(3L), materialCosts.get(0).getCostForGivenQuantity()));
+        assertEquals("B", materialCosts.get(1).getProductNumber());
+        assertTrue(BigDecimalUtils.valueEquals(BigDecimal.valueOf(14L), materialCosts.get(1).getCostForGivenQuantity()));
+        assertEquals("A", materialCosts.get(2).getProductNumber());
+        assertTrue(BigDecimalUtils.valueEquals(BigDecimal.valueOf(15L), materialCosts.get(2).getCostForGivenQuantity()));
+
+        // when
+        List<Entity> calculationOperationComponents = Lists.newArrayList(
+                mockCalculationOperationComponent(tocs.get(0), BigDecimal.ONE, BigDecimal.valueOf(2L)),
+                mockCalculationOperationComponent(tocs.get(1), BigDecimal.valueOf(4L), BigDecimal.valueOf(6L)),
+                mockCalculationOperationComponent(tocs.get(2), BigDecimal.ONE, BigDecimal.ONE));
+
+        Collection<ComponentsCalculationHolder> componentCosts = costCalculationComponentsService.getComponentCosts(
+                costCalculation, parallelCosts.get(0).getComponentsCalculation(), calculationOperationComponents);
+
+        // then
+        assertEquals(1, componentCosts.size());
+
+        ComponentsCalculationHolder componentCost = componentCosts.iterator().next();
+
+        assertEquals("K", componentCost.getProduct().getStringField(ProductFields.NUMBER));
+        assertEquals("", componentCost.getTechnologyInputProductType());
+        assertTrue(BigDecimalUtils.valueEquals(L_QUANTITY, componentCost.getQuantity()));
+        assertTrue(BigDecimalUtils.valueEquals(BigDecimal.valueOf(18L), componentCost.getMaterialCost()));
+        assertTrue(BigDecimalUtils.valueEquals(BigDecimal.valueOf(12L), componentCost.getLaborCost()));
+        assertTrue(BigDecimalUtils.valueEquals(BigDecimal.valueOf(30L), componentCost.getSumOfCost()));
+        assertTrue(BigDecimalUtils.valueEquals(BigDecimal.TEN, componentCost.getCostPerUnit()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldFailWhenTechnologyCalculationFails() {
+        // given
+        given(technologyDD.get(L_TECHNOLOGIES / 2L)).willThrow(new IllegalArgumentException("Technology not found"));
+
+        List<TechnologyCosts> parallelCosts = Lists.newArrayList();
+
+        // when
+        technologyCostsService.calculateTechnologyCosts(costCalculation, technologyIds, createMaterialPriceResolver(),
+                parallelCosts::add, 4, 1);
+    }
+
+    @Test
+    public void shouldResolveCostOfSharedMaterialOncePerRun() {
+        // given
+        List<TechnologyCosts> parallelCosts = Lists.newArrayList();
+
+        // when
+        technologyCostsService.calculateTechnologyCosts(costCalculation, technologyIds, createMaterialPriceResolver(),
+                parallelCosts::add, 4, 1);
+
+        // then
+        assertEquals(L_TECHNOLOGIES, parallelCosts.size());
+
+        for (Entity material : materials) {
+            verify(material, times(1)).getDecimalField(ProductFieldsCNFP.COST_FOR_NUMBER);
+        }
+    }
+
+}
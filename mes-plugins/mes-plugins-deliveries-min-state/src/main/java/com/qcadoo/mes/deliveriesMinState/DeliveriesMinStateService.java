@@ -24,20 +24,24 @@
 package com.qcadoo.mes.deliveriesMinState;
 
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.jobs.MultiTenantJobRunner;
 import com.qcadoo.mes.deliveriesMinState.constants.DeliveriesMinStateConstants;
 import com.qcadoo.plugin.api.RunIfEnabled;
-import com.qcadoo.tenant.api.MultiTenantService;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.TimeUnit;
+
 @Service
 @RunIfEnabled(DeliveriesMinStateConstants.PLUGIN_IDENTIFIER)
 public class DeliveriesMinStateService {
 
+    private static final long L_TIMEOUT_MINUTES = 60;
+
     @Autowired
-    private MultiTenantService multiTenantService;
+    private MultiTenantJobRunner multiTenantJobRunner;
 
     @Autowired
     private DeliveriesMinStateHelper deliveriesMinStateHelper;
@@ -46,7 +50,7 @@ public class DeliveriesMinStateService {
     private ParameterService parameterService;
 
     public void automaticDeliveriesMinStateTrigger() {
-        multiTenantService.doInMultiTenantContext(() -> {
+        multiTenantJobRunner.runForAllTenants("automaticDeliveriesMinState", L_TIMEOUT_MINUTES, TimeUnit.MINUTES, () -> {
             if (parameterService.getParameter().getBooleanField("automaticDeliveriesMinState")) {
                 deliveriesMinStateHelper.createDeliveriesFromMinimalState();
             }
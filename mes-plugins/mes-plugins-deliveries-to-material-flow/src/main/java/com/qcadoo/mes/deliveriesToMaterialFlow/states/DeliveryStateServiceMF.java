@@ -28,8 +28,8 @@ import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.ParameterFields;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
 import com.qcadoo.mes.basic.util.CurrencyService;
+import com.qcadoo.mes.basic.util.UnitConversionsCache;
 import com.qcadoo.mes.deliveries.constants.*;
 import com.qcadoo.mes.deliveriesToMaterialFlow.constants.DocumentFieldsDTMF;
 import com.qcadoo.mes.materialFlow.constants.LocationFields;
@@ -44,8 +44,6 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.model.api.search.SearchRestrictions;
-import com.qcadoo.model.api.units.UnitConversionService;
 import com.qcadoo.model.api.validators.ErrorMessage;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -75,7 +73,7 @@ public class DeliveryStateServiceMF {
     private TranslationService translationService;
 
     @Autowired
-    private UnitConversionService unitConversionService;
+    private UnitConversionsCache unitConversionsCache;
 
     @Autowired
     private ParameterService parameterService;
@@ -300,10 +298,7 @@ public class DeliveryStateServiceMF {
                     BigDecimal conversion = BigDecimal.ONE;
 
                     if (!unit.equals(additionalUnit)) {
-                        conversion = unitConversionService
-                                .getPossibleConversions(unit,
-                                        searchCriteriaBuilder -> searchCriteriaBuilder
-                                                .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, product)))
+                        conversion = unitConversionsCache.getPossibleConversions(product, unit)
                                 .asUnitToConversionMap().get(additionalUnit);
                     }
 
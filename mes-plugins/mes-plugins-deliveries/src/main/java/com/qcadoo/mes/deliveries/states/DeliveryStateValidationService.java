@@ -29,6 +29,7 @@ import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.deliveries.ProductSynchronizationService;
 import com.qcadoo.mes.deliveries.constants.*;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancySnapshot;
 import com.qcadoo.mes.materialFlowResources.PalletValidatorService;
 import com.qcadoo.mes.materialFlowResources.constants.StorageLocationFields;
 import com.qcadoo.mes.states.StateChangeContext;
@@ -39,6 +40,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -205,6 +207,8 @@ public class DeliveryStateValidationService {
         Set<String> missingPalletNumbers = Sets.newHashSet();
         Set<String> existsMorePallets = Sets.newHashSet();
 
+        PalletOccupancySnapshot occupancySnapshot = createOccupancySnapshot(deliveredProducts);
+
         deliveredProducts.forEach(deliveredProduct -> {
             String productNumber = deliveredProduct.getBelongsToField(DeliveredProductFields.PRODUCT).getStringField(ProductFields.NUMBER);
             Entity storageLocation = deliveredProduct.getBelongsToField(DeliveredProductFields.STORAGE_LOCATION);
@@ -220,7 +224,7 @@ public class DeliveryStateValidationService {
                         if (Objects.isNull(palletNumber)) {
                             missingPalletNumbers.add(productNumber);
                         } else {
-                            if (!palletValidatorService.notTooManyPalletsInStorageLocationAndDeliveredProducts(deliveredProduct.getDataDefinition(), deliveredProduct)) {
+                            if (!palletValidatorService.notTooManyPalletsInStorageLocationAndDeliveredProducts(deliveredProduct.getDataDefinition(), deliveredProduct, occupancySnapshot)) {
                                 existsMorePallets.add(productNumber);
                             }
                         }
@@ -240,6 +244,16 @@ public class DeliveryStateValidationService {
         }
     }
 
+    private PalletOccupancySnapshot createOccupancySnapshot(final List<Entity> deliveredProducts) {
+        Set<Long> storageLocationIds = deliveredProducts.stream()
+                .map(deliveredProduct -> deliveredProduct.getBelongsToField(DeliveredProductFields.STORAGE_LOCATION))
+                .filter(storageLocation -> Objects.nonNull(storageLocation)
+                        && storageLocation.getBooleanField(StorageLocationFields.PLACE_STORAGE_LOCATION))
+                .map(Entity::getId).collect(Collectors.toSet());
+
+        return palletValidatorService.createOccupancySnapshot(storageLocationIds, Collections.emptySet());
+    }
+
     private void checkDeliveredProductsPricePerUnits(final StateChangeContext stateChangeContext) {
         checkArgument(Objects.nonNull(stateChangeContext), L_ENTITY_IS_NULL);
 
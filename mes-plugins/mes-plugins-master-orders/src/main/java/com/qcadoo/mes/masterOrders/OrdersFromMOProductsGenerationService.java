@@ -21,6 +21,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.ParameterSnapshot;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.masterOrders.constants.MasterOrderFields;
 import com.qcadoo.mes.masterOrders.constants.MasterOrderPositionDtoFields;
@@ -108,7 +109,8 @@ public class OrdersFromMOProductsGenerationService {
             final boolean generatePPS) {
         GenerationOrderResult result = new GenerationOrderResult(translationService, parameterService);
 
-        boolean automaticPps = parameterService.getParameter().getBooleanField(L_PPS_IS_AUTOMATIC);
+        boolean automaticPps = parameterService.getParameterSnapshot().getBooleanField(L_PPS_IS_AUTOMATIC);
+        List<Entity> realizationLocations = getRealizationLocations();
 
         List<Entity> masterOrderProductsEntities = Lists.newArrayList();
 
@@ -123,7 +125,7 @@ public class OrdersFromMOProductsGenerationService {
             }
         });
 
-        boolean createCollectiveOrders = parameterService.getParameter().getBooleanField(L_CREATE_COLLECTIVE_ORDERS);
+        boolean createCollectiveOrders = parameterService.getParameterSnapshot().getBooleanField(L_CREATE_COLLECTIVE_ORDERS);
         if (createCollectiveOrders) {
             Map<ProductTechnologyKey, List<Entity>> groupedMap = groupPositions(masterOrderProductsEntities);
 
@@ -152,7 +154,7 @@ public class OrdersFromMOProductsGenerationService {
                         .quantityRemainingToOrder(quantityRemainingToOrderResult.getDecimalField("quantityRemainingToOrder"))
                         .build();
 
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct, start, finish);
+                generateOrder(generatePPS, automaticPps, realizationLocations, result, masterOrderProduct, start, finish);
             }
         } else {
             masterOrderProductsEntities.forEach(mop -> {
@@ -173,7 +175,7 @@ public class OrdersFromMOProductsGenerationService {
                         .comments(mop.getStringField(MasterOrderProductFields.COMMENTS))
                         .quantityRemainingToOrder(quantityRemainingToOrder).masterOrderProduct(mop).build();
 
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct, start, finish);
+                generateOrder(generatePPS, automaticPps, realizationLocations, result, masterOrderProduct, start, finish);
             });
         }
 
@@ -209,13 +211,22 @@ public class OrdersFromMOProductsGenerationService {
         return groupedMap;
     }
 
-    private void generateOrder(final boolean generatePPS, final boolean automaticPps, final GenerationOrderResult result,
-            final MasterOrderProduct masterOrderProduct, final Date start, final Date finish) {
+    private List<Entity> getRealizationLocations() {
+        if (!parameterService.getParameterSnapshot().getBooleanField(ParameterFieldsO.REALIZATION_FROM_STOCK)) {
+            return Collections.emptyList();
+        }
+
+        return Lists.newArrayList(parameterService.getParameter().getHasManyField(ParameterFieldsO.REALIZATION_LOCATIONS));
+    }
+
+    private void generateOrder(final boolean generatePPS, final boolean automaticPps, final List<Entity> realizationLocations,
+            final GenerationOrderResult result, final MasterOrderProduct masterOrderProduct, final Date start,
+            final Date finish) {
         if (PluginUtils.isEnabled("integrationBaseLinker")) {
             createDocuments();
         }
 
-        Entity parameter = parameterService.getParameter();
+        ParameterSnapshot parameter = parameterService.getParameterSnapshot();
 
         boolean realizationFromStock = parameter.getBooleanField(ParameterFieldsO.REALIZATION_FROM_STOCK);
         boolean considerMinimumStockLevelWhenCreatingProductionOrders = parameter
@@ -233,10 +244,9 @@ public class OrdersFromMOProductsGenerationService {
         BigDecimal quantityRemainingToOrder = masterOrderProduct.getQuantityRemainingToOrder();
 
         if (realizationFromStock) {
-            List<Entity> locations = parameter.getHasManyField(ParameterFieldsO.REALIZATION_LOCATIONS);
             Entity product = masterOrderProduct.getProduct();
 
-            for (Entity location : locations) {
+            for (Entity location : realizationLocations) {
                 Map<Long, BigDecimal> productQuantity = materialFlowResourcesService
                         .getQuantitiesForProductsAndLocation(Lists.newArrayList(product), location);
 
@@ -319,7 +329,7 @@ public class OrdersFromMOProductsGenerationService {
                 for (Entity ord : orders) {
                     Date calculatedOrderStartDate = null;
 
-                    if (parameterService.getParameter().getBooleanField(ParameterFieldsO.ADVISE_START_DATE_OF_THE_ORDER)) {
+                    if (parameter.getBooleanField(ParameterFieldsO.ADVISE_START_DATE_OF_THE_ORDER)) {
                         calculatedOrderStartDate = order.getDateField(OrderFields.START_DATE);
                     } else {
                         if (Objects.isNull(ord.getDateField(OrderFields.DATE_FROM))) {
@@ -413,7 +423,7 @@ public class OrdersFromMOProductsGenerationService {
     private Entity createOrder(final MasterOrderProduct masterOrderProduct, final boolean realizationFromStock,
             final boolean considerMinimumStockLevelWhenCreatingProductionOrders, final BigDecimal quantityRemainingToOrder,
             final BigDecimal stockQuantity, final BigDecimal minStock, final Date start, final Date finish) {
-        Entity parameter = parameterService.getParameter();
+        ParameterSnapshot parameter = parameterService.getParameterSnapshot();
 
         Entity product = masterOrderProduct.getProduct();
         Entity technology = getTechnology(masterOrderProduct);
@@ -526,7 +536,7 @@ public class OrdersFromMOProductsGenerationService {
         return order;
     }
 
-    private void fillDates(final Entity parameter, final Entity order, final Date masterOrderDeadline,
+    private void fillDates(final ParameterSnapshot parameter, final Entity order, final Date masterOrderDeadline,
             final Date masterOrderStartDate, final Date masterOrderFinishDate) {
         if (!parameter.getBooleanField(L_ORDERS_GENERATION_NOT_COMPLETE_DATES)) {
             order.setField(OrderFields.DATE_FROM, masterOrderStartDate);
@@ -535,8 +545,8 @@ public class OrdersFromMOProductsGenerationService {
         }
     }
 
-    public String buildDescription(final Entity parameter, final MasterOrderProduct masterOrderProduct, final Entity technology,
-            Entity product) {
+    public String buildDescription(final ParameterSnapshot parameter, final MasterOrderProduct masterOrderProduct,
+            final Entity technology, Entity product) {
         boolean copyDescription = parameter.getBooleanField(ParameterFieldsMO.COPY_DESCRIPTION);
         boolean copyNotesFromMasterOrderPosition = parameter.getBooleanField(L_COPY_NOTES_FROM_MASTER_ORDER_POSITION);
         boolean fillOrderDescriptionBasedOnTechnology = parameter
@@ -31,6 +31,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public interface MaterialFlowResourcesService {
 
@@ -52,6 +53,16 @@ public interface MaterialFlowResourcesService {
     Map<Long, Map<Long, BigDecimal>> getQuantitiesForProductsAndLocations(final List<Entity> products,
                                                                           final List<Entity> locations);
 
+    /**
+     * Gives available quantities of products in locations, read by one query for all the locations.
+     *
+     * @param productIdsByLocationId
+     *            ids of products to look up, by id of location
+     * @return available quantities by product id, by location id - every given location is present, products without stock
+     *         are not
+     */
+    Map<Long, Map<Long, BigDecimal>> getQuantitiesForProductsInLocations(final Map<Long, Set<Long>> productIdsByLocationId);
+
 
     BigDecimal getBatchesQuantity(final Collection<Entity> batches, final Entity product,
                                   final Entity location);
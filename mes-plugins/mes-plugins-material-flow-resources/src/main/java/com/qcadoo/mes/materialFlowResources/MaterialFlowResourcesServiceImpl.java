@@ -162,6 +162,48 @@ public class MaterialFlowResourcesServiceImpl implements MaterialFlowResourcesSe
         return quantities;
     }
 
+    @Override
+    public Map<Long, Map<Long, BigDecimal>> getQuantitiesForProductsInLocations(final Map<Long, Set<Long>> productIdsByLocationId) {
+        Map<Long, Map<Long, BigDecimal>> quantities = Maps.newHashMap();
+
+        productIdsByLocationId.keySet().forEach(locationId -> quantities.put(locationId, Maps.newHashMap()));
+
+        List<Integer> locationIds = productIdsByLocationId.entrySet().stream().filter(entry -> !entry.getValue().isEmpty())
+                .map(entry -> entry.getKey().intValue()).collect(Collectors.toList());
+        List<Integer> productIds = productIdsByLocationId.values().stream().flatMap(Set::stream).distinct()
+                .map(Long::intValue).collect(Collectors.toList());
+
+        if (locationIds.isEmpty()) {
+            return quantities;
+        }
+
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT ");
+        query.append("resourceStockDto.location_id AS location_id, resourceStockDto.product_id AS product_id, ");
+        query.append("resourceStockDto.availableQuantity AS availableQuantity ");
+        query.append("FROM #materialFlowResources_resourceStockDto resourceStockDto ");
+        query.append("WHERE resourceStockDto.location_id IN (:locationIds) ");
+        query.append("AND resourceStockDto.product_id IN (:productIds) ");
+
+        SearchQueryBuilder searchQueryBuilder = getResourceStockDtoDD().find(query.toString());
+
+        searchQueryBuilder.setParameterList("locationIds", locationIds);
+        searchQueryBuilder.setParameterList("productIds", productIds);
+
+        for (Entity resourceStock : searchQueryBuilder.list().getEntities()) {
+            Long locationId = resourceStock.getIntegerField(ResourceStockDtoFields.LOCATION_ID).longValue();
+            Long productId = resourceStock.getIntegerField(ResourceStockDtoFields.PRODUCT_ID).longValue();
+
+            if (productIdsByLocationId.get(locationId).contains(productId)) {
+                quantities.get(locationId).put(productId,
+                        resourceStock.getDecimalField(ResourceStockDtoFields.AVAILABLE_QUANTITY));
+            }
+        }
+
+        return quantities;
+    }
+
     public BigDecimal getBatchesQuantity(final Collection<Entity> batches, final Entity product,
                                          final Entity location) {
         BigDecimal batchesQuantity = BigDecimal.ZERO;
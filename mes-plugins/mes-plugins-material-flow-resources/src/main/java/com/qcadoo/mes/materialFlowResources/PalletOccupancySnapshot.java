@@ -0,0 +1,217 @@
+package com.qcadoo.mes.materialFlowResources;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.PalletNumberFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.StorageLocationFields;
+import com.qcadoo.model.api.Entity;
+import org.apache.commons.lang3.StringUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * In-memory copy of pallet occupancy - resources, positions and delivered products of not finished deliveries having pallet
+ * numbers - loaded by {@link PalletValidatorService#createOccupancySnapshot} for given storage locations and pallet numbers.
+ * Checks give the same answers as the corresponding queries of {@link PalletValidatorService}, but only for the storage
+ * locations and pallet numbers the snapshot was created for. Not thread safe, meant to live for a single validation.
+ */
+public class PalletOccupancySnapshot {
+
+    enum OccupantType {
+        RESOURCE, POSITION, DELIVERED_PRODUCT
+    }
+
+    static final class Occupant {
+
+        private final OccupantType type;
+
+        private final Long id;
+
+        private final Long locationId;
+
+        private final Long storageLocationId;
+
+        private final String storageLocationNumber;
+
+        private final Long palletNumberId;
+
+        private final String palletNumberNumber;
+
+        private final String typeOfPallet;
+
+        private final boolean draft;
+
+        Occupant(final OccupantType type, final Long id, final Long locationId, final Long storageLocationId,
+                final String storageLocationNumber, final Long palletNumberId, final String palletNumberNumber,
+                final String typeOfPallet, final boolean draft) {
+            this.type = type;
+            this.id = id;
+            this.locationId = locationId;
+            this.storageLocationId = storageLocationId;
+            this.storageLocationNumber = storageLocationNumber;
+            this.palletNumberId = palletNumberId;
+            this.palletNumberNumber = palletNumberNumber;
+            this.typeOfPallet = typeOfPallet;
+            this.draft = draft;
+        }
+
+    }
+
+    static final class StorageLocation {
+
+        private final Long id;
+
+        private final boolean placeStorageLocation;
+
+        private final BigDecimal maximumNumberOfPallets;
+
+        StorageLocation(final Long id, final boolean placeStorageLocation, final BigDecimal maximumNumberOfPallets) {
+            this.id = id;
+            this.placeStorageLocation = placeStorageLocation;
+            this.maximumNumberOfPallets = maximumNumberOfPallets;
+        }
+
+    }
+
+    private final Map<String, List<Occupant>> occupantsByPalletNumber = Maps.newHashMap();
+
+    private final Map<Long, List<Occupant>> occupantsByStorageLocation = Maps.newHashMap();
+
+    private final Map<String, StorageLocation> storageLocationsByNumber = Maps.newHashMap();
+
+    void addStorageLocation(final Long id, final String number, final boolean placeStorageLocation,
+            final BigDecimal maximumNumberOfPallets) {
+        storageLocationsByNumber.put(number, new StorageLocation(id, placeStorageLocation, maximumNumberOfPallets));
+    }
+
+    void addOccupant(final Occupant occupant) {
+        occupantsByPalletNumber.computeIfAbsent(occupant.palletNumberNumber, number -> Lists.newArrayList()).add(occupant);
+
+        if (Objects.nonNull(occupant.storageLocationId)) {
+            occupantsByStorageLocation.computeIfAbsent(occupant.storageLocationId, id -> Lists.newArrayList()).add(occupant);
+        }
+    }
+
+    /**
+     * Registers a just saved resource, so following checks take it into account.
+     */
+    public void applyResource(final Entity resource) {
+        Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
+        Entity storageLocation = resource.getBelongsToField(ResourceFields.STORAGE_LOCATION);
+        Entity palletNumber = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
+
+        if (Objects.isNull(palletNumber)) {
+            return;
+        }
+
+        addOccupant(new Occupant(OccupantType.RESOURCE, resource.getId(), Objects.nonNull(location) ? location.getId() : null,
+                Objects.nonNull(storageLocation) ? storageLocation.getId() : null,
+                Objects.nonNull(storageLocation) ? storageLocation.getStringField(StorageLocationFields.NUMBER) : null,
+                palletNumber.getId(), palletNumber.getStringField(PalletNumberFields.NUMBER),
+                resource.getStringField(ResourceFields.TYPE_OF_PALLET), false));
+    }
+
+    public boolean existsOtherResourceForPalletNumberOnOtherLocations(final Long locationId, final String palletNumberNumber,
+            final Long resourceId) {
+        return getOccupants(palletNumberNumber).stream()
+                .anyMatch(occupant -> OccupantType.RESOURCE.equals(occupant.type) && !locationId.equals(occupant.locationId)
+                        && isOther(occupant, resourceId));
+    }
+
+    public boolean existsOtherResourceForPalletNumberOnSameLocation(final Long locationId, final String storageLocationNumber,
+            final String palletNumberNumber, final String typeOfPallet, final Long resourceId) {
+        return getOccupants(palletNumberNumber).stream()
+                .anyMatch(occupant -> OccupantType.RESOURCE.equals(occupant.type) && locationId.equals(occupant.locationId)
+                        && isOther(occupant, resourceId) && differs(occupant, storageLocationNumber, typeOfPallet));
+    }
+
+    public boolean existsOtherPositionForPalletNumber(final Long locationId, final String storageLocationNumber,
+            final String palletNumberNumber, final String typeOfPallet, final Long positionId) {
+        return getOccupants(palletNumberNumber).stream()
+                .anyMatch(occupant -> OccupantType.POSITION.equals(occupant.type) && occupant.draft
+                        && locationId.equals(occupant.locationId) && isOther(occupant, positionId)
+                        && differs(occupant, storageLocationNumber, typeOfPallet));
+    }
+
+    public boolean existsOtherDeliveredProductForPalletNumber(final Long locationId, final String storageLocationNumber,
+            final String palletNumberNumber, final String palletType, final Long deliveredProductId) {
+        return getOccupants(palletNumberNumber).stream()
+                .anyMatch(occupant -> OccupantType.DELIVERED_PRODUCT.equals(occupant.type)
+                        && locationId.equals(occupant.locationId) && isOther(occupant, deliveredProductId)
+                        && differs(occupant, storageLocationNumber, palletType));
+    }
+
+    public boolean tooManyPalletsInStorageLocationAndPositions(final String storageLocationNumber, final String palletNumberNumber,
+            final Long positionId) {
+        if (Objects.isNull(storageLocationNumber) || Objects.isNull(palletNumberNumber)) {
+            return false;
+        }
+
+        StorageLocation storageLocation = storageLocationsByNumber.get(storageLocationNumber);
+
+        if (Objects.isNull(storageLocation) || !storageLocation.placeStorageLocation) {
+            return false;
+        }
+
+        Set<Long> palletNumberIds = Sets.newHashSet();
+
+        for (Occupant occupant : occupantsByStorageLocation.getOrDefault(storageLocation.id, Lists.newArrayList())) {
+            boolean countable = OccupantType.RESOURCE.equals(occupant.type)
+                    || (OccupantType.POSITION.equals(occupant.type) && isOther(occupant, positionId));
+
+            if (countable && !palletNumberNumber.equals(occupant.palletNumberNumber)) {
+                palletNumberIds.add(occupant.palletNumberId);
+            }
+        }
+
+        return exceedsMaximumNumberOfPallets(storageLocation.maximumNumberOfPallets, palletNumberIds.size());
+    }
+
+    public boolean tooManyPalletsInStorageLocationAndDeliveredProducts(final Entity storageLocation, final Entity palletNumber,
+            final Long deliveredProductId) {
+        Set<Long> palletNumberIds = Sets.newHashSet();
+
+        for (Occupant occupant : occupantsByStorageLocation.getOrDefault(storageLocation.getId(), Lists.newArrayList())) {
+            boolean countable = OccupantType.RESOURCE.equals(occupant.type)
+                    || (OccupantType.DELIVERED_PRODUCT.equals(occupant.type) && isOther(occupant, deliveredProductId));
+
+            if (countable && !palletNumber.getId().equals(occupant.palletNumberId)) {
+                palletNumberIds.add(occupant.palletNumberId);
+            }
+        }
+
+        return exceedsMaximumNumberOfPallets(storageLocation.getDecimalField(StorageLocationFields.MAXIMUM_NUMBER_OF_PALLETS),
+                palletNumberIds.size());
+    }
+
+    private List<Occupant> getOccupants(final String palletNumberNumber) {
+        return occupantsByPalletNumber.getOrDefault(palletNumberNumber, Lists.newArrayList());
+    }
+
+    private boolean isOther(final Occupant occupant, final Long id) {
+        return Objects.isNull(id) || !id.equals(occupant.id);
+    }
+
+    private boolean differs(final Occupant occupant, final String storageLocationNumber, final String typeOfPallet) {
+        boolean otherStorageLocation = Objects.nonNull(occupant.storageLocationNumber) && Objects.nonNull(storageLocationNumber)
+                && !storageLocationNumber.equals(occupant.storageLocationNumber);
+
+        if (StringUtils.isNotEmpty(typeOfPallet)) {
+            return otherStorageLocation || StringUtils.isEmpty(occupant.typeOfPallet) || !typeOfPallet.equals(occupant.typeOfPallet);
+        } else {
+            return otherStorageLocation || StringUtils.isNotEmpty(occupant.typeOfPallet);
+        }
+    }
+
+    private boolean exceedsMaximumNumberOfPallets(final BigDecimal maximumNumberOfPallets, final long palletsInStorageLocation) {
+        return Objects.nonNull(maximumNumberOfPallets)
+                && (BigDecimal.valueOf(palletsInStorageLocation + 1).compareTo(maximumNumberOfPallets) > 0);
+    }
+
+}
@@ -1,8 +1,11 @@
 package com.qcadoo.mes.materialFlowResources;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.constants.PalletNumberFields;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
 import com.qcadoo.mes.materialFlowResources.constants.StorageLocationFields;
 import com.qcadoo.model.api.DataDefinition;
@@ -10,13 +13,19 @@ import com.qcadoo.model.api.Entity;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class PalletValidatorService {
@@ -39,12 +48,16 @@ public class PalletValidatorService {
     private NamedParameterJdbcTemplate jdbcTemplate;
 
     public boolean validatePalletForResource(final Entity resource) {
+        return validatePalletForResource(resource, null);
+    }
+
+    public boolean validatePalletForResource(final Entity resource, final PalletOccupancySnapshot occupancySnapshot) {
         Entity location = resource.getBelongsToField(ResourceFields.LOCATION);
         Entity storageLocation = resource.getBelongsToField(ResourceFields.STORAGE_LOCATION);
         Entity palletNumber = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
         String typeOfPallet = resource.getStringField(ResourceFields.TYPE_OF_PALLET);
 
-        return validatePallet(location, storageLocation, palletNumber, typeOfPallet, resource);
+        return validatePallet(location, storageLocation, palletNumber, typeOfPallet, resource, occupancySnapshot);
     }
 
     public boolean validatePalletForDeliveredProduct(final Entity deliveredProduct) {
@@ -62,11 +75,17 @@ public class PalletValidatorService {
     }
 
     public boolean validatePallet(final Entity location, final Entity storageLocation, final Entity palletNumber, final String typeOfPallet, final Entity entity) {
+        return validatePallet(location, storageLocation, palletNumber, typeOfPallet, entity, null);
+    }
+
+    private boolean validatePallet(final Entity location, final Entity storageLocation, final Entity palletNumber, final String typeOfPallet,
+                                   final Entity entity, final PalletOccupancySnapshot occupancySnapshot) {
         if (Objects.isNull(entity.getField(L_VALIDATE_PALLET)) || entity.getBooleanField(L_VALIDATE_PALLET)) {
 
             boolean isValid = validateRequiredFields(storageLocation, palletNumber, entity);
 
-            isValid = isValid && validatePalletNumberAndTypeOfPallet(location, storageLocation, palletNumber, typeOfPallet, entity);
+            isValid = isValid && validatePalletNumberAndTypeOfPallet(location, storageLocation, palletNumber, typeOfPallet, entity,
+                    occupancySnapshot);
 
             return isValid;
         }
@@ -97,30 +116,42 @@ public class PalletValidatorService {
     }
 
     public boolean validatePalletNumberAndTypeOfPallet(final Entity location, final Entity storageLocation, final Entity palletNumber, final String typeOfPallet, final Entity entity) {
+        return validatePalletNumberAndTypeOfPallet(location, storageLocation, palletNumber, typeOfPallet, entity, null);
+    }
+
+    private boolean validatePalletNumberAndTypeOfPallet(final Entity location, final Entity storageLocation, final Entity palletNumber,
+                                                        final String typeOfPallet, final Entity entity,
+                                                        final PalletOccupancySnapshot occupancySnapshot) {
         String palletNumberNumber = Objects.nonNull(palletNumber) ? palletNumber.getStringField(PalletNumberFields.NUMBER) : null;
         String storageLocationNumber = Objects.nonNull(storageLocation) ? storageLocation.getStringField(StorageLocationFields.NUMBER) : null;
         Long resourceId = getEntityId(entity, MaterialFlowResourcesConstants.MODEL_RESOURCE);
         Long deliveredProductId = getEntityId(entity, L_DELIVERED_PRODUCT);
 
-        if (existsOtherResourceForPalletNumberOnOtherLocations(location.getId(), storageLocationNumber, resourceId)) {
+        boolean withSnapshot = Objects.nonNull(occupancySnapshot);
+
+        if (withSnapshot ? occupancySnapshot.existsOtherResourceForPalletNumberOnOtherLocations(location.getId(), storageLocationNumber, resourceId)
+                : existsOtherResourceForPalletNumberOnOtherLocations(location.getId(), storageLocationNumber, resourceId)) {
             entity.addError(entity.getDataDefinition().getField(L_PALLET_NUMBER),
                     "documentGrid.error.position.existsOtherResourceForPallet");
 
             return false;
         }
-        if (existsOtherResourceForPalletNumberOnSameLocation(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, resourceId)) {
+        if (withSnapshot ? occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, resourceId)
+                : existsOtherResourceForPalletNumberOnSameLocation(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, resourceId)) {
             entity.addError(entity.getDataDefinition().getField(L_PALLET_NUMBER),
                     "documentGrid.error.position.existsOtherResourceForPalletAndStorageLocation");
 
             return false;
         }
-        if (existsOtherPositionForPalletNumber(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, null, null)) {
+        if (withSnapshot ? occupancySnapshot.existsOtherPositionForPalletNumber(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, null)
+                : existsOtherPositionForPalletNumber(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, null, null)) {
             entity.addError(entity.getDataDefinition().getField(L_PALLET_NUMBER),
                     "documentGrid.error.position.existsOtherPositionForPalletAndStorageLocation");
 
             return false;
         }
-        if (existsOtherDeliveredProductForPalletNumber(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, deliveredProductId)) {
+        if (withSnapshot ? occupancySnapshot.existsOtherDeliveredProductForPalletNumber(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, deliveredProductId)
+                : existsOtherDeliveredProductForPalletNumber(location.getId(), storageLocationNumber, palletNumberNumber, typeOfPallet, deliveredProductId)) {
             entity.addError(entity.getDataDefinition().getField(L_PALLET_NUMBER),
                     "documentGrid.error.position.existsOtherDeliveredProductForPalletAndStorageLocation");
 
@@ -379,47 +410,22 @@ public class PalletValidatorService {
     }
 
     public boolean notTooManyPalletsInStorageLocationAndDeliveredProducts(final DataDefinition deliveredProductDD, final Entity deliveredProduct) {
+        return notTooManyPalletsInStorageLocationAndDeliveredProducts(deliveredProductDD, deliveredProduct, null);
+    }
+
+    public boolean notTooManyPalletsInStorageLocationAndDeliveredProducts(final DataDefinition deliveredProductDD, final Entity deliveredProduct,
+                                                                          final PalletOccupancySnapshot occupancySnapshot) {
         Entity storageLocation = deliveredProduct.getBelongsToField("storageLocation");
 
         if (Objects.nonNull(storageLocation) && storageLocation.getBooleanField(StorageLocationFields.PLACE_STORAGE_LOCATION)) {
             Entity palletNumber = deliveredProduct.getBelongsToField("palletNumber");
 
             if (Objects.nonNull(palletNumber)) {
-                StringBuilder query = new StringBuilder();
-
-                query.append("SELECT ");
-                query.append("COUNT(DISTINCT palletsInStorageLocation.palletnumber_id) AS palletsCount ");
-                query.append("FROM (");
-                query.append("SELECT ");
-                query.append("resource.palletnumber_id, ");
-                query.append("resource.storagelocation_id ");
-                query.append("FROM materialflowresources_resource resource ");
-                query.append("UNION ALL ");
-                query.append("SELECT ");
-                query.append("deliveredproduct.palletnumber_id, ");
-                query.append("deliveredproduct.storagelocation_id ");
-                query.append("FROM deliveries_delivery delivery ");
-                query.append("JOIN deliveries_deliveredproduct deliveredproduct ");
-                query.append("ON deliveredproduct.delivery_id = delivery.id ");
-                query.append("WHERE delivery.state NOT IN ('06received','04declined') ");
-                query.append("AND deliveredproduct.id <> :deliveredProductId ");
-                query.append(") palletsInStorageLocation ");
-                query.append("WHERE palletsInStorageLocation.storagelocation_id = :storageLocationId ");
-                query.append("AND palletsInStorageLocation.palletnumber_id <> :palletNumberId");
-
-                Long deliveredProductId = Optional.ofNullable(deliveredProduct.getId()).orElse(-1L);
+                boolean tooManyPallets = Objects.nonNull(occupancySnapshot)
+                        ? occupancySnapshot.tooManyPalletsInStorageLocationAndDeliveredProducts(storageLocation, palletNumber, deliveredProduct.getId())
+                        : tooManyPalletsInStorageLocationAndDeliveredProducts(storageLocation, palletNumber, deliveredProduct.getId());
 
-                Map<String, Object> params = Maps.newHashMap();
-
-                params.put("storageLocationId", storageLocation.getId());
-                params.put("palletNumberId", palletNumber.getId());
-                params.put("deliveredProductId", deliveredProductId);
-
-                Long palletsInStorageLocation = jdbcTemplate.queryForObject(query.toString(), params, Long.class);
-
-                BigDecimal maximumNumberOfPallets = storageLocation.getDecimalField(StorageLocationFields.MAXIMUM_NUMBER_OF_PALLETS);
-
-                if (Objects.nonNull(maximumNumberOfPallets) && (BigDecimal.valueOf(palletsInStorageLocation + 1).compareTo(maximumNumberOfPallets) > 0)) {
+                if (tooManyPallets) {
                     deliveredProduct.addError(deliveredProductDD.getField("storageLocation"),
                             "deliveries.deliveredProduct.error.storageLocationPalletLimitExceeded");
 
@@ -431,6 +437,43 @@ public class PalletValidatorService {
         return true;
     }
 
+    private boolean tooManyPalletsInStorageLocationAndDeliveredProducts(final Entity storageLocation, final Entity palletNumber,
+                                                                        final Long deliveredProductId) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT ");
+        query.append("COUNT(DISTINCT palletsInStorageLocation.palletnumber_id) AS palletsCount ");
+        query.append("FROM (");
+        query.append("SELECT ");
+        query.append("resource.palletnumber_id, ");
+        query.append("resource.storagelocation_id ");
+        query.append("FROM materialflowresources_resource resource ");
+        query.append("UNION ALL ");
+        query.append("SELECT ");
+        query.append("deliveredproduct.palletnumber_id, ");
+        query.append("deliveredproduct.storagelocation_id ");
+        query.append("FROM deliveries_delivery delivery ");
+        query.append("JOIN deliveries_deliveredproduct deliveredproduct ");
+        query.append("ON deliveredproduct.delivery_id = delivery.id ");
+        query.append("WHERE delivery.state NOT IN ('06received','04declined') ");
+        query.append("AND deliveredproduct.id <> :deliveredProductId ");
+        query.append(") palletsInStorageLocation ");
+        query.append("WHERE palletsInStorageLocation.storagelocation_id = :storageLocationId ");
+        query.append("AND palletsInStorageLocation.palletnumber_id <> :palletNumberId");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("storageLocationId", storageLocation.getId());
+        params.put("palletNumberId", palletNumber.getId());
+        params.put("deliveredProductId", Optional.ofNullable(deliveredProductId).orElse(-1L));
+
+        Long palletsInStorageLocation = jdbcTemplate.queryForObject(query.toString(), params, Long.class);
+
+        BigDecimal maximumNumberOfPallets = storageLocation.getDecimalField(StorageLocationFields.MAXIMUM_NUMBER_OF_PALLETS);
+
+        return Objects.nonNull(maximumNumberOfPallets) && (BigDecimal.valueOf(palletsInStorageLocation + 1).compareTo(maximumNumberOfPallets) > 0);
+    }
+
     public boolean checkMaximumNumberOfPallets(final Entity storageLocation, final Entity resource) {
         return checkMaximumNumberOfPallets(storageLocation, resource, 1);
     }
@@ -526,6 +569,120 @@ public class PalletValidatorService {
         }
     }
 
+    /**
+     * Loads pallet occupancy of given storage locations and pallet numbers in two queries, so lines of a document or a delivery
+     * can be validated in memory.
+     *
+     * @param storageLocationIds
+     *            storage locations, which pallets are counted
+     * @param palletNumberNumbers
+     *            pallet numbers, which resources, positions and delivered products are checked
+     * @return occupancy snapshot
+     */
+    public PalletOccupancySnapshot createOccupancySnapshot(final Collection<Long> storageLocationIds,
+                                                           final Collection<String> palletNumberNumbers) {
+        PalletOccupancySnapshot occupancySnapshot = new PalletOccupancySnapshot();
+
+        if (storageLocationIds.isEmpty() && palletNumberNumbers.isEmpty()) {
+            return occupancySnapshot;
+        }
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("storageLocationIds", storageLocationIds.isEmpty() ? Collections.singleton(-1L) : storageLocationIds);
+        params.put("palletNumberNumbers", palletNumberNumbers.isEmpty() ? Collections.singleton("") : palletNumberNumbers);
+
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT id, number, placestoragelocation, maximumnumberofpallets ");
+        query.append("FROM materialflowresources_storagelocation ");
+        query.append("WHERE id IN (:storageLocationIds)");
+
+        jdbcTemplate.query(query.toString(), params, (RowCallbackHandler) rs -> occupancySnapshot.addStorageLocation(rs.getLong("id"),
+                rs.getString("number"), rs.getBoolean("placestoragelocation"), rs.getBigDecimal("maximumnumberofpallets")));
+
+        query = new StringBuilder();
+
+        query.append("SELECT 'RESOURCE' AS type, resource.id, resource.location_id AS locationId, ");
+        query.append("resource.storagelocation_id AS storageLocationId, storagelocation.number AS storageLocationNumber, ");
+        query.append("palletnumber.id AS palletNumberId, palletnumber.number AS palletNumberNumber, ");
+        query.append("resource.typeofpallet AS typeOfPallet, FALSE AS draft ");
+        query.append("FROM materialflowresources_resource resource ");
+        query.append("JOIN basic_palletnumber palletnumber ");
+        query.append("ON palletnumber.id = resource.palletnumber_id ");
+        query.append("LEFT JOIN materialflowresources_storagelocation storagelocation ");
+        query.append("ON storagelocation.id = resource.storagelocation_id ");
+        query.append("WHERE resource.storagelocation_id IN (:storageLocationIds) ");
+        query.append("OR palletnumber.number IN (:palletNumberNumbers) ");
+        query.append("UNION ALL ");
+        query.append("SELECT 'POSITION' AS type, position.id, document.locationto_id AS locationId, ");
+        query.append("position.storagelocation_id AS storageLocationId, storagelocation.number AS storageLocationNumber, ");
+        query.append("palletnumber.id AS palletNumberId, palletnumber.number AS palletNumberNumber, ");
+        query.append("position.typeofpallet AS typeOfPallet, document.state = '01draft' AS draft ");
+        query.append("FROM materialflowresources_position position ");
+        query.append("JOIN materialflowresources_document document ");
+        query.append("ON document.id = position.document_id ");
+        query.append("JOIN basic_palletnumber palletnumber ");
+        query.append("ON palletnumber.id = position.palletnumber_id ");
+        query.append("LEFT JOIN materialflowresources_storagelocation storagelocation ");
+        query.append("ON storagelocation.id = position.storagelocation_id ");
+        query.append("WHERE position.storagelocation_id IN (:storageLocationIds) ");
+        query.append("OR palletnumber.number IN (:palletNumberNumbers) ");
+        query.append("UNION ALL ");
+        query.append("SELECT 'DELIVERED_PRODUCT' AS type, deliveredproduct.id, delivery.location_id AS locationId, ");
+        query.append("deliveredproduct.storagelocation_id AS storageLocationId, storagelocation.number AS storageLocationNumber, ");
+        query.append("palletnumber.id AS palletNumberId, palletnumber.number AS palletNumberNumber, ");
+        query.append("deliveredproduct.pallettype AS typeOfPallet, FALSE AS draft ");
+        query.append("FROM deliveries_deliveredproduct deliveredproduct ");
+        query.append("JOIN deliveries_delivery delivery ");
+        query.append("ON delivery.id = deliveredproduct.delivery_id ");
+        query.append("JOIN basic_palletnumber palletnumber ");
+        query.append("ON palletnumber.id = deliveredproduct.palletnumber_id ");
+        query.append("LEFT JOIN materialflowresources_storagelocation storagelocation ");
+        query.append("ON storagelocation.id = deliveredproduct.storagelocation_id ");
+        query.append("WHERE delivery.state NOT IN ('04declined', '06received') ");
+        query.append("AND (deliveredproduct.storagelocation_id IN (:storageLocationIds) ");
+        query.append("OR palletnumber.number IN (:palletNumberNumbers))");
+
+        jdbcTemplate.query(query.toString(), params, (RowCallbackHandler) rs -> occupancySnapshot.addOccupant(
+                new PalletOccupancySnapshot.Occupant(PalletOccupancySnapshot.OccupantType.valueOf(rs.getString("type")),
+                        rs.getLong("id"), getLong(rs, "locationId"), getLong(rs, "storageLocationId"),
+                        rs.getString("storageLocationNumber"), rs.getLong("palletNumberId"), rs.getString("palletNumberNumber"),
+                        rs.getString("typeOfPallet"), rs.getBoolean("draft"))));
+
+        return occupancySnapshot;
+    }
+
+    /**
+     * Creates occupancy snapshot for validation of positions of given document. Besides pallet numbers of positions, numbers
+     * of their storage locations are loaded as pallet numbers too, as the other locations check is made with them.
+     */
+    public PalletOccupancySnapshot createOccupancySnapshot(final Entity document) {
+        Set<Long> storageLocationIds = Sets.newHashSet();
+        Set<String> palletNumberNumbers = Sets.newHashSet();
+
+        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+            Entity storageLocation = position.getBelongsToField(PositionFields.STORAGE_LOCATION);
+            Entity palletNumber = position.getBelongsToField(PositionFields.PALLET_NUMBER);
+
+            if (Objects.nonNull(storageLocation)) {
+                storageLocationIds.add(storageLocation.getId());
+                palletNumberNumbers.add(storageLocation.getStringField(StorageLocationFields.NUMBER));
+            }
+            if (Objects.nonNull(palletNumber)) {
+                palletNumberNumbers.add(palletNumber.getStringField(PalletNumberFields.NUMBER));
+            }
+        }
+
+        return createOccupancySnapshot(storageLocationIds, palletNumberNumbers);
+    }
+
+    private Long getLong(final ResultSet rs, final String columnLabel) throws SQLException {
+        long value = rs.getLong(columnLabel);
+
+        return rs.wasNull() ? null : value;
+    }
+
     public BigDecimal getMaximumNumberOfPallets(final String storageLocationNumber) {
         StringBuilder query = new StringBuilder();
 
@@ -29,6 +29,7 @@ import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
 import com.qcadoo.mes.materialFlowResources.constants.OrdersGroupIssuedMaterialFields;
 import com.qcadoo.mes.materialFlowResources.service.DocumentService;
 import com.qcadoo.mes.materialFlowResources.service.DocumentStateChangeService;
+import com.qcadoo.mes.materialFlowResources.service.DraftDocumentsNotificationService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -51,6 +52,9 @@ public class DocumentModelHooks {
     @Autowired
     private DocumentService documentService;
 
+    @Autowired
+    private DraftDocumentsNotificationService draftDocumentsNotificationService;
+
     public void onCreate(final DataDefinition documentDD, final Entity document) {
         setInitialDocumentNumber(document);
         setInitialDocumentAcceptationInProgress(document);
@@ -83,6 +87,8 @@ public class DocumentModelHooks {
         if (DocumentState.ACCEPTED.getStringValue().equals(document.getStringField(DocumentFields.STATE))) {
             documentStateChangeService.buildSuccessfulStateChange(document);
         }
+
+        draftDocumentsNotificationService.onDocumentSave(document);
     }
 
     private String getTranslatedType(final Entity document) {
@@ -96,6 +102,7 @@ public class DocumentModelHooks {
     public boolean onDelete(final DataDefinition documentDD, final Entity document) {
         documentService.updateOrdersGroupIssuedMaterials(document.getBelongsToField(OrdersGroupIssuedMaterialFields.ORDERS_GROUP),
                 document.getId());
+        draftDocumentsNotificationService.onDocumentDelete(document);
 
         return true;
     }
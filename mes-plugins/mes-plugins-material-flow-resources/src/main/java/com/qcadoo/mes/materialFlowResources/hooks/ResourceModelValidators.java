@@ -24,6 +24,7 @@
 package com.qcadoo.mes.materialFlowResources.hooks;
 
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancySnapshot;
 import com.qcadoo.mes.materialFlowResources.PalletValidatorService;
 import com.qcadoo.mes.materialFlowResources.constants.LocationFieldsMFR;
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
@@ -46,11 +47,16 @@ public class ResourceModelValidators {
     private PositionValidators positionValidators;
 
     public boolean validatesWith(final DataDefinition resourceDD, final Entity resource) {
+        return validatesWith(resourceDD, resource, null);
+    }
+
+    public boolean validatesWith(final DataDefinition resourceDD, final Entity resource,
+            final PalletOccupancySnapshot occupancySnapshot) {
         boolean isValid = checkProductionAndExpirationDate(resourceDD, resource);
 
         isValid = isValid && validateRequiredAttributes(resourceDD, resource);
         isValid = isValid && checkBatchEvidence(resourceDD, resource);
-        isValid = isValid && palletValidatorService.validatePalletForResource(resource);
+        isValid = isValid && palletValidatorService.validatePalletForResource(resource, occupancySnapshot);
 
         return isValid;
     }
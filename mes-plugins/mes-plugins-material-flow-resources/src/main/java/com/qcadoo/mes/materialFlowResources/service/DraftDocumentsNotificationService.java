@@ -1,80 +1,99 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
-import static com.qcadoo.model.api.search.SearchRestrictions.eq;
-import static com.qcadoo.model.api.search.SearchRestrictions.in;
-import static com.qcadoo.model.api.search.SearchRestrictions.isNull;
-import static com.qcadoo.model.api.search.SearchRestrictions.or;
-
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
-import com.qcadoo.mes.materialFlow.constants.UserFieldsMF;
-import com.qcadoo.mes.materialFlow.constants.UserLocationFields;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.notifications.NotificationCountersService;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
-import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
-import com.qcadoo.model.api.DataDefinition;
-import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityList;
-import com.qcadoo.model.api.search.JoinType;
-import com.qcadoo.model.api.search.SearchConjunction;
-import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.security.api.SecurityService;
-import com.qcadoo.security.constants.QcadooSecurityConstants;
 
 @Service
 public class DraftDocumentsNotificationService {
 
     static final String ROLE_DOCUMENTS_NOTIFICATION = "ROLE_DOCUMENTS_NOTIFICATION";
 
+    private static final String L_DRAFT_DOCUMENTS = "draftDocuments";
+
+    private static final String L_ORDER = "order";
+
+    private static final String L_DRAFT_DOCUMENTS_QUERY = "SELECT document.id AS id, document.locationfrom_id AS locationFromId, "
+            + "document.locationto_id AS locationToId FROM materialflowresources_document document "
+            + "WHERE document.state = :state AND document.active = true AND document.order_id IS NULL";
+
+    private static final String L_USER_LOCATIONS_QUERY = "SELECT userlocation.location_id AS locationId "
+            + "FROM materialflow_userlocation userlocation WHERE userlocation.user_id = :userId";
+
     private final SecurityService securityService;
 
-    private final DataDefinitionService dataDefinitionService;
+    private final NotificationCountersService notificationCountersService;
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
 
     @Autowired
-    public DraftDocumentsNotificationService(SecurityService securityService, DataDefinitionService dataDefinitionService) {
+    public DraftDocumentsNotificationService(SecurityService securityService,
+            NotificationCountersService notificationCountersService, NamedParameterJdbcTemplate jdbcTemplate) {
         this.securityService = securityService;
-        this.dataDefinitionService = dataDefinitionService;
-    }
-
-    private DataDefinition userDataDefinition() {
-        return dataDefinitionService.get(QcadooSecurityConstants.PLUGIN_IDENTIFIER, QcadooSecurityConstants.MODEL_USER);
-    }
-
-    private DataDefinition documentDataDefinition() {
-        return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
-                MaterialFlowResourcesConstants.MODEL_DOCUMENT);
+        this.notificationCountersService = notificationCountersService;
+        this.jdbcTemplate = jdbcTemplate;
     }
 
     public boolean shouldNotifyCurrentUser() {
         Long currentUserId = securityService.getCurrentUserId();
         return currentUserId != null && securityService.hasCurrentUserRole(ROLE_DOCUMENTS_NOTIFICATION)
-                && countDraftDocumentsForUser(currentUserId) > 0;
+                && hasDraftDocumentsForUser(currentUserId);
+    }
+
+    boolean hasDraftDocumentsForUser(Long currentUserId) {
+        Set<Long> userLocationIds = notificationCountersService.getUserKeys(L_DRAFT_DOCUMENTS, currentUserId,
+                this::getUserLocationIds);
+
+        return notificationCountersService.exists(L_DRAFT_DOCUMENTS, userLocationIds, this::getDraftDocuments);
     }
 
-    int countDraftDocumentsForUser(Long currentUserId) {
-        EntityList userLocations = userDataDefinition().get(currentUserId).getHasManyField(UserFieldsMF.USER_LOCATIONS);
-        SearchConjunction conjunction = SearchRestrictions.conjunction();
-        conjunction.add(eq(DocumentFields.STATE, DocumentState.DRAFT.getStringValue()));
-        conjunction.add(eq(DocumentFields.ACTIVE, Boolean.TRUE));
-        conjunction.add(isNull("order.id"));
-
-        SearchCriteriaBuilder criteriaBuilder = documentDataDefinition().find();
-        if (!userLocations.isEmpty()) {
-            criteriaBuilder.createAlias(DocumentFields.LOCATION_FROM, "locFrom", JoinType.LEFT);
-            criteriaBuilder.createAlias(DocumentFields.LOCATION_TO, "locTo", JoinType.LEFT);
-
-            Set<Long> locationIds = userLocations.stream().map(ul -> ul.getBelongsToField(UserLocationFields.LOCATION))
-                    .map(Entity::getId).collect(Collectors.toSet());
-            conjunction.add(or(in("locFrom.id", locationIds), in("locTo.id", locationIds)));
+    public void onDocumentSave(final Entity document) {
+        Set<Long> locationIds = null;
+
+        if (DocumentState.DRAFT.getStringValue().equals(document.getStringField(DocumentFields.STATE))
+                && document.getBooleanField(DocumentFields.ACTIVE) && Objects.isNull(document.getField(L_ORDER))) {
+            locationIds = Sets.newHashSet(getId(document.getBelongsToField(DocumentFields.LOCATION_FROM)),
+                    getId(document.getBelongsToField(DocumentFields.LOCATION_TO)));
         }
-        criteriaBuilder.add(conjunction);
-        return criteriaBuilder.list().getTotalNumberOfEntities();
+
+        notificationCountersService.update(L_DRAFT_DOCUMENTS, document, locationIds);
+    }
+
+    public void onDocumentDelete(final Entity document) {
+        notificationCountersService.remove(L_DRAFT_DOCUMENTS, document.getId());
+    }
+
+    private Long getId(final Entity entity) {
+        return Objects.isNull(entity) ? null : entity.getId();
+    }
+
+    private Set<Long> getUserLocationIds(final Long userId) {
+        return Sets.newHashSet(jdbcTemplate.queryForList(L_USER_LOCATIONS_QUERY, new MapSqlParameterSource("userId", userId),
+                Long.class));
+    }
+
+    private Map<Long, Set<Long>> getDraftDocuments() {
+        Map<Long, Set<Long>> draftDocuments = Maps.newHashMap();
+
+        jdbcTemplate.query(L_DRAFT_DOCUMENTS_QUERY, new MapSqlParameterSource("state", DocumentState.DRAFT.getStringValue()),
+                (RowCallbackHandler) rs -> draftDocuments.put(rs.getLong("id"),
+                        Sets.newHashSet((Long) rs.getObject("locationFromId"), (Long) rs.getObject("locationToId"))));
+
+        return draftDocuments;
     }
 
 }
@@ -29,10 +29,13 @@ import com.google.common.collect.Multimap;
 import com.qcadoo.commons.functional.Either;
 import com.qcadoo.mes.basic.CalculationQuantityService;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.ParameterSnapshot;
 import com.qcadoo.mes.basic.constants.ProductAttributeValueFields;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.materialFlowResources.DocumentPositionService;
 import com.qcadoo.mes.materialFlowResources.MaterialFlowResourcesService;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancySnapshot;
+import com.qcadoo.mes.materialFlowResources.PalletValidatorService;
 import com.qcadoo.mes.materialFlowResources.constants.*;
 import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
 import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageCopyToEntityHelper;
@@ -100,6 +103,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private MaterialFlowResourcesService materialFlowResourcesService;
 
+    @Autowired
+    private ResourcePickingService resourcePickingService;
+
+    @Autowired
+    private PalletValidatorService palletValidatorService;
+
     @Override
     @Transactional
     public void createResources(final Entity document) {
@@ -121,9 +130,10 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     public void createResourcesForReceiptDocuments(final Entity document) {
         Entity warehouse = document.getBelongsToField(DocumentFields.LOCATION_TO);
         Object date = document.getField(DocumentFields.TIME);
+        PalletOccupancySnapshot occupancySnapshot = palletValidatorService.createOccupancySnapshot(document);
 
         for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
-            createResource(document, warehouse, position, date);
+            createResource(document, warehouse, position, date, occupancySnapshot);
 
             position = position.getDataDefinition().save(position);
 
@@ -137,7 +147,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         }
     }
 
-    private void createResource(final Entity document, final Entity warehouse, final Entity position, final Object date) {
+    private void createResource(final Entity document, final Entity warehouse, final Entity position, final Object date,
+            final PalletOccupancySnapshot occupancySnapshot) {
         DataDefinition resourceDD = dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
                 MaterialFlowResourcesConstants.MODEL_RESOURCE);
 
@@ -181,12 +192,20 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         resourceStockService.createResourceStock(resource);
 
+        if (!palletValidatorService.validatePalletForResource(resource, occupancySnapshot)) {
+            throw new InvalidResourceException(resource);
+        }
+
+        resource.setField(ResourceFields.VALIDATE_PALLET, false);
+
         resource = resourceDD.save(resource);
 
         if (!resource.isValid()) {
             throw new InvalidResourceException(resource);
         }
 
+        occupancySnapshot.applyResource(resource);
+
         createAttributeValues(position, resource);
 
         position.setField(PositionFields.RESOURCE_NUMBER, resource.getStringField(ResourceFields.NUMBER));
@@ -368,17 +387,21 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         boolean isFromOrder = Objects.nonNull(document.getBelongsToField(L_ORDER));
         boolean updatePositionsNumbers = false;
 
-        Entity documentPositionParameters = parameterService.getParameter()
+        ParameterSnapshot documentPositionParameters = parameterService.getParameterSnapshot()
                 .getBelongsToField(ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
 
         boolean transferPalletToReceivingWarehouse = documentPositionParameters.getBooleanField(
                 DocumentPositionParametersFields.TRANSFER_PALLET_TO_RECEIVING_WAREHOUSE) && buildConnectedDocument(document);
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        ResourcePicking resourcePicking = resourcePickingService.startPicking(warehouse, warehouseAlgorithm, positions);
+
+        for (Entity position : positions) {
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-            Either<BigDecimal, List<Entity>> eitherPositions = updateResources(warehouse, document.getStringField(DocumentFields.STATE), position, warehouseAlgorithm,
-                    isFromOrder, transferPalletToReceivingWarehouse);
+            Either<BigDecimal, List<Entity>> eitherPositions = updateResources(resourcePicking,
+                    document.getStringField(DocumentFields.STATE), position, isFromOrder, transferPalletToReceivingWarehouse);
 
             enoughResources = enoughResources && position.isValid();
 
@@ -414,6 +437,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             }
         }
 
+        resourcePickingService.flush(resourcePicking);
+
         if (updatePositionsNumbers) {
             documentPositionService.updateDocumentPositionsNumbers(document.getId());
         }
@@ -467,13 +492,14 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         }
     }
 
-    private Either<BigDecimal, List<Entity>> updateResources(final Entity warehouse, String documentState, final Entity position,
-                                                             final WarehouseAlgorithm warehouseAlgorithm, boolean isFromOrder, boolean transferPalletToReceivingWarehouse) {
+    private Either<BigDecimal, List<Entity>> updateResources(final ResourcePicking resourcePicking, final String documentState,
+                                                             final Entity position, boolean isFromOrder, boolean transferPalletToReceivingWarehouse) {
         List<Entity> newPositions = Lists.newArrayList();
 
+        Entity warehouse = resourcePicking.getWarehouse();
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        List<Entity> resources = resourcePickingService.getResources(resourcePicking, position);
 
         reservationsService.deleteReservationFromDocumentPosition(position);
 
@@ -518,11 +544,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
                     Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
 
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    if (!transferPalletToReceivingWarehouse) {
-                        palletNumberDisposalService.tryToDispose(palletNumberToDispose);
-                    }
+                    resourcePickingService.delete(resourcePicking, resource,
+                            transferPalletToReceivingWarehouse ? null : palletNumberToDispose);
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
                     BigDecimal quantityInAdditionalUnit = calculationQuantityService
@@ -532,11 +555,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
                     resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
 
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
+                    resourcePickingService.update(resourcePicking, resource);
                 }
 
                 newPosition.setField(PositionFields.QUANTITY,
@@ -560,11 +579,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 resource.setField(ResourceFields.QUANTITY, numberService.setScaleWithDefaultMathContext(resourceQuantity));
                 resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
 
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
+                resourcePickingService.update(resourcePicking, resource);
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
                 newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
@@ -660,7 +675,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         BigDecimal conversion = BigDecimalUtils.convertNullToOne(position.getDecimalField(PositionFields.CONVERSION));
         String givenUnit = position.getStringField(PositionFields.GIVEN_UNIT);
 
-        Entity documentPositionParameters = parameterService.getParameter()
+        ParameterSnapshot documentPositionParameters = parameterService.getParameterSnapshot()
                 .getBelongsToField(ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
 
         boolean transferPalletToReceivingWarehouse = documentPositionParameters
@@ -884,7 +899,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         List<Entity> resources = getResourcesForLocationCommonCodeConversion(warehouse, product, position, false,
                 searchOrders);
 
-        Entity documentPositionParameters = parameterService.getParameter()
+        ParameterSnapshot documentPositionParameters = parameterService.getParameterSnapshot()
                 .getBelongsToField(ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
 
         boolean fillResourceIrrespectiveOfConversion = documentPositionParameters
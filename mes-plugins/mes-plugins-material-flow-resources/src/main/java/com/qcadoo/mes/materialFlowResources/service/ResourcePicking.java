@@ -0,0 +1,200 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.model.api.Entity;
+import org.apache.commons.lang3.StringUtils;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory state of one release document picking: candidate resources of all document products loaded at once, and the
+ * resource changes that are written back in batches by {@link ResourcePickingService#flush(ResourcePicking)}.
+ */
+public class ResourcePicking {
+
+    private final Entity warehouse;
+
+    private final WarehouseAlgorithm warehouseAlgorithm;
+
+    private final boolean fillResourceIrrespectiveOfConversion;
+
+    private final Map<Long, List<Entity>> candidatesByProduct = Maps.newHashMap();
+
+    private final Map<Long, Entity> resourcesById = Maps.newHashMap();
+
+    private final Set<Long> updatedResourcesIds = Sets.newLinkedHashSet();
+
+    private final Set<Long> deletedResourcesIds = Sets.newLinkedHashSet();
+
+    private final List<Entity> palletNumbersToDispose = Lists.newArrayList();
+
+    ResourcePicking(final Entity warehouse, final WarehouseAlgorithm warehouseAlgorithm,
+            final boolean fillResourceIrrespectiveOfConversion) {
+        this.warehouse = warehouse;
+        this.warehouseAlgorithm = warehouseAlgorithm;
+        this.fillResourceIrrespectiveOfConversion = fillResourceIrrespectiveOfConversion;
+    }
+
+    public Entity getWarehouse() {
+        return warehouse;
+    }
+
+    void addCandidate(final Entity resource) {
+        Long productId = resource.getBelongsToField(ResourceFields.PRODUCT).getId();
+
+        candidatesByProduct.computeIfAbsent(productId, id -> Lists.newArrayList()).add(resource);
+        resourcesById.put(resource.getId(), resource);
+    }
+
+    Entity getResource(final Long resourceId) {
+        return resourcesById.get(resourceId);
+    }
+
+    void addResource(final Entity resource) {
+        resourcesById.put(resource.getId(), resource);
+    }
+
+    /**
+     * Returns resources that the per-position query would return at this point of the picking - matching batch and conversion,
+     * with available quantity, in the order of the warehouse algorithm.
+     */
+    List<Entity> getCandidates(final Entity position) {
+        Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+        List<Entity> candidates = candidatesByProduct.getOrDefault(product.getId(), Lists.newArrayList());
+
+        BigDecimal conversion = StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))
+                ? position.getDecimalField(PositionFields.CONVERSION) : BigDecimal.ONE;
+        Entity batch = position.getBelongsToField(PositionFields.BATCH);
+
+        List<Entity> resources = candidates.stream()
+                .filter(resource -> isAvailable(resource) && hasBatch(resource, batch)
+                        && conversionEquals(resource.getDecimalField(ResourceFields.CONVERSION), conversion))
+                .sorted(getComparator()).collect(Collectors.toList());
+
+        if (fillResourceIrrespectiveOfConversion) {
+            resources.addAll(candidates.stream()
+                    .filter(resource -> isAvailable(resource) && hasBatch(resource, batch)
+                            && conversionDiffers(resource.getDecimalField(ResourceFields.CONVERSION), conversion))
+                    .sorted(getComparator()).collect(Collectors.toList()));
+        }
+
+        return resources;
+    }
+
+    void update(final Entity resource) {
+        resourcesById.put(resource.getId(), resource);
+        updatedResourcesIds.add(resource.getId());
+    }
+
+    void delete(final Entity resource, final Entity palletNumberToDispose) {
+        updatedResourcesIds.remove(resource.getId());
+        deletedResourcesIds.add(resource.getId());
+
+        if (Objects.nonNull(palletNumberToDispose)) {
+            palletNumbersToDispose.add(palletNumberToDispose);
+        }
+    }
+
+    List<Entity> getUpdatedResources() {
+        return updatedResourcesIds.stream().map(resourcesById::get).collect(Collectors.toList());
+    }
+
+    List<Long> getDeletedResourcesIds() {
+        return Lists.newArrayList(deletedResourcesIds);
+    }
+
+    List<Entity> getPalletNumbersToDispose() {
+        return palletNumbersToDispose;
+    }
+
+    void clear() {
+        updatedResourcesIds.clear();
+        deletedResourcesIds.clear();
+        palletNumbersToDispose.clear();
+    }
+
+    private boolean isAvailable(final Entity resource) {
+        return !deletedResourcesIds.contains(resource.getId())
+                && BigDecimal.ZERO.compareTo(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)) < 0;
+    }
+
+    private boolean hasBatch(final Entity resource, final Entity batch) {
+        if (Objects.isNull(batch)) {
+            return true;
+        }
+
+        Entity resourceBatch = resource.getBelongsToField(ResourceFields.BATCH);
+
+        return Objects.nonNull(resourceBatch) && batch.getId().equals(resourceBatch.getId());
+    }
+
+    private boolean conversionEquals(final BigDecimal resourceConversion, final BigDecimal conversion) {
+        if (Objects.isNull(resourceConversion) || Objects.isNull(conversion)) {
+            return Objects.isNull(resourceConversion) && Objects.isNull(conversion);
+        }
+
+        return resourceConversion.compareTo(conversion) == 0;
+    }
+
+    private boolean conversionDiffers(final BigDecimal resourceConversion, final BigDecimal conversion) {
+        return Objects.nonNull(resourceConversion) && Objects.nonNull(conversion) && resourceConversion.compareTo(conversion) != 0;
+    }
+
+    private Comparator<Entity> getComparator() {
+        Comparator<Entity> byTime = Comparator.comparing(resource -> resource.getDateField(ResourceFields.TIME));
+        Comparator<Entity> byAvailableQuantity = Comparator
+                .comparing(resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+        Comparator<Date> expirationDateAscending = Comparator.nullsLast(Comparator.<Date> naturalOrder());
+        Comparator<Date> expirationDateDescending = Comparator.nullsFirst(Comparator.<Date> reverseOrder());
+
+        switch (warehouseAlgorithm) {
+            case LIFO:
+                return byTime.reversed();
+            case FEFO:
+                return Comparator.comparing((Entity resource) -> resource.getDateField(ResourceFields.EXPIRATION_DATE),
+                        expirationDateAscending).thenComparing(byAvailableQuantity);
+            case LEFO:
+                return Comparator.comparing((Entity resource) -> resource.getDateField(ResourceFields.EXPIRATION_DATE),
+                        expirationDateDescending).thenComparing(byAvailableQuantity);
+            default:
+                return byTime;
+        }
+    }
+
+}
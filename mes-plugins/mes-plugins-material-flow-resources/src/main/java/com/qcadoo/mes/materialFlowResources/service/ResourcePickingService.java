@@ -0,0 +1,301 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.PalletNumberFields;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancySnapshot;
+import com.qcadoo.mes.materialFlowResources.PalletValidatorService;
+import com.qcadoo.mes.materialFlowResources.constants.*;
+import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
+import com.qcadoo.mes.materialFlowResources.hooks.ResourceModelValidators;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Picks resources for all positions of a release document at once. Candidate resources of all document products are loaded
+ * with one ordered query, allocated in memory and the quantity updates and deletes are written back in batches.
+ */
+@Service
+public class ResourcePickingService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourcePickingService.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final int MAX_SCALE = 5;
+
+    private static final int MAX_UNSCALED_VALUE = 9;
+
+    private static final String L_UPDATE_RESOURCE_QUERY = "UPDATE materialflowresources_resource SET quantity = :quantity, "
+            + "availablequantity = :availableQuantity, reservedquantity = :reservedQuantity, "
+            + "quantityinadditionalunit = :quantityInAdditionalUnit WHERE id = :id";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    @Autowired
+    private ReservationsService reservationsService;
+
+    @Autowired
+    private PalletNumberDisposalService palletNumberDisposalService;
+
+    @Autowired
+    private PalletValidatorService palletValidatorService;
+
+    @Autowired
+    private ResourceModelValidators resourceModelValidators;
+
+    public ResourcePicking startPicking(final Entity warehouse, final WarehouseAlgorithm warehouseAlgorithm,
+            final List<Entity> positions) {
+        Entity documentPositionParameters = parameterService.getParameter()
+                .getBelongsToField(ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
+
+        boolean fillResourceIrrespectiveOfConversion = documentPositionParameters
+                .getBooleanField(DocumentPositionParametersFields.FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION);
+
+        ResourcePicking resourcePicking = new ResourcePicking(warehouse, warehouseAlgorithm,
+                fillResourceIrrespectiveOfConversion);
+
+        Set<Long> productIds = positions.stream()
+                .filter(position -> Objects.isNull(position.getBelongsToField(PositionFields.RESOURCE)))
+                .map(position -> position.getBelongsToField(PositionFields.PRODUCT).getId()).collect(Collectors.toSet());
+
+        for (List<Long> productIdsPart : Lists.partition(Lists.newArrayList(productIds), BATCH_SIZE)) {
+            getCandidatesSearchCriteria(warehouse, warehouseAlgorithm, productIdsPart).list().getEntities()
+                    .forEach(resourcePicking::addCandidate);
+        }
+
+        return resourcePicking;
+    }
+
+    private SearchCriteriaBuilder getCandidatesSearchCriteria(final Entity warehouse,
+            final WarehouseAlgorithm warehouseAlgorithm, final List<Long> productIds) {
+        SearchCriteriaBuilder scb = getResourceDD().find()
+                .add(SearchRestrictions.belongsTo(ResourceFields.LOCATION, warehouse))
+                .add(SearchRestrictions.in(ResourceFields.PRODUCT + ".id", productIds))
+                .add(SearchRestrictions.gt(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.ZERO))
+                .add(SearchRestrictions.eq(ResourceFields.BLOCKED_FOR_QUALITY_CONTROL, false));
+
+        if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
+            scb.addOrder(SearchOrders.desc(ResourceFields.TIME));
+        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
+            scb.addOrder(SearchOrders.asc(ResourceFields.EXPIRATION_DATE));
+            scb.addOrder(SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
+        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
+            scb.addOrder(SearchOrders.desc(ResourceFields.EXPIRATION_DATE));
+            scb.addOrder(SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
+        } else {
+            scb.addOrder(SearchOrders.asc(ResourceFields.TIME));
+        }
+
+        return scb;
+    }
+
+    public List<Entity> getResources(final ResourcePicking resourcePicking, final Entity position) {
+        Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+        if (Objects.isNull(resource)) {
+            return resourcePicking.getCandidates(position);
+        }
+
+        if (Objects.nonNull(resource.getId())) {
+            Entity pickedResource = resourcePicking.getResource(resource.getId());
+
+            if (Objects.isNull(pickedResource)) {
+                pickedResource = getResourceDD().get(resource.getId());
+
+                resourcePicking.addResource(pickedResource);
+            }
+
+            resource = pickedResource;
+        }
+
+        Entity reservation = reservationsService.getReservationForPosition(position);
+
+        if (Objects.nonNull(reservation)) {
+            BigDecimal reservationQuantity = reservation.getDecimalField(ReservationFields.QUANTITY);
+            BigDecimal resourceAvailableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+
+            resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity.add(reservationQuantity));
+        }
+
+        return Lists.newArrayList(resource);
+    }
+
+    public void update(final ResourcePicking resourcePicking, final Entity resource) {
+        if (Objects.isNull(resource.getId()) || !canBeUpdatedInBatch(resource)) {
+            save(resource);
+        } else {
+            resourcePicking.update(resource);
+        }
+    }
+
+    private void save(final Entity resource) {
+        Entity savedResource = resource.getDataDefinition().save(resource);
+
+        if (!savedResource.isValid()) {
+            throw new InvalidResourceException(savedResource);
+        }
+    }
+
+    public void delete(final ResourcePicking resourcePicking, final Entity resource, final Entity palletNumberToDispose) {
+        resourcePicking.delete(resource, palletNumberToDispose);
+    }
+
+    /**
+     * Writes back the picked resources. Resources that the resource model validators reject are saved one by one through the
+     * data definition, so the picking fails with the same errors as a regular save.
+     */
+    public void flush(final ResourcePicking resourcePicking) {
+        List<Entity> updatedResources = resourcePicking.getUpdatedResources();
+        List<Long> deletedResourcesIds = resourcePicking.getDeletedResourcesIds();
+
+        PalletOccupancySnapshot occupancySnapshot = createOccupancySnapshot(updatedResources);
+        List<Entity> batchedResources = Lists.newArrayList();
+
+        for (Entity resource : updatedResources) {
+            if (passesModelValidators(resource, occupancySnapshot)) {
+                batchedResources.add(resource);
+            } else {
+                save(resource);
+            }
+        }
+
+        for (List<Entity> updatedResourcesPart : Lists.partition(batchedResources, BATCH_SIZE)) {
+            SqlParameterSource[] parameters = updatedResourcesPart.stream().map(this::getUpdateParameters)
+                    .toArray(SqlParameterSource[]::new);
+
+            jdbcTemplate.batchUpdate(L_UPDATE_RESOURCE_QUERY, parameters);
+        }
+
+        if (!deletedResourcesIds.isEmpty()) {
+            getResourceDD().delete(deletedResourcesIds.toArray(new Long[0]));
+        }
+
+        resourcePicking.getPalletNumbersToDispose().forEach(palletNumberDisposalService::tryToDispose);
+
+        LOGGER.debug("Resource picking flushed: location = {}, updated = {}, deleted = {}",
+                resourcePicking.getWarehouse().getId(), updatedResources.size(), deletedResourcesIds.size());
+
+        resourcePicking.clear();
+    }
+
+    private SqlParameterSource getUpdateParameters(final Entity resource) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+
+        parameters.addValue("id", resource.getId());
+        parameters.addValue("quantity", resource.getDecimalField(ResourceFields.QUANTITY));
+        parameters.addValue("availableQuantity", resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+        parameters.addValue("reservedQuantity", resource.getDecimalField(ResourceFields.RESERVED_QUANTITY));
+        parameters.addValue("quantityInAdditionalUnit", resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT));
+
+        return parameters;
+    }
+
+    private PalletOccupancySnapshot createOccupancySnapshot(final List<Entity> resources) {
+        Set<Long> storageLocationIds = Sets.newHashSet();
+        Set<String> palletNumberNumbers = Sets.newHashSet();
+
+        for (Entity resource : resources) {
+            Entity storageLocation = resource.getBelongsToField(ResourceFields.STORAGE_LOCATION);
+            Entity palletNumber = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
+
+            if (Objects.nonNull(storageLocation)) {
+                storageLocationIds.add(storageLocation.getId());
+                palletNumberNumbers.add(storageLocation.getStringField(StorageLocationFields.NUMBER));
+            }
+            if (Objects.nonNull(palletNumber)) {
+                palletNumberNumbers.add(palletNumber.getStringField(PalletNumberFields.NUMBER));
+            }
+        }
+
+        return palletValidatorService.createOccupancySnapshot(storageLocationIds, palletNumberNumbers);
+    }
+
+    /**
+     * Runs the resource validatesWith hook on a copy, against the occupancy snapshot instead of per resource queries, and checks
+     * that the onSave hook would not change the resource.
+     */
+    private boolean passesModelValidators(final Entity resource, final PalletOccupancySnapshot occupancySnapshot) {
+        boolean onSaveChangesNothing = StringUtils.isNotEmpty(resource.getStringField(ResourceFields.NUMBER))
+                && (Objects.nonNull(resource.getBelongsToField(ResourceFields.PALLET_NUMBER))
+                        || Objects.isNull(resource.getField(ResourceFields.TYPE_OF_PALLET)));
+
+        return onSaveChangesNothing && resourceModelValidators.validatesWith(getResourceDD(), resource.copy(), occupancySnapshot);
+    }
+
+    /**
+     * Checks the field validators of the batched quantities, so resources with out of range values are saved right away.
+     */
+    private boolean canBeUpdatedInBatch(final Entity resource) {
+        return isInRange(resource.getDecimalField(ResourceFields.QUANTITY), true, false)
+                && isInRange(resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT), true, true)
+                && isInRange(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY), false, true)
+                && isInRange(resource.getDecimalField(ResourceFields.RESERVED_QUANTITY), false, true);
+    }
+
+    private boolean isInRange(final BigDecimal value, final boolean exclusively, final boolean nullable) {
+        if (Objects.isNull(value)) {
+            return nullable;
+        }
+
+        int signum = value.signum();
+
+        return (exclusively ? signum > 0 : signum >= 0) && value.stripTrailingZeros().scale() <= MAX_SCALE
+                && value.precision() - value.scale() <= MAX_UNSCALED_VALUE;
+    }
+
+    private DataDefinition getResourceDD() {
+        return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE);
+    }
+
+}
@@ -26,6 +26,7 @@ package com.qcadoo.mes.materialFlowResources.validators;
 import com.beust.jcommander.internal.Sets;
 import com.qcadoo.mes.basic.constants.PalletNumberFields;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancySnapshot;
 import com.qcadoo.mes.materialFlowResources.PalletValidatorService;
 import com.qcadoo.mes.materialFlowResources.constants.*;
 import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
@@ -238,6 +239,8 @@ public class DocumentValidators {
             Set<String> missingPalletNumbers = Sets.newHashSet();
             Set<String> existsMorePallets = Sets.newHashSet();
 
+            PalletOccupancySnapshot occupancySnapshot = palletValidatorService.createOccupancySnapshot(document);
+
             positions.forEach(position -> {
                 Integer positionNumber = position.getIntegerField(PositionFields.NUMBER);
                 Entity storageLocation = position.getBelongsToField(PositionFields.STORAGE_LOCATION);
@@ -256,7 +259,7 @@ public class DocumentValidators {
                             } else {
                                 String palletNumberNumber = palletNumber.getStringField(PalletNumberFields.NUMBER);
 
-                                if (palletValidatorService.tooManyPalletsInStorageLocationAndPositions(storageLocationNumber, palletNumberNumber, position.getId())) {
+                                if (occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(storageLocationNumber, palletNumberNumber, position.getId())) {
                                     existsMorePallets.add(positionNumber.toString());
                                 }
                             }
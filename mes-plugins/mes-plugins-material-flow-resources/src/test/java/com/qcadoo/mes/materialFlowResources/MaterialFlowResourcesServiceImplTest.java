@@ -0,0 +1,118 @@
+package com.qcadoo.mes.materialFlowResources;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceStockDtoFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchQueryBuilder;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class MaterialFlowResourcesServiceImplTest {
+
+    private MaterialFlowResourcesService materialFlowResourcesService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private DataDefinition resourceStockDtoDD;
+
+    @Mock
+    private SearchQueryBuilder searchQueryBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        materialFlowResourcesService = new MaterialFlowResourcesServiceImpl();
+
+        ReflectionTestUtils.setField(materialFlowResourcesService, "dataDefinitionService", dataDefinitionService);
+
+        given(dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE_STOCK_DTO)).willReturn(resourceStockDtoDD);
+        given(resourceStockDtoDD.find(anyString())).willReturn(searchQueryBuilder);
+        given(searchQueryBuilder.list()).willReturn(searchResult);
+    }
+
+    private Entity mockResourceStock(final int locationId, final int productId, final BigDecimal availableQuantity) {
+        Entity resourceStock = mock(Entity.class);
+
+        given(resourceStock.getIntegerField(ResourceStockDtoFields.LOCATION_ID)).willReturn(locationId);
+        given(resourceStock.getIntegerField(ResourceStockDtoFields.PRODUCT_ID)).willReturn(productId);
+        given(resourceStock.getDecimalField(ResourceStockDtoFields.AVAILABLE_QUANTITY)).willReturn(availableQuantity);
+
+        return resourceStock;
+    }
+
+    @Test
+    public void shouldGetQuantitiesOfRequestedProductsInAllLocationsByOneQuery() {
+        // given
+        Map<Long, Set<Long>> productIdsByLocationId = Maps.newHashMap();
+
+        productIdsByLocationId.put(1L, Sets.newHashSet(10L, 11L));
+        productIdsByLocationId.put(2L, Sets.newHashSet(11L));
+        productIdsByLocationId.put(3L, Sets.newHashSet(12L));
+
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(mockResourceStock(1, 10, BigDecimal.ONE),
+                mockResourceStock(1, 11, BigDecimal.TEN), mockResourceStock(2, 10, BigDecimal.ONE),
+                mockResourceStock(2, 11, BigDecimal.valueOf(5L))));
+
+        // when
+        Map<Long, Map<Long, BigDecimal>> quantities = materialFlowResourcesService
+                .getQuantitiesForProductsInLocations(productIdsByLocationId);
+
+        // then
+        verify(resourceStockDtoDD, times(1)).find(anyString());
+
+        assertEquals(3, quantities.size());
+        assertEquals(2, quantities.get(1L).size());
+        assertEquals(BigDecimal.ONE, quantities.get(1L).get(10L));
+        assertEquals(BigDecimal.TEN, quantities.get(1L).get(11L));
+        assertEquals(1, quantities.get(2L).size());
+        assertEquals(BigDecimal.valueOf(5L), quantities.get(2L).get(11L));
+        assertTrue(quantities.get(3L).isEmpty());
+    }
+
+    @Test
+    public void shouldNotQueryWhenThereAreNoProducts() {
+        // given
+        Map<Long, Set<Long>> productIdsByLocationId = Maps.newHashMap();
+
+        productIdsByLocationId.put(1L, Sets.newHashSet());
+
+        // when
+        Map<Long, Map<Long, BigDecimal>> quantities = materialFlowResourcesService
+                .getQuantitiesForProductsInLocations(productIdsByLocationId);
+
+        // then
+        verify(resourceStockDtoDD, times(0)).find(anyString());
+
+        assertTrue(quantities.get(1L).isEmpty());
+    }
+
+}
@@ -0,0 +1,241 @@
+package com.qcadoo.mes.materialFlowResources;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.qcadoo.mes.basic.constants.PalletNumberFields;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancySnapshot.Occupant;
+import com.qcadoo.mes.materialFlowResources.PalletOccupancySnapshot.OccupantType;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.StorageLocationFields;
+import com.qcadoo.model.api.Entity;
+
+public class PalletOccupancySnapshotTest {
+
+    private static final Long L_LOCATION_ID = 1L;
+
+    private static final Long L_OTHER_LOCATION_ID = 2L;
+
+    private static final Long L_STORAGE_LOCATION_ID = 10L;
+
+    private static final String L_STORAGE_LOCATION = "S1";
+
+    private static final String L_OTHER_STORAGE_LOCATION = "S2";
+
+    private static final String L_EUR = "EUR";
+
+    private static final String L_IND = "IND";
+
+    private PalletOccupancySnapshot occupancySnapshot;
+
+    @Before
+    public void init() {
+        occupancySnapshot = new PalletOccupancySnapshot();
+    }
+
+    private void addOccupant(final OccupantType type, final Long id, final Long locationId, final String storageLocationNumber,
+            final Long palletNumberId, final String typeOfPallet, final boolean draft) {
+        Long storageLocationId = L_STORAGE_LOCATION.equals(storageLocationNumber) ? L_STORAGE_LOCATION_ID : null;
+
+        occupancySnapshot.addOccupant(new Occupant(type, id, locationId, storageLocationId, storageLocationNumber, palletNumberId,
+                "P" + palletNumberId, typeOfPallet, draft));
+    }
+
+    private void addResource(final Long id, final Long locationId, final String storageLocationNumber, final Long palletNumberId,
+            final String typeOfPallet) {
+        addOccupant(OccupantType.RESOURCE, id, locationId, storageLocationNumber, palletNumberId, typeOfPallet, false);
+    }
+
+    private Entity mockResource(final Long id, final Long locationId, final Long palletNumberId) {
+        Entity resource = mockEntity(id);
+        Entity storageLocation = mockEntity(L_STORAGE_LOCATION_ID);
+        Entity palletNumber = mockEntity(palletNumberId);
+
+        stubStringField(storageLocation, StorageLocationFields.NUMBER, L_STORAGE_LOCATION);
+        stubStringField(palletNumber, PalletNumberFields.NUMBER, "P" + palletNumberId);
+        stubBelongsToField(resource, ResourceFields.LOCATION, mockEntity(locationId));
+        stubBelongsToField(resource, ResourceFields.STORAGE_LOCATION, storageLocation);
+        stubBelongsToField(resource, ResourceFields.PALLET_NUMBER, palletNumber);
+        stubStringField(resource, ResourceFields.TYPE_OF_PALLET, L_EUR);
+
+        return resource;
+    }
+
+    @Test
+    public void shouldFindSamePalletOfOtherResourceInOtherLocation() {
+        // given
+        addResource(100L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR);
+
+        // when & then
+        assertTrue(occupancySnapshot.existsOtherResourceForPalletNumberOnOtherLocations(L_OTHER_LOCATION_ID, "P1", null));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnOtherLocations(L_LOCATION_ID, "P1", null));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnOtherLocations(L_OTHER_LOCATION_ID, "P1", 100L));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnOtherLocations(L_OTHER_LOCATION_ID, "P2", null));
+    }
+
+    @Test
+    public void shouldFindOtherResourceOnSameLocationWithOtherStorageLocationOrTypeOfPallet() {
+        // given
+        addResource(100L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR);
+
+        // when & then
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P1",
+                L_EUR, null));
+        assertTrue(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P1",
+                L_IND, null));
+        assertTrue(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P1",
+                null, null));
+        assertTrue(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_OTHER_STORAGE_LOCATION,
+                "P1", L_EUR, null));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_OTHER_LOCATION_ID, L_STORAGE_LOCATION,
+                "P1", L_IND, null));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P1",
+                L_IND, 100L));
+    }
+
+    @Test
+    public void shouldTreatMissingTypeOfPalletOrStorageLocationLikeBaselineQuery() {
+        // given
+        addResource(100L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, null);
+        addResource(101L, L_LOCATION_ID, null, 2L, L_EUR);
+
+        // when & then
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P1",
+                null, null));
+        assertTrue(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P1",
+                L_EUR, null));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_OTHER_STORAGE_LOCATION,
+                "P2", L_EUR, null));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, null, "P2", L_EUR, null));
+    }
+
+    @Test
+    public void shouldFindOnlyPositionsOfDraftDocumentsInSameLocation() {
+        // given
+        addOccupant(OccupantType.POSITION, 200L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR, true);
+        addOccupant(OccupantType.POSITION, 201L, L_LOCATION_ID, L_STORAGE_LOCATION, 2L, L_EUR, false);
+
+        // when & then
+        assertTrue(occupancySnapshot.existsOtherPositionForPalletNumber(L_LOCATION_ID, L_STORAGE_LOCATION, "P1", L_IND, null));
+        assertFalse(occupancySnapshot.existsOtherPositionForPalletNumber(L_LOCATION_ID, L_STORAGE_LOCATION, "P1", L_EUR, null));
+        assertFalse(occupancySnapshot.existsOtherPositionForPalletNumber(L_OTHER_LOCATION_ID, L_STORAGE_LOCATION, "P1", L_IND,
+                null));
+        assertFalse(occupancySnapshot.existsOtherPositionForPalletNumber(L_LOCATION_ID, L_STORAGE_LOCATION, "P2", L_IND, null));
+        assertFalse(occupancySnapshot.existsOtherPositionForPalletNumber(L_LOCATION_ID, L_STORAGE_LOCATION, "P1", L_IND, 200L));
+    }
+
+    @Test
+    public void shouldFindOtherDeliveredProductWithSamePalletOfOtherType() {
+        // given
+        addOccupant(OccupantType.DELIVERED_PRODUCT, 300L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR, false);
+
+        // when & then
+        assertTrue(occupancySnapshot.existsOtherDeliveredProductForPalletNumber(L_LOCATION_ID, L_STORAGE_LOCATION, "P1", L_IND,
+                null));
+        assertFalse(occupancySnapshot.existsOtherDeliveredProductForPalletNumber(L_LOCATION_ID, L_STORAGE_LOCATION, "P1", L_EUR,
+                null));
+        assertFalse(occupancySnapshot.existsOtherDeliveredProductForPalletNumber(L_LOCATION_ID, L_STORAGE_LOCATION, "P1", L_IND,
+                300L));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P1",
+                L_IND, null));
+    }
+
+    @Test
+    public void shouldDetectExceededPalletLimitOfStorageLocationWithResourcesAndPositions() {
+        // given
+        occupancySnapshot.addStorageLocation(L_STORAGE_LOCATION_ID, L_STORAGE_LOCATION, true, BigDecimal.valueOf(3L));
+        addResource(100L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR);
+        addResource(101L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR);
+        addOccupant(OccupantType.POSITION, 200L, L_LOCATION_ID, L_STORAGE_LOCATION, 2L, L_EUR, false);
+
+        // when & then
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P3", null));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P2", null));
+
+        // when
+        addOccupant(OccupantType.DELIVERED_PRODUCT, 300L, L_LOCATION_ID, L_STORAGE_LOCATION, 4L, L_EUR, false);
+        addOccupant(OccupantType.POSITION, 201L, L_LOCATION_ID, L_STORAGE_LOCATION, 5L, L_EUR, true);
+
+        // then
+        assertTrue(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P3", null));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P3", 201L));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P5", null));
+    }
+
+    @Test
+    public void shouldNotCheckPalletLimitOfNotPlaceStorageLocationOrWithoutLimit() {
+        // given
+        occupancySnapshot.addStorageLocation(L_STORAGE_LOCATION_ID, L_STORAGE_LOCATION, false, BigDecimal.ONE);
+        occupancySnapshot.addStorageLocation(11L, L_OTHER_STORAGE_LOCATION, true, null);
+        addResource(100L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR);
+
+        // when & then
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P2", null));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_OTHER_STORAGE_LOCATION, "P2", null));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions("S3", "P2", null));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(null, "P2", null));
+    }
+
+    @Test
+    public void shouldDetectExceededPalletLimitOfStorageLocationWithResourcesAndDeliveredProducts() {
+        // given
+        Entity storageLocation = mockEntity(L_STORAGE_LOCATION_ID);
+        stubDecimalField(storageLocation, StorageLocationFields.MAXIMUM_NUMBER_OF_PALLETS, BigDecimal.valueOf(2L));
+
+        addResource(100L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR);
+        addOccupant(OccupantType.DELIVERED_PRODUCT, 300L, L_LOCATION_ID, L_STORAGE_LOCATION, 2L, L_EUR, false);
+        addOccupant(OccupantType.POSITION, 200L, L_LOCATION_ID, L_STORAGE_LOCATION, 3L, L_EUR, true);
+
+        // when & then
+        assertTrue(occupancySnapshot.tooManyPalletsInStorageLocationAndDeliveredProducts(storageLocation, mockEntity(4L), null));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndDeliveredProducts(storageLocation, mockEntity(4L), 300L));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndDeliveredProducts(storageLocation, mockEntity(2L), null));
+    }
+
+    @Test
+    public void shouldTakeResourcesAppliedWithinDocumentIntoAccount() {
+        // given
+        occupancySnapshot.addStorageLocation(L_STORAGE_LOCATION_ID, L_STORAGE_LOCATION, true, BigDecimal.valueOf(2L));
+        addResource(100L, L_LOCATION_ID, L_STORAGE_LOCATION, 1L, L_EUR);
+
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P3", null));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnOtherLocations(L_OTHER_LOCATION_ID, "P2", null));
+
+        // when
+        occupancySnapshot.applyResource(mockResource(101L, L_LOCATION_ID, 2L));
+
+        // then
+        assertTrue(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P3", null));
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P2", null));
+        assertTrue(occupancySnapshot.existsOtherResourceForPalletNumberOnOtherLocations(L_OTHER_LOCATION_ID, "P2", null));
+        assertFalse(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P2",
+                L_EUR, 102L));
+        assertTrue(occupancySnapshot.existsOtherResourceForPalletNumberOnSameLocation(L_LOCATION_ID, L_STORAGE_LOCATION, "P2",
+                L_IND, 102L));
+    }
+
+    @Test
+    public void shouldIgnoreAppliedResourceWithoutPalletNumber() {
+        // given
+        occupancySnapshot.addStorageLocation(L_STORAGE_LOCATION_ID, L_STORAGE_LOCATION, true, BigDecimal.ONE);
+
+        Entity resource = mockResource(101L, L_LOCATION_ID, 2L);
+        stubBelongsToField(resource, ResourceFields.PALLET_NUMBER, null);
+
+        // when
+        occupancySnapshot.applyResource(resource);
+
+        // then
+        assertFalse(occupancySnapshot.tooManyPalletsInStorageLocationAndPositions(L_STORAGE_LOCATION, "P3", null));
+    }
+
+}
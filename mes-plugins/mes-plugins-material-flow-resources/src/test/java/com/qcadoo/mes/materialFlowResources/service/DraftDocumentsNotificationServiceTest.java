@@ -16,8 +16,9 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 
-import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.mes.basic.notifications.NotificationCountersService;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.security.api.SecurityService;
 
@@ -30,7 +31,10 @@ public class DraftDocumentsNotificationServiceTest {
     private DraftDocumentsNotificationService draftDocumentsNotificationService;
 
     @Mock
-    private DataDefinitionService dataDefinitionService;
+    private NotificationCountersService notificationCountersService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
 
     @Mock
     private SecurityService securityService;
@@ -38,7 +42,8 @@ public class DraftDocumentsNotificationServiceTest {
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
-        draftDocumentsNotificationService = new DraftDocumentsNotificationService(securityService, dataDefinitionService);
+        draftDocumentsNotificationService = new DraftDocumentsNotificationService(securityService, notificationCountersService,
+                jdbcTemplate);
     }
 
     @Test
@@ -76,7 +81,7 @@ public class DraftDocumentsNotificationServiceTest {
         DraftDocumentsNotificationService spy = spy(draftDocumentsNotificationService);
         given(securityService.getCurrentUserId()).willReturn(CURRENT_USER_ID);
         given(securityService.hasCurrentUserRole(ROLE_DOCUMENTS_NOTIFICATION)).willReturn(Boolean.TRUE);
-        doReturn(0).when(spy).countDraftDocumentsForUser(CURRENT_USER_ID);
+        doReturn(false).when(spy).hasDraftDocumentsForUser(CURRENT_USER_ID);
 
         // when
         boolean result = spy.shouldNotifyCurrentUser();
@@ -84,7 +89,7 @@ public class DraftDocumentsNotificationServiceTest {
         // then
         verify(securityService).getCurrentUserId();
         verify(securityService).hasCurrentUserRole(ROLE_DOCUMENTS_NOTIFICATION);
-        verify(spy).countDraftDocumentsForUser(CURRENT_USER_ID);
+        verify(spy).hasDraftDocumentsForUser(CURRENT_USER_ID);
         assertFalse(result);
     }
 
@@ -94,7 +99,7 @@ public class DraftDocumentsNotificationServiceTest {
         DraftDocumentsNotificationService spy = spy(draftDocumentsNotificationService);
         given(securityService.getCurrentUserId()).willReturn(CURRENT_USER_ID);
         given(securityService.hasCurrentUserRole(ROLE_DOCUMENTS_NOTIFICATION)).willReturn(Boolean.TRUE);
-        doReturn(1).when(spy).countDraftDocumentsForUser(CURRENT_USER_ID);
+        doReturn(true).when(spy).hasDraftDocumentsForUser(CURRENT_USER_ID);
 
         // when
         boolean result = spy.shouldNotifyCurrentUser();
@@ -102,7 +107,7 @@ public class DraftDocumentsNotificationServiceTest {
         // then
         verify(securityService).getCurrentUserId();
         verify(securityService).hasCurrentUserRole(ROLE_DOCUMENTS_NOTIFICATION);
-        verify(spy).countDraftDocumentsForUser(CURRENT_USER_ID);
+        verify(spy).hasDraftDocumentsForUser(CURRENT_USER_ID);
         assertTrue(result);
     }
 
@@ -4,8 +4,10 @@ import static com.qcadoo.model.api.search.SearchRestrictions.belongsTo;
 import static com.qcadoo.model.api.search.SearchRestrictions.ne;
 import static java.util.Objects.requireNonNull;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import com.qcadoo.mes.basic.notifications.NotificationCountersService;
 import com.qcadoo.mes.materialFlow.constants.UserLocationFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
@@ -15,6 +17,19 @@ import com.qcadoo.model.api.search.SearchRestrictions;
 @Component
 public class UserLocationHooks {
 
+    @Autowired
+    private NotificationCountersService notificationCountersService;
+
+    public void onSave(final DataDefinition userLocationDD, final Entity userLocation) {
+        notificationCountersService.invalidateUserKeys();
+    }
+
+    public boolean onDelete(final DataDefinition userLocationDD, final Entity userLocation) {
+        notificationCountersService.invalidateUserKeys();
+
+        return true;
+    }
+
     public boolean validatesWith(final DataDefinition userLocationDD, final Entity userLocation) {
         return !isLocationNull(userLocationDD, userLocation) && !checkIfUserLocationAlreadyExists(userLocationDD, userLocation);
     }
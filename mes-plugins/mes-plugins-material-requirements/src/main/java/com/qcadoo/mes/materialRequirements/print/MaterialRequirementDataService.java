@@ -2,59 +2,107 @@ package com.qcadoo.mes.materialRequirements.print;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.advancedGenealogy.constants.AdvancedGenealogyConstants;
+import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
+import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingConstants;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityRole;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityTypeOfMaterial;
 import com.qcadoo.mes.materialFlow.constants.LocationFields;
+import com.qcadoo.mes.materialFlow.constants.MaterialFlowConstants;
 import com.qcadoo.mes.materialFlowResources.MaterialFlowResourcesService;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementFields;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
 import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.JoinType;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchProjections;
+import com.qcadoo.model.api.search.SearchRestrictions;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class MaterialRequirementDataService {
 
+    private static final String L_DOT = ".";
+
+    private static final String L_ID = "id";
+
+    private static final String L_ORDER_ID = "orderId";
+
+    private static final String L_PRODUCT_ID = "productId";
+
+    private static final String L_PRODUCT_NUMBER = "productNumber";
+
+    private static final String L_PRODUCT_NAME = "productName";
+
+    private static final String L_PRODUCT_UNIT = "productUnit";
+
+    private static final String L_ORDER_START_DATE = "orderStartDate";
+
+    private static final String L_WAREHOUSE_ID = "warehouseId";
+
+    private static final String L_WAREHOUSE_NUMBER = "warehouseNumber";
+
+    private static final String L_BATCH = "batch";
+
+    private static final String L_BATCH_ID = "batchId";
+
     @Autowired
-    private BasicProductionCountingService basicProductionCountingService;
+    private DataDefinitionService dataDefinitionService;
 
     @Autowired
     private MaterialFlowResourcesService materialFlowResourcesService;
 
+    /**
+     * Collects used materials of all orders of the material requirement and groups them by warehouse and start date of the
+     * order. Production counting quantities of all orders are read by one projection query, their batches by another one,
+     * products, warehouses and batches are then loaded at once, so number of queries doesn't depend on number of orders.
+     * Materials keep the order of the orders of the material requirement.
+     */
     public Map<WarehouseDateKey, List<MaterialRequirementEntry>> getGroupedData(final Entity materialRequirement) {
-        List<Entity> orders = materialRequirement.getHasManyField(MaterialRequirementFields.ORDERS);
-
-        List<Entity> productionCountingQuantities = Lists.newArrayList();
+        List<Long> orderIds = materialRequirement.getHasManyField(MaterialRequirementFields.ORDERS).stream().map(Entity::getId)
+                .collect(Collectors.toList());
 
-        for (Entity order : orders) {
-            if (materialRequirement.getStringField(MaterialRequirementFields.MRP_ALGORITHM)
-                    .equals(MrpAlgorithm.ONLY_MATERIALS.getStringValue())) {
-                productionCountingQuantities
-                        .addAll(basicProductionCountingService.getUsedMaterialsFromProductionCountingQuantities(order, true));
-            } else {
-                productionCountingQuantities
-                        .addAll(basicProductionCountingService.getUsedMaterialsFromProductionCountingQuantities(order, false));
-            }
+        if (orderIds.isEmpty()) {
+            return Maps.newHashMap();
         }
 
+        boolean onlyComponents = MrpAlgorithm.ONLY_MATERIALS.getStringValue()
+                .equals(materialRequirement.getStringField(MaterialRequirementFields.MRP_ALGORITHM));
         boolean includeWarehouse = materialRequirement.getBooleanField(MaterialRequirementFields.INCLUDE_WAREHOUSE);
         boolean includeStartDateOrder = materialRequirement.getBooleanField(MaterialRequirementFields.INCLUDE_START_DATE_ORDER);
         Entity location = materialRequirement.getBelongsToField(MaterialRequirementFields.LOCATION);
 
+        List<Entity> usedMaterials = getUsedMaterials(orderIds, onlyComponents);
+        Map<Long, List<Entity>> batches = getBatches(orderIds, onlyComponents);
+        Map<Long, Entity> products = getEntitiesById(getProductDD(), usedMaterials, L_PRODUCT_ID);
+        Map<Long, Entity> warehouses = includeWarehouse ? getEntitiesById(getLocationDD(), usedMaterials, L_WAREHOUSE_ID)
+                : Maps.newHashMap();
+
         List<MaterialRequirementEntry> materialRequirementEntries = Lists.newArrayList();
 
-        for (Entity productionCountingQuantity : productionCountingQuantities) {
-            MaterialRequirementEntry materialRequirementEntry = mapToMaterialRequirementEntry(productionCountingQuantity,
-                    includeWarehouse, includeStartDateOrder);
+        for (Entity usedMaterial : usedMaterials) {
+            MaterialRequirementEntry materialRequirementEntry = mapToMaterialRequirementEntry(usedMaterial, products, warehouses,
+                    batches, includeWarehouse, includeStartDateOrder);
 
             Long warehouseId = materialRequirementEntry.getWarehouseId();
 
@@ -70,39 +118,129 @@ public class MaterialRequirementDataService {
         return convertToMap(materialRequirementEntries, includeWarehouse, includeStartDateOrder);
     }
 
-    private MaterialRequirementEntry mapToMaterialRequirementEntry(final Entity productionCountingQuantity,
+    private SearchCriteriaBuilder createUsedMaterialsCriteria(final List<Long> orderIds, final boolean onlyComponents) {
+        SearchCriteriaBuilder searchCriteriaBuilder = getProductionCountingQuantityDD().find()
+                .createAlias(ProductionCountingQuantityFields.ORDER, ProductionCountingQuantityFields.ORDER, JoinType.INNER)
+                .add(SearchRestrictions.in(ProductionCountingQuantityFields.ORDER + L_DOT + L_ID, orderIds))
+                .add(SearchRestrictions.eq(ProductionCountingQuantityFields.ROLE,
+                        ProductionCountingQuantityRole.USED.getStringValue()));
+
+        if (onlyComponents) {
+            searchCriteriaBuilder.add(SearchRestrictions.eq(ProductionCountingQuantityFields.TYPE_OF_MATERIAL,
+                    ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue()));
+        }
+
+        return searchCriteriaBuilder;
+    }
+
+    private List<Entity> getUsedMaterials(final List<Long> orderIds, final boolean onlyComponents) {
+        List<Entity> usedMaterials = Lists.newArrayList(createUsedMaterialsCriteria(orderIds, onlyComponents)
+                .createAlias(ProductionCountingQuantityFields.PRODUCT, ProductionCountingQuantityFields.PRODUCT, JoinType.INNER)
+                .createAlias(ProductionCountingQuantityFields.COMPONENTS_LOCATION,
+                        ProductionCountingQuantityFields.COMPONENTS_LOCATION, JoinType.LEFT)
+                .setProjection(SearchProjections.list().add(SearchProjections.alias(SearchProjections.id(), L_ID))
+                        .add(SearchProjections.alias(
+                                SearchProjections.field(ProductionCountingQuantityFields.ORDER + L_DOT + L_ID), L_ORDER_ID))
+                        .add(SearchProjections.alias(
+                                SearchProjections.field(ProductionCountingQuantityFields.PRODUCT + L_DOT + L_ID), L_PRODUCT_ID))
+                        .add(SearchProjections.alias(
+                                SearchProjections.field(ProductionCountingQuantityFields.PRODUCT + L_DOT + ProductFields.NUMBER),
+                                L_PRODUCT_NUMBER))
+                        .add(SearchProjections.alias(
+                                SearchProjections.field(ProductionCountingQuantityFields.PRODUCT + L_DOT + ProductFields.NAME),
+                                L_PRODUCT_NAME))
+                        .add(SearchProjections.alias(
+                                SearchProjections.field(ProductionCountingQuantityFields.PRODUCT + L_DOT + ProductFields.UNIT),
+                                L_PRODUCT_UNIT))
+                        .add(SearchProjections.alias(SearchProjections.field(ProductionCountingQuantityFields.PLANNED_QUANTITY),
+                                ProductionCountingQuantityFields.PLANNED_QUANTITY))
+                        .add(SearchProjections.alias(
+                                SearchProjections.field(ProductionCountingQuantityFields.ORDER + L_DOT + OrderFields.START_DATE),
+                                L_ORDER_START_DATE))
+                        .add(SearchProjections.alias(
+                                SearchProjections.field(ProductionCountingQuantityFields.COMPONENTS_LOCATION + L_DOT + L_ID),
+                                L_WAREHOUSE_ID))
+                        .add(SearchProjections.alias(SearchProjections.field(
+                                ProductionCountingQuantityFields.COMPONENTS_LOCATION + L_DOT + LocationFields.NUMBER),
+                                L_WAREHOUSE_NUMBER)))
+                .addOrder(SearchOrders.asc(L_ID)).list().getEntities());
+
+        Map<Long, Integer> orderIndexes = Maps.newHashMap();
+
+        for (int index = 0; index < orderIds.size(); index++) {
+            orderIndexes.putIfAbsent(orderIds.get(index), index);
+        }
+
+        usedMaterials.sort(Comparator.comparing(usedMaterial -> orderIndexes.get((Long) usedMaterial.getField(L_ORDER_ID))));
+
+        return usedMaterials;
+    }
+
+    private Map<Long, List<Entity>> getBatches(final List<Long> orderIds, final boolean onlyComponents) {
+        List<Entity> productionCountingQuantityBatches = createUsedMaterialsCriteria(orderIds, onlyComponents)
+                .createAlias(ProductionCountingQuantityFields.BATCHES, L_BATCH, JoinType.INNER)
+                .setProjection(SearchProjections.list().add(SearchProjections.alias(SearchProjections.id(), L_ID))
+                        .add(SearchProjections.alias(SearchProjections.field(L_BATCH + L_DOT + L_ID), L_BATCH_ID)))
+                .addOrder(SearchOrders.asc(L_ID)).list().getEntities();
+
+        Map<Long, Entity> batches = getEntitiesById(getBatchDD(), productionCountingQuantityBatches, L_BATCH_ID);
+        Map<Long, List<Entity>> batchesByProductionCountingQuantity = Maps.newHashMap();
+
+        for (Entity productionCountingQuantityBatch : productionCountingQuantityBatches) {
+            batchesByProductionCountingQuantity
+                    .computeIfAbsent((Long) productionCountingQuantityBatch.getField(L_ID), id -> Lists.newArrayList())
+                    .add(batches.get((Long) productionCountingQuantityBatch.getField(L_BATCH_ID)));
+        }
+
+        return batchesByProductionCountingQuantity;
+    }
+
+    private Map<Long, Entity> getEntitiesById(final DataDefinition dataDefinition, final List<Entity> rows,
+                                              final String idAlias) {
+        Set<Long> ids = rows.stream().map(row -> (Long) row.getField(idAlias)).filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        if (ids.isEmpty()) {
+            return Maps.newHashMap();
+        }
+
+        return dataDefinition.find().add(SearchRestrictions.in(L_ID, ids)).list().getEntities().stream()
+                .collect(Collectors.toMap(Entity::getId, Function.identity()));
+    }
+
+    private MaterialRequirementEntry mapToMaterialRequirementEntry(final Entity usedMaterial, final Map<Long, Entity> products,
+                                                                   final Map<Long, Entity> warehouses,
+                                                                   final Map<Long, List<Entity>> batches,
                                                                    final boolean includeWarehouse, final boolean includeStartDateOrder) {
         MaterialRequirementEntry materialRequirementEntry = new MaterialRequirementEntry();
 
-        Entity product = productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.PRODUCT);
-        BigDecimal plannedQuantity = productionCountingQuantity.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY);
+        Long productId = (Long) usedMaterial.getField(L_PRODUCT_ID);
 
-        materialRequirementEntry.setId(product.getId());
-        materialRequirementEntry.setNumber(product.getStringField(ProductFields.NUMBER));
-        materialRequirementEntry.setName(product.getStringField(ProductFields.NAME));
-        materialRequirementEntry.setProduct(product);
-        materialRequirementEntry.setPlannedQuantity(plannedQuantity);
-        materialRequirementEntry.setUnit(product.getStringField(ProductFields.UNIT));
-        materialRequirementEntry.setBatches(productionCountingQuantity.getHasManyField(ProductionCountingQuantityFields.BATCHES));
+        materialRequirementEntry.setId(productId);
+        materialRequirementEntry.setNumber(usedMaterial.getStringField(L_PRODUCT_NUMBER));
+        materialRequirementEntry.setName(usedMaterial.getStringField(L_PRODUCT_NAME));
+        materialRequirementEntry.setProduct(products.get(productId));
+        materialRequirementEntry.setPlannedQuantity(usedMaterial.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY));
+        materialRequirementEntry.setUnit(usedMaterial.getStringField(L_PRODUCT_UNIT));
+        materialRequirementEntry.setBatches(batches.getOrDefault((Long) usedMaterial.getField(L_ID), Lists.newArrayList()));
 
         if (includeStartDateOrder) {
-            Entity order = productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.ORDER);
+            Date orderStartDate = usedMaterial.getDateField(L_ORDER_START_DATE);
 
-            if (Objects.nonNull(order.getDateField(OrderFields.START_DATE))) {
-                materialRequirementEntry.setOrderStartDate(new DateTime(order.getDateField(OrderFields.START_DATE))
-                        .withTimeAtStartOfDay().toDate());
+            if (Objects.nonNull(orderStartDate)) {
+                materialRequirementEntry.setOrderStartDate(new DateTime(orderStartDate).withTimeAtStartOfDay().toDate());
             } else {
                 materialRequirementEntry.setOrderStartDate(null);
             }
         }
 
         if (includeWarehouse) {
-            Entity warehouse = productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.COMPONENTS_LOCATION);
+            Long warehouseId = (Long) usedMaterial.getField(L_WAREHOUSE_ID);
 
-            if (Objects.nonNull(warehouse)) {
-                materialRequirementEntry.setWarehouseId(warehouse.getId());
-                materialRequirementEntry.setWarehouseNumber(warehouse.getStringField(LocationFields.NUMBER));
-                materialRequirementEntry.setWarehouse(warehouse);
+            if (Objects.nonNull(warehouseId)) {
+                materialRequirementEntry.setWarehouseId(warehouseId);
+                materialRequirementEntry.setWarehouseNumber(usedMaterial.getStringField(L_WAREHOUSE_NUMBER));
+                materialRequirementEntry.setWarehouse(warehouses.get(warehouseId));
             }
         }
 
@@ -128,40 +266,22 @@ public class MaterialRequirementDataService {
         return materialRequirementEntriesMap;
     }
 
+    /**
+     * Gives stock of products of the entries in their warehouses, read by one query for all the warehouses.
+     */
     public Map<Long, Map<Long, BigDecimal>> getQuantitiesInStock(final List<? extends MaterialRequirementEntry> materialRequirementEntries) {
-        Map<Long, Entity> warehouses = Maps.newHashMap();
-        Map<Long, List<Entity>> warehouseProducts = Maps.newHashMap();
+        Map<Long, Set<Long>> productIdsByWarehouseId = Maps.newHashMap();
 
         for (MaterialRequirementEntry materialRequirementEntry : materialRequirementEntries) {
             Long warehouseId = materialRequirementEntry.getWarehouseId();
-            Entity warehouse = materialRequirementEntry.getWarehouse();
-
-            if (Objects.nonNull(warehouse)) {
-                if (!warehouses.containsKey(warehouseId)) {
-                    warehouses.put(warehouseId, warehouse);
-                }
-
-                if (warehouseProducts.containsKey(warehouseId)) {
-                    List<Entity> products = warehouseProducts.get(warehouseId);
 
-                    products.add(materialRequirementEntry.getProduct());
-                } else {
-                    warehouseProducts.put(warehouseId, Lists.newArrayList(materialRequirementEntry.getProduct()));
-                }
+            if (Objects.nonNull(warehouseId)) {
+                productIdsByWarehouseId.computeIfAbsent(warehouseId, id -> Sets.newHashSet())
+                        .add(materialRequirementEntry.getId());
             }
         }
 
-        Map<Long, Map<Long, BigDecimal>> quantitiesInStock = Maps.newHashMap();
-
-        for (Map.Entry<Long, List<Entity>> entry : warehouseProducts.entrySet()) {
-            List<Entity> products = entry.getValue();
-            Entity location = warehouses.get(entry.getKey());
-
-            quantitiesInStock.put(entry.getKey(),
-                    materialFlowResourcesService.getQuantitiesForProductsAndLocation(products, location));
-        }
-
-        return quantitiesInStock;
+        return materialFlowResourcesService.getQuantitiesForProductsInLocations(productIdsByWarehouseId);
     }
 
     public BigDecimal getQuantity(final Map<Long, Map<Long, BigDecimal>> quantitiesInStock,
@@ -193,4 +313,21 @@ public class MaterialRequirementDataService {
         return neededProductQuantities;
     }
 
+    private DataDefinition getProductionCountingQuantityDD() {
+        return dataDefinitionService.get(BasicProductionCountingConstants.PLUGIN_IDENTIFIER,
+                BasicProductionCountingConstants.MODEL_PRODUCTION_COUNTING_QUANTITY);
+    }
+
+    private DataDefinition getProductDD() {
+        return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT);
+    }
+
+    private DataDefinition getLocationDD() {
+        return dataDefinitionService.get(MaterialFlowConstants.PLUGIN_IDENTIFIER, MaterialFlowConstants.MODEL_LOCATION);
+    }
+
+    private DataDefinition getBatchDD() {
+        return dataDefinitionService.get(AdvancedGenealogyConstants.PLUGIN_IDENTIFIER, AdvancedGenealogyConstants.MODEL_BATCH);
+    }
+
 }
@@ -0,0 +1,348 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialRequirements.print;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBooleanField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDateField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.advancedGenealogy.constants.AdvancedGenealogyConstants;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingConstants;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
+import com.qcadoo.mes.materialFlow.constants.LocationFields;
+import com.qcadoo.mes.materialFlow.constants.MaterialFlowConstants;
+import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementFields;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.search.JoinType;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchOrder;
+import com.qcadoo.model.api.search.SearchProjection;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class MaterialRequirementDataServiceTest {
+
+    private MaterialRequirementDataService materialRequirementDataService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private DataDefinition productionCountingQuantityDD, productDD, locationDD, batchDD;
+
+    @Mock
+    private Entity materialRequirement;
+
+    private final List<Entity> orders = Lists.newArrayList();
+
+    private final Map<Long, List<Entity>> productionCountingQuantitiesByOrder = Maps.newHashMap();
+
+    private final List<Entity> productionCountingQuantities = Lists.newArrayList();
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        materialRequirementDataService = new MaterialRequirementDataService();
+
+        ReflectionTestUtils.setField(materialRequirementDataService, "dataDefinitionService", dataDefinitionService);
+
+        given(dataDefinitionService.get(BasicProductionCountingConstants.PLUGIN_IDENTIFIER,
+                BasicProductionCountingConstants.MODEL_PRODUCTION_COUNTING_QUANTITY)).willReturn(productionCountingQuantityDD);
+        given(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT)).willReturn(productDD);
+        given(dataDefinitionService.get(MaterialFlowConstants.PLUGIN_IDENTIFIER, MaterialFlowConstants.MODEL_LOCATION))
+                .willReturn(locationDD);
+        given(dataDefinitionService.get(AdvancedGenealogyConstants.PLUGIN_IDENTIFIER, AdvancedGenealogyConstants.MODEL_BATCH))
+                .willReturn(batchDD);
+
+        Entity firstWarehouse = mockWarehouse(100L, "W1");
+        Entity secondWarehouse = mockWarehouse(200L, "W2");
+        Entity firstProduct = mockProduct(1L, "P1");
+        Entity secondProduct = mockProduct(2L, "P2");
+        Entity firstBatch = mockEntity(1000L);
+        Entity secondBatch = mockEntity(1001L);
+
+        Entity secondOrder = mockOrder(20L, new DateTime(2026, 10, 20, 14, 0).toDate());
+        Entity firstOrder = mockOrder(10L, new DateTime(2026, 10, 20, 8, 30).toDate());
+
+        mockProductionCountingQuantity(501L, firstOrder, firstProduct, BigDecimal.valueOf(5L), firstWarehouse, firstBatch);
+        mockProductionCountingQuantity(502L, firstOrder, secondProduct, BigDecimal.valueOf(3L), secondWarehouse);
+        mockProductionCountingQuantity(503L, secondOrder, firstProduct, BigDecimal.valueOf(2L), firstWarehouse, firstBatch,
+                secondBatch);
+        mockProductionCountingQuantity(504L, secondOrder, secondProduct, BigDecimal.valueOf(4L), firstWarehouse);
+
+        EntityList ordersList = mockEntityList(orders);
+
+        given(materialRequirement.getHasManyField(MaterialRequirementFields.ORDERS)).willReturn(ordersList);
+        stubBooleanField(materialRequirement, MaterialRequirementFields.INCLUDE_WAREHOUSE, true);
+        stubBooleanField(materialRequirement, MaterialRequirementFields.INCLUDE_START_DATE_ORDER, true);
+
+        mockQueries(firstProduct, secondProduct, firstWarehouse, secondWarehouse, firstBatch, secondBatch);
+    }
+
+    private Entity mockWarehouse(final Long id, final String number) {
+        Entity warehouse = mockEntity(id);
+
+        stubStringField(warehouse, LocationFields.NUMBER, number);
+
+        return warehouse;
+    }
+
+    private Entity mockProduct(final Long id, final String number) {
+        Entity product = mockEntity(id);
+
+        stubStringField(product, ProductFields.NUMBER, number);
+        stubStringField(product, ProductFields.NAME, "Product " + number);
+        stubStringField(product, ProductFields.UNIT, "szt");
+
+        return product;
+    }
+
+    private Entity mockOrder(final Long id, final Date startDate) {
+        Entity order = mockEntity(id);
+
+        stubDateField(order, OrderFields.START_DATE, startDate);
+
+        orders.add(order);
+        productionCountingQuantitiesByOrder.put(id, Lists.newArrayList());
+
+        return order;
+    }
+
+    private void mockProductionCountingQuantity(final Long id, final Entity order, final Entity product,
+            final BigDecimal plannedQuantity, final Entity warehouse, final Entity... batches) {
+        Entity productionCountingQuantity = mockEntity(id);
+        EntityList batchesList = mockEntityList(Lists.newArrayList(batches));
+
+        stubBelongsToField(productionCountingQuantity, ProductionCountingQuantityFields.ORDER, order);
+        stubBelongsToField(productionCountingQuantity, ProductionCountingQuantityFields.PRODUCT, product);
+        stubBelongsToField(productionCountingQuantity, ProductionCountingQuantityFields.COMPONENTS_LOCATION, warehouse);
+        stubDecimalField(productionCountingQuantity, ProductionCountingQuantityFields.PLANNED_QUANTITY, plannedQuantity);
+        given(productionCountingQuantity.getHasManyField(ProductionCountingQuantityFields.BATCHES)).willReturn(batchesList);
+
+        productionCountingQuantitiesByOrder.get(order.getId()).add(productionCountingQuantity);
+        productionCountingQuantities.add(productionCountingQuantity);
+    }
+
+    private EntityList mockEntityList(final List<Entity> entities) {
+        EntityList entityList = mock(EntityList.class);
+
+        given(entityList.iterator()).willAnswer(invocation -> entities.iterator());
+        given(entityList.stream()).willAnswer(invocation -> entities.stream());
+
+        return entityList;
+    }
+
+    /**
+     * Rows of the projection queries are returned in order of production counting quantity ids, as the database does.
+     */
+    private void mockQueries(final Entity firstProduct, final Entity secondProduct, final Entity firstWarehouse,
+            final Entity secondWarehouse, final Entity firstBatch, final Entity secondBatch) {
+        List<Entity> usedMaterialRows = Lists.newArrayList();
+        List<Entity> batchRows = Lists.newArrayList();
+
+        for (Entity productionCountingQuantity : productionCountingQuantities) {
+            usedMaterialRows.add(mockUsedMaterialRow(productionCountingQuantity));
+
+            for (Entity batch : productionCountingQuantity.getHasManyField(ProductionCountingQuantityFields.BATCHES)) {
+                Entity batchRow = mockEntity();
+
+                stubField(batchRow, "id", productionCountingQuantity.getId());
+                stubField(batchRow, "batchId", batch.getId());
+
+                batchRows.add(batchRow);
+            }
+        }
+
+        SearchCriteriaBuilder usedMaterialsCriteria = mockCriteria(usedMaterialRows);
+        SearchCriteriaBuilder batchesCriteria = mockCriteria(batchRows);
+        SearchCriteriaBuilder productsCriteria = mockCriteria(Lists.newArrayList(firstProduct, secondProduct));
+        SearchCriteriaBuilder warehousesCriteria = mockCriteria(Lists.newArrayList(firstWarehouse, secondWarehouse));
+        SearchCriteriaBuilder batchEntitiesCriteria = mockCriteria(Lists.newArrayList(firstBatch, secondBatch));
+
+        given(productionCountingQuantityDD.find()).willReturn(usedMaterialsCriteria, batchesCriteria);
+        given(productDD.find()).willReturn(productsCriteria);
+        given(locationDD.find()).willReturn(warehousesCriteria);
+        given(batchDD.find()).willReturn(batchEntitiesCriteria);
+    }
+
+    private Entity mockUsedMaterialRow(final Entity productionCountingQuantity) {
+        Entity product = productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.PRODUCT);
+        Entity order = productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.ORDER);
+        Entity warehouse = productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.COMPONENTS_LOCATION);
+        Entity usedMaterialRow = mockEntity();
+
+        stubField(usedMaterialRow, "id", productionCountingQuantity.getId());
+        stubField(usedMaterialRow, "orderId", order.getId());
+        stubField(usedMaterialRow, "productId", product.getId());
+        stubStringField(usedMaterialRow, "productNumber", product.getStringField(ProductFields.NUMBER));
+        stubStringField(usedMaterialRow, "productName", product.getStringField(ProductFields.NAME));
+        stubStringField(usedMaterialRow, "productUnit", product.getStringField(ProductFields.UNIT));
+        stubDecimalField(usedMaterialRow, ProductionCountingQuantityFields.PLANNED_QUANTITY,
+                productionCountingQuantity.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY));
+        stubDateField(usedMaterialRow, "orderStartDate", order.getDateField(OrderFields.START_DATE));
+        stubField(usedMaterialRow, "warehouseId", warehouse.getId());
+        stubStringField(usedMaterialRow, "warehouseNumber", warehouse.getStringField(LocationFields.NUMBER));
+
+        return usedMaterialRow;
+    }
+
+    private SearchCriteriaBuilder mockCriteria(final List<Entity> entities) {
+        SearchCriteriaBuilder searchCriteriaBuilder = mock(SearchCriteriaBuilder.class);
+        SearchResult searchResult = mock(SearchResult.class);
+
+        given(searchCriteriaBuilder.createAlias(anyString(), anyString(), any(JoinType.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.setProjection(any(SearchProjection.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.addOrder(any(SearchOrder.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(entities);
+
+        return searchCriteriaBuilder;
+    }
+
+    /**
+     * Groups used materials as they were grouped when production counting quantities were loaded order by order.
+     */
+    private Map<WarehouseDateKey, List<MaterialRequirementEntry>> getGroupedDataPerOrder() {
+        Map<WarehouseDateKey, List<MaterialRequirementEntry>> groupedData = Maps.newHashMap();
+
+        for (Entity order : orders) {
+            for (Entity productionCountingQuantity : productionCountingQuantitiesByOrder.get(order.getId())) {
+                Entity product = productionCountingQuantity.getBelongsToField(ProductionCountingQuantityFields.PRODUCT);
+                Entity warehouse = productionCountingQuantity
+                        .getBelongsToField(ProductionCountingQuantityFields.COMPONENTS_LOCATION);
+                MaterialRequirementEntry materialRequirementEntry = new MaterialRequirementEntry();
+
+                materialRequirementEntry.setId(product.getId());
+                materialRequirementEntry.setNumber(product.getStringField(ProductFields.NUMBER));
+                materialRequirementEntry.setName(product.getStringField(ProductFields.NAME));
+                materialRequirementEntry.setProduct(product);
+                materialRequirementEntry.setPlannedQuantity(productionCountingQuantity
+                        .getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY));
+                materialRequirementEntry.setUnit(product.getStringField(ProductFields.UNIT));
+                materialRequirementEntry.setBatches(productionCountingQuantity
+                        .getHasManyField(ProductionCountingQuantityFields.BATCHES));
+                materialRequirementEntry.setOrderStartDate(new DateTime(order.getDateField(OrderFields.START_DATE))
+                        .withTimeAtStartOfDay().toDate());
+                materialRequirementEntry.setWarehouseId(warehouse.getId());
+                materialRequirementEntry.setWarehouseNumber(warehouse.getStringField(LocationFields.NUMBER));
+                materialRequirementEntry.setWarehouse(warehouse);
+
+                groupedData.computeIfAbsent(new WarehouseDateKey(materialRequirementEntry, true, true),
+                        key -> Lists.newArrayList()).add(materialRequirementEntry);
+            }
+        }
+
+        return groupedData;
+    }
+
+    @Test
+    public void shouldGroupUsedMaterialsAsPerOrder() {
+        // given
+        Map<WarehouseDateKey, List<MaterialRequirementEntry>> expectedGroupedData = getGroupedDataPerOrder();
+
+        // when
+        Map<WarehouseDateKey, List<MaterialRequirementEntry>> groupedData = materialRequirementDataService
+                .getGroupedData(materialRequirement);
+
+        // then
+        assertEquals(2, groupedData.size());
+        assertEquals(expectedGroupedData.keySet(), groupedData.keySet());
+
+        for (Map.Entry<WarehouseDateKey, List<MaterialRequirementEntry>> expectedEntry : expectedGroupedData.entrySet()) {
+            List<MaterialRequirementEntry> expectedEntries = expectedEntry.getValue();
+            List<MaterialRequirementEntry> entries = groupedData.get(expectedEntry.getKey());
+
+            assertEquals(expectedEntries, entries);
+
+            for (int index = 0; index < expectedEntries.size(); index++) {
+                MaterialRequirementEntry expected = expectedEntries.get(index);
+                MaterialRequirementEntry actual = entries.get(index);
+
+                assertTrue(BigDecimalUtils.valueEquals(expected.getPlannedQuantity(), actual.getPlannedQuantity()));
+                assertEquals(expected.getUnit(), actual.getUnit());
+                assertEquals(expected.getProduct(), actual.getProduct());
+                assertEquals(expected.getWarehouse(), actual.getWarehouse());
+                assertEquals(Lists.newArrayList(expected.getBatches().iterator()), actual.getBatches());
+            }
+        }
+    }
+
+    @Test
+    public void shouldKeepOrderOfOrdersInGroups() {
+        // when
+        Map<WarehouseDateKey, List<MaterialRequirementEntry>> groupedData = materialRequirementDataService
+                .getGroupedData(materialRequirement);
+
+        // then
+        List<Long> productIds = Lists.newArrayList();
+        List<BigDecimal> plannedQuantities = Lists.newArrayList();
+
+        for (List<MaterialRequirementEntry> entries : groupedData.values()) {
+            for (MaterialRequirementEntry entry : entries) {
+                if (entry.getWarehouseId().equals(100L)) {
+                    productIds.add(entry.getId());
+                    plannedQuantities.add(entry.getPlannedQuantity());
+                }
+            }
+        }
+
+        assertEquals(Lists.newArrayList(1L, 2L, 1L), productIds);
+        assertEquals(Lists.newArrayList(BigDecimal.valueOf(2L), BigDecimal.valueOf(4L), BigDecimal.valueOf(5L)),
+                plannedQuantities);
+    }
+
+}
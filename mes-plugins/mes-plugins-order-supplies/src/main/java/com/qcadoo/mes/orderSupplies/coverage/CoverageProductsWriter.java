@@ -0,0 +1,190 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orderSupplies.coverage;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductFields;
+import com.qcadoo.mes.orderSupplies.constants.CoverageProductLoggingFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Writes coverage products and their loggings in JDBC batches. Coverage product ids are reserved from the sequence in blocks, so
+ * loggings can reference their product without a round trip per row.
+ */
+@Service
+public class CoverageProductsWriter {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String L_ID = "id";
+
+    private static final String L_COUNT = "count";
+
+    private static final String RESERVE_COVERAGE_PRODUCT_IDS_QUERY = "SELECT nextval('ordersupplies_coverageproduct_id_seq') "
+            + "FROM generate_series(1, :count)";
+
+    private static final String INSERT_COVERAGE_PRODUCT_LOGGING_QUERY = "INSERT INTO ordersupplies_coverageproductlogging "
+            + "(coverageproduct_id, date, order_id, delivery_id, operation_id, reservemissingquantity, changes, eventtype, state, "
+            + "warehouseNumber, deliveryNumberExternal) "
+            + "VALUES (:coverageproduct_id, :date, :order_id, :delivery_id, :operation_id, :reservemissingquantity, :changes, "
+            + ":eventtype, :state, :warehouseNumber, :deliveryNumberExternal)";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void write(final Entity materialRequirementCoverage, final List<Entity> coverageProducts) {
+        String insertCoverageProductQuery = getCoverageProductInsertQuery();
+
+        List<SqlParameterSource> loggingsParameters = Lists.newArrayListWithCapacity(BATCH_SIZE);
+
+        for (List<Entity> coverageProductsPart : Lists.partition(coverageProducts, BATCH_SIZE)) {
+            List<Long> ids = reserveCoverageProductIds(coverageProductsPart.size());
+
+            SqlParameterSource[] coverageProductsParameters = new SqlParameterSource[coverageProductsPart.size()];
+
+            for (int index = 0; index < coverageProductsPart.size(); index++) {
+                Map<String, Object> parameters = getCoverageProductParameters(materialRequirementCoverage,
+                        coverageProductsPart.get(index));
+
+                parameters.put(L_ID, ids.get(index));
+
+                coverageProductsParameters[index] = new MapSqlParameterSource(parameters);
+            }
+
+            jdbcTemplate.batchUpdate(insertCoverageProductQuery, coverageProductsParameters);
+
+            for (int index = 0; index < coverageProductsPart.size(); index++) {
+                Long coverageProductId = ids.get(index);
+
+                for (Entity coverageProductLogging : coverageProductsPart.get(index)
+                        .getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
+                    loggingsParameters.add(getCoverageProductLoggingParameters(coverageProductId, coverageProductLogging));
+
+                    if (loggingsParameters.size() == BATCH_SIZE) {
+                        writeCoverageProductLoggings(loggingsParameters);
+                    }
+                }
+            }
+        }
+
+        writeCoverageProductLoggings(loggingsParameters);
+    }
+
+    private List<Long> reserveCoverageProductIds(final int count) {
+        return jdbcTemplate.queryForList(RESERVE_COVERAGE_PRODUCT_IDS_QUERY, Collections.singletonMap(L_COUNT, count),
+                Long.class);
+    }
+
+    private void writeCoverageProductLoggings(final List<SqlParameterSource> loggingsParameters) {
+        if (!loggingsParameters.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_COVERAGE_PRODUCT_LOGGING_QUERY,
+                    loggingsParameters.toArray(new SqlParameterSource[loggingsParameters.size()]));
+
+            loggingsParameters.clear();
+        }
+    }
+
+    // Do not remove, around by aspect
+    public String getCoverageProductInsertQuery() {
+        return "INSERT INTO ordersupplies_coverageproduct "
+                + "(id, materialrequirementcoverage_id, product_id, lackfromdate, demandquantity, coveredquantity, "
+                + "reservemissingquantity, deliveredquantity, locationsquantity, state, productnumber, productname, "
+                + "productunit, produceQuantity, fromSelectedOrder, company_id, price) "
+                + "VALUES (:id, :materialrequirementcoverage_id, :product_id, :lackfromdate, :demandquantity, :coveredquantity, "
+                + ":reservemissingquantity, :deliveredquantity, :locationsquantity, :state, :productnumber, :productname, "
+                + ":productunit, :produceQuantity, :fromSelectedOrder, :company_id, :price)";
+    }
+
+    // Do not remove, around by aspect
+    public Map<String, Object> getCoverageProductParameters(final Entity materialRequirementCoverage,
+            final Entity coverageProduct) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        Entity product = coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT);
+        Entity company = coverageProduct.getBelongsToField(CoverageProductFields.COMPANY);
+
+        parameters.put("materialrequirementcoverage_id", materialRequirementCoverage.getId());
+        parameters.put("product_id", product.getId());
+
+        if (company != null) {
+            parameters.put("company_id", company.getId());
+        } else {
+            parameters.put("company_id", null);
+        }
+
+        parameters.put("lackfromdate", coverageProduct.getDateField(CoverageProductFields.LACK_FROM_DATE));
+        parameters.put("demandquantity", coverageProduct.getDecimalField(CoverageProductFields.DEMAND_QUANTITY));
+        parameters.put("coveredquantity", coverageProduct.getDecimalField(CoverageProductFields.COVERED_QUANTITY));
+        parameters.put("reservemissingquantity", coverageProduct.getDecimalField(CoverageProductFields.RESERVE_MISSING_QUANTITY));
+        parameters.put("deliveredquantity", coverageProduct.getDecimalField(CoverageProductFields.DELIVERED_QUANTITY));
+        parameters.put("locationsquantity", coverageProduct.getDecimalField(CoverageProductFields.LOCATIONS_QUANTITY));
+        parameters.put("produceQuantity", coverageProduct.getDecimalField(CoverageProductFields.PRODUCE_QUANTITY));
+        parameters.put("state", coverageProduct.getStringField(CoverageProductFields.STATE));
+        parameters.put("productnumber", product.getStringField(ProductFields.NUMBER));
+        parameters.put("productname", product.getStringField(ProductFields.NAME));
+        parameters.put("productunit", product.getStringField(ProductFields.UNIT));
+        parameters.put("fromSelectedOrder", coverageProduct.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER));
+        parameters.put("price", coverageProduct.getDecimalField(CoverageProductFields.PRICE));
+
+        return parameters;
+    }
+
+    private SqlParameterSource getCoverageProductLoggingParameters(final Long coverageProductId,
+            final Entity coverageProductLogging) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+
+        Entity delivery = coverageProductLogging.getBelongsToField(CoverageProductLoggingFields.DELIVERY);
+        Entity order = coverageProductLogging.getBelongsToField(CoverageProductLoggingFields.ORDER);
+        Entity operation = coverageProductLogging.getBelongsToField(CoverageProductLoggingFields.OPERATION);
+
+        parameters.addValue("coverageproduct_id", coverageProductId);
+        parameters.addValue("date", coverageProductLogging.getDateField(CoverageProductLoggingFields.DATE));
+        parameters.addValue("delivery_id", delivery != null ? delivery.getId() : null);
+        parameters.addValue("order_id", order != null ? order.getId() : null);
+        parameters.addValue("operation_id", operation != null ? operation.getId() : null);
+        parameters.addValue("reservemissingquantity",
+                coverageProductLogging.getDecimalField(CoverageProductLoggingFields.RESERVE_MISSING_QUANTITY));
+        parameters.addValue("changes", coverageProductLogging.getDecimalField(CoverageProductLoggingFields.CHANGES));
+        parameters.addValue("eventtype", coverageProductLogging.getStringField(CoverageProductLoggingFields.EVENT_TYPE));
+        parameters.addValue("state", coverageProductLogging.getStringField(CoverageProductLoggingFields.STATE));
+        parameters.addValue("warehouseNumber",
+                coverageProductLogging.getStringField(CoverageProductLoggingFields.WAREHOUSE_NUMBER));
+        parameters.addValue("deliveryNumberExternal", coverageProductLogging.getStringField("deliveryNumberExternal"));
+
+        return parameters;
+    }
+
+}
@@ -42,9 +42,6 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -52,7 +49,6 @@ import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
-import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.deliveries.DeliveriesService;
 import com.qcadoo.mes.deliveries.constants.DeliveriesConstants;
 import com.qcadoo.mes.deliveries.constants.DeliveryFields;
@@ -82,9 +78,6 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
 
     private static final String L_ID = "id";
 
-    @Autowired
-    private NamedParameterJdbcTemplate jdbcTemplate;
-
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -103,6 +96,9 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private CoverageProductsWriter coverageProductsWriter;
+
     @Transactional
     @Override
     public void estimateProductCoverageInTime(final Entity materialRequirementCoverage) {
@@ -198,106 +194,10 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
             List<Entity> filtredEntities = entities.stream()
                     .filter(e -> e.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER)).collect(Collectors.toList());
 
-            for (Entity covProduct : filtredEntities) {
-                saveCoverageProduct(materialRequirementCoverage, covProduct);
-                for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
-                    saveCoverageProductLogging(log);
-                }
-            }
-        } else {
-            for (Entity covProduct : entities) {
-                saveCoverageProduct(materialRequirementCoverage, covProduct);
-                for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
-                    saveCoverageProductLogging(log);
-                }
-            }
-        }
-    }
-
-    private void saveCoverageProductLogging(final Entity log) {
-        String sqlLog = "INSERT INTO ordersupplies_coverageproductlogging(coverageproduct_id, date, "
-                + "order_id, delivery_id, operation_id, reservemissingquantity, changes, eventtype, state, warehouseNumber, deliveryNumberExternal) "
-                + "VALUES (currval('ordersupplies_coverageproduct_id_seq'), :date, :order_id, :delivery_id, :operation_id, "
-                + ":reservemissingquantity, :changes, :eventtype, :state, :warehouseNumber, :deliveryNumberExternal);";
-
-        Map<String, Object> parametersLogg = Maps.newHashMap();
-
-        parametersLogg.put("date", log.getDateField(CoverageProductLoggingFields.DATE));
-
-        if (log.getBelongsToField(CoverageProductLoggingFields.DELIVERY) != null) {
-            parametersLogg.put("delivery_id", log.getBelongsToField(CoverageProductLoggingFields.DELIVERY).getId());
-        } else {
-            parametersLogg.put("delivery_id", null);
-        }
-
-        if (log.getBelongsToField(CoverageProductLoggingFields.ORDER) != null) {
-            parametersLogg.put("order_id", log.getBelongsToField(CoverageProductLoggingFields.ORDER).getId());
+            coverageProductsWriter.write(materialRequirementCoverage, filtredEntities);
         } else {
-            parametersLogg.put("order_id", null);
-        }
-
-        if (log.getBelongsToField(CoverageProductLoggingFields.OPERATION) != null) {
-            parametersLogg.put("operation_id", log.getBelongsToField(CoverageProductLoggingFields.OPERATION).getId());
-        } else {
-            parametersLogg.put("operation_id", null);
-
+            coverageProductsWriter.write(materialRequirementCoverage, entities);
         }
-
-        parametersLogg.put("reservemissingquantity", log.getDecimalField(CoverageProductLoggingFields.RESERVE_MISSING_QUANTITY));
-        parametersLogg.put("changes", log.getDecimalField(CoverageProductLoggingFields.CHANGES));
-        parametersLogg.put("eventtype", log.getStringField(CoverageProductLoggingFields.EVENT_TYPE));
-        parametersLogg.put("state", log.getStringField(CoverageProductLoggingFields.STATE));
-        parametersLogg.put("warehouseNumber", log.getStringField(CoverageProductLoggingFields.WAREHOUSE_NUMBER));
-        parametersLogg.put("deliveryNumberExternal", log.getStringField("deliveryNumberExternal"));
-
-        SqlParameterSource nParameters = new MapSqlParameterSource(parametersLogg);
-
-        jdbcTemplate.update(sqlLog, nParameters);
-    }
-
-    private void saveCoverageProduct(final Entity materialRequirementCoverage, final Entity coverageProduct) {
-        String sql = "INSERT INTO ordersupplies_coverageproduct "
-                + "(materialrequirementcoverage_id, product_id, lackfromdate, demandquantity, coveredquantity, "
-                + "reservemissingquantity, deliveredquantity, locationsquantity, state, productnumber, productname, "
-                + "productunit, produceQuantity, fromSelectedOrder, company_id, price) "
-                + "VALUES (:materialrequirementcoverage_id, :product_id, :lackfromdate, :demandquantity, :coveredquantity, "
-                + ":reservemissingquantity, :deliveredquantity, :locationsquantity, :state, :productnumber, :productname, "
-                + ":productunit, :produceQuantity, :fromSelectedOrder, :company_id, :price)";
-
-        Map<String, Object> parameters = Maps.newHashMap();
-
-        parameters.put("materialrequirementcoverage_id", materialRequirementCoverage.getId());
-        parameters.put("product_id", coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getId());
-
-        Entity company = coverageProduct.getBelongsToField(CoverageProductFields.COMPANY);
-
-        if (company != null) {
-            parameters.put("company_id", company.getId());
-        } else {
-            parameters.put("company_id", null);
-        }
-
-        parameters.put("lackfromdate", coverageProduct.getDateField(CoverageProductFields.LACK_FROM_DATE));
-        parameters.put("demandquantity", coverageProduct.getDecimalField(CoverageProductFields.DEMAND_QUANTITY));
-        parameters.put("coveredquantity", coverageProduct.getDecimalField(CoverageProductFields.COVERED_QUANTITY));
-        parameters.put("reservemissingquantity", coverageProduct.getDecimalField(CoverageProductFields.RESERVE_MISSING_QUANTITY));
-        parameters.put("deliveredquantity", coverageProduct.getDecimalField(CoverageProductFields.DELIVERED_QUANTITY));
-        parameters.put("locationsquantity", coverageProduct.getDecimalField(CoverageProductFields.LOCATIONS_QUANTITY));
-        parameters.put("produceQuantity", coverageProduct.getDecimalField(CoverageProductFields.PRODUCE_QUANTITY));
-        parameters.put("state", coverageProduct.getStringField(CoverageProductFields.STATE));
-        parameters.put("productnumber",
-                coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getStringField(ProductFields.NUMBER));
-        parameters.put("productname",
-                coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getStringField(ProductFields.NAME));
-        parameters.put("productunit",
-                coverageProduct.getBelongsToField(CoverageProductFields.PRODUCT).getStringField(ProductFields.UNIT));
-        parameters.put("fromSelectedOrder", coverageProduct.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER));
-
-        parameters.put("price", coverageProduct.getDecimalField(CoverageProductFields.PRICE));
-
-        SqlParameterSource namedParameters = new MapSqlParameterSource(parameters);
-
-        jdbcTemplate.update(sql, namedParameters);
     }
 
     // Do not remove, around by aspect
@@ -3,13 +3,11 @@ package com.qcadoo.mes.orders.util;
 import com.google.common.collect.Lists;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
+import com.qcadoo.mes.basic.util.UnitConversionsCache;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.units.PossibleUnitConversions;
-import com.qcadoo.model.api.units.UnitConversionService;
 import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FieldComponent;
@@ -25,16 +23,14 @@ import java.util.List;
 public class AdditionalUnitService {
 
     @Autowired
-    private UnitConversionService unitConversionService;
+    private UnitConversionsCache unitConversionsCache;
 
     @Autowired
     private NumberService numberService;
 
     public BigDecimal getQuantityAfterConversion(final Entity order, String givenUnit, BigDecimal quantity, String baseUnit) {
         Entity product = order.getBelongsToField(OrderFields.PRODUCT);
-        PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(baseUnit,
-                searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
-                        UnitConversionItemFieldsB.PRODUCT, product)));
+        PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(product, baseUnit);
         if (quantity == null) {
             return BigDecimal.ZERO;
         }
@@ -8,7 +8,7 @@ import java.util.stream.Collectors;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
-import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
+import com.qcadoo.mes.basic.util.UnitConversionsCache;
 import com.qcadoo.mes.basicProductionCounting.constants.OrderFieldsBPC;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityRole;
 import com.qcadoo.mes.materialFlowResources.constants.DocumentFields;
@@ -22,7 +22,6 @@ import com.qcadoo.mes.productionCounting.utils.ProductionTrackingDocumentsHelper
 import com.qcadoo.model.api.*;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.units.PossibleUnitConversions;
-import com.qcadoo.model.api.units.UnitConversionService;
 import com.qcadoo.model.api.validators.ErrorMessage;
 import com.qcadoo.security.api.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -75,7 +74,7 @@ public class ProductionCountingDocumentService {
     private NumberService numberService;
 
     @Autowired
-    private UnitConversionService unitConversionService;
+    private UnitConversionsCache unitConversionsCache;
 
     @Autowired
     private ProductionTrackingService productionTrackingService;
@@ -326,9 +325,7 @@ public class ProductionCountingDocumentService {
         String givenUnit = inProductRecord.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
         if (Objects.nonNull(usedQuantity)) {
-            PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                    searchCriteriaBuilder -> searchCriteriaBuilder
-                            .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, inProduct)));
+            PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(inProduct, unit);
 
             if (unitConversions.isDefinedFor(givenUnit)) {
                 conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
@@ -362,9 +359,7 @@ public class ProductionCountingDocumentService {
         String givenUnit = inProductRecord.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
         if (Objects.nonNull(usedQuantity)) {
-            PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                    searchCriteriaBuilder -> searchCriteriaBuilder
-                            .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, inProduct)));
+            PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(inProduct, unit);
 
             if (unitConversions.isDefinedFor(givenUnit)) {
                 conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
@@ -392,9 +387,7 @@ public class ProductionCountingDocumentService {
         String givenUnit = inProductRecord.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
         if (Objects.nonNull(usedQuantity) && Objects.nonNull(givenQuantity)) {
-            PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                    searchCriteriaBuilder -> searchCriteriaBuilder
-                            .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, inProduct)));
+            PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(inProduct, unit);
 
             if (unitConversions.isDefinedFor(givenUnit)) {
                 conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
@@ -417,9 +410,7 @@ public class ProductionCountingDocumentService {
         String givenUnit = inProductRecord.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
         String unit = inProduct.getStringField(ProductFields.UNIT);
 
-        PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
-                        UnitConversionItemFieldsB.PRODUCT, inProduct)));
+        PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(inProduct, unit);
 
         if (unitConversions.isDefinedFor(givenUnit)) {
             givenQuantity = unitConversions.convertTo(usedQuantity, givenUnit, BigDecimal.ROUND_FLOOR);
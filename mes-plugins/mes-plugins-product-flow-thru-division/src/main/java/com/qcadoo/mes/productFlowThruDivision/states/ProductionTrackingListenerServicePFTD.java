@@ -31,8 +31,8 @@ import com.qcadoo.mes.advancedGenealogy.constants.BatchFields;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.CurrencyFields;
 import com.qcadoo.mes.basic.constants.ProductFields;
-import com.qcadoo.mes.basic.constants.UnitConversionItemFieldsB;
 import com.qcadoo.mes.basic.util.CurrencyService;
+import com.qcadoo.mes.basic.util.UnitConversionsCache;
 import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingConstants;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityTypeOfMaterial;
@@ -60,7 +60,6 @@ import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchQueryBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.units.PossibleUnitConversions;
-import com.qcadoo.model.api.units.UnitConversionService;
 import com.qcadoo.model.api.validators.ErrorMessage;
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -92,7 +91,7 @@ public final class ProductionTrackingListenerServicePFTD {
     private CurrencyService currencyService;
 
     @Autowired
-    private UnitConversionService unitConversionService;
+    private UnitConversionsCache unitConversionsCache;
 
     @Autowired
     private ParameterService parameterService;
@@ -429,9 +428,7 @@ public final class ProductionTrackingListenerServicePFTD {
         String givenUnit = trackingOperationProductInComponent.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
         if (Objects.nonNull(usedQuantity)) {
-            PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                    searchCriteriaBuilder -> searchCriteriaBuilder
-                            .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, product)));
+            PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(product, unit);
 
             if (unitConversions.isDefinedFor(givenUnit)) {
                 conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
@@ -463,9 +460,7 @@ public final class ProductionTrackingListenerServicePFTD {
         String givenUnit = trackingOperationProductInComponent.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
         if (Objects.nonNull(usedQuantity)) {
-            PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                    searchCriteriaBuilder -> searchCriteriaBuilder
-                            .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, product)));
+            PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(product, unit);
 
             if (unitConversions.isDefinedFor(givenUnit)) {
                 conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
@@ -495,9 +490,7 @@ public final class ProductionTrackingListenerServicePFTD {
         String givenUnit = trackingOperationProductInComponent.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
         if (Objects.nonNull(usedQuantity) && Objects.nonNull(givenQuantity)) {
-            PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                    searchCriteriaBuilder -> searchCriteriaBuilder
-                            .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, product)));
+            PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(product, unit);
 
             if (unitConversions.isDefinedFor(givenUnit)) {
                 conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
@@ -524,9 +517,7 @@ public final class ProductionTrackingListenerServicePFTD {
         String givenUnit = trackingOperationProductInComponent.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
         String unit = product.getStringField(ProductFields.UNIT);
 
-        PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
-                        UnitConversionItemFieldsB.PRODUCT, product)));
+        PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(product, unit);
 
         if (unitConversions.isDefinedFor(givenUnit)) {
             givenQuantity = unitConversions.convertTo(usedQuantity, givenUnit, BigDecimal.ROUND_FLOOR);
@@ -694,9 +685,7 @@ public final class ProductionTrackingListenerServicePFTD {
                 String unit = product.getStringField(ProductFields.UNIT);
 
                 if (givenQuantity.isPresent()) {
-                    PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                            searchCriteriaBuilder -> searchCriteriaBuilder
-                                    .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, product)));
+                    PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(product, unit);
 
                     if (givenUnit.isPresent() && unitConversions.isDefinedFor(givenUnit.get())) {
                         conversion = numberService
@@ -889,9 +878,7 @@ public final class ProductionTrackingListenerServicePFTD {
             Date expirationDate = productionTracking.getDateField(ProductionTrackingFields.EXPIRATION_DATE);
 
             if (Objects.nonNull(usedQuantity) && Objects.nonNull(givenQuantity)) {
-                PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                        searchCriteriaBuilder -> searchCriteriaBuilder
-                                .add(SearchRestrictions.belongsTo(UnitConversionItemFieldsB.PRODUCT, product)));
+                PossibleUnitConversions unitConversions = unitConversionsCache.getPossibleConversions(product, unit);
 
                 if (unitConversions.isDefinedFor(givenUnit)) {
                     conversion = numberService
@@ -5,6 +5,7 @@ import java.time.ZoneId;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.qcadoo.mes.productFlowThruDivision.warehouseIssue.states.aop.WarehouseIssueStateChangeAspect;
 import com.qcadoo.mes.productFlowThruDivision.warehouseIssue.states.client.WarehouseIssueStateChangeViewClient;
@@ -18,6 +19,7 @@ import org.springframework.stereotype.Service;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.jobs.MultiTenantJobRunner;
 import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingConstants;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityRole;
@@ -44,13 +46,14 @@ import com.qcadoo.model.api.search.SearchProjections;
 import com.qcadoo.model.api.search.SearchQueryBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.search.SearchResult;
-import com.qcadoo.tenant.api.MultiTenantService;
 
 @Service
 public class WarehouseIssueGenerator {
 
+    private static final long L_TIMEOUT_MINUTES = 25;
+
     @Autowired
-    private MultiTenantService multiTenantService;
+    private MultiTenantJobRunner multiTenantJobRunner;
 
     @Autowired
     private DataDefinitionService dataDefinitionService;
@@ -74,7 +77,8 @@ public class WarehouseIssueGenerator {
     private StateChangeContextBuilder stateChangeContextBuilder;
 
     public void generateWarehouseIssuesTrigger() {
-        multiTenantService.doInMultiTenantContext(this::generateWarehouseIssues);
+        multiTenantJobRunner.runForAllTenants("generateWarehouseIssues", L_TIMEOUT_MINUTES, TimeUnit.MINUTES,
+                this::generateWarehouseIssues);
     }
 
     public void generateWarehouseIssues() {
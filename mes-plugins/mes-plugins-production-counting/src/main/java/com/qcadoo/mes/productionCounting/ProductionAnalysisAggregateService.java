@@ -0,0 +1,182 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.jobs.MultiTenantJobRunner;
+import com.qcadoo.mes.productionCounting.constants.ProductionAnalysisAggregateFields;
+import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
+import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateStringValues;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.plugin.api.RunIfEnabled;
+
+/**
+ * Maintains production analysis aggregates (used, wastes and done quantities of accepted production trackings) keyed by
+ * production line, shift, day, order and product. Aggregates are updated in the transaction accepting, declining or
+ * correcting a production tracking, so they never need a full rebuild; the reconcile job only repairs rows which drifted.
+ */
+@Service
+public class ProductionAnalysisAggregateService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProductionAnalysisAggregateService.class);
+
+    private static final long L_TIMEOUT_MINUTES = 60;
+
+    private static final String L_AGGREGATE_COLUMNS = "(productionline_id, shift_id, day, order_id, product_id, "
+            + "usedquantity, wastesquantity, donequantity, trackingsnumber, updatedate)";
+
+    // matches the unique index idx_pro_alysisaggregate_key
+    private static final String L_AGGREGATE_KEY = "(COALESCE(productionline_id, 0)), (COALESCE(shift_id, 0)), day, order_id, "
+            + "product_id";
+
+    private static final String L_AGGREGATES_SELECT = "SELECT ordersorder.productionline_id, productiontracking.shift_id, "
+            + "COALESCE(productiontracking.timerangefrom, productiontracking.createdate)::date AS day, "
+            + "productiontracking.order_id, trackingoperationproductoutcomponent.product_id, "
+            + "SUM(COALESCE(trackingoperationproductoutcomponent.usedquantity, 0)) AS usedquantity, "
+            + "SUM(COALESCE(trackingoperationproductoutcomponent.wastesquantity, 0)) AS wastesquantity, "
+            + "COUNT(DISTINCT productiontracking.id) AS trackingsnumber "
+            + "FROM productioncounting_trackingoperationproductoutcomponent trackingoperationproductoutcomponent "
+            + "JOIN productioncounting_productiontracking productiontracking "
+            + "ON productiontracking.id = trackingoperationproductoutcomponent.productiontracking_id "
+            + "JOIN orders_order ordersorder ON ordersorder.id = productiontracking.order_id ";
+
+    private static final String L_AGGREGATES_GROUP_BY = "GROUP BY 1, 2, 3, 4, 5";
+
+    private static final String L_APPLY_PRODUCTION_TRACKING = "INSERT INTO productioncounting_productionanalysisaggregate "
+            + "AS aggregate " + L_AGGREGATE_COLUMNS + " SELECT productionline_id, shift_id, day, order_id, product_id, "
+            + ":sign * usedquantity, :sign * wastesquantity, :sign * (usedquantity + wastesquantity), :sign * trackingsnumber, "
+            + "now() FROM (" + L_AGGREGATES_SELECT + "WHERE productiontracking.id = :productionTrackingId "
+            + L_AGGREGATES_GROUP_BY + ") delta ON CONFLICT (" + L_AGGREGATE_KEY + ") DO UPDATE "
+            + "SET usedquantity = aggregate.usedquantity + EXCLUDED.usedquantity, "
+            + "wastesquantity = aggregate.wastesquantity + EXCLUDED.wastesquantity, "
+            + "donequantity = aggregate.donequantity + EXCLUDED.donequantity, "
+            + "trackingsnumber = aggregate.trackingsnumber + EXCLUDED.trackingsnumber, updatedate = now()";
+
+    private static final String L_RECONCILE = "WITH expected AS (" + L_AGGREGATES_SELECT
+            + "WHERE productiontracking.state = :acceptedState " + L_AGGREGATES_GROUP_BY + "), "
+            + "cleared AS (UPDATE productioncounting_productionanalysisaggregate aggregate "
+            + "SET usedquantity = 0, wastesquantity = 0, donequantity = 0, trackingsnumber = 0, updatedate = now() "
+            + "WHERE (aggregate.usedquantity, aggregate.wastesquantity, aggregate.donequantity, aggregate.trackingsnumber) "
+            + "IS DISTINCT FROM (0, 0, 0, 0) AND NOT EXISTS (SELECT 1 FROM expected "
+            + "WHERE COALESCE(expected.productionline_id, 0) = COALESCE(aggregate.productionline_id, 0) "
+            + "AND COALESCE(expected.shift_id, 0) = COALESCE(aggregate.shift_id, 0) AND expected.day = aggregate.day "
+            + "AND expected.order_id = aggregate.order_id AND expected.product_id = aggregate.product_id) "
+            + "RETURNING aggregate.id) "
+            + "INSERT INTO productioncounting_productionanalysisaggregate AS aggregate " + L_AGGREGATE_COLUMNS
+            + " SELECT productionline_id, shift_id, day, order_id, product_id, usedquantity, wastesquantity, "
+            + "usedquantity + wastesquantity, trackingsnumber, now() FROM expected ON CONFLICT (" + L_AGGREGATE_KEY
+            + ") DO UPDATE SET usedquantity = EXCLUDED.usedquantity, wastesquantity = EXCLUDED.wastesquantity, "
+            + "donequantity = EXCLUDED.donequantity, trackingsnumber = EXCLUDED.trackingsnumber, updatedate = now() "
+            + "WHERE (aggregate.usedquantity, aggregate.wastesquantity, aggregate.donequantity, aggregate.trackingsnumber) "
+            + "IS DISTINCT FROM (EXCLUDED.usedquantity, EXCLUDED.wastesquantity, EXCLUDED.donequantity, "
+            + "EXCLUDED.trackingsnumber)";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MultiTenantJobRunner multiTenantJobRunner;
+
+    public void addProductionTracking(final Entity productionTracking) {
+        applyProductionTracking(productionTracking, 1);
+    }
+
+    public void subtractProductionTracking(final Entity productionTracking) {
+        applyProductionTracking(productionTracking, -1);
+    }
+
+    private void applyProductionTracking(final Entity productionTracking, final int sign) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("productionTrackingId", productionTracking.getId());
+        params.put("sign", sign);
+
+        jdbcTemplate.update(L_APPLY_PRODUCTION_TRACKING, params);
+    }
+
+    /**
+     * Returns aggregates changed after the given date, ordered by update date, so clients can keep their copy of the
+     * aggregates up to date without reading all of them. Aggregates of withdrawn trackings are not deleted, but zeroed.
+     *
+     * @param since
+     *            date of the last change already known to the client, or null to get all aggregates
+     * @return changed aggregates
+     */
+    public List<Entity> getAggregatesChangedSince(final Date since) {
+        SearchCriteriaBuilder searchCriteriaBuilder = getProductionAnalysisAggregateDD().find();
+
+        if (since != null) {
+            searchCriteriaBuilder.add(SearchRestrictions.gt(ProductionAnalysisAggregateFields.UPDATE_DATE, since));
+        }
+
+        return searchCriteriaBuilder.addOrder(SearchOrders.asc(ProductionAnalysisAggregateFields.UPDATE_DATE)).list()
+                .getEntities();
+    }
+
+    public void reconcileAggregatesTrigger() {
+        multiTenantJobRunner.runForAllTenants("reconcileProductionAnalysisAggregates", L_TIMEOUT_MINUTES, TimeUnit.MINUTES,
+                this::reconcileAggregates);
+    }
+
+    @RunIfEnabled(ProductionCountingConstants.PLUGIN_IDENTIFIER)
+    @Transactional
+    public void reconcileAggregates() {
+        long startTime = System.currentTimeMillis();
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("acceptedState", ProductionTrackingStateStringValues.ACCEPTED);
+
+        int repaired = jdbcTemplate.update(L_RECONCILE, params);
+
+        LOG.info(String.format("Production analysis aggregates reconciled in %d ms, %d rows inserted or updated",
+                System.currentTimeMillis() - startTime, repaired));
+    }
+
+    private DataDefinition getProductionAnalysisAggregateDD() {
+        return dataDefinitionService.get(ProductionCountingConstants.PLUGIN_IDENTIFIER,
+                ProductionCountingConstants.MODEL_PRODUCTION_ANALYSIS_AGGREGATE);
+    }
+
+}
@@ -69,6 +69,8 @@ public final class ProductionCountingConstants {
 
     public static final String MODEL_PROD_OUT_RESOURCE_ATTR_VAL = "prodOutResourceAttrVal";
 
+    public static final String MODEL_PRODUCTION_ANALYSIS_AGGREGATE = "productionAnalysisAggregate";
+
     // VIEW
 
     public static final String VIEW_EMPLOYEE_WORKING_TIME_SETTLEMENT = "employeeWorkingTimeSettlement";
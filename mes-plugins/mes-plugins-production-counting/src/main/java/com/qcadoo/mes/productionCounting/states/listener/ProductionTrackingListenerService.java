@@ -36,6 +36,7 @@ import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.constants.OrdersConstants;
 import com.qcadoo.mes.orders.states.aop.OrderStateChangeAspect;
 import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.productionCounting.ProductionAnalysisAggregateService;
 import com.qcadoo.mes.productionCounting.ProductionCountingService;
 import com.qcadoo.mes.productionCounting.ProductionTrackingService;
 import com.qcadoo.mes.productionCounting.constants.*;
@@ -98,6 +99,9 @@ public final class ProductionTrackingListenerService {
     @Autowired
     private ProductionTrackingService productionTrackingService;
 
+    @Autowired
+    private ProductionAnalysisAggregateService productionAnalysisAggregateService;
+
     @Autowired
     private BasicProductionCountingService basicProductionCountingService;
 
@@ -227,6 +231,7 @@ public final class ProductionTrackingListenerService {
         updateBasicProductionCounting(productionTracking, new Addition());
         updateProductionCountingQuantity(productionTracking, new Addition());
         setOrderDoneAndWastesQuantity(productionTracking, new Addition());
+        productionAnalysisAggregateService.addProductionTracking(productionTracking);
         closeOrder(productionTracking);
     }
 
@@ -234,6 +239,7 @@ public final class ProductionTrackingListenerService {
         updateBasicProductionCounting(productionTracking, new Subtraction());
         setOrderDoneAndWastesQuantity(productionTracking, new Subtraction());
         fillOrderReportedQuantity(productionTracking, new Subtraction());
+        productionAnalysisAggregateService.subtractProductionTracking(productionTracking);
     }
 
     public boolean checkIfUsedQuantitiesWereNotFilled(final Entity productionTracking) {
@@ -791,6 +797,7 @@ public final class ProductionTrackingListenerService {
         updateProductionCountingQuantitySubtraction(productionTracking, new Subtraction());
         setOrderDoneAndWastesQuantity(productionTracking, new Subtraction());
         fillOrderReportedQuantity(productionTracking, new Subtraction());
+        productionAnalysisAggregateService.subtractProductionTracking(productionTracking);
     }
 
     public void unMarkLastTracking(final Entity productionTracking) {
@@ -7,19 +7,31 @@ import com.qcadoo.mes.productionCounting.xls.dto.*;
 import com.qcadoo.model.api.Entity;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Repository;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.List;
+import java.util.function.Consumer;
 
 @Repository
 class ProductionBalanceRepository {
 
+    private static final int FETCH_SIZE = 1000;
+
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
-    List<ProducedQuantity> getProducedQuantities(final List<Long> ordersIds) {
+    void streamProducedQuantities(final List<Long> ordersIds, final Consumer<ProducedQuantity> consumer) {
         StringBuilder query = new StringBuilder();
 
         query.append("SELECT ");
@@ -58,12 +70,11 @@ class ProductionBalanceRepository {
         query.append("GROUP BY o.id, orderNumber, productNumber, productName, productUnit, prodWaste.producedWastes ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ProducedQuantity.class));
+        streamQuery(query, ordersIds, ProducedQuantity.class, consumer);
     }
 
 
-    public List<OrderProduct> getOrderProducts(final List<Long> ordersIds) {
+    void streamOrderProducts(final List<Long> ordersIds, final Consumer<OrderProduct> consumer) {
         StringBuilder query = new StringBuilder();
 
         query.append("SELECT \n" +
@@ -81,8 +92,7 @@ class ProductionBalanceRepository {
                 "WHERE o.id IN (:ordersIds)  AND pcq.typeofmaterial::text = ANY (ARRAY['05additionalFinalProduct'::character varying::text, '03finalProduct'::character varying::text, '04waste'::character varying::text]) AND pcq.role::text = '02produced'::text \n ");
         query.append("ORDER BY orderNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(OrderProduct.class));
+        streamQuery(query, ordersIds, OrderProduct.class, consumer);
     }
 
     private void appendProducedQuantity(final StringBuilder query) {
@@ -301,7 +311,7 @@ class ProductionBalanceRepository {
         query.append("MIN(q.usedQuantity - q.childsQuantity) ");
     }
 
-    List<PieceworkDetails> getPieceworkDetails(final List<Long> ordersIds) {
+    void streamPieceworkDetails(final List<Long> ordersIds, final Consumer<PieceworkDetails> consumer) {
         StringBuilder query = new StringBuilder();
 
         query.append("SELECT ");
@@ -354,8 +364,7 @@ class ProductionBalanceRepository {
         query.append("GROUP BY orderNumber, o.startdate, operationNumber, worker, pr.id, pieceRate ");
         query.append("ORDER BY orderNumber, operationNumber, worker ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(PieceworkDetails.class));
+        streamQuery(query, ordersIds, PieceworkDetails.class, consumer);
     }
 
     private void appendActualPieceRate(final StringBuilder query) {
@@ -363,7 +372,7 @@ class ProductionBalanceRepository {
         query.append("AND pri.datefrom <= o.startdate ORDER BY pri.datefrom DESC LIMIT 1), 0) ");
     }
 
-    List<LaborTime> getLaborTime(final List<Long> ordersIds) {
+    void streamLaborTime(final List<Long> ordersIds, final Consumer<LaborTime> consumer) {
         StringBuilder query = new StringBuilder();
 
         query.append("SELECT ");
@@ -387,11 +396,10 @@ class ProductionBalanceRepository {
                 "GROUP BY orderNumber, operationNumber, staffNumber, staffName, staffSurname, staffLaborHourlyCost, wageGroupName ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTime.class));
+        streamQuery(query, ordersIds, LaborTime.class, consumer);
     }
 
-    List<LaborTimeDetails> getLaborTimeDetails(final Entity entity, final List<Long> ordersIds) {
+    void streamLaborTimeDetails(final Entity entity, final List<Long> ordersIds, final Consumer<LaborTimeDetails> consumer) {
         StringBuilder query = new StringBuilder();
 
         query.append("(WITH planned_time (order_id, staff_time, machine_time) AS (SELECT o.id AS orderId, ");
@@ -502,8 +510,7 @@ class ProductionBalanceRepository {
         query.append("AND o.typeofproductionrecording = '03forEach') ");
         query.append("ORDER BY orderNumber, operationNumber, staffNumber ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(LaborTimeDetails.class));
+        streamQuery(query, ordersIds, LaborTimeDetails.class, consumer);
     }
 
     List<ProductionCost> getProductionCosts(final Entity entity, final List<Long> ordersIds) {
@@ -1380,7 +1387,7 @@ class ProductionBalanceRepository {
         query.append("FROM component_balance GROUP BY product_id) ");
     }
 
-    List<Stoppage> getStoppages(final List<Long> ordersIds) {
+    void streamStoppages(final List<Long> ordersIds, final Consumer<Stoppage> consumer) {
         StringBuilder query = new StringBuilder();
 
         query.append("SELECT ");
@@ -1408,11 +1415,10 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("ORDER BY orderNumber, productionTrackingNumber, dateFrom ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(Stoppage.class));
+        streamQuery(query, ordersIds, Stoppage.class, consumer);
     }
 
-    public List<AdditionalCost> getAdditionalCosts(final List<Long> ordersIds) {
+    void streamAdditionalCosts(final List<Long> ordersIds, final Consumer<AdditionalCost> consumer) {
         StringBuilder query = new StringBuilder();
 
         query.append("SELECT ");
@@ -1426,11 +1432,10 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("ORDER BY orderNumber, number ");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(AdditionalCost.class));
+        streamQuery(query, ordersIds, AdditionalCost.class, consumer);
     }
 
-    public List<ExternalServiceCost> getExternalServiceCosts(final List<Long> ordersIds) {
+    void streamExternalServiceCosts(final List<Long> ordersIds, final Consumer<ExternalServiceCost> consumer) {
         StringBuilder query = new StringBuilder();
 
         query.append("SELECT ");
@@ -1449,8 +1454,46 @@ class ProductionBalanceRepository {
         appendWhereClause(query);
         query.append("ORDER BY orderNumber, operationNumber, productNumber");
 
-        return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
-                BeanPropertyRowMapper.newInstance(ExternalServiceCost.class));
+        streamQuery(query, ordersIds, ExternalServiceCost.class, consumer);
+    }
+
+    private <T> void streamQuery(final StringBuilder query, final List<Long> ordersIds, final Class<T> rowClass,
+            final Consumer<T> consumer) {
+        final BeanPropertyRowMapper<T> rowMapper = BeanPropertyRowMapper.newInstance(rowClass);
+
+        jdbcTemplate.getJdbcOperations().query(
+                createStreamingStatementCreator(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds)),
+                new RowCallbackHandler() {
+
+                    private int rowNum = 0;
+
+                    @Override
+                    public void processRow(final ResultSet resultSet) throws SQLException {
+                        consumer.accept(rowMapper.mapRow(resultSet, rowNum++));
+                    }
+
+                });
+    }
+
+    /**
+     * Creates statement of the shared template which fetches rows in chunks of {@link #FETCH_SIZE}, so fetch size of the
+     * template itself stays untouched.
+     */
+    private PreparedStatementCreator createStreamingStatementCreator(final String query,
+            final SqlParameterSource parameters) {
+        ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(query);
+        PreparedStatementCreator preparedStatementCreator = new PreparedStatementCreatorFactory(
+                NamedParameterUtils.substituteNamedParameters(parsedSql, parameters),
+                NamedParameterUtils.buildSqlParameterList(parsedSql, parameters)).newPreparedStatementCreator(
+                NamedParameterUtils.buildValueArray(parsedSql, parameters, null));
+
+        return connection -> {
+            PreparedStatement preparedStatement = preparedStatementCreator.createPreparedStatement(connection);
+
+            preparedStatement.setFetchSize(FETCH_SIZE);
+
+            return preparedStatement;
+        };
     }
 
 }
@@ -5,6 +5,7 @@ import com.google.common.collect.Lists;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.constants.CurrencyFields;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.print.XlsxReportFileHelper;
 import com.qcadoo.mes.basic.util.CurrencyService;
 import com.qcadoo.mes.basicProductionCounting.constants.BasicProductionCountingConstants;
 import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
@@ -24,23 +25,30 @@ import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.search.JoinType;
 import com.qcadoo.model.api.search.SearchRestrictions;
-import com.qcadoo.report.api.xls.XlsDocumentService;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.hssf.usermodel.*;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
-public class ProductionBalanceXlsService extends XlsDocumentService {
+public class ProductionBalanceXlsService {
+
+    public static final String L_XLSX_EXTENSION = XlsxReportFileHelper.L_XLSX_EXTENSION;
 
     private static final String L_DOT = ".";
 
+    private static final int ROW_ACCESS_WINDOW_SIZE = 100;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -62,47 +70,40 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
     private static final List<String> ORDER_PRODUCTS_HEADERS = Lists.newArrayList("orderNumber", "productType", "productNumber",
             "productName", "plannedQuantity", "producedQuantity", "deviation", "productUnit");
 
-    @Override
-    protected void addHeader(final HSSFSheet sheet, final Locale locale, final Entity entity) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    /**
+     * Writes production balance to the xlsx file named after its file name field. Rows are written to the workbook while they
+     * are read from the database, and only the last {@link #ROW_ACCESS_WINDOW_SIZE} rows of each sheet are kept in memory.
+     */
+    public void generateDocument(final Entity entity, final Locale locale) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW_SIZE);
 
-        HSSFRow headerRow = sheet.createRow(0);
+        workbook.setCompressTempFiles(true);
 
-        int columnIndex = 0;
+        try (OutputStream outputStream = new FileOutputStream(entity.getStringField(ProductionBalanceFields.FILE_NAME)
+                + L_XLSX_EXTENSION)) {
+            final StylesContainer stylesContainer = new StylesContainer(workbook, new FontsContainer(workbook));
 
-        for (String key : PRODUCED_QUANTITIES_HEADERS) {
-            createHeaderCell(stylesContainer, headerRow,
-                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
-                    columnIndex);
+            addSheets(workbook, stylesContainer, entity, locale);
 
-            columnIndex++;
+            workbook.write(outputStream);
+        } finally {
+            workbook.dispose();
         }
     }
 
-    @Override
-    protected void addSeries(final HSSFSheet sheet, final Entity entity) {
-        List<Long> ordersIds = getOrdersIds(entity);
-
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-
-        createProducedQuantitiesSheet(sheet, ordersIds, stylesContainer);
-    }
-
-    @Override
     public String getReportTitle(final Locale locale) {
         return translationService.translate("productionCounting.productionBalance.report.xls.sheet.producedQuantities", locale);
     }
 
-    @Override
-    protected void addExtraSheets(final HSSFWorkbook workbook, final Entity entity, final Locale locale) {
+    private void addSheets(final Workbook workbook, final StylesContainer stylesContainer, final Entity entity,
+            final Locale locale) {
         List<Long> ordersIds = getOrdersIds(entity);
 
-        List<OrderProduct> orderProducts = productionBalanceRepository.getOrderProducts(ordersIds);
-        createOrderProductsSheet(orderProducts, createSheet(workbook,
+        createProducedQuantitiesSheet(createSheet(workbook, getReportTitle(locale)), ordersIds, stylesContainer, locale);
+
+        createOrderProductsSheet(ordersIds, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.orderProducts", locale)),
-                locale);
+                stylesContainer, locale);
 
         List<MaterialCost> materialCosts = productionBalanceRepository.getMaterialCosts(entity, ordersIds);
         if (MaterialCostsUsed.COST_FOR_ORDER.getStringValue()
@@ -112,61 +113,69 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         recalculateMaterialCostsWithCurrencies(materialCosts);
         createMaterialCostsSheet(materialCosts, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts", locale)),
-                locale);
+                stylesContainer, locale);
         createLaborTimeSheet(createSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
+                ordersIds, stylesContainer, locale);
 
-        List<LaborTimeDetails> laborTimeDetailsList = productionBalanceRepository.getLaborTimeDetails(entity, ordersIds);
-        createLaborTimeDetailsSheet(laborTimeDetailsList, createSheet(workbook,
+        createLaborTimeDetailsSheet(entity, ordersIds, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails", locale)),
-                locale);
+                stylesContainer, locale);
 
         createPieceworkSheet(createSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
+                ordersIds, stylesContainer, locale);
         createStoppagesSheet(
                 createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.stoppages", locale)),
-                ordersIds, locale);
+                ordersIds, stylesContainer, locale);
 
         List<ProductionCost> productionCosts = productionBalanceRepository.getProductionCosts(entity, ordersIds);
         createProductionCostsSheet(productionCosts, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.productionCosts", locale)),
-                locale);
+                stylesContainer, locale);
 
-        List<AdditionalCost> additionalCosts = productionBalanceRepository.getAdditionalCosts(ordersIds);
-        createAdditionalCostsSheet(additionalCosts, createSheet(workbook,
+        createAdditionalCostsSheet(ordersIds, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.additionalCosts", locale)),
-                locale);
+                stylesContainer, locale);
 
-        List<ExternalServiceCost> externalServiceCosts = productionBalanceRepository.getExternalServiceCosts(ordersIds);
-        createExternalServiceCostsSheet(externalServiceCosts, createSheet(workbook,
+        createExternalServiceCostsSheet(ordersIds, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.externalServiceCosts", locale)),
-                locale);
+                stylesContainer, locale);
 
         List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, materialCosts,
                 productionCosts);
         saveOrdersBalance(entity, ordersBalance);
         createOrdersBalanceSheet(ordersBalance, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance", locale)),
-                locale);
+                stylesContainer, locale);
 
         List<OrderBalance> componentsBalance = productionBalanceRepository.getComponentsBalance(entity, ordersIds, ordersBalance);
         createOrdersBalanceSheet(componentsBalance, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.componentsBalance", locale)),
-                locale);
+                stylesContainer, locale);
 
         List<OrderBalance> productsBalance = productionBalanceRepository.getProductsBalance(entity, ordersIds, componentsBalance);
         createProductsBalanceSheet(productsBalance, createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.productsBalance", locale)),
-                locale);
+                stylesContainer, locale);
     }
 
+    private Sheet createSheet(final Workbook workbook, final String sheetName) {
+        Sheet sheet = workbook.createSheet(WorkbookUtil.createSafeSheetName(sheetName));
 
-    private void createOrderProductsSheet(final List<OrderProduct> orderProducts, final HSSFSheet sheet, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+        if (sheet instanceof SXSSFSheet) {
+            ((SXSSFSheet) sheet).trackAllColumnsForAutoSizing();
+        }
+
+        return sheet;
+    }
 
-        HSSFRow headerRow = sheet.createRow(0);
+    private Row createNextRow(final Sheet sheet) {
+        return sheet.createRow(sheet.getLastRowNum() + 1);
+    }
+
+    private void createOrderProductsSheet(final List<Long> ordersIds, final Sheet sheet, final StylesContainer stylesContainer,
+            final Locale locale) {
+        Row headerRow = sheet.createRow(0);
 
         int columnIndex = 0;
 
@@ -178,10 +187,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             columnIndex++;
         }
 
-        int rowIndex = 1;
-
-        for (OrderProduct op : orderProducts) {
-            HSSFRow row = sheet.createRow(rowIndex);
+        productionBalanceRepository.streamOrderProducts(ordersIds, op -> {
+            Row row = createNextRow(sheet);
 
             createRegularCell(stylesContainer, row, 0, op.getOrderNumber());
 
@@ -197,9 +204,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 5, op.getProducedQuantity(), true);
             createNumericCell(stylesContainer, row, 6, op.getDeviation(), false);
             createRegularCell(stylesContainer, row, 7, op.getProductUnit());
-
-            rowIndex++;
-        }
+        });
 
         for (int i = 0; i <= 7; i++) {
             sheet.autoSizeColumn(i, false);
@@ -354,18 +359,27 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         return orders.stream().map(Entity::getId).collect(Collectors.toList());
     }
 
-    private void createProducedQuantitiesSheet(final HSSFSheet sheet, final List<Long> ordersIds, final StylesContainer stylesContainer) {
-        List<ProducedQuantity> producedQuantities = productionBalanceRepository.getProducedQuantities(ordersIds);
+    private void createProducedQuantitiesSheet(final Sheet sheet, final List<Long> ordersIds, final StylesContainer stylesContainer,
+            final Locale locale) {
+        Row headerRow = sheet.createRow(0);
 
-        int rowIndex = 1;
+        int columnIndex = 0;
 
-        for (ProducedQuantity producedQuantity : producedQuantities) {
-            HSSFRow row = sheet.createRow(rowIndex);
+        for (String key : PRODUCED_QUANTITIES_HEADERS) {
+            createHeaderCell(stylesContainer, headerRow,
+                    translationService.translate("productionCounting.productionBalance.report.xls.header." + key, locale),
+                    columnIndex);
+
+            columnIndex++;
+        }
+
+        productionBalanceRepository.streamProducedQuantities(ordersIds, producedQuantity -> {
+            Row row = createNextRow(sheet);
 
             createRegularCell(stylesContainer, row, 0, producedQuantity.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, producedQuantity.getProductNumber());
             createRegularCell(stylesContainer, row, 2, producedQuantity.getProductName());
-            createRegularCell(stylesContainer, row, 3, toYesOrNoFromString(producedQuantity.getAdditionalFinalProducts(), LocaleContextHolder.getLocale()));
+            createRegularCell(stylesContainer, row, 3, toYesOrNoFromString(producedQuantity.getAdditionalFinalProducts(), locale));
             createNumericCell(stylesContainer, row, 4, producedQuantity.getPlannedQuantity(), false);
             createNumericCell(stylesContainer, row, 5, producedQuantity.getProducedQuantity(), true);
             createNumericCell(stylesContainer, row, 6, producedQuantity.getWastesQuantity(), false);
@@ -373,22 +387,18 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 8, producedQuantity.getProducedWastes(), false);
             createNumericCell(stylesContainer, row, 9, producedQuantity.getDeviation(), false);
             createRegularCell(stylesContainer, row, 10, producedQuantity.getProductUnit());
-
-            rowIndex++;
-        }
+        });
 
         for (int i = 0; i < PRODUCED_QUANTITIES_HEADERS.size(); i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createMaterialCostsSheet(final List<MaterialCost> materialCosts, final HSSFSheet sheet, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-
+    private void createMaterialCostsSheet(final List<MaterialCost> materialCosts, final Sheet sheet,
+            final StylesContainer stylesContainer, final Locale locale) {
         final int rowOffset = 1;
 
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
 
         createHeaderCell(stylesContainer, row,
                 translationService
@@ -475,28 +485,20 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createPieceworkSheet(final HSSFSheet sheet, final List<Long> ordersIds, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    private void createPieceworkSheet(final Sheet sheet, final List<Long> ordersIds, final StylesContainer stylesContainer,
+            final Locale locale) {
+        Row headerRow = sheet.createRow(0);
 
-        final int rowOffset = 1;
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(PieceworkSheetConstants.ORDER_NUMBER, locale), 0);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(PieceworkSheetConstants.OPERATION_NUMBER, locale), 1);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.worker", locale), 2);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.producedQuantity", locale), 3);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.pieceRate", locale), 4);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.rate", locale), 5);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.cost", locale), 6);
 
-        HSSFRow row = sheet.createRow(0);
-
-        createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.ORDER_NUMBER, locale), 0);
-        createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.OPERATION_NUMBER, locale), 1);
-        createHeaderCell(stylesContainer, row, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.worker", locale), 2);
-        createHeaderCell(stylesContainer, row, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.producedQuantity", locale), 3);
-        createHeaderCell(stylesContainer, row, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.pieceRate", locale), 4);
-        createHeaderCell(stylesContainer, row, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.rate", locale), 5);
-        createHeaderCell(stylesContainer, row, translationService.translate("productionCounting.productionBalance.report.xls.sheet.piecework.cost", locale), 6);
-
-        List<PieceworkDetails> pieceworkDetailsList = productionBalanceRepository.getPieceworkDetails(ordersIds);
-
-        int rowCounter = 0;
-
-        for (PieceworkDetails pieceworkDetails : pieceworkDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
+        productionBalanceRepository.streamPieceworkDetails(ordersIds, pieceworkDetails -> {
+            Row row = createNextRow(sheet);
 
             createRegularCell(stylesContainer, row, 0, pieceworkDetails.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, pieceworkDetails.getOperationNumber());
@@ -505,78 +507,68 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createRegularCell(stylesContainer, row, 4, pieceworkDetails.getPieceRate());
             createNumericCell(stylesContainer, row, 5, pieceworkDetails.getRate(), false);
             createNumericCell(stylesContainer, row, 6, pieceworkDetails.getCost(), false);
-
-            rowCounter++;
-        }
+        });
 
         for (int i = 0; i <= 6; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createStoppagesSheet(final HSSFSheet sheet, final List<Long> ordersIds, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    private void createStoppagesSheet(final Sheet sheet, final List<Long> ordersIds, final StylesContainer stylesContainer,
+            final Locale locale) {
+        Row headerRow = sheet.createRow(0);
 
-        final int rowOffset = 1;
-
-        HSSFRow row = sheet.createRow(0);
-
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.orderNumber", locale),
                 0);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.productionTrackingNumber", locale),
                 1);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.productionTrackingState", locale),
                 2);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.duration", locale),
                 3);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.dateFrom", locale),
                 4);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.dateTo", locale),
                 5);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService.
                         translate("productionCounting.productionBalance.report.xls.sheet.stoppages.reason", locale),
                 6);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.description", locale),
                 7);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.division", locale),
                 8);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.productionLine", locale),
                 9);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.workstation", locale),
                 10);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.stoppages.worker", locale),
                 11);
 
-        List<Stoppage> stoppages = productionBalanceRepository.getStoppages(ordersIds);
-
-        int rowCounter = 0;
-
-        for (Stoppage stoppage : stoppages) {
-            row = sheet.createRow(rowOffset + rowCounter);
+        productionBalanceRepository.streamStoppages(ordersIds, stoppage -> {
+            Row row = createNextRow(sheet);
 
             createRegularCell(stylesContainer, row, 0, stoppage.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, stoppage.getProductionTrackingNumber());
@@ -593,38 +585,28 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createRegularCell(stylesContainer, row, 9, stoppage.getProductionLine());
             createRegularCell(stylesContainer, row, 10, stoppage.getWorkstation());
             createRegularCell(stylesContainer, row, 11, stoppage.getWorker());
-
-            rowCounter++;
-        }
+        });
 
         for (int i = 0; i <= 11; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createLaborTimeSheet(final HSSFSheet sheet, final List<Long> ordersIds, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-
-        final int rowOffset = 1;
-
-        HSSFRow row = sheet.createRow(0);
+    private void createLaborTimeSheet(final Sheet sheet, final List<Long> ordersIds, final StylesContainer stylesContainer,
+            final Locale locale) {
+        Row headerRow = sheet.createRow(0);
 
-        createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.ORDER_NUMBER, locale), 0);
-        createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.OPERATION_NUMBER, locale), 1);
-        createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.STAFF_NUMBER, locale), 2);
-        createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.STAFF_NAME, locale), 3);
-        createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.STAFF_SURNAME, locale), 4);
-        createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.WAGE_GROUP_NAME, locale), 5);
-        createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.STAFF_LABOR_HOURLY_COST, locale), 6);
-        createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.LABOR_TIME, locale), 7);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(LaborTimeSheetConstants.ORDER_NUMBER, locale), 0);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(LaborTimeSheetConstants.OPERATION_NUMBER, locale), 1);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(LaborTimeSheetConstants.STAFF_NUMBER, locale), 2);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(LaborTimeSheetConstants.STAFF_NAME, locale), 3);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(LaborTimeSheetConstants.STAFF_SURNAME, locale), 4);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(LaborTimeSheetConstants.WAGE_GROUP_NAME, locale), 5);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(LaborTimeSheetConstants.STAFF_LABOR_HOURLY_COST, locale), 6);
+        createHeaderCell(stylesContainer, headerRow, translationService.translate(LaborTimeSheetConstants.LABOR_TIME, locale), 7);
 
-        List<LaborTime> laborTimeList = productionBalanceRepository.getLaborTime(ordersIds);
-
-        int rowCounter = 0;
-
-        for (LaborTime laborTime : laborTimeList) {
-            row = sheet.createRow(rowOffset + rowCounter);
+        productionBalanceRepository.streamLaborTime(ordersIds, laborTime -> {
+            Row row = createNextRow(sheet);
 
             createRegularCell(stylesContainer, row, 0, laborTime.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, laborTime.getOperationNumber());
@@ -634,132 +616,124 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createRegularCell(stylesContainer, row, 5, laborTime.getWageGroupName());
             createNumericCell(stylesContainer, row, 6, laborTime.getStaffLaborHourlyCost(), false);
             createTimeCell(stylesContainer, row, 7, laborTime.getLaborTime(), false);
-
-            rowCounter++;
-        }
+        });
 
         for (int i = 0; i <= 7; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createLaborTimeDetailsSheet(final List<LaborTimeDetails> laborTimeDetailsList, final HSSFSheet sheet, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-
-        final int rowOffset = 1;
-
-        HSSFRow row = sheet.createRow(0);
+    private void createLaborTimeDetailsSheet(final Entity entity, final List<Long> ordersIds, final Sheet sheet,
+            final StylesContainer stylesContainer, final Locale locale) {
+        Row headerRow = sheet.createRow(0);
 
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.divisionNumber", locale),
                 0);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.productionLineNumber", locale),
                 1);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.orderNumber", locale),
                 2);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.orderState", locale),
                 3);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.plannedDateFrom", locale),
                 4);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.effectiveDateFrom", locale),
                 5);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.plannedDateTo", locale),
                 6);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.effectiveDateTo", locale),
                 7);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.productNumber", locale),
                 8);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.orderName", locale),
                 9);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.plannedQuantity", locale),
                 10);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.amountOfProductProduced", locale),
                 11);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.staffNumber", locale),
                 12);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.staffName", locale),
                 13);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.staffSurname", locale),
                 14);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.operationNumber", locale),
                 15);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.timeRangeFrom", locale),
                 16);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.timeRangeTo", locale),
                 17);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.shiftName", locale),
                 18);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.createDate", locale),
                 19);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.laborTime", locale),
                 20);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.plannedLaborTime", locale),
                 21);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.laborTimeDeviation", locale),
                 22);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.machineTime", locale),
                 23);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.plannedMachineTime", locale),
                 24);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.machineTimeDeviation", locale),
                 25);
 
-        int rowCounter = 0;
-
-        for (LaborTimeDetails laborTimeDetails : laborTimeDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
+        productionBalanceRepository.streamLaborTimeDetails(entity, ordersIds, laborTimeDetails -> {
+            Row row = createNextRow(sheet);
 
             createRegularCell(stylesContainer, row, 0, laborTimeDetails.getDivisionNumber());
             createRegularCell(stylesContainer, row, 1, laborTimeDetails.getProductionLineNumber());
@@ -788,22 +762,18 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createTimeCell(stylesContainer, row, 23, laborTimeDetails.getMachineTime(), false);
             createTimeCell(stylesContainer, row, 24, laborTimeDetails.getPlannedMachineTime(), false);
             createTimeCell(stylesContainer, row, 25, laborTimeDetails.getMachineTimeDeviation(), false);
-
-            rowCounter++;
-        }
+        });
 
         for (int i = 0; i <= 25; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createProductionCostsSheet(final List<ProductionCost> productionCosts, final HSSFSheet sheet, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-
+    private void createProductionCostsSheet(final List<ProductionCost> productionCosts, final Sheet sheet,
+            final StylesContainer stylesContainer, final Locale locale) {
         final int rowOffset = 1;
 
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
 
         createHeaderCell(stylesContainer, row,
                 translationService
@@ -930,90 +900,71 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createAdditionalCostsSheet(final List<AdditionalCost> additionalCosts, final HSSFSheet sheet, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    private void createAdditionalCostsSheet(final List<Long> ordersIds, final Sheet sheet, final StylesContainer stylesContainer,
+            final Locale locale) {
+        Row headerRow = sheet.createRow(0);
 
-        final int rowOffset = 1;
-
-        HSSFRow row = sheet.createRow(0);
-
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.additionalCosts.orderNumber", locale),
                 0);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.additionalCosts.number", locale),
                 1);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.additionalCosts.name", locale),
                 2);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.additionalCosts.actualCost", locale),
                 3);
 
-        int rowCounter = 0;
-
-        for (AdditionalCost additionalCost : additionalCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
+        productionBalanceRepository.streamAdditionalCosts(ordersIds, additionalCost -> {
+            Row row = createNextRow(sheet);
 
             createRegularCell(stylesContainer, row, 0, additionalCost.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, additionalCost.getNumber());
             createRegularCell(stylesContainer, row, 2, additionalCost.getName());
             createNumericCell(stylesContainer, row, 3, additionalCost.getActualCost(), false);
-
-            rowCounter++;
-        }
+        });
 
         for (int i = 0; i <= 3; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createExternalServiceCostsSheet(final List<ExternalServiceCost> externalServiceCosts, final HSSFSheet sheet, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    private void createExternalServiceCostsSheet(final List<Long> ordersIds, final Sheet sheet,
+            final StylesContainer stylesContainer, final Locale locale) {
+        Row headerRow = sheet.createRow(0);
 
-        final int rowOffset = 1;
-
-        HSSFRow row = sheet.createRow(0);
-
-        createHeaderCell(
-                stylesContainer, row, translationService
+        createHeaderCell(stylesContainer, headerRow, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.externalServiceCosts.orderNumber", locale),
                 0);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService.translate(
                         "productionCounting.productionBalance.report.xls.sheet.externalServiceCosts.operationNumber", locale),
                 1);
-        createHeaderCell(stylesContainer, row,
+        createHeaderCell(stylesContainer, headerRow,
                 translationService.translate(
                         "productionCounting.productionBalance.report.xls.sheet.externalServiceCosts.productNumber", locale),
                 2);
-        createHeaderCell(
-                stylesContainer, row, translationService
+        createHeaderCell(stylesContainer, headerRow, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.externalServiceCosts.unitCost", locale),
                 3);
-        createHeaderCell(
-                stylesContainer, row, translationService
+        createHeaderCell(stylesContainer, headerRow, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.externalServiceCosts.quantity", locale),
                 4);
-        createHeaderCell(
-                stylesContainer, row, translationService
+        createHeaderCell(stylesContainer, headerRow, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.externalServiceCosts.productUnit", locale),
                 5);
-        createHeaderCell(
-                stylesContainer, row, translationService
+        createHeaderCell(stylesContainer, headerRow, translationService
                         .translate("productionCounting.productionBalance.report.xls.sheet.externalServiceCosts.totalCost", locale),
                 6);
 
-        int rowCounter = 0;
-
-        for (ExternalServiceCost externalServiceCost : externalServiceCosts) {
-            row = sheet.createRow(rowOffset + rowCounter);
+        productionBalanceRepository.streamExternalServiceCosts(ordersIds, externalServiceCost -> {
+            Row row = createNextRow(sheet);
 
             createRegularCell(stylesContainer, row, 0, externalServiceCost.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, externalServiceCost.getOperationNumber());
@@ -1022,22 +973,18 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 4, externalServiceCost.getQuantity(), false);
             createRegularCell(stylesContainer, row, 5, externalServiceCost.getProductUnit());
             createNumericCell(stylesContainer, row, 6, externalServiceCost.getTotalCost(), false);
-
-            rowCounter++;
-        }
+        });
 
         for (int i = 0; i <= 6; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createOrdersBalanceSheet(final List<OrderBalance> ordersBalance, final HSSFSheet sheet, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-
+    private void createOrdersBalanceSheet(final List<OrderBalance> ordersBalance, final Sheet sheet,
+            final StylesContainer stylesContainer, final Locale locale) {
         final int rowOffset = 1;
 
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
 
         createHeaderCell(stylesContainer, row,
                 translationService
@@ -1189,13 +1136,11 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 : translationService.translate("qcadooView.false", locale);
     }
 
-    private void createProductsBalanceSheet(final List<OrderBalance> productsBalance, final HSSFSheet sheet, final Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-
+    private void createProductsBalanceSheet(final List<OrderBalance> productsBalance, final Sheet sheet,
+            final StylesContainer stylesContainer, final Locale locale) {
         final int rowOffset = 1;
 
-        HSSFRow row = sheet.createRow(0);
+        Row row = sheet.createRow(0);
 
         createHeaderCell(stylesContainer, row,
                 translationService
@@ -1332,15 +1277,15 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createRegularCell(final StylesContainer stylesContainer, final HSSFRow row, final int column, final String content) {
-        HSSFCell cell = row.createCell(column);
+    private void createRegularCell(final StylesContainer stylesContainer, final Row row, final int column, final String content) {
+        Cell cell = row.createCell(column);
 
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.regularStyle, HorizontalAlignment.LEFT));
     }
 
-    private void createNumericCell(final StylesContainer stylesContainer, final HSSFRow row, final int column, final BigDecimal value, final boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private void createNumericCell(final StylesContainer stylesContainer, final Row row, final int column, final BigDecimal value, final boolean bold) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
 
         if (Objects.nonNull(value)) {
             cell.setCellValue(numberService.setScaleWithDefaultMathContext(value, 2).doubleValue());
@@ -1353,8 +1298,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createTimeCell(final StylesContainer stylesContainer, final HSSFRow row, final int column, Integer value, final boolean bold) {
-        HSSFCell cell = row.createCell(column, HSSFCell.CELL_TYPE_NUMERIC);
+    private void createTimeCell(final StylesContainer stylesContainer, final Row row, final int column, Integer value, final boolean bold) {
+        Cell cell = row.createCell(column, Cell.CELL_TYPE_NUMERIC);
 
         if (Objects.isNull(value)) {
             value = 0;
@@ -1373,8 +1318,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createDateTimeCell(final StylesContainer stylesContainer, final HSSFRow row, final int column, final Date value) {
-        HSSFCell cell = row.createCell(column);
+    private void createDateTimeCell(final StylesContainer stylesContainer, final Row row, final int column, final Date value) {
+        Cell cell = row.createCell(column);
 
         if (Objects.nonNull(value)) {
             cell.setCellValue(value);
@@ -1382,8 +1327,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createHeaderCell(final StylesContainer stylesContainer, final HSSFRow row, final String content, final int column) {
-        HSSFCell cell = row.createCell(column);
+    private void createHeaderCell(final StylesContainer stylesContainer, final Row row, final String content, final int column) {
+        Cell cell = row.createCell(column);
 
         cell.setCellValue(content);
         cell.setCellStyle(StylesContainer.aligned(stylesContainer.headerStyle, HorizontalAlignment.LEFT));
@@ -1391,23 +1336,23 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
     private static class StylesContainer {
 
-        private final HSSFCellStyle regularStyle;
+        private final CellStyle regularStyle;
 
-        private final HSSFCellStyle headerStyle;
+        private final CellStyle headerStyle;
 
-        private final HSSFCellStyle timeStyle;
+        private final CellStyle timeStyle;
 
-        private final HSSFCellStyle timeBoldStyle;
+        private final CellStyle timeBoldStyle;
 
-        private final HSSFCellStyle negativeTimeStyle;
+        private final CellStyle negativeTimeStyle;
 
-        private final HSSFCellStyle numberStyle;
+        private final CellStyle numberStyle;
 
-        private final HSSFCellStyle numberBoldStyle;
+        private final CellStyle numberBoldStyle;
 
-        private final HSSFCellStyle dateTimeStyle;
+        private final CellStyle dateTimeStyle;
 
-        StylesContainer(final HSSFWorkbook workbook, final FontsContainer fontsContainer) {
+        StylesContainer(final Workbook workbook, final FontsContainer fontsContainer) {
             regularStyle = workbook.createCellStyle();
             regularStyle.setVerticalAlignment(VerticalAlignment.CENTER);
 
@@ -1439,7 +1384,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             dateTimeStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
         }
 
-        private static HSSFCellStyle aligned(final HSSFCellStyle style, final HorizontalAlignment horizontalAlignment) {
+        private static CellStyle aligned(final CellStyle style, final HorizontalAlignment horizontalAlignment) {
             style.setAlignment(horizontalAlignment);
 
             return style;
@@ -1450,7 +1395,7 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
 
         private final Font boldFont;
 
-        FontsContainer(final HSSFWorkbook workbook) {
+        FontsContainer(final Workbook workbook) {
             boldFont = workbook.createFont();
             boldFont.setBold(true);
         }
@@ -0,0 +1,226 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.jobs.MultiTenantJobRunner;
+import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
+import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateStringValues;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchOrder;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+
+public class ProductionAnalysisAggregateServiceTest {
+
+    private static final Long L_PRODUCTION_TRACKING_ID = 7L;
+
+    private ProductionAnalysisAggregateService productionAnalysisAggregateService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private MultiTenantJobRunner multiTenantJobRunner;
+
+    @Mock
+    private DataDefinition productionAnalysisAggregateDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    @Mock
+    private Entity productionTracking;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productionAnalysisAggregateService = new ProductionAnalysisAggregateService();
+
+        ReflectionTestUtils.setField(productionAnalysisAggregateService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(productionAnalysisAggregateService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(productionAnalysisAggregateService, "multiTenantJobRunner", multiTenantJobRunner);
+
+        given(dataDefinitionService.get(ProductionCountingConstants.PLUGIN_IDENTIFIER,
+                ProductionCountingConstants.MODEL_PRODUCTION_ANALYSIS_AGGREGATE)).willReturn(productionAnalysisAggregateDD);
+        given(productionAnalysisAggregateDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.addOrder(any(SearchOrder.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+
+        given(productionTracking.getId()).willReturn(L_PRODUCTION_TRACKING_ID);
+    }
+
+    @Test
+    public void shouldAddAcceptedProductionTrackingToAggregates() {
+        // when
+        productionAnalysisAggregateService.addProductionTracking(productionTracking);
+
+        // then
+        Map<String, Object> params = verifyUpdate();
+
+        assertEquals(L_PRODUCTION_TRACKING_ID, params.get("productionTrackingId"));
+        assertEquals(1, params.get("sign"));
+    }
+
+    @Test
+    public void shouldSubtractWithdrawnProductionTrackingFromAggregates() {
+        // when
+        productionAnalysisAggregateService.subtractProductionTracking(productionTracking);
+
+        // then
+        Map<String, Object> params = verifyUpdate();
+
+        assertEquals(L_PRODUCTION_TRACKING_ID, params.get("productionTrackingId"));
+        assertEquals(-1, params.get("sign"));
+    }
+
+    @Test
+    public void shouldApplyAdditionAndSubtractionWithSameStatement() {
+        // given
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        // when
+        productionAnalysisAggregateService.addProductionTracking(productionTracking);
+        productionAnalysisAggregateService.subtractProductionTracking(productionTracking);
+
+        // then
+        verify(jdbcTemplate, times(2)).update(queryCaptor.capture(), anyMapOf(String.class, Object.class));
+
+        List<String> queries = queryCaptor.getAllValues();
+
+        assertEquals(queries.get(0), queries.get(1));
+        assertTrue(queries.get(0).contains("ON CONFLICT ((COALESCE(productionline_id, 0)), (COALESCE(shift_id, 0)), day, "
+                + "order_id, product_id) DO UPDATE"));
+        assertTrue(queries.get(0).contains("WHERE productiontracking.id = :productionTrackingId"));
+    }
+
+    @Test
+    public void shouldReconcileAggregatesOfAllTenantsWithTimeout() throws Exception {
+        // given
+        ArgumentCaptor<MultiTenantCallback> callbackCaptor = ArgumentCaptor.forClass(MultiTenantCallback.class);
+
+        // when
+        productionAnalysisAggregateService.reconcileAggregatesTrigger();
+
+        // then
+        verify(multiTenantJobRunner).runForAllTenants(eq("reconcileProductionAnalysisAggregates"), eq(60L),
+                eq(TimeUnit.MINUTES), callbackCaptor.capture());
+        verify(jdbcTemplate, never()).update(anyString(), anyMapOf(String.class, Object.class));
+
+        // when
+        callbackCaptor.getValue().invoke();
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        Map<String, Object> params = verifyUpdate(queryCaptor);
+
+        assertEquals(ProductionTrackingStateStringValues.ACCEPTED, params.get("acceptedState"));
+        assertTrue(queryCaptor.getValue().contains("WHERE productiontracking.state = :acceptedState"));
+        assertTrue(queryCaptor.getValue().contains("IS DISTINCT FROM (EXCLUDED.usedquantity"));
+    }
+
+    @Test
+    public void shouldReturnAllAggregatesWithoutLastChangeDate() {
+        // given
+        List<Entity> aggregates = Lists.newArrayList(mock(Entity.class), mock(Entity.class));
+
+        given(searchResult.getEntities()).willReturn(aggregates);
+
+        // when
+        List<Entity> result = productionAnalysisAggregateService.getAggregatesChangedSince(null);
+
+        // then
+        assertSame(aggregates, result);
+        verify(searchCriteriaBuilder, never()).add(any(SearchCriterion.class));
+        verify(searchCriteriaBuilder).addOrder(any(SearchOrder.class));
+    }
+
+    @Test
+    public void shouldReturnOnlyAggregatesChangedSinceLastChangeDate() {
+        // given
+        List<Entity> aggregates = Lists.newArrayList(mock(Entity.class));
+
+        given(searchResult.getEntities()).willReturn(aggregates);
+
+        // when
+        List<Entity> result = productionAnalysisAggregateService.getAggregatesChangedSince(new Date());
+
+        // then
+        assertSame(aggregates, result);
+        verify(searchCriteriaBuilder).add(any(SearchCriterion.class));
+        verify(searchCriteriaBuilder).addOrder(any(SearchOrder.class));
+    }
+
+    private Map<String, Object> verifyUpdate() {
+        return verifyUpdate(ArgumentCaptor.forClass(String.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> verifyUpdate(final ArgumentCaptor<String> queryCaptor) {
+        ArgumentCaptor<Map> paramsCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate).update(queryCaptor.capture(), paramsCaptor.capture());
+
+        return paramsCaptor.getValue();
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.qcadoo.mes.productionPerShift.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.qcadoo.mes.basic.ShiftExceptionService;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.joda.time.DateTime;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shifts of production lines and their work times for days, with timetable exceptions applied. Each of them is read once and
+ * then shared by all PPS generations using the calendar, also concurrent ones.
+ */
+public class PpsShiftCalendar {
+
+    private final ShiftsService shiftsService;
+
+    private final ShiftExceptionService shiftExceptionService;
+
+    private final Map<Long, List<Shift>> shiftsByProductionLine = new ConcurrentHashMap<>();
+
+    private final Map<WorkTimeKey, List<DateTimeRange>> workTimes = new ConcurrentHashMap<>();
+
+    public PpsShiftCalendar(final ShiftsService shiftsService, final ShiftExceptionService shiftExceptionService) {
+        this.shiftsService = shiftsService;
+        this.shiftExceptionService = shiftExceptionService;
+    }
+
+    public List<Shift> getShifts(final Entity productionLine) {
+        return shiftsByProductionLine.computeIfAbsent(productionLine.getId(),
+                productionLineId -> ImmutableList.copyOf(shiftsService.findAll(productionLine)));
+    }
+
+    public List<DateTimeRange> getShiftWorkDateTimes(final Entity productionLine, final Shift shift, final DateTime dateOfDay) {
+        return workTimes.computeIfAbsent(new WorkTimeKey(productionLine.getId(), shift.getId(), dateOfDay.getMillis()),
+                key -> ImmutableList.copyOf(shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay, true)));
+    }
+
+    /**
+     * Reads shifts of production line and their work times for given days in advance.
+     */
+    public void preload(final Entity productionLine, final DateTime dateFrom, final int days) {
+        DateTime dateOfDay = dateFrom.withTimeAtStartOfDay();
+
+        for (int day = 0; day < days; day++) {
+            for (Shift shift : getShifts(productionLine)) {
+                getShiftWorkDateTimes(productionLine, shift, dateOfDay);
+            }
+
+            dateOfDay = dateOfDay.plusDays(1);
+        }
+    }
+
+    private static final class WorkTimeKey {
+
+        private final Long productionLineId;
+
+        private final Long shiftId;
+
+        private final long dateOfDay;
+
+        private WorkTimeKey(final Long productionLineId, final Long shiftId, final long dateOfDay) {
+            this.productionLineId = productionLineId;
+            this.shiftId = shiftId;
+            this.dateOfDay = dateOfDay;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+
+            WorkTimeKey other = (WorkTimeKey) obj;
+
+            return new EqualsBuilder().append(productionLineId, other.productionLineId).append(shiftId, other.shiftId)
+                    .append(dateOfDay, other.dateOfDay).isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder().append(productionLineId).append(shiftId).append(dateOfDay).toHashCode();
+        }
+
+    }
+
+}
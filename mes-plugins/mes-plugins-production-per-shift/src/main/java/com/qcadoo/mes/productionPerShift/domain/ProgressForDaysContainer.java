@@ -34,6 +34,8 @@ public class ProgressForDaysContainer {
 
     private BigDecimal alreadyRegisteredQuantity = BigDecimal.ZERO;
 
+    private PpsShiftCalendar shiftCalendar;
+
     public void addError(ErrorMessage errorMessage) {
         errors.add(errorMessage);
     }
@@ -133,4 +135,12 @@ public class ProgressForDaysContainer {
     public void setPlanForOrderCompleted(boolean planForOrderCompleted) {
         this.planForOrderCompleted = planForOrderCompleted;
     }
+
+    public PpsShiftCalendar getShiftCalendar() {
+        return shiftCalendar;
+    }
+
+    public void setShiftCalendar(PpsShiftCalendar shiftCalendar) {
+        this.shiftCalendar = shiftCalendar;
+    }
 }
@@ -0,0 +1,108 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionPerShift.listeners;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
+import com.qcadoo.mes.productionPerShift.services.AutomaticPpsParametersService;
+import com.qcadoo.mes.productionPerShift.services.PpsBatchGenerationService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.GridComponent;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+@Service
+public class OrdersListListenersPPS {
+
+    @Autowired
+    private PpsBatchGenerationService ppsBatchGenerationService;
+
+    @Autowired
+    private AutomaticPpsParametersService automaticPpsParametersService;
+
+    public void regenerateProductionPerShifts(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (!automaticPpsParametersService.isAutomaticPlanForShiftOn()) {
+            view.addMessage("productionPerShift.automaticAlgorithm.error.ppsOff", ComponentState.MessageType.INFO);
+
+            return;
+        }
+
+        GridComponent ordersGrid = (GridComponent) state;
+
+        List<Entity> orders = ordersGrid.getSelectedEntities();
+
+        Map<Long, ProgressForDaysContainer> containers = ppsBatchGenerationService
+                .regenerateProductionPerShifts(orders.stream().map(Entity::getId).collect(Collectors.toList()));
+
+        if (containers.isEmpty()) {
+            view.addMessage("productionPerShift.regenerateProductionPerShifts.nothingToRegenerate",
+                    ComponentState.MessageType.INFO);
+
+            return;
+        }
+
+        List<String> regeneratedOrderNumbers = Lists.newArrayList();
+        List<String> notRegeneratedOrderNumbers = Lists.newArrayList();
+
+        for (Entity order : orders) {
+            ProgressForDaysContainer progressForDaysContainer = containers.get(order.getId());
+
+            if (Objects.isNull(progressForDaysContainer)) {
+                continue;
+            }
+
+            String orderNumber = order.getStringField(OrderFields.NUMBER);
+
+            if (progressForDaysContainer.isCalculationError()) {
+                notRegeneratedOrderNumbers.add(orderNumber);
+
+                for (ErrorMessage errorMessage : progressForDaysContainer.getErrors()) {
+                    view.addMessage(errorMessage.getMessage(), ComponentState.MessageType.FAILURE, errorMessage.getVars());
+                }
+            } else {
+                regeneratedOrderNumbers.add(orderNumber);
+            }
+        }
+
+        if (!regeneratedOrderNumbers.isEmpty()) {
+            view.addMessage("productionPerShift.regenerateProductionPerShifts.success", ComponentState.MessageType.SUCCESS,
+                    StringUtils.join(regeneratedOrderNumbers, ", "));
+        }
+        if (!notRegeneratedOrderNumbers.isEmpty()) {
+            view.addMessage("productionPerShift.regenerateProductionPerShifts.failure", ComponentState.MessageType.FAILURE,
+                    StringUtils.join(notRegeneratedOrderNumbers, ", "));
+        }
+    }
+
+}
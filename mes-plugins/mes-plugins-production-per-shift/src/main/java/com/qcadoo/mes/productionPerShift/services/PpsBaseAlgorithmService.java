@@ -13,6 +13,7 @@ import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
 import com.qcadoo.mes.productionPerShift.constants.*;
 import com.qcadoo.mes.productionPerShift.domain.DailyProgressContainer;
 import com.qcadoo.mes.productionPerShift.domain.DailyProgressKey;
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftCalendar;
 import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
 import com.qcadoo.mes.productionPerShift.domain.ShiftEfficiencyCalculationHolder;
 import com.qcadoo.model.api.DataDefinition;
@@ -29,6 +30,7 @@ import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 public abstract class PpsBaseAlgorithmService {
 
@@ -53,8 +55,6 @@ public abstract class PpsBaseAlgorithmService {
     @Autowired
     private ParameterService parameterService;
 
-    private Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords;
-
     public void generateProgressForDays(ProgressForDaysContainer progressForDaysContainer, Entity productionPerShift) {
         Entity order = productionPerShift.getBelongsToField(ProductionPerShiftFields.ORDER);
         if (progressForDaysContainer.getOrder() != null) {
@@ -75,7 +75,8 @@ public abstract class PpsBaseAlgorithmService {
             throw new IllegalStateException("No production line in order");
         }
 
-        List<Shift> shifts = shiftsService.findAll(productionLine);
+        PpsShiftCalendar shiftCalendar = getShiftCalendar(progressForDaysContainer);
+        List<Shift> shifts = shiftCalendar.getShifts(productionLine);
         if (shifts.isEmpty()) {
             progressForDaysContainer
                     .addError(new ErrorMessage("productionPerShift.automaticAlgorithm.productionLine.shiftsRequired", false,
@@ -89,7 +90,8 @@ public abstract class PpsBaseAlgorithmService {
         if (order.getBooleanField(OrderFields.FINAL_PRODUCTION_TRACKING)) {
             plannedQuantity = basicProductionCountingService.getProducedQuantityFromBasicProductionCountings(order);
         }
-        calculateRegisteredQuantity(progressForDaysContainer, productionPerShift, plannedQuantity);
+        Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords = calculateRegisteredQuantity(progressForDaysContainer,
+                productionPerShift, plannedQuantity);
 
         BigDecimal alreadyPlannedQuantity = BigDecimal.ZERO;
         List<Entity> progressForDays = Lists.newLinkedList();
@@ -104,7 +106,8 @@ public abstract class PpsBaseAlgorithmService {
 
             DailyProgressContainer dailyProgressContainer = fillDailyProgressWithShifts(progressForDaysContainer,
                     productionPerShift, order, order.getBelongsToField(OrderFields.PRODUCTION_LINE), shifts, currentDate,
-                    orderStartDate, shouldBeCorrected, progressForDays.size(), alreadyPlannedQuantity, allowIncompleteUnits);
+                    orderStartDate, shouldBeCorrected, progressForDays.size(), alreadyPlannedQuantity, allowIncompleteUnits,
+                    shiftCalendar, dailyProgressesWithTrackingRecords);
             if (dailyProgressContainer.isCalculationError()) {
                 progressForDaysContainer.setCalculationError(true);
                 return;
@@ -127,7 +130,8 @@ public abstract class PpsBaseAlgorithmService {
 
         Entity productionLine = planProductionPerShift.getBelongsToField(PlanProductionPerShiftFields.PRODUCTION_LINE);
 
-        List<Shift> shifts = shiftsService.findAll(productionLine);
+        PpsShiftCalendar shiftCalendar = getShiftCalendar(progressForDaysContainer);
+        List<Shift> shifts = shiftCalendar.getShifts(productionLine);
         if (shifts.isEmpty()) {
             progressForDaysContainer
                     .addError(new ErrorMessage("productionPerShift.automaticAlgorithm.productionLine.shiftsRequired", false,
@@ -150,7 +154,7 @@ public abstract class PpsBaseAlgorithmService {
         while (progressForDaysContainer.getPlannedQuantity().compareTo(BigDecimal.ZERO) > 0) {
             DailyProgressContainer dailyProgressContainer = fillDailyProgressWithShifts(progressForDaysContainer,
                     planProductionPerShift, order, productionLine, shifts, currentDate, startDate, shouldBeCorrected,
-                    progressForDays.size(), alreadyPlannedQuantity, allowIncompleteUnits);
+                    progressForDays.size(), alreadyPlannedQuantity, allowIncompleteUnits, shiftCalendar, null);
             if (dailyProgressContainer.isCalculationError()) {
                 progressForDaysContainer.setCalculationError(true);
                 return;
@@ -171,7 +175,8 @@ public abstract class PpsBaseAlgorithmService {
     private DailyProgressContainer fillDailyProgressWithShifts(ProgressForDaysContainer progressForDaysContainer,
                                                                Entity productionPerShift, Entity order, Entity productionLine, List<Shift> shifts, DateTime dateOfDay, Date orderStartDate,
                                                                boolean shouldBeCorrected, int progressForDayQuantity, BigDecimal alreadyPlannedQuantity,
-                                                               boolean allowIncompleteUnits) {
+                                                               boolean allowIncompleteUnits, PpsShiftCalendar shiftCalendar,
+                                                               Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords) {
         DailyProgressContainer dailyProgressContainer = new DailyProgressContainer();
         List<Entity> dailyProgressWithShifts = Lists.newLinkedList();
 
@@ -204,8 +209,7 @@ public abstract class PpsBaseAlgorithmService {
                 DateTime orderStartDateDT = new DateTime(orderStartDate, DateTimeZone.getDefault());
                 BigDecimal shiftEfficiency = BigDecimal.ZERO;
                 int time = 0;
-                for (DateTimeRange range : shiftExceptionService
-                        .getShiftWorkDateTimes(productionLine, shift, dateOfDay, true)) {
+                for (DateTimeRange range : shiftCalendar.getShiftWorkDateTimes(productionLine, shift, dateOfDay)) {
                     if (orderStartDate.after(dateOfDay.toDate())) {
                         range = range.trimBefore(orderStartDateDT);
                     }
@@ -268,8 +272,17 @@ public abstract class PpsBaseAlgorithmService {
         return progressForDay;
     }
 
-    private void calculateRegisteredQuantity(final ProgressForDaysContainer progressForDaysContainer,
+    private PpsShiftCalendar getShiftCalendar(final ProgressForDaysContainer progressForDaysContainer) {
+        if (Objects.isNull(progressForDaysContainer.getShiftCalendar())) {
+            progressForDaysContainer.setShiftCalendar(new PpsShiftCalendar(shiftsService, shiftExceptionService));
+        }
+
+        return progressForDaysContainer.getShiftCalendar();
+    }
+
+    private Map<DailyProgressKey, Entity> calculateRegisteredQuantity(final ProgressForDaysContainer progressForDaysContainer,
                                              final Entity pps, BigDecimal plannedQuantity) {
+        Map<DailyProgressKey, Entity> dailyProgressesWithTrackingRecords = null;
         BigDecimal alreadyRegisteredQuantity = progressForDaysContainer.getAlreadyRegisteredQuantity();
         if (pps != null) {
             dailyProgressesWithTrackingRecords = dailyProgressService.getDailyProgressesWithTrackingRecords(pps);
@@ -278,11 +291,10 @@ public abstract class PpsBaseAlgorithmService {
                 alreadyRegisteredQuantity = alreadyRegisteredQuantity.add(entry.getKey().getQuantity());
             }
             progressForDaysContainer.setAlreadyRegisteredQuantity(alreadyRegisteredQuantity);
-        } else {
-            dailyProgressesWithTrackingRecords = null;
         }
         progressForDaysContainer
                 .setPlannedQuantity(plannedQuantity.subtract(alreadyRegisteredQuantity, numberService.getMathContext()));
+        return dailyProgressesWithTrackingRecords;
     }
 
     protected abstract ShiftEfficiencyCalculationHolder calculateShiftEfficiency(
@@ -0,0 +1,320 @@
+package com.qcadoo.mes.productionPerShift.services;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ShiftExceptionService;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.productionPerShift.PpsTimeHelper;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftFields;
+import com.qcadoo.mes.productionPerShift.constants.ProgressForDayFields;
+import com.qcadoo.mes.productionPerShift.constants.ProgressType;
+import com.qcadoo.mes.productionPerShift.domain.PpsShiftCalendar;
+import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.exception.EntityRuntimeException;
+import com.qcadoo.model.api.search.SearchProjections;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Generates production per shifts of many orders at once. Progress for days are calculated in parallel on a bounded pool,
+ * sharing one shift calendar, and then each order is saved with its production per shift through the data definitions.
+ */
+@Service
+public class PpsBatchGenerationService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PpsBatchGenerationService.class);
+
+    private static final int L_MAX_THREADS = 4;
+
+    private static final int L_PRELOADED_DAYS = 31;
+
+    private static final String L_ORDER_ID = "orderId";
+
+    private static final String L_PRODUCTION_PER_SHIFT_ID = "productionPerShiftId";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private AutomaticPpsExecutorService automaticPpsExecutorService;
+
+    @Autowired
+    private AutomaticPpsParametersService automaticPpsParametersService;
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private ShiftExceptionService shiftExceptionService;
+
+    @Autowired
+    private PpsTimeHelper ppsTimeHelper;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    /**
+     * Regenerates production per shifts of given orders, like saving each order with generate PPS flag would. Workers get
+     * only ids and read orders and production per shifts themselves, so they see committed data - the caller mustn't have
+     * unsaved changes of these orders. Each order is saved with its production per shift in its own transaction, so hooks
+     * and validators run as usual and an invalid order doesn't roll back the others.
+     *
+     * @param orderIds
+     *            ids of orders with production lines
+     * @return progress for days containers by order id, with errors of orders which couldn't be regenerated
+     */
+    public Map<Long, ProgressForDaysContainer> regenerateProductionPerShifts(final List<Long> orderIds) {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), L_MAX_THREADS));
+
+        return regenerateProductionPerShifts(orderIds, threads, MultiTenantUtil.getCurrentTenantId());
+    }
+
+    Map<Long, ProgressForDaysContainer> regenerateProductionPerShifts(final List<Long> orderIds, final int threads,
+            final int tenantId) {
+        Map<Long, ProgressForDaysContainer> containers = Maps.newLinkedHashMap();
+
+        if (orderIds.isEmpty() || !automaticPpsParametersService.isAutomaticPlanForShiftOn()) {
+            return containers;
+        }
+
+        long start = System.currentTimeMillis();
+
+        Map<Long, Long> productionPerShiftIds = getProductionPerShiftIds(orderIds);
+        PpsShiftCalendar shiftCalendar = createShiftCalendar(productionPerShiftIds.keySet());
+
+        for (Long orderId : orderIds) {
+            if (productionPerShiftIds.containsKey(orderId)) {
+                ProgressForDaysContainer progressForDaysContainer = new ProgressForDaysContainer();
+
+                progressForDaysContainer.setShiftCalendar(shiftCalendar);
+
+                containers.put(orderId, progressForDaysContainer);
+            }
+        }
+
+        generateProgressForDays(containers, productionPerShiftIds, threads, tenantId);
+
+        for (Map.Entry<Long, ProgressForDaysContainer> entry : containers.entrySet()) {
+            Long orderId = entry.getKey();
+            ProgressForDaysContainer progressForDaysContainer = entry.getValue();
+
+            if (progressForDaysContainer.isCalculationError()) {
+                continue;
+            }
+
+            try {
+                saveProductionPerShift(orderId, productionPerShiftIds.get(orderId), progressForDaysContainer);
+            } catch (EntityRuntimeException e) {
+                e.getEntity().getGlobalErrors().forEach(progressForDaysContainer::addError);
+
+                progressForDaysContainer.setCalculationError(true);
+            }
+        }
+
+        LOG.info("Production per shifts of {} orders regenerated in {} ms", containers.size(),
+                System.currentTimeMillis() - start);
+
+        return containers;
+    }
+
+    private Map<Long, Long> getProductionPerShiftIds(final List<Long> orderIds) {
+        List<Entity> productionPerShifts = getProductionPerShiftDD().find()
+                .createAlias(ProductionPerShiftFields.ORDER, ProductionPerShiftFields.ORDER)
+                .add(SearchRestrictions.in(ProductionPerShiftFields.ORDER + ".id", orderIds))
+                .setProjection(SearchProjections.list()
+                        .add(SearchProjections.alias(SearchProjections.id(), L_PRODUCTION_PER_SHIFT_ID))
+                        .add(SearchProjections.alias(SearchProjections.field(ProductionPerShiftFields.ORDER + ".id"),
+                                L_ORDER_ID)))
+                .list().getEntities();
+
+        return productionPerShifts.stream().collect(Collectors.toMap(
+                productionPerShift -> (Long) productionPerShift.getField(L_ORDER_ID),
+                productionPerShift -> (Long) productionPerShift.getField(L_PRODUCTION_PER_SHIFT_ID), (first, second) -> first));
+    }
+
+    /**
+     * Preloads shifts and their work times of the first month in the caller's thread. The calendar keeps immutable copies
+     * only, so workers can read it concurrently.
+     */
+    private PpsShiftCalendar createShiftCalendar(final Collection<Long> orderIds) {
+        PpsShiftCalendar shiftCalendar = new PpsShiftCalendar(shiftsService, shiftExceptionService);
+
+        if (orderIds.isEmpty()) {
+            return shiftCalendar;
+        }
+
+        Map<Long, Entity> productionLines = Maps.newHashMap();
+        Date startDate = null;
+
+        for (Entity order : getOrderDD().find().add(SearchRestrictions.in("id", orderIds)).list().getEntities()) {
+            Entity productionLine = order.getBelongsToField(OrderFields.PRODUCTION_LINE);
+            Date orderStartDate = order.getDateField(OrderFields.START_DATE);
+
+            if (Objects.nonNull(productionLine)) {
+                productionLines.putIfAbsent(productionLine.getId(), productionLine);
+            }
+
+            if (Objects.nonNull(orderStartDate) && (Objects.isNull(startDate) || orderStartDate.before(startDate))) {
+                startDate = orderStartDate;
+            }
+        }
+
+        if (Objects.nonNull(startDate)) {
+            DateTime dateFrom = new DateTime(startDate).minusDays(1);
+
+            for (Entity productionLine : productionLines.values()) {
+                shiftCalendar.preload(productionLine, dateFrom, L_PRELOADED_DAYS);
+            }
+        }
+
+        return shiftCalendar;
+    }
+
+    private void generateProgressForDays(final Map<Long, ProgressForDaysContainer> containers,
+            final Map<Long, Long> productionPerShiftIds, final int threads, final int tenantId) {
+        if (containers.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, containers.size()));
+
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+
+            for (Map.Entry<Long, ProgressForDaysContainer> entry : containers.entrySet()) {
+                Long orderId = entry.getKey();
+                Long productionPerShiftId = productionPerShiftIds.get(orderId);
+                ProgressForDaysContainer progressForDaysContainer = entry.getValue();
+
+                futures.add(executorService.submit(() -> multiTenantService.doInMultiTenantContext(tenantId,
+                        () -> generateProgressForDays(orderId, productionPerShiftId, progressForDaysContainer))));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Production per shifts generation interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Production per shifts generation failed", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs in a worker thread. Order and production per shift are read here, so no entity is shared with other threads; the
+     * container is handed back to the caller only after the worker is done.
+     */
+    private void generateProgressForDays(final Long orderId, final Long productionPerShiftId,
+            final ProgressForDaysContainer progressForDaysContainer) {
+        Entity order = getOrderDD().get(orderId);
+        Entity productionPerShift = getProductionPerShiftDD().get(productionPerShiftId);
+
+        progressForDaysContainer.setShouldBeCorrected(isCorrected(order));
+        progressForDaysContainer.setOrder(order);
+
+        try {
+            automaticPpsExecutorService.generateProgressForDays(progressForDaysContainer, productionPerShift);
+        } catch (Exception ex) {
+            if (progressForDaysContainer.getErrors().isEmpty()) {
+                LOG.error("PPS generation error ", ex);
+            }
+
+            progressForDaysContainer.setCalculationError(true);
+        }
+
+        if (progressForDaysContainer.isCalculationError()) {
+            productionPerShift.getGlobalErrors().forEach(progressForDaysContainer::addError);
+        }
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void saveProductionPerShift(final Long orderId, final Long productionPerShiftId,
+            final ProgressForDaysContainer progressForDaysContainer) {
+        Entity order = getOrderDD().get(orderId);
+        Entity productionPerShift = getProductionPerShiftDD().get(productionPerShiftId);
+
+        List<Entity> progressForDays = progressForDaysContainer.getProgressForDays();
+        boolean shouldBeCorrected = progressForDaysContainer.isShouldBeCorrected();
+
+        if (!progressForDaysContainer.isPartCalculation()) {
+            Date finishDate = ppsTimeHelper.calculateOrderFinishDate(order, progressForDays);
+
+            order.setField(OrderFields.FINISH_DATE, finishDate);
+
+            if (shouldBeCorrected) {
+                order.setField(OrderFields.CORRECTED_DATE_TO, finishDate);
+            } else {
+                order.setField(OrderFields.DATE_TO, finishDate);
+            }
+
+            Entity savedOrder = order.getDataDefinition().save(order);
+
+            if (!savedOrder.isValid()) {
+                throw new EntityRuntimeException(savedOrder);
+            }
+        }
+
+        productionPerShift.setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, ProgressType.PLANNED.getStringValue());
+
+        if (shouldBeCorrected) {
+            productionPerShift.setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE, ProgressType.CORRECTED.getStringValue());
+
+            progressForDays.addAll(productionPerShift.getHasManyField(ProductionPerShiftFields.PROGRES_FOR_DAYS).stream()
+                    .filter(progressForDay -> !progressForDay.getBooleanField(ProgressForDayFields.CORRECTED))
+                    .collect(Collectors.toList()));
+        }
+
+        productionPerShift.setField(ProductionPerShiftFields.PROGRES_FOR_DAYS, progressForDays);
+
+        Entity savedProductionPerShift = productionPerShift.getDataDefinition().save(productionPerShift);
+
+        if (!savedProductionPerShift.isValid()) {
+            throw new EntityRuntimeException(savedProductionPerShift);
+        }
+    }
+
+    private boolean isCorrected(final Entity order) {
+        return OrderState.of(order).compareTo(OrderState.PENDING) != 0;
+    }
+
+    private DataDefinition getOrderDD() {
+        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER);
+    }
+
+    private DataDefinition getProductionPerShiftDD() {
+        return dataDefinitionService.get(ProductionPerShiftConstants.PLUGIN_IDENTIFIER,
+                ProductionPerShiftConstants.MODEL_PRODUCTION_PER_SHIFT);
+    }
+
+}
@@ -0,0 +1,320 @@
+package com.qcadoo.mes.productionPerShift.services;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ShiftExceptionService;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionPerShift.PpsTimeHelper;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftConstants;
+import com.qcadoo.mes.productionPerShift.constants.ProductionPerShiftFields;
+import com.qcadoo.mes.productionPerShift.constants.ProgressType;
+import com.qcadoo.mes.productionPerShift.domain.ProgressForDaysContainer;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchProjection;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+public class PpsBatchGenerationServiceTest {
+
+    private static final int L_THREADS = 2;
+
+    private static final int L_TENANT_ID = 1;
+
+    private PpsBatchGenerationService ppsBatchGenerationService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private AutomaticPpsExecutorService automaticPpsExecutorService;
+
+    @Mock
+    private AutomaticPpsParametersService automaticPpsParametersService;
+
+    @Mock
+    private ShiftsService shiftsService;
+
+    @Mock
+    private ShiftExceptionService shiftExceptionService;
+
+    @Mock
+    private PpsTimeHelper ppsTimeHelper;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    @Mock
+    private DataDefinition orderDD, productionPerShiftDD;
+
+    @Mock
+    private SearchCriteriaBuilder ordersCriteria, productionPerShiftsCriteria;
+
+    private final Map<Long, Entity> orders = Maps.newHashMap();
+
+    private final Map<Long, Entity> productionPerShifts = Maps.newHashMap();
+
+    private final Date finishDate = new Date();
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ppsBatchGenerationService = new PpsBatchGenerationService();
+
+        ReflectionTestUtils.setField(ppsBatchGenerationService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(ppsBatchGenerationService, "automaticPpsExecutorService", automaticPpsExecutorService);
+        ReflectionTestUtils.setField(ppsBatchGenerationService, "automaticPpsParametersService", automaticPpsParametersService);
+        ReflectionTestUtils.setField(ppsBatchGenerationService, "shiftsService", shiftsService);
+        ReflectionTestUtils.setField(ppsBatchGenerationService, "shiftExceptionService", shiftExceptionService);
+        ReflectionTestUtils.setField(ppsBatchGenerationService, "ppsTimeHelper", ppsTimeHelper);
+        ReflectionTestUtils.setField(ppsBatchGenerationService, "multiTenantService", multiTenantService);
+
+        given(dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER)).willReturn(orderDD);
+        given(dataDefinitionService.get(ProductionPerShiftConstants.PLUGIN_IDENTIFIER,
+                ProductionPerShiftConstants.MODEL_PRODUCTION_PER_SHIFT)).willReturn(productionPerShiftDD);
+
+        given(automaticPpsParametersService.isAutomaticPlanForShiftOn()).willReturn(true);
+
+        given(orderDD.get(any(Long.class))).willAnswer(invocation -> orders.get(invocation.getArguments()[0]));
+        given(productionPerShiftDD.get(any(Long.class)))
+                .willAnswer(invocation -> productionPerShifts.get(invocation.getArguments()[0]));
+
+        stubCriteria(orderDD, ordersCriteria);
+        stubCriteria(productionPerShiftDD, productionPerShiftsCriteria);
+
+        given(ppsTimeHelper.calculateOrderFinishDate(any(Entity.class), anyListOf(Entity.class))).willReturn(finishDate);
+
+        doAnswer(invocation -> {
+            ((MultiTenantCallback) invocation.getArguments()[1]).invoke();
+
+            return null;
+        }).when(multiTenantService).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+
+        doAnswer(invocation -> {
+            ProgressForDaysContainer progressForDaysContainer = (ProgressForDaysContainer) invocation.getArguments()[0];
+
+            progressForDaysContainer.setProgressForDays(Lists.newArrayList(mockEntity()));
+
+            return null;
+        }).when(automaticPpsExecutorService).generateProgressForDays(any(ProgressForDaysContainer.class), any(Entity.class));
+    }
+
+    private void stubCriteria(final DataDefinition dataDefinition, final SearchCriteriaBuilder criteria) {
+        given(dataDefinition.find()).willReturn(criteria);
+        given(criteria.createAlias(anyString(), anyString())).willReturn(criteria);
+        given(criteria.add(any(SearchCriterion.class))).willReturn(criteria);
+        given(criteria.setProjection(any(SearchProjection.class))).willReturn(criteria);
+    }
+
+    private void stubOrders(final Entity... givenOrders) {
+        SearchResult ordersResult = mock(SearchResult.class);
+        SearchResult productionPerShiftsResult = mock(SearchResult.class);
+
+        List<Entity> productionPerShiftRows = Lists.newArrayList();
+
+        for (Entity order : givenOrders) {
+            if (productionPerShifts.containsKey(order.getId() * 10)) {
+                Entity productionPerShiftRow = mockEntity();
+
+                given(productionPerShiftRow.getField("orderId")).willReturn(order.getId());
+                given(productionPerShiftRow.getField("productionPerShiftId")).willReturn(order.getId() * 10);
+
+                productionPerShiftRows.add(productionPerShiftRow);
+            }
+        }
+
+        given(ordersCriteria.list()).willReturn(ordersResult);
+        given(ordersResult.getEntities()).willReturn(Lists.newArrayList(givenOrders));
+        given(productionPerShiftsCriteria.list()).willReturn(productionPerShiftsResult);
+        given(productionPerShiftsResult.getEntities()).willReturn(productionPerShiftRows);
+    }
+
+    private Entity mockOrder(final Long id, final String state, final boolean withProductionPerShift) {
+        Entity order = mockEntity(id, orderDD);
+
+        stubStringField(order, OrderFields.STATE, state);
+        stubStringField(order, OrderFields.NUMBER, "O" + id);
+
+        given(orderDD.save(order)).willReturn(order);
+        given(order.isValid()).willReturn(true);
+
+        orders.put(id, order);
+
+        if (withProductionPerShift) {
+            Entity productionPerShift = mockEntity(id * 10, productionPerShiftDD);
+
+            given(productionPerShiftDD.save(productionPerShift)).willReturn(productionPerShift);
+            given(productionPerShift.isValid()).willReturn(true);
+
+            productionPerShifts.put(id * 10, productionPerShift);
+        }
+
+        return order;
+    }
+
+    @Test
+    public void shouldGenerateFromEntitiesReadInWorkersAndSaveOrdersThroughDataDefinition() {
+        // given
+        Entity pendingOrder = mockOrder(1L, OrderStateStringValues.PENDING, true);
+        Entity acceptedOrder = mockOrder(2L, OrderStateStringValues.ACCEPTED, true);
+
+        stubOrders(pendingOrder, acceptedOrder);
+
+        // when
+        Map<Long, ProgressForDaysContainer> containers = ppsBatchGenerationService
+                .regenerateProductionPerShifts(Lists.newArrayList(1L, 2L), L_THREADS, L_TENANT_ID);
+
+        // then
+        assertEquals(Lists.newArrayList(1L, 2L), Lists.newArrayList(containers.keySet()));
+        assertFalse(containers.get(1L).isCalculationError());
+        assertFalse(containers.get(1L).isShouldBeCorrected());
+        assertTrue(containers.get(2L).isShouldBeCorrected());
+
+        verify(multiTenantService, times(2)).doInMultiTenantContext(eq(L_TENANT_ID), any(MultiTenantCallback.class));
+        verify(automaticPpsExecutorService).generateProgressForDays(containers.get(1L), productionPerShifts.get(10L));
+        verify(automaticPpsExecutorService).generateProgressForDays(containers.get(2L), productionPerShifts.get(20L));
+
+        verify(pendingOrder).setField(OrderFields.FINISH_DATE, finishDate);
+        verify(pendingOrder).setField(OrderFields.DATE_TO, finishDate);
+        verify(pendingOrder, never()).setField(OrderFields.CORRECTED_DATE_TO, finishDate);
+        verify(acceptedOrder).setField(OrderFields.CORRECTED_DATE_TO, finishDate);
+        verify(acceptedOrder, never()).setField(OrderFields.DATE_TO, finishDate);
+        verify(orderDD).save(pendingOrder);
+        verify(orderDD).save(acceptedOrder);
+
+        verify(productionPerShifts.get(10L)).setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE,
+                ProgressType.PLANNED.getStringValue());
+        verify(productionPerShifts.get(20L)).setField(ProductionPerShiftFields.PLANNED_PROGRESS_TYPE,
+                ProgressType.CORRECTED.getStringValue());
+        verify(productionPerShifts.get(10L)).setField(ProductionPerShiftFields.PROGRES_FOR_DAYS,
+                containers.get(1L).getProgressForDays());
+        verify(productionPerShiftDD).save(productionPerShifts.get(10L));
+        verify(productionPerShiftDD).save(productionPerShifts.get(20L));
+    }
+
+    @Test
+    public void shouldReportErrorsOfInvalidOrderAndSaveOtherOrders() {
+        // given
+        Entity invalidOrder = mockOrder(1L, OrderStateStringValues.PENDING, true);
+        Entity validOrder = mockOrder(2L, OrderStateStringValues.PENDING, true);
+
+        Entity savedInvalidOrder = mockEntity(1L, orderDD);
+        ErrorMessage errorMessage = new ErrorMessage("orders.order.dateTo.error");
+
+        given(savedInvalidOrder.isValid()).willReturn(false);
+        given(savedInvalidOrder.getGlobalErrors()).willReturn(Lists.newArrayList(errorMessage));
+        given(orderDD.save(invalidOrder)).willReturn(savedInvalidOrder);
+
+        stubOrders(invalidOrder, validOrder);
+
+        // when
+        Map<Long, ProgressForDaysContainer> containers = ppsBatchGenerationService
+                .regenerateProductionPerShifts(Lists.newArrayList(1L, 2L), L_THREADS, L_TENANT_ID);
+
+        // then
+        assertTrue(containers.get(1L).isCalculationError());
+        assertEquals(Lists.newArrayList(errorMessage), containers.get(1L).getErrors());
+        assertFalse(containers.get(2L).isCalculationError());
+
+        verify(productionPerShiftDD, never()).save(productionPerShifts.get(10L));
+        verify(orderDD).save(validOrder);
+        verify(productionPerShiftDD).save(productionPerShifts.get(20L));
+    }
+
+    @Test
+    public void shouldNotSaveOrderWhenCalculationFailed() {
+        // given
+        Entity failingOrder = mockOrder(1L, OrderStateStringValues.PENDING, true);
+        Entity order = mockOrder(2L, OrderStateStringValues.PENDING, true);
+
+        doThrow(new IllegalStateException("No production line in order")).when(automaticPpsExecutorService)
+                .generateProgressForDays(any(ProgressForDaysContainer.class), eq(productionPerShifts.get(10L)));
+
+        stubOrders(failingOrder, order);
+
+        // when
+        Map<Long, ProgressForDaysContainer> containers = ppsBatchGenerationService
+                .regenerateProductionPerShifts(Lists.newArrayList(1L, 2L), L_THREADS, L_TENANT_ID);
+
+        // then
+        assertTrue(containers.get(1L).isCalculationError());
+        assertFalse(containers.get(2L).isCalculationError());
+
+        verify(orderDD, never()).save(failingOrder);
+        verify(productionPerShiftDD, never()).save(productionPerShifts.get(10L));
+        verify(orderDD).save(order);
+    }
+
+    @Test
+    public void shouldSkipOrdersWithoutProductionPerShift() {
+        // given
+        Entity order = mockOrder(1L, OrderStateStringValues.PENDING, true);
+        Entity orderWithoutProductionPerShift = mockOrder(3L, OrderStateStringValues.PENDING, false);
+
+        stubOrders(order, orderWithoutProductionPerShift);
+
+        // when
+        Map<Long, ProgressForDaysContainer> containers = ppsBatchGenerationService
+                .regenerateProductionPerShifts(Lists.newArrayList(1L, 3L), L_THREADS, L_TENANT_ID);
+
+        // then
+        assertEquals(Collections.singleton(1L), containers.keySet());
+
+        verify(orderDD, never()).save(orderWithoutProductionPerShift);
+    }
+
+    @Test
+    public void shouldDoNothingWhenAutomaticPlanForShiftIsOff() {
+        // given
+        given(automaticPpsParametersService.isAutomaticPlanForShiftOn()).willReturn(false);
+
+        // when
+        Map<Long, ProgressForDaysContainer> containers = ppsBatchGenerationService
+                .regenerateProductionPerShifts(Lists.newArrayList(1L), L_THREADS, L_TENANT_ID);
+
+        // then
+        assertTrue(containers.isEmpty());
+
+        verifyZeroInteractions(automaticPpsExecutorService, multiTenantService);
+    }
+
+}
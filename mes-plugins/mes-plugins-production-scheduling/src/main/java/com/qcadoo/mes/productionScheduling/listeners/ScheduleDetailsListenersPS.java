@@ -17,6 +17,7 @@ import com.qcadoo.mes.productionLines.constants.WorkstationFieldsPL;
 import com.qcadoo.mes.productionScheduling.states.ScheduleServiceMarker;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.*;
+import com.qcadoo.mes.technologies.services.WorkstationChangeoverNormService;
 import com.qcadoo.mes.timeNormsForOperations.NormService;
 import com.qcadoo.mes.timeNormsForOperations.constants.TechOperCompWorkstationTimeFields;
 import com.qcadoo.mes.timeNormsForOperations.constants.TechnologyOperationComponentFieldsTNFO;
@@ -29,10 +30,13 @@ import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FormComponent;
 import com.qcadoo.view.api.components.GridComponent;
+import org.apache.commons.lang3.tuple.Pair;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -91,6 +95,9 @@ public class ScheduleDetailsListenersPS {
     @Autowired
     private WorkstationChangeoverService workstationChangeoverService;
 
+    @Autowired
+    private WorkstationChangeoverNormService workstationChangeoverNormService;
+
     @Transactional
     public void generatePlan(final ViewDefinitionState view, final ComponentState state, final String[] args) {
         getOperations(view, state, args);
@@ -173,15 +180,24 @@ public class ScheduleDetailsListenersPS {
                                                final String[] args) {
         long startAll = System.currentTimeMillis();
         Entity schedule = ((FormComponent) state).getEntity();
+        Entity savedSchedule = schedule.getDataDefinition().get(schedule.getId());
         Map<Long, Date> workstationsFinishDates = Maps.newHashMap();
         Map<Long, Entity> workstationsPositions = Maps.newHashMap();
         Set<Long> ordersToAvoid = Sets.newHashSet();
         List<Long> positionsIds = sortPositionsForWorkstations(schedule.getId());
         Date scheduleStartTime = schedule.getDateField(ScheduleFields.START_TIME);
+
+        Map<Long, Entity> positionsById = getSchedulePositions(schedule);
+        Map<Pair<Long, Long>, List<Entity>> positionsChildren = Maps.newHashMap();
+        Map<Long, List<Entity>> ordersChildrenPositions = Maps.newHashMap();
+        getPositionsChildren(schedule.getId(), positionsById, positionsChildren, ordersChildrenPositions);
+        Map<Long, Date> operationalTasksFinishDates = getOperationalTasksMaxFinishDatesForWorkstations(scheduleStartTime);
+        Map<Long, Boolean> workstationsWithChangeoverNorms = Maps.newHashMap();
+        List<Entity> assignedPositions = Lists.newArrayList();
+        long finishLoading = System.currentTimeMillis();
+
         for (Long positionId : positionsIds) {
-            long start = System.currentTimeMillis();
-            Entity position = dataDefinitionService
-                    .get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_SCHEDULE_POSITION).get(positionId);
+            Entity position = positionsById.get(positionId);
             Entity order = position.getBelongsToField(SchedulePositionFields.ORDER);
             if (ordersToAvoid.contains(order.getId())) {
                 continue;
@@ -193,8 +209,20 @@ public class ScheduleDetailsListenersPS {
             }
             Map<Long, PositionNewData> operationWorkstationsPositionNewData = Maps.newHashMap();
 
-            boolean allMachineWorkTimesEqualsZero = getWorkstationsNewFinishDate(workstationsFinishDates, scheduleStartTime,
-                    position, workstations, operationWorkstationsPositionNewData, workstationsPositions);
+            List<Entity> children = positionsChildren.getOrDefault(Pair.of(order.getId(),
+                    position.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT).getId()),
+                    Collections.emptyList());
+            Date childrenEndTime = getChildrenMaxEndTime(savedSchedule, children);
+            Date childrenFinishDate = getChildrenMaxFinishDate(savedSchedule, children);
+            if (pluginManager.isPluginEnabled(ORDERS_FOR_SUBPRODUCTS_GENERATION)) {
+                childrenFinishDate = getLaterDate(childrenFinishDate,
+                        getChildrenMaxEndTime(savedSchedule, ordersChildrenPositions.getOrDefault(order.getId(), Collections.emptyList())));
+            }
+
+            boolean allMachineWorkTimesEqualsZero = getWorkstationsNewFinishDate(workstationsFinishDates,
+                    operationalTasksFinishDates, workstationsWithChangeoverNorms, scheduleStartTime, savedSchedule, position,
+                    workstations, childrenEndTime, childrenFinishDate, operationWorkstationsPositionNewData,
+                    workstationsPositions);
 
             if (allMachineWorkTimesEqualsZero) {
                 ordersToAvoid.add(order.getId());
@@ -205,7 +233,8 @@ public class ScheduleDetailsListenersPS {
                     .equals(schedule.getStringField(ScheduleFields.WORKSTATION_ASSIGN_CRITERION))) {
                 operationWorkstationsPositionNewData.entrySet().stream()
                         .min(Comparator.comparing(e -> e.getValue().getFinishDate()))
-                        .ifPresent(entry -> updatePositionWorkstationAndDates(entry, workstationsFinishDates, position, workstationsPositions));
+                        .ifPresent(entry -> updatePositionWorkstationAndDates(entry, workstations, workstationsFinishDates,
+                                position, workstationsPositions, assignedPositions));
             } else {
                 Map.Entry<Long, PositionNewData> firstEntry;
                 if (workstationsFinishDates.isEmpty()) {
@@ -215,21 +244,59 @@ public class ScheduleDetailsListenersPS {
                             .filter(entry -> workstationsFinishDates.containsKey(entry.getKey())).findFirst()
                             .orElse(operationWorkstationsPositionNewData.entrySet().iterator().next());
                 }
-                updatePositionWorkstationAndDates(firstEntry, workstationsFinishDates, position, workstationsPositions);
+                updatePositionWorkstationAndDates(firstEntry, workstations, workstationsFinishDates, position,
+                        workstationsPositions, assignedPositions);
             }
-            long finish = System.currentTimeMillis();
-            LOG.info("Plan for shift - workstation assignment: {}s.", (finish - start) / 1000);
+        }
+        long finishComputing = System.currentTimeMillis();
+
+        for (Entity position : assignedPositions) {
+            position.getDataDefinition().fastSave(position);
         }
         long finishAll = System.currentTimeMillis();
+        LOG.info("Plan for shift {} - workstations assignment: loading {}ms, computing {}ms, saving {}ms.",
+                schedule.getStringField(ScheduleFields.NUMBER), finishLoading - startAll, finishComputing - finishLoading,
+                finishAll - finishComputing);
         LOG.info("Plan for shift {} - workstations assignment: {}s.", schedule.getStringField(ScheduleFields.NUMBER), (finishAll - startAll) / 1000);
     }
 
-    private boolean getWorkstationsNewFinishDate(Map<Long, Date> workstationsFinishDates, Date scheduleStartTime,
-                                                 Entity position,
-                                                 List<Entity> workstations,
+    private Map<Long, Entity> getSchedulePositions(Entity schedule) {
+        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_SCHEDULE_POSITION).find()
+                .add(SearchRestrictions.belongsTo(SchedulePositionFields.SCHEDULE, schedule)).list().getEntities().stream()
+                .collect(Collectors.toMap(Entity::getId, position -> position));
+    }
+
+    private void getPositionsChildren(Long scheduleId, Map<Long, Entity> positionsById,
+                                      Map<Pair<Long, Long>, List<Entity>> positionsChildren,
+                                      Map<Long, List<Entity>> ordersChildrenPositions) {
+        String query = "SELECT sp.id, sp.order_id AS orderId, toc.parent_id AS parentTocId, o.parent_id AS parentOrderId "
+                + "FROM orders_scheduleposition sp JOIN technologies_technologyoperationcomponent toc "
+                + "ON sp.technologyoperationcomponent_id = toc.id JOIN orders_order o ON sp.order_id = o.id "
+                + "WHERE sp.schedule_id = :scheduleId ";
+
+        jdbcTemplate.query(query, new MapSqlParameterSource("scheduleId", scheduleId), (RowCallbackHandler) rs -> {
+            Entity position = positionsById.get(rs.getLong("id"));
+            long parentTocId = rs.getLong("parentTocId");
+            if (!rs.wasNull()) {
+                positionsChildren.computeIfAbsent(Pair.of(rs.getLong("orderId"), parentTocId), k -> Lists.newArrayList())
+                        .add(position);
+            } else {
+                long parentOrderId = rs.getLong("parentOrderId");
+                if (!rs.wasNull()) {
+                    ordersChildrenPositions.computeIfAbsent(parentOrderId, k -> Lists.newArrayList()).add(position);
+                }
+            }
+        });
+    }
+
+    private boolean getWorkstationsNewFinishDate(Map<Long, Date> workstationsFinishDates,
+                                                 Map<Long, Date> operationalTasksFinishDates,
+                                                 Map<Long, Boolean> workstationsWithChangeoverNorms,
+                                                 Date scheduleStartTime, Entity schedule, Entity position,
+                                                 List<Entity> workstations, Date childrenEndTime,
+                                                 Date childrenFinishDate,
                                                  Map<Long, PositionNewData> operationWorkstationsPositionNewData,
                                                  Map<Long, Entity> workstationsPositions) {
-        Entity schedule = position.getBelongsToField(SchedulePositionFields.SCHEDULE);
         Entity technologyOperationComponent = position.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT);
         BigDecimal staffFactor = normService.getStaffFactor(technologyOperationComponent, technologyOperationComponent.getIntegerField(TechnologyOperationComponentFieldsTNFO.OPTIMAL_STAFF));
         boolean allMachineWorkTimesEqualsZero = true;
@@ -254,11 +321,16 @@ public class ScheduleDetailsListenersPS {
             } else {
                 allMachineWorkTimesEqualsZero = false;
             }
-            Date finishDate = getFinishDate(workstationsFinishDates, scheduleStartTime, schedule, workstation);
-            finishDate = getFinishDateWithChildren(position, finishDate);
-            Entity previousPosition = workstationsPositions.get(workstation.getId());
-            List<Entity> workstationChangeovers = workstationChangeoverService.findWorkstationChangeoversForSchedulePosition(finishDate, workstation, position, previousPosition);
-            finishDate = getFinisDateWithChangeovers(finishDate, workstationChangeovers);
+            Date finishDate = getFinishDate(workstationsFinishDates, operationalTasksFinishDates, scheduleStartTime,
+                    schedule, workstation);
+            finishDate = getLaterDate(finishDate, childrenFinishDate);
+            List<Entity> workstationChangeovers = Collections.emptyList();
+            if (workstationsWithChangeoverNorms.computeIfAbsent(workstation.getId(),
+                    workstationId -> workstationChangeoverNormService.hasWorkstationChangeoverNorms(workstation))) {
+                Entity previousPosition = workstationsPositions.get(workstation.getId());
+                workstationChangeovers = workstationChangeoverService.findWorkstationChangeoversForSchedulePosition(finishDate, workstation, position, previousPosition);
+                finishDate = getFinisDateWithChangeovers(finishDate, workstationChangeovers);
+            }
             DateTime finishDateTime = new DateTime(finishDate);
             Entity productionLine = workstation.getBelongsToField(WorkstationFieldsPL.PRODUCTION_LINE);
             Date newStartDate = shiftsService
@@ -268,10 +340,7 @@ public class ScheduleDetailsListenersPS {
             if (schedule.getBooleanField(ScheduleFields.ADDITIONAL_TIME_EXTENDS_OPERATION)) {
                 newFinishDate = Date.from(newFinishDate.toInstant().plusSeconds(additionalTime));
             }
-            Date childrenEndTime = schedulePositionValidators.getChildrenMaxEndTime(position);
-            if (!Objects.isNull(childrenEndTime) && childrenEndTime.after(newFinishDate)) {
-                newFinishDate = childrenEndTime;
-            }
+            newFinishDate = getLaterDate(newFinishDate, childrenEndTime);
             PositionNewData positionNewData = new PositionNewData(laborWorkTime, machineWorkTime, additionalTime, newStartDate,
                     newFinishDate, workstationChangeovers);
             operationWorkstationsPositionNewData.put(workstation.getId(), positionNewData);
@@ -289,52 +358,53 @@ public class ScheduleDetailsListenersPS {
         return finishDate;
     }
 
-    private Date getFinishDateWithChildren(Entity position, Date finishDate) {
-        Date childrenEndTime = getChildrenMaxEndTime(position);
-        if (!Objects.isNull(childrenEndTime) && childrenEndTime.after(finishDate)) {
-            finishDate = childrenEndTime;
+    private Date getLaterDate(Date date, Date otherDate) {
+        if (Objects.isNull(date) || !Objects.isNull(otherDate) && otherDate.after(date)) {
+            return otherDate;
         }
-        if (pluginManager.isPluginEnabled(ORDERS_FOR_SUBPRODUCTS_GENERATION)) {
-            childrenEndTime = schedulePositionValidators.getOrdersChildrenMaxEndTime(position);
-            if (!Objects.isNull(childrenEndTime) && childrenEndTime.after(finishDate)) {
-                finishDate = childrenEndTime;
-            }
+        return date;
+    }
+
+    Date getChildrenMaxEndTime(Entity schedule, List<Entity> children) {
+        Date childrenEndTime = null;
+        for (Entity child : children) {
+            childrenEndTime = getLaterDate(childrenEndTime, getEndTimeWithAdditionalTime(schedule, child));
         }
-        return finishDate;
+        return childrenEndTime;
     }
 
-    private Date getChildrenMaxEndTime(Entity position) {
+    Date getChildrenMaxFinishDate(Entity schedule, List<Entity> children) {
         Date childrenEndTime = null;
-        Entity schedule = position.getBelongsToField(SchedulePositionFields.SCHEDULE);
         boolean includeTpz = schedule.getBooleanField(ScheduleFields.INCLUDE_TPZ);
-        List<Entity> children = schedule.getHasManyField(ScheduleFields.POSITIONS).stream()
-                .filter(e -> e.getBelongsToField(SchedulePositionFields.ORDER).getId().equals(position.getBelongsToField(SchedulePositionFields.ORDER).getId())
-                        && e.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT).getBelongsToField(TechnologyOperationComponentFields.PARENT) != null
-                        && e.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT).getBelongsToField(TechnologyOperationComponentFields.PARENT).getId()
-                        .equals(position.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT).getId())).collect(Collectors.toList());
         for (Entity child : children) {
             Entity operationComponent = child.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT);
             Date childEndTime;
             if (SPECIFIED.equals(operationComponent.getStringField(NEXT_OPERATION_AFTER_PRODUCED_TYPE))) {
                 Entity workstation = child.getBelongsToField(SchedulePositionFields.WORKSTATION);
+                if (Objects.isNull(workstation)) {
+                    continue;
+                }
                 Entity productionLine = workstation.getBelongsToField(WorkstationFieldsPL.PRODUCTION_LINE);
                 Integer machineWorkTime = getMachineWorkTime(includeTpz, child, operationComponent, workstation);
 
                 childEndTime = shiftsService.findDateToForProductionLine(child.getDateField(SchedulePositionFields.START_TIME), machineWorkTime, productionLine);
             } else {
-                if (!schedule.getBooleanField(ScheduleFields.ADDITIONAL_TIME_EXTENDS_OPERATION)) {
-                    childEndTime = Date.from(child.getDateField(SchedulePositionFields.END_TIME).toInstant().plusSeconds(child.getIntegerField(SchedulePositionFields.ADDITIONAL_TIME)));
-                } else {
-                    childEndTime = child.getDateField(SchedulePositionFields.END_TIME);
-                }
-            }
-            if (childrenEndTime == null || childEndTime.after(childrenEndTime)) {
-                childrenEndTime = childEndTime;
+                childEndTime = getEndTimeWithAdditionalTime(schedule, child);
             }
+            childrenEndTime = getLaterDate(childrenEndTime, childEndTime);
         }
         return childrenEndTime;
     }
 
+    private Date getEndTimeWithAdditionalTime(Entity schedule, Entity child) {
+        Date endTime = child.getDateField(SchedulePositionFields.END_TIME);
+        if (Objects.isNull(endTime) || schedule.getBooleanField(ScheduleFields.ADDITIONAL_TIME_EXTENDS_OPERATION)) {
+            return endTime;
+        }
+        Integer additionalTime = child.getIntegerField(SchedulePositionFields.ADDITIONAL_TIME);
+        return Date.from(endTime.toInstant().plusSeconds(Objects.isNull(additionalTime) ? 0 : additionalTime));
+    }
+
     private Integer getMachineWorkTime(boolean includeTpz, Entity child, Entity operationComponent,
                                        Entity workstation) {
         BigDecimal partialOperationComponentRuns = child.getDecimalField(SchedulePositionFields.PARTIAL_OPERATION_RUNS);
@@ -354,8 +424,8 @@ public class ScheduleDetailsListenersPS {
         return partialOperationWorkTime.getMachineWorkTime();
     }
 
-    private Date getFinishDate(Map<Long, Date> workstationsFinishDates, Date scheduleStartTime, Entity schedule,
-                               Entity workstation) {
+    private Date getFinishDate(Map<Long, Date> workstationsFinishDates, Map<Long, Date> operationalTasksFinishDates,
+                               Date scheduleStartTime, Entity schedule, Entity workstation) {
         Date finishDate;
         if (schedule.getBooleanField(ScheduleFields.SCHEDULE_FOR_BUFFER)
                 && workstation.getBooleanField(WorkstationFields.BUFFER)) {
@@ -363,8 +433,7 @@ public class ScheduleDetailsListenersPS {
         } else {
             finishDate = workstationsFinishDates.get(workstation.getId());
             if (finishDate == null) {
-                Date operationalTasksMaxFinishDate = getOperationalTasksMaxFinishDateForWorkstation(scheduleStartTime,
-                        workstation);
+                Date operationalTasksMaxFinishDate = operationalTasksFinishDates.get(workstation.getId());
                 if (operationalTasksMaxFinishDate != null) {
                     finishDate = operationalTasksMaxFinishDate;
                     workstationsFinishDates.put(workstation.getId(), finishDate);
@@ -377,30 +446,34 @@ public class ScheduleDetailsListenersPS {
         return finishDate;
     }
 
-    private Date getOperationalTasksMaxFinishDateForWorkstation(Date scheduleStartTime, Entity workstation) {
-        SearchCriteriaBuilder scb = dataDefinitionService
-                .get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_OPERATIONAL_TASK).find()
-                .add(SearchRestrictions.belongsTo(OperationalTaskFields.WORKSTATION, workstation))
-                .add(SearchRestrictions.ne(OperationalTaskFields.STATE, REJECTED));
-        Entity parameter = parameterService.getParameter();
-        if (parameter.getBooleanField(ParameterFieldsO.SKIP_FINISHED_TASKS)) {
-            scb.add(SearchRestrictions.ne(OperationalTaskFields.STATE, FINISHED));
+    private Map<Long, Date> getOperationalTasksMaxFinishDatesForWorkstations(Date scheduleStartTime) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource();
+        parameters.addValue("rejected", REJECTED);
+        parameters.addValue("scheduleStartTime", scheduleStartTime);
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT workstation_id AS workstationId, MAX(finishdate) AS finishDate FROM orders_operationaltask ");
+        query.append("WHERE workstation_id IS NOT NULL AND state <> :rejected AND finishdate > :scheduleStartTime ");
+        if (parameterService.getParameter().getBooleanField(ParameterFieldsO.SKIP_FINISHED_TASKS)) {
+            parameters.addValue("finished", FINISHED);
+            query.append("AND state <> :finished ");
         }
+        query.append("GROUP BY workstation_id");
 
-        Entity operationalTasksMaxFinishDateEntity = scb.add(SearchRestrictions.gt(OperationalTaskFields.FINISH_DATE, scheduleStartTime))
-                .setProjection(list()
-                        .add(alias(SearchProjections.max(OperationalTaskFields.FINISH_DATE), OperationalTaskFields.FINISH_DATE))
-                        .add(rowCount()))
-                .addOrder(SearchOrders.desc(OperationalTaskFields.FINISH_DATE)).setMaxResults(1).uniqueResult();
-        return operationalTasksMaxFinishDateEntity.getDateField(OperationalTaskFields.FINISH_DATE);
+        Map<Long, Date> operationalTasksFinishDates = Maps.newHashMap();
+        jdbcTemplate.query(query.toString(), parameters, (RowCallbackHandler) rs -> operationalTasksFinishDates
+                .put(rs.getLong("workstationId"), rs.getTimestamp("finishDate")));
+        return operationalTasksFinishDates;
     }
 
-    private void updatePositionWorkstationAndDates(Map.Entry<Long, PositionNewData> entry,
+    private void updatePositionWorkstationAndDates(Map.Entry<Long, PositionNewData> entry, List<Entity> workstations,
                                                    Map<Long, Date> workstationsFinishDates, Entity position,
-                                                   Map<Long, Entity> workstationsPositions) {
+                                                   Map<Long, Entity> workstationsPositions,
+                                                   List<Entity> assignedPositions) {
         PositionNewData positionNewData = entry.getValue();
+        Entity workstation = workstations.stream().filter(e -> e.getId().equals(entry.getKey())).findFirst()
+                .orElseThrow(IllegalStateException::new);
         workstationsFinishDates.put(entry.getKey(), positionNewData.getFinishDate());
-        position.setField(SchedulePositionFields.WORKSTATION, entry.getKey());
+        position.setField(SchedulePositionFields.WORKSTATION, workstation);
         position.setField(SchedulePositionFields.START_TIME, positionNewData.getStartDate());
         position.setField(SchedulePositionFields.END_TIME, positionNewData.getFinishDate());
         position.setField(SchedulePositionFields.STAFF, null);
@@ -408,8 +481,8 @@ public class ScheduleDetailsListenersPS {
         position.setField(SchedulePositionFields.MACHINE_WORK_TIME, positionNewData.getMachineWorkTime());
         position.setField(SchedulePositionFields.ADDITIONAL_TIME, positionNewData.getAdditionalTime());
         position.setField(SchedulePositionFields.CURRENT_WORKSTATION_CHANGEOVER_FOR_SCHEDULE_POSITIONS, positionNewData.getWorkstationChangeovers());
-        position = position.getDataDefinition().fastSave(position);
         workstationsPositions.put(entry.getKey(), position);
+        assignedPositions.add(position);
     }
 
     private List<Long> sortPositionsForWorkstations(Long scheduleId) {
@@ -0,0 +1,119 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionScheduling.listeners;
+
+import static com.qcadoo.testing.model.EntityTestUtils.mockEntity;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubBooleanField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubDateField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubIntegerField;
+import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.orders.constants.ScheduleFields;
+import com.qcadoo.mes.orders.constants.SchedulePositionFields;
+import com.qcadoo.mes.timeNormsForOperations.constants.TechnologyOperationComponentFieldsTNFO;
+import com.qcadoo.model.api.Entity;
+
+public class ScheduleDetailsListenersPSTest {
+
+    private static final long L_END_TIME = 1_600_000_000_000L;
+
+    private ScheduleDetailsListenersPS scheduleDetailsListenersPS;
+
+    private Entity schedule;
+
+    @Before
+    public void init() {
+        scheduleDetailsListenersPS = new ScheduleDetailsListenersPS();
+
+        schedule = mockEntity();
+        stubBooleanField(schedule, ScheduleFields.ADDITIONAL_TIME_EXTENDS_OPERATION, false);
+    }
+
+    @Test
+    public void shouldTreatMissingAdditionalTimeAsZero() {
+        // given
+        Entity child = mockPosition(new Date(L_END_TIME), null);
+
+        // when
+        Date childrenEndTime = scheduleDetailsListenersPS.getChildrenMaxEndTime(schedule, Lists.newArrayList(child));
+        Date childrenFinishDate = scheduleDetailsListenersPS.getChildrenMaxFinishDate(schedule, Lists.newArrayList(child));
+
+        // then
+        assertEquals(new Date(L_END_TIME), childrenEndTime);
+        assertEquals(new Date(L_END_TIME), childrenFinishDate);
+    }
+
+    @Test
+    public void shouldAddAdditionalTimeToLatestChildEndTime() {
+        // given
+        Entity firstChild = mockPosition(new Date(L_END_TIME), 600);
+        Entity secondChild = mockPosition(new Date(L_END_TIME + 300_000L), null);
+
+        // when
+        Date childrenEndTime = scheduleDetailsListenersPS.getChildrenMaxEndTime(schedule,
+                Lists.newArrayList(firstChild, secondChild));
+        Date childrenFinishDate = scheduleDetailsListenersPS.getChildrenMaxFinishDate(schedule,
+                Lists.newArrayList(firstChild, secondChild));
+
+        // then
+        assertEquals(new Date(L_END_TIME + 600_000L), childrenEndTime);
+        assertEquals(new Date(L_END_TIME + 600_000L), childrenFinishDate);
+    }
+
+    @Test
+    public void shouldSkipChildrenWithoutEndTime() {
+        // given
+        Entity child = mockPosition(null, 600);
+
+        // when
+        Date childrenEndTime = scheduleDetailsListenersPS.getChildrenMaxEndTime(schedule, Lists.newArrayList(child));
+        Date childrenFinishDate = scheduleDetailsListenersPS.getChildrenMaxFinishDate(schedule, Lists.newArrayList(child));
+
+        // then
+        assertNull(childrenEndTime);
+        assertNull(childrenFinishDate);
+    }
+
+    private Entity mockPosition(final Date endTime, final Integer additionalTime) {
+        Entity operationComponent = mockEntity();
+        stubStringField(operationComponent, TechnologyOperationComponentFieldsTNFO.NEXT_OPERATION_AFTER_PRODUCED_TYPE,
+                TechnologyOperationComponentFieldsTNFO.ALL);
+
+        Entity position = mockEntity();
+        stubBelongsToField(position, SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT, operationComponent);
+        stubDateField(position, SchedulePositionFields.END_TIME, endTime);
+        stubIntegerField(position, SchedulePositionFields.ADDITIONAL_TIME, additionalTime);
+        return position;
+    }
+
+}
@@ -29,6 +29,7 @@ import com.qcadoo.view.api.ViewDefinitionState;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 public interface SupplyNegotiationsService {
 
@@ -159,6 +160,14 @@ public interface SupplyNegotiationsService {
      */
     BigDecimal getPricePerUnit(final Entity offer, final Entity product);
 
+    /**
+     * Gets prices per unit of all products of given offer
+     *
+     * @param offer
+     * @return prices per unit by product id, taken from the first offer product of each product
+     */
+    Map<Long, BigDecimal> getPricesPerUnit(final Entity offer);
+
     /**
      * Gets last offer product for given supplier and product
      *
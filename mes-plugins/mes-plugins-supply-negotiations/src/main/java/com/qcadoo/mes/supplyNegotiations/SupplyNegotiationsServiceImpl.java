@@ -24,6 +24,7 @@
 package com.qcadoo.mes.supplyNegotiations;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.supplyNegotiations.constants.*;
 import com.qcadoo.mes.supplyNegotiations.states.constants.OfferStateStringValues;
 import com.qcadoo.model.api.DataDefinition;
@@ -41,6 +42,7 @@ import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 @Service
@@ -174,6 +176,22 @@ public class SupplyNegotiationsServiceImpl implements SupplyNegotiationsService
         }
     }
 
+    @Override
+    public Map<Long, BigDecimal> getPricesPerUnit(final Entity offer) {
+        Map<Long, BigDecimal> pricesPerUnit = Maps.newHashMap();
+
+        for (Entity offerProduct : offer.getHasManyField(OfferFields.OFFER_PRODUCTS).find().addOrder(SearchOrders.asc("id"))
+                .list().getEntities()) {
+            Long productId = offerProduct.getBelongsToField(OfferProductFields.PRODUCT).getId();
+
+            if (!pricesPerUnit.containsKey(productId)) {
+                pricesPerUnit.put(productId, offerProduct.getDecimalField(OfferProductFields.PRICE_PER_UNIT));
+            }
+        }
+
+        return pricesPerUnit;
+    }
+
     private Entity getOfferProduct(final Entity offer, final Entity product) {
         return offer.getHasManyField(OfferFields.OFFER_PRODUCTS).find()
                 .add(SearchRestrictions.belongsTo(OfferProductFields.PRODUCT, product)).setMaxResults(1).uniqueResult();
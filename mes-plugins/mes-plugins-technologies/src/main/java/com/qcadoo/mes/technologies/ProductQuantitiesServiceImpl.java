@@ -32,6 +32,7 @@ import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentMessage;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.mes.technologies.dto.TechnologyQuantityModel;
 import com.qcadoo.model.api.*;
 import com.qcadoo.model.api.search.JoinType;
 import com.qcadoo.model.api.search.SearchRestrictions;
@@ -63,6 +64,9 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private TechnologyQuantityModelService technologyQuantityModelService;
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -274,6 +278,17 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             }
         }
 
+        if (Objects.isNull(product)) {
+            Optional<TechnologyQuantityModel> technologyQuantityModel = technologyQuantityModelService.getModel(technology);
+
+            if (technologyQuantityModel.isPresent()) {
+                technologyQuantityModel.get().expand(givenQuantity, numberService.getMathContext(),
+                        operationProductComponentWithQuantityContainer, nonComponents, operationRuns);
+
+                return operationProductComponentWithQuantityContainer;
+            }
+        }
+
         EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
 
         Entity root = operationComponents.getRoot();
@@ -0,0 +1,248 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.TechnologyQuantityModel;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Keeps quantity models of accepted technologies. A model is compiled from the operation tree the first time the technology is
+ * expanded, and dropped when the technology changes its state.
+ */
+@Service
+public class TechnologyQuantityModelService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TechnologyQuantityModelService.class);
+
+    private static final String L_QUANTITY = "quantity";
+
+    private final Map<ModelKey, Optional<TechnologyQuantityModel>> models = new ConcurrentHashMap<>();
+
+    private final AtomicLong version = new AtomicLong();
+
+    public void invalidate(final Long technologyId) {
+        version.incrementAndGet();
+
+        models.keySet().removeIf(key -> Objects.equals(key.technologyId, technologyId));
+    }
+
+    /**
+     * Returns quantity model of the technology, or empty when the technology isn't accepted or uses products which depend on
+     * the ordered product (different products in different sizes), which have to be expanded from the entity tree.
+     */
+    public Optional<TechnologyQuantityModel> getModel(final Entity technology) {
+        if (Objects.isNull(technology.getId())
+                || !TechnologyStateStringValues.ACCEPTED.equals(technology.getStringField(TechnologyFields.STATE))) {
+            return Optional.empty();
+        }
+
+        ModelKey key = new ModelKey(MultiTenantUtil.getCurrentTenantId(), technology.getId());
+
+        Optional<TechnologyQuantityModel> model = models.get(key);
+
+        if (Objects.nonNull(model)) {
+            return model;
+        }
+
+        long currentVersion = version.get();
+
+        model = compile(technology);
+
+        if (version.get() == currentVersion) {
+            models.put(key, model);
+        }
+
+        return model;
+    }
+
+    private Optional<TechnologyQuantityModel> compile(final Entity technology) {
+        Entity technologyProduct = technology.getBelongsToField(TechnologyFields.PRODUCT);
+        EntityTree operationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+
+        TechnologyQuantityModel.Builder builder = TechnologyQuantityModel.builder();
+
+        Map<Long, Integer> operationIndexes = Maps.newHashMap();
+        Map<Long, Integer> inComponentIndexes = Maps.newHashMap();
+        Map<Long, Integer> outComponentIndexes = Maps.newHashMap();
+
+        for (Entity operationComponent : operationComponents) {
+            operationIndexes.put(operationComponent.getId(), builder.addOperation(operationComponent.getId(),
+                    operationComponent.getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE),
+                    operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE)));
+
+            for (Entity operationProductInComponent : getInComponents(operationComponent)) {
+                if (operationProductInComponent
+                        .getBooleanField(OperationProductInComponentFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES)) {
+                    return Optional.empty();
+                }
+
+                inComponentIndexes.put(operationProductInComponent.getId(),
+                        builder.addComponent(new OperationProductComponentHolder(operationProductInComponent),
+                                operationProductInComponent.getDecimalField(L_QUANTITY)));
+            }
+
+            for (Entity operationProductOutComponent : getOutComponents(operationComponent)) {
+                if (Objects.isNull(operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT))) {
+                    return Optional.empty();
+                }
+
+                outComponentIndexes.put(operationProductOutComponent.getId(),
+                        builder.addComponent(new OperationProductComponentHolder(operationProductOutComponent),
+                                operationProductOutComponent.getDecimalField(L_QUANTITY)));
+            }
+        }
+
+        Entity root = operationComponents.getRoot();
+
+        if (Objects.nonNull(root)) {
+            if (Objects.isNull(technologyProduct)) {
+                return Optional.empty();
+            }
+
+            for (Entity operationProductOutComponent : getOutComponents(root)) {
+                if (operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId()
+                        .equals(technologyProduct.getId())) {
+                    builder.addRootStep(operationIndexes.get(root.getId()),
+                            outComponentIndexes.get(operationProductOutComponent.getId()));
+
+                    break;
+                }
+            }
+
+            for (Entity child : root.getHasManyField(TechnologyOperationComponentFields.CHILDREN)) {
+                if (!addSteps(builder, child, root, operationIndexes, inComponentIndexes, outComponentIndexes)) {
+                    return Optional.empty();
+                }
+            }
+        }
+
+        LOG.debug("Technology quantity model compiled: technology = {}, operations = {}", technology.getId(),
+                operationIndexes.size());
+
+        return Optional.of(builder.build());
+    }
+
+    private boolean addSteps(final TechnologyQuantityModel.Builder builder, final Entity operationComponent,
+            final Entity previousOperationComponent, final Map<Long, Integer> operationIndexes,
+            final Map<Long, Integer> inComponentIndexes, final Map<Long, Integer> outComponentIndexes) {
+        Integer operationIndex = operationIndexes.get(operationComponent.getId());
+
+        if (Objects.isNull(operationIndex)) {
+            return false;
+        }
+
+        List<Entity> operationProductOutComponents = getOutComponents(operationComponent);
+
+        for (Entity operationProductInComponent : getInComponents(previousOperationComponent)) {
+            Entity product = operationProductInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
+
+            if (Objects.isNull(product)) {
+                continue;
+            }
+
+            for (Entity operationProductOutComponent : operationProductOutComponents) {
+                if (operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId()
+                        .equals(product.getId())) {
+                    builder.addStep(operationIndex, inComponentIndexes.get(operationProductInComponent.getId()),
+                            outComponentIndexes.get(operationProductOutComponent.getId()));
+                    builder.addNonComponent(new OperationProductComponentHolder(operationProductInComponent));
+
+                    break;
+                }
+            }
+        }
+
+        for (Entity child : operationComponent.getHasManyField(TechnologyOperationComponentFields.CHILDREN)) {
+            if (!addSteps(builder, child, operationComponent, operationIndexes, inComponentIndexes, outComponentIndexes)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private List<Entity> getInComponents(final Entity operationComponent) {
+        return operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS);
+    }
+
+    private List<Entity> getOutComponents(final Entity operationComponent) {
+        return operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS);
+    }
+
+    private static final class ModelKey {
+
+        private final int tenantId;
+
+        private final Long technologyId;
+
+        private ModelKey(final int tenantId, final Long technologyId) {
+            this.tenantId = tenantId;
+            this.technologyId = technologyId;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+
+            ModelKey other = (ModelKey) obj;
+
+            return new EqualsBuilder().append(tenantId, other.tenantId).append(technologyId, other.technologyId).isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder().append(tenantId).append(technologyId).toHashCode();
+        }
+
+    }
+
+}
@@ -0,0 +1,217 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.dto;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Booleans;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.qcadoo.model.api.BigDecimalUtils;
+
+/**
+ * Technology operation tree flattened for quantity calculation. Operations and their product components are kept in arrays, and
+ * the tree traversal is replaced by a list of steps, each scaling one operation by the ratio of a needed quantity to the
+ * quantity produced by the operation. Expanding the model performs the same arithmetic as the entity tree traversal, without
+ * touching entities.
+ */
+public final class TechnologyQuantityModel {
+
+    private static final int GIVEN_QUANTITY = -1;
+
+    private final long[] operationIds;
+
+    private final boolean[] productQuantitiesDivisible;
+
+    private final boolean[] tjDivisible;
+
+    private final int[] componentsFrom;
+
+    private final OperationProductComponentHolder[] components;
+
+    private final BigDecimal[] quantities;
+
+    private final int[] stepOperations;
+
+    private final int[] stepNeededComponents;
+
+    private final int[] stepActualComponents;
+
+    private final Set<OperationProductComponentHolder> nonComponents;
+
+    private TechnologyQuantityModel(final Builder builder) {
+        operationIds = Longs.toArray(builder.operationIds);
+        productQuantitiesDivisible = Booleans.toArray(builder.productQuantitiesDivisible);
+        tjDivisible = Booleans.toArray(builder.tjDivisible);
+        componentsFrom = Ints.toArray(builder.componentsFrom);
+        components = builder.components.toArray(new OperationProductComponentHolder[builder.components.size()]);
+        quantities = builder.quantities.toArray(new BigDecimal[builder.quantities.size()]);
+        stepOperations = Ints.toArray(builder.stepOperations);
+        stepNeededComponents = Ints.toArray(builder.stepNeededComponents);
+        stepActualComponents = Ints.toArray(builder.stepActualComponents);
+        nonComponents = ImmutableSet.copyOf(builder.nonComponents);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getOperationsCount() {
+        return operationIds.length;
+    }
+
+    /**
+     * Puts quantities of all product components needed to produce the given quantity into the container, and the number of runs
+     * of each operation into the operation runs map.
+     */
+    public void expand(final BigDecimal givenQuantity, final MathContext mathContext,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Set<OperationProductComponentHolder> nonComponents, final Map<Long, BigDecimal> operationRuns) {
+        for (int operation = 0; operation < operationIds.length; operation++) {
+            for (int component = componentsFrom[operation]; component < componentsFrom[operation + 1]; component++) {
+                operationProductComponentWithQuantityContainer.put(components[component], quantities[component]);
+            }
+
+            operationRuns.put(operationIds[operation], BigDecimal.ONE);
+        }
+
+        for (int step = 0; step < stepOperations.length; step++) {
+            int operation = stepOperations[step];
+
+            BigDecimal needed = (stepNeededComponents[step] == GIVEN_QUANTITY) ? givenQuantity
+                    : operationProductComponentWithQuantityContainer.get(components[stepNeededComponents[step]]);
+            BigDecimal actual = operationProductComponentWithQuantityContainer.get(components[stepActualComponents[step]]);
+
+            BigDecimal multiplier = needed.divide(actual, mathContext);
+
+            if (!productQuantitiesDivisible[operation]) {
+                multiplier = multiplier.setScale(0, RoundingMode.CEILING);
+            }
+
+            BigDecimal runs = multiplier;
+
+            if (!tjDivisible[operation]) {
+                runs = multiplier.setScale(0, RoundingMode.CEILING);
+            }
+
+            operationRuns.put(operationIds[operation], runs);
+
+            for (int component = componentsFrom[operation]; component < componentsFrom[operation + 1]; component++) {
+                BigDecimal quantity = BigDecimalUtils.convertNullToZero(
+                        operationProductComponentWithQuantityContainer.get(components[component])).multiply(multiplier,
+                        mathContext);
+
+                operationProductComponentWithQuantityContainer.put(components[component],
+                        quantity.setScale(5, RoundingMode.CEILING));
+            }
+        }
+
+        nonComponents.addAll(this.nonComponents);
+    }
+
+    public static final class Builder {
+
+        private final List<Long> operationIds = Lists.newArrayList();
+
+        private final List<Boolean> productQuantitiesDivisible = Lists.newArrayList();
+
+        private final List<Boolean> tjDivisible = Lists.newArrayList();
+
+        private final List<Integer> componentsFrom = Lists.newArrayList(0);
+
+        private final List<OperationProductComponentHolder> components = Lists.newArrayList();
+
+        private final List<BigDecimal> quantities = Lists.newArrayList();
+
+        private final List<Integer> stepOperations = Lists.newArrayList();
+
+        private final List<Integer> stepNeededComponents = Lists.newArrayList();
+
+        private final List<Integer> stepActualComponents = Lists.newArrayList();
+
+        private final Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        private Builder() {
+        }
+
+        /**
+         * Starts next operation, components added afterwards belong to it.
+         *
+         * @return index of the operation
+         */
+        public int addOperation(final Long operationId, final boolean productQuantitiesDivisible, final boolean tjDivisible) {
+            operationIds.add(operationId);
+            this.productQuantitiesDivisible.add(productQuantitiesDivisible);
+            this.tjDivisible.add(tjDivisible);
+            componentsFrom.add(components.size());
+
+            return operationIds.size() - 1;
+        }
+
+        /**
+         * Adds product component of the last added operation.
+         *
+         * @return index of the component
+         */
+        public int addComponent(final OperationProductComponentHolder component, final BigDecimal quantity) {
+            components.add(component);
+            quantities.add(quantity);
+            componentsFrom.set(componentsFrom.size() - 1, components.size());
+
+            return components.size() - 1;
+        }
+
+        public Builder addRootStep(final int operation, final int actualComponent) {
+            return addStep(operation, GIVEN_QUANTITY, actualComponent);
+        }
+
+        public Builder addStep(final int operation, final int neededComponent, final int actualComponent) {
+            stepOperations.add(operation);
+            stepNeededComponents.add(neededComponent);
+            stepActualComponents.add(actualComponent);
+
+            return this;
+        }
+
+        public Builder addNonComponent(final OperationProductComponentHolder nonComponent) {
+            nonComponents.add(nonComponent);
+
+            return this;
+        }
+
+        public TechnologyQuantityModel build() {
+            return new TechnologyQuantityModel(this);
+        }
+
+    }
+
+}
@@ -1,8 +1,10 @@
 package com.qcadoo.mes.technologies.export;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.jobs.MultiTenantJobRunner;
 import com.qcadoo.mes.technologies.ProductQuantitiesWithComponentsService;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
@@ -17,10 +19,9 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 import com.qcadoo.model.api.file.FileService;
-import com.qcadoo.model.api.search.SearchOrders;
-import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.tenant.api.MultiTenantCallback;
 import com.qcadoo.tenant.api.MultiTenantService;
+import com.qcadoo.tenant.api.MultiTenantUtil;
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.slf4j.Logger;
@@ -28,6 +29,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
@@ -37,6 +39,12 @@ import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 @Service
 public class TechnologyExportService {
@@ -51,6 +59,17 @@ public class TechnologyExportService {
 
     private static final String EMPTY = "";
 
+    private static final String L_ID = "id";
+
+    private static final int L_PAGE_SIZE = 100;
+
+    private static final int L_MAX_THREADS = 4;
+
+    private static final long L_TIMEOUT_HOURS = 4;
+
+    private static final String L_TECHNOLOGIES_QUERY = "SELECT technology.id, technology.state "
+            + "FROM technologies_technology technology WHERE technology.active = true ORDER BY technology.number COLLATE \"C\" LIMIT :limit OFFSET :offset";
+
     @Value("${exportedCsvSeparator:','}")
     private String exportedCsvSeparator;
 
@@ -60,6 +79,9 @@ public class TechnologyExportService {
     @Value("#{'${ftp.port:21}' == '' ? 21 : '${ftp.port:21}'}")
     private int port;
 
+    @Value("${ftp.gzip:false}")
+    private boolean gzip;
+
     @Value("${ftp.user}")
     private String user;
 
@@ -68,6 +90,9 @@ public class TechnologyExportService {
 
     private String workingDir = "/qcadoo";
 
+    @Autowired
+    private MultiTenantJobRunner multiTenantJobRunner;
+
     @Autowired
     private MultiTenantService multiTenantService;
 
@@ -92,12 +117,14 @@ public class TechnologyExportService {
     @Autowired
     private TechnologyService technologyService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public void exportTechnologiesTrigger() {
-        multiTenantService.doInMultiTenantContext(() -> {
-            if (StringUtils.hasText(server)) {
-                exportTechnologies();
-            }
-        });
+        if (StringUtils.hasText(server)) {
+            multiTenantJobRunner.runForAllTenants("exportTechnologies", L_TIMEOUT_HOURS, TimeUnit.HOURS,
+                    this::exportTechnologies);
+        }
     }
 
     public void exportTechnologies() {
@@ -105,145 +132,196 @@ public class TechnologyExportService {
         DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH_mm_ss", LocaleContextHolder.getLocale());
         String dateWithTime = dateFormat.format(exportDate);
         String date = DateFormat.getDateInstance().format(exportDate);
+        String extension = gzip ? ".csv.gz" : ".csv";
+
+        String acceptedTechnologiesFileName = "technologie_aktualne_" + dateWithTime + extension;
+        String allTechnologiesFileName = "technologie_pelna_kopia_" + dateWithTime + extension;
 
-        LOG.info("---------------------------------- START ACCEPTED ---------------------------------------------");
-        String acceptedTechnologiesFileName = "technologie_aktualne_" + dateWithTime + ".csv";
-        List<Entity> acceptedTechnologies = findAcceptedTechnologies();
-        List<TechnologyExportEntry> acceptedTechnologyEntries = prepareEntriesForTechnologies(acceptedTechnologies);
+        File acceptedTechnologiesFile = fileService.createExportFile(acceptedTechnologiesFileName);
+        File allTechnologiesFile = fileService.createExportFile(allTechnologiesFileName);
 
-        exportTechnologiesToFile(date, acceptedTechnologiesFileName, acceptedTechnologyEntries);
-        LOG.info("---------------------------------- FINISH ACCEPTED ---------------------------------------------");
+        try {
+            LOG.info("---------------------------------- START EXPORT ---------------------------------------------");
+            exportToFiles(acceptedTechnologiesFile, allTechnologiesFile, date);
+            LOG.info("---------------------------------- FINISH EXPORT --------------------------------------------");
+
+            sendFileToFtp(acceptedTechnologiesFileName, acceptedTechnologiesFile);
+            LOG.info("File sent : " + acceptedTechnologiesFile.getPath());
+            sendFileToFtp(allTechnologiesFileName, allTechnologiesFile);
+            LOG.info("File sent : " + allTechnologiesFile.getPath());
+        } finally {
+            fileService.remove(acceptedTechnologiesFile.getPath());
+            fileService.remove(allTechnologiesFile.getPath());
+        }
+    }
 
-        LOG.info("------------------------------------ START ALL -------------------------------------------------");
+    /**
+     * Writes both files in one pass over active technologies, page by page. Quantities of technologies of a page are expanded
+     * in parallel, rows are written in order of technology numbers as soon as the page is done, so only one page of entries is
+     * held in memory. Accepted technologies go to both files. Numbers are compared by code points (collation "C"), as in the
+     * full copy which was sorted in Java before, not by collation of the database.
+     */
+    void exportToFiles(final File acceptedTechnologiesFile, final File allTechnologiesFile, final String exportDate) {
+        int tenantId = getCurrentTenantId();
 
-        String allTechnologiesFileName = "technologie_pelna_kopia_" + dateWithTime + ".csv";
-        List<Entity> notAcceptedTechnologies = findNotAcceptedTechnologies();
-        List<TechnologyExportEntry> allTechnologiesEntries = prepareEntriesForTechnologies(notAcceptedTechnologies);
-        allTechnologiesEntries.addAll(acceptedTechnologyEntries);
-        allTechnologiesEntries.sort(Comparator.comparing(TechnologyExportEntry::getTechnologyNumber));
-        exportTechnologiesToFile(date, allTechnologiesFileName, allTechnologiesEntries);
-        LOG.info("-------------------------------------- FINISH ALL ----------------------------------------------");
+        ExecutorService executorService = Executors.newFixedThreadPool(getThreads());
+
+        try (BufferedWriter acceptedTechnologiesWriter = createWriter(acceptedTechnologiesFile);
+                BufferedWriter allTechnologiesWriter = createWriter(allTechnologiesFile)) {
+            int firstResult = 0;
+            List<Map<String, Object>> technologies;
+
+            do {
+                technologies = findTechnologies(firstResult);
+
+                List<Future<List<TechnologyExportEntry>>> futures = Lists.newArrayList();
+
+                for (Map<String, Object> technology : technologies) {
+                    Long technologyId = ((Number) technology.get(L_ID)).longValue();
+
+                    futures.add(executorService.submit(() -> prepareEntriesForTechnology(tenantId, technologyId)));
+                }
+
+                for (int index = 0; index < technologies.size(); index++) {
+                    boolean accepted = TechnologyStateStringValues.ACCEPTED
+                            .equals(technologies.get(index).get(TechnologyFields.STATE));
+
+                    for (TechnologyExportEntry entry : futures.get(index).get()) {
+                        createRow(entry, exportDate, allTechnologiesWriter);
+
+                        if (accepted) {
+                            createRow(entry, exportDate, acceptedTechnologiesWriter);
+                        }
+                    }
+                }
+
+                firstResult += L_PAGE_SIZE;
+            } while (technologies.size() == L_PAGE_SIZE);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Technologies export interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Technologies export failed", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
 
+        LOG.info("Files exported successfully.");
     }
 
-    private void exportTechnologiesToFile(final String exportDate, final String fileName, final  List<TechnologyExportEntry> entries) {
-        File exportFile = fileService.createExportFile(fileName);
+    private List<TechnologyExportEntry> prepareEntriesForTechnology(final int tenantId, final Long technologyId) {
+        List<TechnologyExportEntry> entries = Lists.newArrayList();
 
-        exportToFile(exportFile, entries, exportDate);
-        LOG.info("File created : " + exportFile.getPath());
-        sendFileToFtp(fileName, exportFile);
-        LOG.info("File sent : " + exportFile.getPath());
+        multiTenantService.doInMultiTenantContext(tenantId,
+                () -> entries.addAll(prepareEntriesForTechnology(getTechnologyDD().get(technologyId))));
 
-        fileService.remove(exportFile.getPath());
+        return entries;
     }
 
-    private List<TechnologyExportEntry> prepareEntriesForTechnologies(final List<Entity> technologies) {
+    private List<TechnologyExportEntry> prepareEntriesForTechnology(final Entity technology) {
         List<TechnologyExportEntry> entries = Lists.newArrayList();
 
-        for (Entity technology : technologies) {
-
-            String technologyNumber = normalizeString(technology.getStringField(TechnologyFields.NUMBER));
-            String technologyName = normalizeString(technology.getStringField(TechnologyFields.NAME));
-            String technologyState = translationService.translate(
-                    "technologies.technology.state.value." + technology.getStringField(TechnologyFields.STATE),
-                    LocaleContextHolder.getLocale());
-            String isDefaultTechnology = defaultTechnologyToString(technology.getBooleanField(TechnologyFields.MASTER));
-            String standardPerformance = numberService
-                    .format(technologyService.getStandardPerformance(technology).orElse(null));
-            String technologyStateChange = DateFormat.getDateInstance().format(productStructureTreeService
-                    .getLastTechnologyStateChange(technology).getDateField(TechnologyStateChangeFields.DATE_AND_TIME));
-            String technologyAcceptStateChange = getTechnologyAcceptStateChange(technology);
-            String technologyOutdatedStateChange = getTechnologyOutdatedStateChange(technology);
-            String technologyProduct = normalizeString(
-                    technology.getBelongsToField(TechnologyFields.PRODUCT).getStringField(ProductFields.NUMBER));
-
-            Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC = productQuantitiesWithComponentsService
-                    .getNeededProductQuantitiesByOPC(technology, BigDecimal.ONE, MrpAlgorithm.ONLY_MATERIALS);
-
-            for (Map.Entry<OperationProductComponentHolder, BigDecimal> neededProductQuantity : materialQuantitiesByOPC
-                    .entrySet()) {
-                Entity material = neededProductQuantity.getKey().getProduct();
-
-                TechnologyExportEntry entry = new TechnologyExportEntry();
-                entry.setTechnologyNumber(technologyNumber);
-                entry.setTechnologyName(technologyName);
-                entry.setTechnologyState(technologyState);
-                entry.setIsDefaultTechnology(isDefaultTechnology);
-                entry.setStandardPerformance(standardPerformance);
-                entry.setTechnologyStateChange(technologyStateChange);
-                entry.setTechnologyAcceptStateChange(technologyAcceptStateChange);
-                entry.setTechnologyOutdatedStateChange(technologyOutdatedStateChange);
-                entry.setTechnologyProduct(technologyProduct);
-                entry.setMaterialNumber(normalizeString(material.getStringField(ProductFields.NUMBER)));
-                entry.setMaterialName(normalizeString(material.getStringField(ProductFields.NAME)));
-                entry.setMaterialNeededQuantity(numberService.format(neededProductQuantity.getValue()));
-                entry.setMaterialUnit(normalizeString(material.getStringField(ProductFields.UNIT)));
-
-                entries.add(entry);
-            }
+        String technologyNumber = normalizeString(technology.getStringField(TechnologyFields.NUMBER));
+        String technologyName = normalizeString(technology.getStringField(TechnologyFields.NAME));
+        String technologyState = translationService.translate(
+                "technologies.technology.state.value." + technology.getStringField(TechnologyFields.STATE),
+                LocaleContextHolder.getLocale());
+        String isDefaultTechnology = defaultTechnologyToString(technology.getBooleanField(TechnologyFields.MASTER));
+        String standardPerformance = numberService.format(technologyService.getStandardPerformance(technology).orElse(null));
+        String technologyStateChange = DateFormat.getDateInstance().format(productStructureTreeService
+                .getLastTechnologyStateChange(technology).getDateField(TechnologyStateChangeFields.DATE_AND_TIME));
+        String technologyAcceptStateChange = getTechnologyAcceptStateChange(technology);
+        String technologyOutdatedStateChange = getTechnologyOutdatedStateChange(technology);
+        String technologyProduct = normalizeString(
+                technology.getBelongsToField(TechnologyFields.PRODUCT).getStringField(ProductFields.NUMBER));
+
+        Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC = productQuantitiesWithComponentsService
+                .getNeededProductQuantitiesByOPC(technology, BigDecimal.ONE, MrpAlgorithm.ONLY_MATERIALS);
+
+        for (Map.Entry<OperationProductComponentHolder, BigDecimal> neededProductQuantity : materialQuantitiesByOPC.entrySet()) {
+            Entity material = neededProductQuantity.getKey().getProduct();
+
+            TechnologyExportEntry entry = new TechnologyExportEntry();
+            entry.setTechnologyNumber(technologyNumber);
+            entry.setTechnologyName(technologyName);
+            entry.setTechnologyState(technologyState);
+            entry.setIsDefaultTechnology(isDefaultTechnology);
+            entry.setStandardPerformance(standardPerformance);
+            entry.setTechnologyStateChange(technologyStateChange);
+            entry.setTechnologyAcceptStateChange(technologyAcceptStateChange);
+            entry.setTechnologyOutdatedStateChange(technologyOutdatedStateChange);
+            entry.setTechnologyProduct(technologyProduct);
+            entry.setMaterialNumber(normalizeString(material.getStringField(ProductFields.NUMBER)));
+            entry.setMaterialName(normalizeString(material.getStringField(ProductFields.NAME)));
+            entry.setMaterialNeededQuantity(numberService.format(neededProductQuantity.getValue()));
+            entry.setMaterialUnit(normalizeString(material.getStringField(ProductFields.UNIT)));
+
+            entries.add(entry);
         }
 
-
         return entries;
     }
 
-    private void exportToFile(final File file, List<TechnologyExportEntry> entries, final String exportDate) {
+    private BufferedWriter createWriter(final File file) throws IOException {
         LOG.info("Start export file: " + file.getName());
 
-        try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
-            fileOutputStream.write(239);
-            fileOutputStream.write(187);
-            fileOutputStream.write(191);
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file));
 
-            try (BufferedWriter bufferedWriter = new BufferedWriter(
-                    new OutputStreamWriter(fileOutputStream, StandardCharsets.UTF_8))) {
-                createHeader(bufferedWriter);
-
-                createRows(entries, exportDate, bufferedWriter);
+        try {
+            if (gzip) {
+                outputStream = new GZIPOutputStream(outputStream);
             }
+
+            outputStream.write(239);
+            outputStream.write(187);
+            outputStream.write(191);
+
+            BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+
+            createHeader(bufferedWriter);
+
+            return bufferedWriter;
         } catch (IOException e) {
-            throw new IllegalStateException(e.getMessage(), e);
-        }
+            outputStream.close();
 
-        LOG.info("The file exported successfully.");
+            throw e;
+        }
     }
 
-    private void createRows(List<TechnologyExportEntry> entries, final String exportDate, final BufferedWriter bufferedWriter)
+    private void createRow(final TechnologyExportEntry entry, final String exportDate, final BufferedWriter bufferedWriter)
             throws IOException {
-        for (TechnologyExportEntry entry : entries) {
-                bufferedWriter.append(BACKSLASH).append(entry.getTechnologyNumber()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getTechnologyName()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getTechnologyState()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getIsDefaultTechnology()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getStandardPerformance()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getTechnologyStateChange()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getTechnologyAcceptStateChange()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getTechnologyOutdatedStateChange()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getTechnologyProduct()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getMaterialNumber())
-                        .append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getMaterialName())
-                        .append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getMaterialNeededQuantity()).append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(entry.getMaterialUnit())
-                        .append(BACKSLASH);
-                bufferedWriter.append(exportedCsvSeparator);
-                bufferedWriter.append(BACKSLASH).append(exportDate).append(BACKSLASH);
-
-                bufferedWriter.append(NEWLINE);
-        }
+        bufferedWriter.append(BACKSLASH).append(entry.getTechnologyNumber()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getTechnologyName()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getTechnologyState()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getIsDefaultTechnology()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getStandardPerformance()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getTechnologyStateChange()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getTechnologyAcceptStateChange()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getTechnologyOutdatedStateChange()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getTechnologyProduct()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getMaterialNumber()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getMaterialName()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getMaterialNeededQuantity()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(entry.getMaterialUnit()).append(BACKSLASH);
+        bufferedWriter.append(exportedCsvSeparator);
+        bufferedWriter.append(BACKSLASH).append(exportDate).append(BACKSLASH);
+
+        bufferedWriter.append(NEWLINE);
     }
 
     private String getTechnologyOutdatedStateChange(final Entity technology) {
@@ -398,20 +476,21 @@ public class TechnologyExportService {
         }
     }
 
-    private List<Entity> findAcceptedTechnologies() {
-        return getTechnologyDD().find()
-                .add(SearchRestrictions.eq(TechnologyFields.STATE, TechnologyStateStringValues.ACCEPTED))
-                .add(SearchRestrictions.eq(TechnologyFields.ACTIVE, true))
-                .addOrder(SearchOrders.asc(TechnologyFields.NUMBER))
-                .list().getEntities();
+    private List<Map<String, Object>> findTechnologies(final int firstResult) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("limit", L_PAGE_SIZE);
+        params.put("offset", firstResult);
+
+        return jdbcTemplate.queryForList(L_TECHNOLOGIES_QUERY, params);
+    }
+
+    int getThreads() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), L_MAX_THREADS));
     }
 
-    private List<Entity> findNotAcceptedTechnologies() {
-        return getTechnologyDD().find()
-                .add(SearchRestrictions.ne(TechnologyFields.STATE, TechnologyStateStringValues.ACCEPTED))
-                .add(SearchRestrictions.eq(TechnologyFields.ACTIVE, true))
-                .addOrder(SearchOrders.asc(TechnologyFields.NUMBER))
-                .list().getEntities();
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
     }
 
     private DataDefinition getTechnologyDD() {
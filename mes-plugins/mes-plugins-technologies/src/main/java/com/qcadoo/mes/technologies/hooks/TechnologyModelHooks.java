@@ -29,6 +29,7 @@ import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.states.constants.TechnologyState;
 import com.qcadoo.mes.technologies.states.constants.TechnologyStateChangeDescriber;
+import com.qcadoo.mes.technologies.tree.ProductStructureTreeCache;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -59,6 +60,9 @@ public class TechnologyModelHooks {
     @Autowired
     private TreeNumberingService treeNumberingService;
 
+    @Autowired
+    private ProductStructureTreeCache productStructureTreeCache;
+
     public void onCreate(final DataDefinition technologyDD, final Entity technology) {
         setInitialState(technology);
     }
@@ -81,6 +85,8 @@ public class TechnologyModelHooks {
 
         setNewMasterTechnology(technologyDD, technology);
         qualityCardChange(technologyDD, technology);
+
+        productStructureTreeCache.invalidate();
     }
 
     public void onUpdate(final DataDefinition technologyDD, final Entity technology) {
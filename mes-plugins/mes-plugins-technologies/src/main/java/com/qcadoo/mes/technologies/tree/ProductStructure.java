@@ -0,0 +1,317 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Multi-level structure of a technology - its operations, their input and output products and, recursively, default
+ * technologies of input products - indexed by ids. Loaded at once by {@link ProductStructureLoader}, replaces finds made for
+ * each operation and product while the product structure tree is generated or checked.
+ */
+public final class ProductStructure {
+
+    public static final class Technology {
+
+        private final Long id;
+
+        private final Long technologyGroupId;
+
+        private final Date lastStateChangeDate;
+
+        Technology(final Long id, final Long technologyGroupId, final Date lastStateChangeDate) {
+            this.id = id;
+            this.technologyGroupId = technologyGroupId;
+            this.lastStateChangeDate = lastStateChangeDate;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Long getTechnologyGroupId() {
+            return technologyGroupId;
+        }
+
+        public Date getLastStateChangeDate() {
+            return lastStateChangeDate;
+        }
+
+    }
+
+    public static final class Operation {
+
+        private final Long id;
+
+        private final Long technologyId;
+
+        private final Long parentId;
+
+        private final Long divisionId;
+
+        private final List<InputProduct> inputProducts = Lists.newArrayList();
+
+        private final Map<Long, BigDecimal> outputQuantities = Maps.newHashMap();
+
+        Operation(final Long id, final Long technologyId, final Long parentId, final Long divisionId) {
+            this.id = id;
+            this.technologyId = technologyId;
+            this.parentId = parentId;
+            this.divisionId = divisionId;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Long getTechnologyId() {
+            return technologyId;
+        }
+
+        public Long getDivisionId() {
+            return divisionId;
+        }
+
+        public List<InputProduct> getInputProducts() {
+            return inputProducts;
+        }
+
+    }
+
+    public static final class InputProduct {
+
+        private final Long id;
+
+        private final Long productId;
+
+        private final String productNumber;
+
+        private final String productName;
+
+        private final Long technologyInputProductTypeId;
+
+        private final String givenUnit;
+
+        private final BigDecimal quantity;
+
+        private final boolean differentProductsInDifferentSizes;
+
+        private final boolean variousQuantitiesInProductsBySize;
+
+        private final List<ProductBySizeGroup> productBySizeGroups = Lists.newArrayList();
+
+        InputProduct(final Long id, final Long productId, final String productNumber, final String productName,
+                final Long technologyInputProductTypeId, final String givenUnit, final BigDecimal quantity,
+                final boolean differentProductsInDifferentSizes, final boolean variousQuantitiesInProductsBySize) {
+            this.id = id;
+            this.productId = productId;
+            this.productNumber = productNumber;
+            this.productName = productName;
+            this.technologyInputProductTypeId = technologyInputProductTypeId;
+            this.givenUnit = givenUnit;
+            this.quantity = quantity;
+            this.differentProductsInDifferentSizes = differentProductsInDifferentSizes;
+            this.variousQuantitiesInProductsBySize = variousQuantitiesInProductsBySize;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public String getProductNumber() {
+            return productNumber;
+        }
+
+        public String getProductName() {
+            return productName;
+        }
+
+        public Long getTechnologyInputProductTypeId() {
+            return technologyInputProductTypeId;
+        }
+
+        public String getGivenUnit() {
+            return givenUnit;
+        }
+
+        public boolean isDifferentProductsInDifferentSizes() {
+            return differentProductsInDifferentSizes;
+        }
+
+        public boolean isVariousQuantitiesInProductsBySize() {
+            return variousQuantitiesInProductsBySize;
+        }
+
+        public List<ProductBySizeGroup> getProductBySizeGroups() {
+            return productBySizeGroups;
+        }
+
+    }
+
+    public static final class ProductBySizeGroup {
+
+        private final Long productId;
+
+        private final String productUnit;
+
+        private final Long sizeGroupId;
+
+        private final BigDecimal quantity;
+
+        ProductBySizeGroup(final Long productId, final String productUnit, final Long sizeGroupId, final BigDecimal quantity) {
+            this.productId = productId;
+            this.productUnit = productUnit;
+            this.sizeGroupId = sizeGroupId;
+            this.quantity = quantity;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public String getProductUnit() {
+            return productUnit;
+        }
+
+        public Long getSizeGroupId() {
+            return sizeGroupId;
+        }
+
+        public BigDecimal getQuantity() {
+            return quantity;
+        }
+
+    }
+
+    private final Map<Long, Technology> technologies = Maps.newHashMap();
+
+    private final Map<Long, Operation> operations = Maps.newHashMap();
+
+    private final Map<Long, InputProduct> inputProducts = Maps.newHashMap();
+
+    private final Map<Long, Map<Long, Operation>> operationsByTechnologyAndProduct = Maps.newHashMap();
+
+    private final Map<Long, Map<Long, Operation>> operationsByParentAndProduct = Maps.newHashMap();
+
+    private final Map<Long, Long> defaultTechnologyIds = Maps.newHashMap();
+
+    private final Map<Long, Optional<BigDecimal>> standardPerformances = Maps.newHashMap();
+
+    void addTechnology(final Technology technology) {
+        technologies.put(technology.id, technology);
+    }
+
+    void addOperation(final Operation operation) {
+        operations.putIfAbsent(operation.id, operation);
+    }
+
+    void addInputProduct(final Long operationId, final InputProduct inputProduct, final Long defaultTechnologyId) {
+        operations.get(operationId).inputProducts.add(inputProduct);
+        inputProducts.put(inputProduct.id, inputProduct);
+
+        if (Objects.nonNull(inputProduct.productId)) {
+            defaultTechnologyIds.put(inputProduct.productId, defaultTechnologyId);
+        }
+    }
+
+    void addOutputProduct(final Long operationId, final Long productId, final BigDecimal quantity) {
+        Operation operation = operations.get(operationId);
+
+        if (Objects.isNull(operation) || operation.outputQuantities.containsKey(productId)) {
+            return;
+        }
+
+        operation.outputQuantities.put(productId, quantity);
+
+        operationsByTechnologyAndProduct.computeIfAbsent(operation.technologyId, technologyId -> Maps.newHashMap())
+                .putIfAbsent(productId, operation);
+
+        if (Objects.nonNull(operation.parentId)) {
+            operationsByParentAndProduct.computeIfAbsent(operation.parentId, parentId -> Maps.newHashMap())
+                    .putIfAbsent(productId, operation);
+        }
+    }
+
+    void addProductBySizeGroup(final Long inputProductId, final ProductBySizeGroup productBySizeGroup) {
+        InputProduct inputProduct = inputProducts.get(inputProductId);
+
+        if (Objects.nonNull(inputProduct)) {
+            inputProduct.productBySizeGroups.add(productBySizeGroup);
+        }
+    }
+
+    public Technology getTechnology(final Long technologyId) {
+        return technologies.get(technologyId);
+    }
+
+    public Operation findOperationForProductAndTechnology(final Long productId, final Long technologyId) {
+        return operationsByTechnologyAndProduct.getOrDefault(technologyId, Maps.newHashMap()).get(productId);
+    }
+
+    public Operation findOperationForProductWithinChildren(final Long productId, final Operation operation) {
+        return operationsByParentAndProduct.getOrDefault(operation.id, Maps.newHashMap()).get(productId);
+    }
+
+    /**
+     * @return true if default technology of the product was resolved, which is the case for every input product of the
+     *         structure
+     */
+    public boolean containsProduct(final Long productId) {
+        return defaultTechnologyIds.containsKey(productId);
+    }
+
+    public Long findTechnologyForProduct(final Long productId) {
+        return defaultTechnologyIds.get(productId);
+    }
+
+    public BigDecimal findQuantityOfProductInOperation(final Long technologyInputProductTypeId, final Long productId,
+            final Operation operation) {
+        if (operation.outputQuantities.containsKey(productId)) {
+            return operation.outputQuantities.get(productId);
+        }
+
+        return operation.inputProducts.stream()
+                .filter(inputProduct -> Objects.equals(technologyInputProductTypeId, inputProduct.technologyInputProductTypeId)
+                        && Objects.equals(productId, inputProduct.productId))
+                .findFirst().map(inputProduct -> inputProduct.quantity).orElse(null);
+    }
+
+    public BigDecimal getStandardPerformance(final Long technologyId, final Function<Long, Optional<BigDecimal>> loader) {
+        return standardPerformances.computeIfAbsent(technologyId, loader).orElse(null);
+    }
+
+}
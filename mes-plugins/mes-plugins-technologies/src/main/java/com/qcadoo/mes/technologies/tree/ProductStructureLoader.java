@@ -0,0 +1,171 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+
+@Service
+public class ProductStructureLoader {
+
+    private static final String L_DEFAULT_TECHNOLOGY = "SELECT technology.id FROM technologies_technology technology "
+            + "WHERE technology.product_id = opic.product_id AND technology.active = true AND technology.state IN (:states) "
+            + "ORDER BY technology.master DESC, technology.number ASC LIMIT 1";
+
+    private static final String L_PRODUCED_WITHIN_CHILDREN = "SELECT 1 FROM technologies_technologyoperationcomponent childtoc "
+            + "JOIN technologies_operationproductoutcomponent opoc ON opoc.operationcomponent_id = childtoc.id "
+            + "WHERE childtoc.parent_id = toc.id AND opoc.product_id = opic.product_id";
+
+    private static final String L_DEFAULT_TECHNOLOGIES_OF_STRUCTURE = "FROM structure "
+            + "JOIN technologies_technologyoperationcomponent toc ON toc.technology_id = structure.technology_id "
+            + "JOIN technologies_operationproductincomponent opic ON opic.operationcomponent_id = toc.id "
+            + "JOIN LATERAL (" + L_DEFAULT_TECHNOLOGY + ") defaulttechnology ON true ";
+
+    private static final String L_TECHNOLOGIES_QUERY = "WITH RECURSIVE structure (technology_id) AS ("
+            + "SELECT CAST(:technologyId AS bigint) "
+            + "UNION "
+            + "SELECT defaulttechnology.id " + L_DEFAULT_TECHNOLOGIES_OF_STRUCTURE
+            + "WHERE NOT EXISTS (" + L_PRODUCED_WITHIN_CHILDREN + ")), "
+            + "reached (technology_id, expanded) AS ("
+            + "SELECT technology_id, true FROM structure "
+            + "UNION "
+            + "SELECT defaulttechnology.id, false " + L_DEFAULT_TECHNOLOGIES_OF_STRUCTURE
+            + "WHERE EXISTS (" + L_PRODUCED_WITHIN_CHILDREN + ")) "
+            + "SELECT technology.id, technology.technologygroup_id AS technologyGroupId, "
+            + "bool_or(reached.expanded) AS expanded, "
+            + "(SELECT MAX(statechange.dateandtime) FROM technologies_technologystatechange statechange "
+            + "WHERE statechange.technology_id = technology.id AND statechange.status = :successful) AS lastStateChangeDate "
+            + "FROM reached JOIN technologies_technology technology ON technology.id = reached.technology_id "
+            + "GROUP BY technology.id, technology.technologygroup_id";
+
+    private static final String L_OPERATIONS_QUERY = "SELECT toc.id AS operationId, toc.technology_id AS technologyId, "
+            + "toc.parent_id AS parentId, toc.division_id AS divisionId, opic.id AS inputProductId, opic.product_id AS productId, "
+            + "product.number AS productNumber, product.name AS productName, "
+            + "opic.technologyinputproducttype_id AS technologyInputProductTypeId, opic.givenunit AS givenUnit, opic.quantity, "
+            + "opic.differentproductsindifferentsizes AS differentProductsInDifferentSizes, "
+            + "opic.variousquantitiesinproductsbysize AS variousQuantitiesInProductsBySize, "
+            + "defaulttechnology.id AS defaultTechnologyId "
+            + "FROM technologies_technologyoperationcomponent toc "
+            + "LEFT JOIN technologies_operationproductincomponent opic ON opic.operationcomponent_id = toc.id "
+            + "LEFT JOIN basic_product product ON product.id = opic.product_id "
+            + "LEFT JOIN LATERAL (" + L_DEFAULT_TECHNOLOGY + ") defaulttechnology ON true "
+            + "WHERE toc.technology_id IN (:technologyIds) ORDER BY toc.id, opic.id";
+
+    private static final String L_OUTPUT_PRODUCTS_QUERY = "SELECT opoc.operationcomponent_id AS operationId, "
+            + "opoc.product_id AS productId, opoc.quantity FROM technologies_operationproductoutcomponent opoc "
+            + "JOIN technologies_technologyoperationcomponent toc ON toc.id = opoc.operationcomponent_id "
+            + "WHERE toc.technology_id IN (:technologyIds) ORDER BY opoc.id";
+
+    private static final String L_PRODUCT_BY_SIZE_GROUPS_QUERY = "SELECT pbsg.operationproductincomponent_id AS inputProductId, "
+            + "pbsg.product_id AS productId, product.unit AS productUnit, pbsg.sizegroup_id AS sizeGroupId, pbsg.quantity "
+            + "FROM technologies_productbysizegroup pbsg JOIN basic_product product ON product.id = pbsg.product_id "
+            + "JOIN technologies_operationproductincomponent opic ON opic.id = pbsg.operationproductincomponent_id "
+            + "JOIN technologies_technologyoperationcomponent toc ON toc.id = opic.operationcomponent_id "
+            + "WHERE toc.technology_id IN (:technologyIds) AND opic.differentproductsindifferentsizes = true ORDER BY pbsg.id";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * Loads structure of given technology. Technologies of all levels are resolved by one recursive query, their operations and
+     * products are then loaded by one query each. The query follows default technologies of input products which are not
+     * produced within child operations, as only those technologies are walked into. Default technologies of the other input
+     * products are loaded without operations, for their state change dates.
+     *
+     * @param technologyId
+     *            id of main technology
+     * @return structure of the technology
+     */
+    public ProductStructure load(final Long technologyId) {
+        ProductStructure productStructure = new ProductStructure();
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue("technologyId", technologyId);
+        params.addValue("states", Lists.newArrayList(TechnologyStateStringValues.ACCEPTED, TechnologyStateStringValues.CHECKED));
+        params.addValue("successful", StateChangeStatus.SUCCESSFUL.getStringValue());
+
+        Set<Long> technologyIds = Sets.newHashSet();
+
+        jdbcTemplate.query(L_TECHNOLOGIES_QUERY, params, (RowCallbackHandler) rs -> {
+            if (rs.getBoolean("expanded")) {
+                technologyIds.add(rs.getLong("id"));
+            }
+
+            productStructure.addTechnology(new ProductStructure.Technology(rs.getLong("id"), getLong(rs, "technologyGroupId"),
+                    rs.getTimestamp("lastStateChangeDate")));
+        });
+
+        params.addValue("technologyIds", technologyIds);
+
+        jdbcTemplate.query(L_OPERATIONS_QUERY, params, (RowCallbackHandler) rs -> {
+            Long operationId = rs.getLong("operationId");
+
+            productStructure.addOperation(new ProductStructure.Operation(operationId, rs.getLong("technologyId"),
+                    getLong(rs, "parentId"), getLong(rs, "divisionId")));
+
+            Long inputProductId = getLong(rs, "inputProductId");
+
+            if (Objects.nonNull(inputProductId)) {
+                productStructure.addInputProduct(operationId,
+                        new ProductStructure.InputProduct(inputProductId, getLong(rs, "productId"), rs.getString("productNumber"),
+                                rs.getString("productName"), getLong(rs, "technologyInputProductTypeId"),
+                                rs.getString("givenUnit"), rs.getBigDecimal("quantity"),
+                                rs.getBoolean("differentProductsInDifferentSizes"),
+                                rs.getBoolean("variousQuantitiesInProductsBySize")),
+                        getLong(rs, "defaultTechnologyId"));
+            }
+        });
+
+        jdbcTemplate.query(L_OUTPUT_PRODUCTS_QUERY, params, (RowCallbackHandler) rs -> productStructure
+                .addOutputProduct(rs.getLong("operationId"), rs.getLong("productId"), rs.getBigDecimal("quantity")));
+
+        jdbcTemplate.query(L_PRODUCT_BY_SIZE_GROUPS_QUERY, params,
+                (RowCallbackHandler) rs -> productStructure.addProductBySizeGroup(rs.getLong("inputProductId"),
+                        new ProductStructure.ProductBySizeGroup(rs.getLong("productId"), rs.getString("productUnit"),
+                                rs.getLong("sizeGroupId"), rs.getBigDecimal("quantity"))));
+
+        return productStructure;
+    }
+
+    private Long getLong(final ResultSet rs, final String columnLabel) throws SQLException {
+        long value = rs.getLong(columnLabel);
+
+        return rs.wasNull() ? null : value;
+    }
+
+}
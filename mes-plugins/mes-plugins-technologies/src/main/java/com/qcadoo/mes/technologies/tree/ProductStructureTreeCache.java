@@ -0,0 +1,82 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.tenant.api.MultiTenantUtil;
+
+/**
+ * Remembers, per tenant and technology, root of the product structure tree which was found up to date, so the tree is not
+ * checked against sub-technologies again. Technology hooks drop remembered trees of the tenant after their transaction
+ * commits, as any technology may be a sub-technology of others.
+ */
+@Service
+public class ProductStructureTreeCache {
+
+    private final Map<Integer, ConcurrentMap<Long, Long>> upToDateRootIds = Maps.newConcurrentMap();
+
+    public boolean isUpToDate(final Long technologyId, final Long rootId) {
+        return Objects.nonNull(rootId) && rootId.equals(getTenantRootIds().get(technologyId));
+    }
+
+    public void markUpToDate(final Long technologyId, final Long rootId) {
+        if (Objects.nonNull(rootId)) {
+            getTenantRootIds().put(technologyId, rootId);
+        }
+    }
+
+    public void invalidate() {
+        int tenantId = getCurrentTenantId();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    upToDateRootIds.remove(tenantId);
+                }
+            });
+        } else {
+            upToDateRootIds.remove(tenantId);
+        }
+    }
+
+    private ConcurrentMap<Long, Long> getTenantRootIds() {
+        return upToDateRootIds.computeIfAbsent(getCurrentTenantId(), tenantId -> new ConcurrentHashMap<>());
+    }
+
+    int getCurrentTenantId() {
+        return MultiTenantUtil.getCurrentTenantId();
+    }
+
+}
@@ -26,18 +26,20 @@ package com.qcadoo.mes.technologies.tree;
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
-import com.qcadoo.mes.basic.constants.ProductFields;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
 import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
-import com.qcadoo.mes.technologies.constants.ProductBySizeGroupFields;
 import com.qcadoo.mes.technologies.constants.ProductStructureTreeNodeFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
@@ -76,6 +78,12 @@ public class ProductStructureTreeService {
     @Autowired
     private TechnologyService technologyService;
 
+    @Autowired
+    private ProductStructureLoader productStructureLoader;
+
+    @Autowired
+    private ProductStructureTreeCache productStructureTreeCache;
+
     private Entity addChild(final List<Entity> tree, final Entity child, final Entity parent, final String entityType) {
         child.setField(ProductStructureTreeNodeFields.PARENT, parent);
         child.setField(ProductStructureTreeNodeFields.NUMBER, (long) tree.size() + 1);
@@ -127,70 +135,47 @@ public class ProductStructureTreeService {
                 .setMaxResults(1).uniqueResult();
     }
 
-    private BigDecimal findQuantityOfProductInOperation(final Entity technologyInputProductType, final Entity product,
-            final Entity operation) {
-        EntityList operationProductOutComponents = operation
-                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS);
-
-        Entity operationProductOutComponent = operationProductOutComponents.find()
-                .add(SearchRestrictions.belongsTo(OperationProductOutComponentFields.PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
-
-        if (Objects.nonNull(operationProductOutComponent)) {
-            return operationProductOutComponent.getDecimalField(ProductStructureTreeNodeFields.QUANTITY);
-        }
-
-        EntityList operationProductInComponents = operation
-                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS);
-
-        operationProductOutComponent = operationProductInComponents.find()
-                .add(SearchRestrictions.belongsTo(OperationProductInComponentFields.TECHNOLOGY_INPUT_PRODUCT_TYPE,
-                        technologyInputProductType))
-                .add(SearchRestrictions.belongsTo(OperationProductInComponentFields.PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
-
-        if (Objects.nonNull(operationProductOutComponent)) {
-            return operationProductOutComponent.getDecimalField(ProductStructureTreeNodeFields.QUANTITY);
-        }
-
-        return null;
-    }
-
     public EntityTree generateProductStructureTree(final ViewDefinitionState view, final Entity technology) {
         Entity product = technology.getBelongsToField(TechnologyFields.PRODUCT);
-        Entity operation = findOperationForProductAndTechnology(product, technology);
         Entity technologyFromDB = technology.getDataDefinition().get(technology.getId());
         EntityTree tree = technologyFromDB.getTreeField(TechnologyFields.PRODUCT_STRUCTURE_TREE);
 
+        if (Objects.nonNull(tree.getRoot()) && productStructureTreeCache.isUpToDate(technology.getId(), tree.getRoot().getId())) {
+            return tree;
+        }
+
+        ProductStructure productStructure = productStructureLoader.load(technology.getId());
+        ProductStructure.Operation operation = productStructure.findOperationForProductAndTechnology(product.getId(),
+                technology.getId());
+
         if (Objects.nonNull(tree.getRoot())) {
             Date productStructureCreateDate = tree.getRoot().getDateField(ProductStructureTreeNodeFields.CREATE_DATE);
 
             List<Entity> treeEntities = tree.find().list().getEntities();
 
-            Entity technologyStateChange = getLastTechnologyStateChange(technologyFromDB);
-
-            if (productStructureCreateDate.before(technologyStateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME))
-                    || checkSubTechnologiesSubstitution(treeEntities)
-                    || checkIfSubTechnologiesChanged(operation, productStructureCreateDate)) {
+            if (isChangedAfter(productStructure.getTechnology(technology.getId()), productStructureCreateDate)
+                    || checkSubTechnologiesSubstitution(productStructure, treeEntities)
+                    || checkIfSubTechnologiesChanged(productStructure, operation, productStructureCreateDate, Sets.newHashSet())) {
                 deleteProductStructureTree(treeEntities);
             } else {
+                productStructureTreeCache.markUpToDate(technology.getId(), tree.getRoot().getId());
+
                 return tree;
             }
         }
 
         Entity root = getProductStructureTreeNodeDD().create();
 
-        BigDecimal quantity = findQuantityOfProductInOperation(null, product, operation);
+        BigDecimal quantity = productStructure.findQuantityOfProductInOperation(null, product.getId(), operation);
         Entity technologyGroup = technology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
-        BigDecimal standardPerformance = technologyService.getStandardPerformance(technology).orElse(null);
+        BigDecimal standardPerformance = getStandardPerformance(productStructure, technology.getId());
 
         root.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technology);
         root.setField(ProductStructureTreeNodeFields.MAIN_TECHNOLOGY, technology);
         root.setField(ProductStructureTreeNodeFields.PRODUCT, product);
-        root.setField(ProductStructureTreeNodeFields.OPERATION, operation);
+        root.setField(ProductStructureTreeNodeFields.OPERATION, operation.getId());
         root.setField(ProductStructureTreeNodeFields.QUANTITY, quantity);
-        root.setField(ProductStructureTreeNodeFields.DIVISION,
-                operation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
+        root.setField(ProductStructureTreeNodeFields.DIVISION, operation.getDivisionId());
         root.setField(ProductStructureTreeNodeFields.TECHNOLOGY_GROUP, technologyGroup);
         root.setField(ProductStructureTreeNodeFields.STANDARD_PERFORMANCE, standardPerformance);
 
@@ -198,47 +183,54 @@ public class ProductStructureTreeService {
 
         root = addChild(productStructureList, root, null, L_FINAL_PRODUCT);
 
-        generateTreeForSubProducts(operation, technology, productStructureList, root, view, technology);
+        generateTreeForSubProducts(productStructure, operation, technology.getId(), productStructureList, root, view, technology);
 
         technologyFromDB = technology.getDataDefinition().get(technology.getId());
 
-        return technologyFromDB.getTreeField(TechnologyFields.PRODUCT_STRUCTURE_TREE);
+        tree = technologyFromDB.getTreeField(TechnologyFields.PRODUCT_STRUCTURE_TREE);
+
+        if (Objects.nonNull(tree.getRoot())) {
+            productStructureTreeCache.markUpToDate(technology.getId(), tree.getRoot().getId());
+        }
+
+        return tree;
+    }
+
+    private boolean isChangedAfter(final ProductStructure.Technology technology, final Date productStructureCreateDate) {
+        return Objects.nonNull(technology.getLastStateChangeDate())
+                && productStructureCreateDate.before(technology.getLastStateChangeDate());
     }
 
-    private boolean checkIfSubTechnologiesChanged(final Entity operation, final Date productStructureCreateDate) {
-        for (Entity operationProductInComponent : operation
-                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
-            Entity product = operationProductInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
-            Entity subOperation = findOperationForProductWithinChildren(product, operation);
-            Entity subTechnology = findTechnologyForProduct(product);
+    private boolean checkIfSubTechnologiesChanged(final ProductStructure productStructure, final ProductStructure.Operation operation,
+            final Date productStructureCreateDate, final Set<Long> checkedOperationIds) {
+        if (Objects.isNull(operation) || !checkedOperationIds.add(operation.getId())) {
+            return false;
+        }
 
-            if (Objects.nonNull(subTechnology)) {
-                Entity technologyStateChange = getLastTechnologyStateChange(subTechnology);
+        for (ProductStructure.InputProduct inputProduct : operation.getInputProducts()) {
+            Long productId = inputProduct.getProductId();
+            ProductStructure.Operation subOperation = productStructure.findOperationForProductWithinChildren(productId, operation);
+            Long subTechnologyId = productStructure.findTechnologyForProduct(productId);
 
-                if (productStructureCreateDate
-                        .before(technologyStateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME))) {
+            if (Objects.nonNull(subTechnologyId)) {
+                if (isChangedAfter(productStructure.getTechnology(subTechnologyId), productStructureCreateDate)) {
                     return true;
                 }
 
                 if (Objects.isNull(subOperation)) {
-                    Entity operationForTechnology = findOperationForProductAndTechnology(product, subTechnology);
-
-                    boolean changed = checkIfSubTechnologiesChanged(operationForTechnology, productStructureCreateDate);
-
-                    if (changed) {
-                        return true;
-                    }
-                } else {
-                    boolean changed = checkIfSubTechnologiesChanged(subOperation, productStructureCreateDate);
+                    ProductStructure.Operation operationForTechnology = productStructure.findOperationForProductAndTechnology(productId,
+                            subTechnologyId);
 
-                    if (changed) {
+                    if (checkIfSubTechnologiesChanged(productStructure, operationForTechnology, productStructureCreateDate,
+                            checkedOperationIds)) {
                         return true;
                     }
+                } else if (checkIfSubTechnologiesChanged(productStructure, subOperation, productStructureCreateDate,
+                        checkedOperationIds)) {
+                    return true;
                 }
             } else if (Objects.nonNull(subOperation)) {
-                boolean changed = checkIfSubTechnologiesChanged(subOperation, productStructureCreateDate);
-
-                if (changed) {
+                if (checkIfSubTechnologiesChanged(productStructure, subOperation, productStructureCreateDate, checkedOperationIds)) {
                     return true;
                 }
             }
@@ -253,7 +245,7 @@ public class ProductStructureTreeService {
         }
     }
 
-    private boolean checkSubTechnologiesSubstitution(final List<Entity> treeEntities) {
+    private boolean checkSubTechnologiesSubstitution(final ProductStructure productStructure, final List<Entity> treeEntities) {
         for (Entity entity : treeEntities) {
             String entityType = entity.getStringField(ProductStructureTreeNodeFields.ENTITY_TYPE);
 
@@ -262,15 +254,14 @@ public class ProductStructureTreeService {
             }
 
             Entity product = entity.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT);
-            Entity newTechnology = findTechnologyForProduct(product);
+            Long newTechnologyId = findTechnologyIdForProduct(productStructure, product);
 
-            if (entityType.equals(L_MATERIAL) && Objects.nonNull(newTechnology)) {
+            if (entityType.equals(L_MATERIAL) && Objects.nonNull(newTechnologyId)) {
                 return true;
             } else if (entityType.equals(L_COMPONENT)) {
                 Entity oldTechnology = entity.getBelongsToField(ProductStructureTreeNodeFields.TECHNOLOGY);
 
-                if (Objects.nonNull(oldTechnology) && Objects.isNull(newTechnology)
-                        || Objects.nonNull(oldTechnology) && !oldTechnology.getId().equals(newTechnology.getId())) {
+                if (Objects.nonNull(oldTechnology) && !oldTechnology.getId().equals(newTechnologyId)) {
                     return true;
                 }
             }
@@ -279,50 +270,63 @@ public class ProductStructureTreeService {
         return false;
     }
 
-    private void generateTreeForSubProducts(final Entity operation, final Entity technology, final List<Entity> tree,
-            final Entity parent, final ViewDefinitionState view, final Entity mainTechnology) {
-        EntityList operationProductInComponents = operation
-                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS);
+    private Long findTechnologyIdForProduct(final ProductStructure productStructure, final Entity product) {
+        if (productStructure.containsProduct(product.getId())) {
+            return productStructure.findTechnologyForProduct(product.getId());
+        }
 
-        for (Entity operationProductInComponent : operationProductInComponents) {
+        Entity technology = findTechnologyForProduct(product);
+
+        return Objects.nonNull(technology) ? technology.getId() : null;
+    }
+
+    private BigDecimal getStandardPerformance(final ProductStructure productStructure, final Long technologyId) {
+        return productStructure.getStandardPerformance(technologyId,
+                id -> technologyService.getStandardPerformance(getTechnologyDD().get(id)));
+    }
+
+    private void generateTreeForSubProducts(final ProductStructure productStructure, final ProductStructure.Operation operation,
+            final Long technologyId, final List<Entity> tree, final Entity parent, final ViewDefinitionState view,
+            final Entity mainTechnology) {
+        for (ProductStructure.InputProduct inputProduct : operation.getInputProducts()) {
             Entity child = getProductStructureTreeNodeDD().create();
 
-            Entity technologyInputProductType = operationProductInComponent
-                    .getBelongsToField(OperationProductInComponentFields.TECHNOLOGY_INPUT_PRODUCT_TYPE);
-            Entity product = operationProductInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
-            String unit = operationProductInComponent.getStringField(OperationProductInComponentFields.GIVEN_UNIT);
+            Long technologyInputProductTypeId = inputProduct.getTechnologyInputProductTypeId();
+            Long productId = inputProduct.getProductId();
+            String unit = inputProduct.getGivenUnit();
 
-            Entity subOperation = findOperationForProductWithinChildren(product, operation);
-            BigDecimal quantity = findQuantityOfProductInOperation(technologyInputProductType, product, operation);
-            Entity subTechnology = findTechnologyForProduct(product);
+            ProductStructure.Operation subOperation = productStructure.findOperationForProductWithinChildren(productId, operation);
+            BigDecimal quantity = productStructure.findQuantityOfProductInOperation(technologyInputProductTypeId, productId,
+                    operation);
+            Long subTechnologyId = productStructure.findTechnologyForProduct(productId);
 
-            if (Objects.nonNull(subTechnology)) {
+            if (Objects.nonNull(subTechnologyId)) {
                 if (Objects.isNull(subOperation)) {
-                    Entity operationForTechnology = findOperationForProductAndTechnology(product, subTechnology);
-                    Entity technologyGroup = subTechnology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
-                    BigDecimal standardPerformance =technologyService.getStandardPerformance(subTechnology).orElse(null);
+                    ProductStructure.Operation operationForTechnology = productStructure.findOperationForProductAndTechnology(productId,
+                            subTechnologyId);
+                    Long technologyGroupId = productStructure.getTechnology(subTechnologyId).getTechnologyGroupId();
+                    BigDecimal standardPerformance = getStandardPerformance(productStructure, subTechnologyId);
 
-                    child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, subTechnology);
+                    child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, subTechnologyId);
                     child.setField(ProductStructureTreeNodeFields.MAIN_TECHNOLOGY, mainTechnology);
-                    child.setField(ProductStructureTreeNodeFields.OPERATION, operationForTechnology);
-                    child.setField(ProductStructureTreeNodeFields.PRODUCT, product);
+                    child.setField(ProductStructureTreeNodeFields.OPERATION, operationForTechnology.getId());
+                    child.setField(ProductStructureTreeNodeFields.PRODUCT, productId);
                     child.setField(ProductStructureTreeNodeFields.QUANTITY, quantity);
-                    child.setField(ProductStructureTreeNodeFields.DIVISION,
-                            operationForTechnology.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
-                    child.setField(ProductStructureTreeNodeFields.TECHNOLOGY_GROUP, technologyGroup);
+                    child.setField(ProductStructureTreeNodeFields.DIVISION, operationForTechnology.getDivisionId());
+                    child.setField(ProductStructureTreeNodeFields.TECHNOLOGY_GROUP, technologyGroupId);
                     child.setField(ProductStructureTreeNodeFields.STANDARD_PERFORMANCE, standardPerformance);
 
                     child = addChild(tree, child, parent, L_COMPONENT);
 
-                    generateTreeForSubProducts(operationForTechnology, subTechnology, tree, child, view, mainTechnology);
+                    generateTreeForSubProducts(productStructure, operationForTechnology, subTechnologyId, tree, child, view,
+                            mainTechnology);
                 } else {
-                    child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technology);
+                    child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technologyId);
                     child.setField(ProductStructureTreeNodeFields.MAIN_TECHNOLOGY, mainTechnology);
-                    child.setField(ProductStructureTreeNodeFields.PRODUCT, product);
+                    child.setField(ProductStructureTreeNodeFields.PRODUCT, productId);
                     child.setField(ProductStructureTreeNodeFields.QUANTITY, quantity);
-                    child.setField(ProductStructureTreeNodeFields.OPERATION, subOperation);
-                    child.setField(ProductStructureTreeNodeFields.DIVISION,
-                            subOperation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
+                    child.setField(ProductStructureTreeNodeFields.OPERATION, subOperation.getId());
+                    child.setField(ProductStructureTreeNodeFields.DIVISION, subOperation.getDivisionId());
 
                     child = addChild(tree, child, parent, L_INTERMEDIATE);
 
@@ -332,80 +336,67 @@ public class ProductStructureTreeService {
                         if (Objects.nonNull(productStructureForm)) {
                             productStructureForm.addMessage(
                                     "technologies.technologyDetails.window.productStructure.productStructureForm.technologyAndOperationExists",
-                                    MessageType.INFO, false, product.getStringField(ProductFields.NUMBER) + " "
-                                            + product.getStringField(ProductFields.NAME));
+                                    MessageType.INFO, false, inputProduct.getProductNumber() + " " + inputProduct.getProductName());
                         }
                     }
 
-                    generateTreeForSubProducts(subOperation, technology, tree, child, view, mainTechnology);
+                    generateTreeForSubProducts(productStructure, subOperation, technologyId, tree, child, view, mainTechnology);
                 }
             } else {
-                Entity technologyGroup = technology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
-                BigDecimal standardPerformance = technologyService.getStandardPerformance(technology).orElse(null);
+                Long technologyGroupId = productStructure.getTechnology(technologyId).getTechnologyGroupId();
+                BigDecimal standardPerformance = getStandardPerformance(productStructure, technologyId);
 
-                child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technology);
+                child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technologyId);
                 child.setField(ProductStructureTreeNodeFields.MAIN_TECHNOLOGY, mainTechnology);
-                child.setField(ProductStructureTreeNodeFields.PRODUCT, product);
+                child.setField(ProductStructureTreeNodeFields.PRODUCT, productId);
                 child.setField(ProductStructureTreeNodeFields.QUANTITY, quantity);
-                child.setField(ProductStructureTreeNodeFields.TECHNOLOGY_GROUP, technologyGroup);
+                child.setField(ProductStructureTreeNodeFields.TECHNOLOGY_GROUP, technologyGroupId);
                 child.setField(ProductStructureTreeNodeFields.STANDARD_PERFORMANCE, standardPerformance);
                 child.setField(ProductStructureTreeNodeFields.UNIT, unit);
 
                 if (Objects.nonNull(subOperation)) {
-                    child.setField(ProductStructureTreeNodeFields.OPERATION, subOperation);
-                    child.setField(ProductStructureTreeNodeFields.DIVISION,
-                            subOperation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
+                    child.setField(ProductStructureTreeNodeFields.OPERATION, subOperation.getId());
+                    child.setField(ProductStructureTreeNodeFields.DIVISION, subOperation.getDivisionId());
 
                     child = addChild(tree, child, parent, L_INTERMEDIATE);
 
-                    generateTreeForSubProducts(subOperation, technology, tree, child, view, mainTechnology);
+                    generateTreeForSubProducts(productStructure, subOperation, technologyId, tree, child, view, mainTechnology);
                 } else {
-                    boolean differentProductsInDifferentSizes = operationProductInComponent
-                            .getBooleanField(OperationProductInComponentFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES);
-                    boolean variousQuantitiesInProductsBySize = operationProductInComponent
-                            .getBooleanField(OperationProductInComponentFields.VARIOUS_QUANTITIES_IN_PRODUCTS_BY_SIZE);
+                    boolean differentProductsInDifferentSizes = inputProduct.isDifferentProductsInDifferentSizes();
+                    boolean variousQuantitiesInProductsBySize = inputProduct.isVariousQuantitiesInProductsBySize();
 
-                    child.setField(ProductStructureTreeNodeFields.TECHNOLOGY_INPUT_PRODUCT_TYPE, technologyInputProductType);
+                    child.setField(ProductStructureTreeNodeFields.TECHNOLOGY_INPUT_PRODUCT_TYPE, technologyInputProductTypeId);
                     child.setField(ProductStructureTreeNodeFields.DIFFERENT_PRODUCTS_IN_DIFFERENT_SIZES,
                             differentProductsInDifferentSizes);
                     child.setField(ProductStructureTreeNodeFields.VARIOUS_QUANTITIES_IN_PRODUCTS_BY_SIZE,
                             variousQuantitiesInProductsBySize);
-                    child.setField(ProductStructureTreeNodeFields.OPERATION, operation);
-                    child.setField(ProductStructureTreeNodeFields.DIVISION,
-                            operation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
+                    child.setField(ProductStructureTreeNodeFields.OPERATION, operation.getId());
+                    child.setField(ProductStructureTreeNodeFields.DIVISION, operation.getDivisionId());
 
                     child = addChild(tree, child, parent, L_MATERIAL);
 
                     if (differentProductsInDifferentSizes) {
-                        generateTreeForProductBySizeGroups(operationProductInComponent, operation,
-                                variousQuantitiesInProductsBySize, technology, tree, child, view, mainTechnology);
+                        generateTreeForProductBySizeGroups(inputProduct, operation, variousQuantitiesInProductsBySize, technologyId,
+                                tree, child, mainTechnology);
                     }
                 }
             }
         }
     }
 
-    private void generateTreeForProductBySizeGroups(final Entity operationProductInComponent, final Entity operation,
-            final boolean variousQuantitiesInProductsBySize, final Entity technology, final List<Entity> tree,
-            final Entity parent, final ViewDefinitionState view, final Entity mainTechnology) {
-        List<Entity> productBySizeGroups = operationProductInComponent
-                .getHasManyField(OperationProductInComponentFields.PRODUCT_BY_SIZE_GROUPS);
-
-        for (Entity productBySizeGroup : productBySizeGroups) {
+    private void generateTreeForProductBySizeGroups(final ProductStructure.InputProduct inputProduct,
+            final ProductStructure.Operation operation, final boolean variousQuantitiesInProductsBySize, final Long technologyId,
+            final List<Entity> tree, final Entity parent, final Entity mainTechnology) {
+        for (ProductStructure.ProductBySizeGroup productBySizeGroup : inputProduct.getProductBySizeGroups()) {
             Entity child = getProductStructureTreeNodeDD().create();
 
-            Entity product = productBySizeGroup.getBelongsToField(ProductBySizeGroupFields.PRODUCT);
-            Entity sizeGroup = productBySizeGroup.getBelongsToField(ProductBySizeGroupFields.SIZE_GROUP);
-            BigDecimal quantity = productBySizeGroup.getDecimalField(ProductBySizeGroupFields.QUANTITY);
-            String unit = product.getStringField(ProductFields.UNIT);
-
-            child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technology);
+            child.setField(ProductStructureTreeNodeFields.TECHNOLOGY, technologyId);
             child.setField(ProductStructureTreeNodeFields.MAIN_TECHNOLOGY, mainTechnology);
-            child.setField(ProductStructureTreeNodeFields.PRODUCT, product);
-            child.setField(ProductStructureTreeNodeFields.SIZE_GROUP, sizeGroup);
-            child.setField(ProductStructureTreeNodeFields.QUANTITY, quantity);
-            child.setField(ProductStructureTreeNodeFields.UNIT, unit);
-            child.setField(ProductStructureTreeNodeFields.OPERATION, operation);
+            child.setField(ProductStructureTreeNodeFields.PRODUCT, productBySizeGroup.getProductId());
+            child.setField(ProductStructureTreeNodeFields.SIZE_GROUP, productBySizeGroup.getSizeGroupId());
+            child.setField(ProductStructureTreeNodeFields.QUANTITY, productBySizeGroup.getQuantity());
+            child.setField(ProductStructureTreeNodeFields.UNIT, productBySizeGroup.getProductUnit());
+            child.setField(ProductStructureTreeNodeFields.OPERATION, operation.getId());
             child.setField(ProductStructureTreeNodeFields.VARIOUS_QUANTITIES_IN_PRODUCTS_BY_SIZE,
                     variousQuantitiesInProductsBySize);
 
@@ -421,22 +412,58 @@ public class ProductStructureTreeService {
 
     private EntityTree transformProductStructureTreeToTOCTree(final EntityTree productStructureTree) {
         List<Entity> tocTree = Lists.newArrayList();
+        Map<Long, Entity> tocTreeById = Maps.newHashMap();
 
         DataDefinition tocDD = getTechnologyOperationComponentDD();
 
         Entity root = productStructureTree.getRoot();
 
+        Map<Long, Entity> tocs = getTechnologyOperationComponents(tocDD, productStructureTree);
+
         Long rootTocID = root.getBelongsToField(ProductStructureTreeNodeFields.OPERATION).getId();
 
-        addChildTOC(tocTree, tocDD.get(rootTocID), null, root.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT),
-                L_FINAL_PRODUCT);
+        addChildTOC(tocTree, tocTreeById, getTechnologyOperationComponent(tocDD, tocs, rootTocID), null,
+                root.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT), L_FINAL_PRODUCT);
 
-        addTocChildes(tocTree, tocDD, root);
+        addTocChildes(tocTree, tocTreeById, tocDD, tocs, root);
 
         return EntityTreeUtilsService.getDetachedEntityTree(tocTree);
     }
 
-    private void addTocChildes(final List<Entity> tocTree, final DataDefinition tocDD, final Entity root) {
+    private Map<Long, Entity> getTechnologyOperationComponents(final DataDefinition tocDD, final EntityTree productStructureTree) {
+        Set<Long> tocIds = Sets.newHashSet();
+
+        for (Entity node : productStructureTree) {
+            Entity operation = node.getBelongsToField(ProductStructureTreeNodeFields.OPERATION);
+
+            if (Objects.nonNull(operation)) {
+                tocIds.add(operation.getId());
+            }
+        }
+
+        Map<Long, Entity> tocs = Maps.newHashMap();
+
+        if (!tocIds.isEmpty()) {
+            for (Entity toc : tocDD.find().add(SearchRestrictions.in("id", tocIds)).list().getEntities()) {
+                tocs.put(toc.getId(), toc);
+            }
+        }
+
+        return tocs;
+    }
+
+    private Entity getTechnologyOperationComponent(final DataDefinition tocDD, final Map<Long, Entity> tocs, final Long tocId) {
+        Entity toc = tocs.remove(tocId);
+
+        if (Objects.isNull(toc)) {
+            toc = tocDD.get(tocId);
+        }
+
+        return toc;
+    }
+
+    private void addTocChildes(final List<Entity> tocTree, final Map<Long, Entity> tocTreeById, final DataDefinition tocDD,
+            final Map<Long, Entity> tocs, final Entity root) {
         Entity parent;
 
         for (Entity node : root.getHasManyField(TechnologyOperationComponentFields.CHILDREN)) {
@@ -445,33 +472,24 @@ public class ProductStructureTreeService {
             if (!entityType.equals(L_MATERIAL) && !entityType.equals(L_FINAL_PRODUCT)
                     && !entityType.equals(L_PRODUCT_BY_SIZE_GROUP)) {
                 Long tocId = node.getBelongsToField(ProductStructureTreeNodeFields.OPERATION).getId();
-                Entity toc = tocDD.get(tocId);
+                Entity toc = getTechnologyOperationComponent(tocDD, tocs, tocId);
                 Long parentId = Objects.nonNull(node.getBelongsToField(ProductStructureTreeNodeFields.PARENT))
                         ? node.getBelongsToField(ProductStructureTreeNodeFields.PARENT)
                                 .getBelongsToField(ProductStructureTreeNodeFields.OPERATION).getId()
                         : node.getBelongsToField(ProductStructureTreeNodeFields.OPERATION).getId();
 
-                parent = getEntityById(tocTree, parentId);
+                parent = tocTreeById.get(parentId);
 
-                addChildTOC(tocTree, toc, parent, node.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT), entityType);
+                addChildTOC(tocTree, tocTreeById, toc, parent, node.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT),
+                        entityType);
             }
 
-            addTocChildes(tocTree, tocDD, node);
-        }
-    }
-
-    private Entity getEntityById(final List<Entity> tree, final Long id) {
-        for (Entity entity : tree) {
-            if (entity.getId().equals(id)) {
-                return entity;
-            }
+            addTocChildes(tocTree, tocTreeById, tocDD, tocs, node);
         }
-
-        return null;
     }
 
-    private void addChildTOC(final List<Entity> tree, final Entity child, final Entity parent, final Entity product,
-            final String type) {
+    private void addChildTOC(final List<Entity> tree, final Map<Long, Entity> treeById, final Entity child, final Entity parent,
+            final Entity product, final String type) {
         child.setField(TechnologyOperationComponentFields.PARENT, parent);
         child.setField(TechnologyOperationComponentFields.PRIORITY, 1);
         child.setField(TechnologyOperationComponentFields.TYPE_FROM_STRUCTURE_TREE, type);
@@ -493,6 +511,7 @@ public class ProductStructureTreeService {
         }
 
         tree.add(child);
+        treeById.putIfAbsent(child.getId(), child);
     }
 
     public Entity getLastTechnologyStateChange(final Entity technology) {
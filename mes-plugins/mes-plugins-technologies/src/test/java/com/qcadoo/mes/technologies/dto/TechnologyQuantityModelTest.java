@@ -0,0 +1,118 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.dto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class TechnologyQuantityModelTest {
+
+    private static final MathContext MATH_CONTEXT = MathContext.DECIMAL64;
+
+    private OperationProductComponentHolder rootIn;
+
+    private OperationProductComponentHolder rootOut;
+
+    private OperationProductComponentHolder childIn;
+
+    private OperationProductComponentHolder childOut;
+
+    private TechnologyQuantityModel technologyQuantityModel;
+
+    @Before
+    public void init() {
+        rootIn = holder(10L, 1L, OperationProductComponentEntityType.OPERATION_PRODUCT_IN_COMPONENT);
+        rootOut = holder(20L, 1L, OperationProductComponentEntityType.OPERATION_PRODUCT_OUT_COMPONENT);
+        childIn = holder(30L, 2L, OperationProductComponentEntityType.OPERATION_PRODUCT_IN_COMPONENT);
+        childOut = holder(10L, 2L, OperationProductComponentEntityType.OPERATION_PRODUCT_OUT_COMPONENT);
+
+        TechnologyQuantityModel.Builder builder = TechnologyQuantityModel.builder();
+
+        int rootOperation = builder.addOperation(1L, true, true);
+        int rootInComponent = builder.addComponent(rootIn, new BigDecimal("2"));
+        int rootOutComponent = builder.addComponent(rootOut, BigDecimal.ONE);
+
+        int childOperation = builder.addOperation(2L, false, false);
+        builder.addComponent(childIn, new BigDecimal("3"));
+        int childOutComponent = builder.addComponent(childOut, new BigDecimal("4"));
+
+        technologyQuantityModel = builder.addRootStep(rootOperation, rootOutComponent)
+                .addStep(childOperation, rootInComponent, childOutComponent).addNonComponent(rootIn).build();
+    }
+
+    private OperationProductComponentHolder holder(final Long productId, final Long operationId,
+            final OperationProductComponentEntityType entityType) {
+        return new OperationProductComponentHolder(productId, operationId, null, null, entityType);
+    }
+
+    @Test
+    public final void shouldScaleOperationsByGivenQuantity() {
+        // given
+        OperationProductComponentWithQuantityContainer container = new OperationProductComponentWithQuantityContainer();
+        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        // when
+        technologyQuantityModel.expand(new BigDecimal("5"), MATH_CONTEXT, container, nonComponents, operationRuns);
+
+        // then
+        assertEquals(0, new BigDecimal("10").compareTo(container.get(rootIn)));
+        assertEquals(0, new BigDecimal("5").compareTo(container.get(rootOut)));
+        assertEquals(0, new BigDecimal("9").compareTo(container.get(childIn)));
+        assertEquals(0, new BigDecimal("12").compareTo(container.get(childOut)));
+        assertEquals(0, new BigDecimal("5").compareTo(operationRuns.get(1L)));
+        assertEquals(0, new BigDecimal("3").compareTo(operationRuns.get(2L)));
+        assertEquals(1, nonComponents.size());
+        assertTrue(nonComponents.contains(rootIn));
+    }
+
+    @Test
+    public final void shouldNotKeepQuantitiesBetweenExpansions() {
+        // given
+        OperationProductComponentWithQuantityContainer first = new OperationProductComponentWithQuantityContainer();
+        OperationProductComponentWithQuantityContainer second = new OperationProductComponentWithQuantityContainer();
+
+        // when
+        technologyQuantityModel.expand(new BigDecimal("5"), MATH_CONTEXT, first, Sets.newHashSet(), Maps.newHashMap());
+        technologyQuantityModel.expand(BigDecimal.ONE, MATH_CONTEXT, second, Sets.newHashSet(), Maps.newHashMap());
+
+        // then
+        assertEquals(0, new BigDecimal("2").compareTo(second.get(rootIn)));
+        assertEquals(0, BigDecimal.ONE.compareTo(second.get(rootOut)));
+        assertEquals(0, new BigDecimal("3").compareTo(second.get(childIn)));
+        assertEquals(0, new BigDecimal("4").compareTo(second.get(childOut)));
+    }
+
+}
@@ -0,0 +1,270 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.technologies.ProductQuantitiesWithComponentsService;
+import com.qcadoo.mes.technologies.TechnologyService;
+import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateChangeFields;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.mes.technologies.tree.ProductStructureTreeService;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+public class TechnologyExportServiceTest {
+
+    private static final int L_TECHNOLOGIES = 250;
+
+    private static final int L_THREADS = 4;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private TechnologyExportService technologyExportService;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ProductStructureTreeService productStructureTreeService;
+
+    @Mock
+    private ProductQuantitiesWithComponentsService productQuantitiesWithComponentsService;
+
+    @Mock
+    private TechnologyService technologyService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private DataDefinition technologyDD;
+
+    private final List<Integer> offsets = Lists.newCopyOnWriteArrayList();
+
+    private final Set<String> workerThreadNames = Sets.newConcurrentHashSet();
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        technologyExportService = spy(new TechnologyExportService());
+
+        doReturn(L_THREADS).when(technologyExportService).getThreads();
+        doReturn(1).when(technologyExportService).getCurrentTenantId();
+
+        ReflectionTestUtils.setField(technologyExportService, "exportedCsvSeparator", "|");
+        ReflectionTestUtils.setField(technologyExportService, "gzip", true);
+        ReflectionTestUtils.setField(technologyExportService, "multiTenantService", multiTenantService);
+        ReflectionTestUtils.setField(technologyExportService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(technologyExportService, "translationService", translationService);
+        ReflectionTestUtils.setField(technologyExportService, "numberService", numberService);
+        ReflectionTestUtils.setField(technologyExportService, "productStructureTreeService", productStructureTreeService);
+        ReflectionTestUtils.setField(technologyExportService, "productQuantitiesWithComponentsService",
+                productQuantitiesWithComponentsService);
+        ReflectionTestUtils.setField(technologyExportService, "technologyService", technologyService);
+        ReflectionTestUtils.setField(technologyExportService, "jdbcTemplate", jdbcTemplate);
+
+        given(dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY))
+                .willReturn(technologyDD);
+        given(numberService.format(any())).willAnswer(invocation -> String.valueOf(invocation.getArguments()[0]));
+        given(technologyService.getStandardPerformance(any(Entity.class))).willReturn(Optional.empty());
+
+        Entity stateChange = mock(Entity.class);
+
+        given(stateChange.getDateField(TechnologyStateChangeFields.DATE_AND_TIME)).willReturn(new Date());
+        given(productStructureTreeService.getLastTechnologyStateChange(any(Entity.class))).willReturn(stateChange);
+
+        Map<Long, Entity> technologies = Maps.newHashMap();
+
+        for (long id = 1; id <= L_TECHNOLOGIES; id++) {
+            technologies.put(id, mockTechnology(id));
+        }
+
+        given(technologyDD.get(anyLong())).willAnswer(invocation -> technologies.get(invocation.getArguments()[0]));
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap())).willAnswer(invocation -> {
+            Map<String, Object> params = (Map<String, Object>) invocation.getArguments()[1];
+            int offset = (Integer) params.get("offset");
+            int limit = (Integer) params.get("limit");
+
+            offsets.add(offset);
+
+            List<Map<String, Object>> rows = Lists.newArrayList();
+
+            for (long id = offset + 1; id <= Math.min(offset + limit, L_TECHNOLOGIES); id++) {
+                rows.add(ImmutableMap.<String, Object> of("id", id, TechnologyFields.STATE, getState(id)));
+            }
+
+            return rows;
+        });
+
+        CyclicBarrier firstTechnologies = new CyclicBarrier(L_THREADS);
+        AtomicInteger started = new AtomicInteger();
+
+        willAnswer(invocation -> {
+            workerThreadNames.add(Thread.currentThread().getName());
+
+            if (started.getAndIncrement() < L_THREADS) {
+                firstTechnologies.await(5, TimeUnit.SECONDS);
+            }
+
+            ((MultiTenantCallback) invocation.getArguments()[1]).invoke();
+
+            return null;
+        }).given(multiTenantService).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+    }
+
+    private String getState(final long id) {
+        return id % 3 == 0 ? TechnologyStateStringValues.ACCEPTED : TechnologyStateStringValues.DRAFT;
+    }
+
+    private Entity mockTechnology(final long id) {
+        Entity technology = mock(Entity.class);
+        Entity product = mock(Entity.class);
+        Entity material = mock(Entity.class);
+        OperationProductComponentHolder holder = mock(OperationProductComponentHolder.class);
+
+        given(technology.getStringField(TechnologyFields.NUMBER)).willReturn(String.format("T%03d", id));
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(getState(id));
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(product);
+        given(product.getStringField(ProductFields.NUMBER)).willReturn(String.format("P%03d", id));
+        given(material.getStringField(ProductFields.NUMBER)).willReturn(String.format("M%03d", id));
+        given(holder.getProduct()).willReturn(material);
+        given(productQuantitiesWithComponentsService.getNeededProductQuantitiesByOPC(technology, BigDecimal.ONE,
+                MrpAlgorithm.ONLY_MATERIALS)).willReturn(ImmutableMap.of(holder, BigDecimal.valueOf(id)));
+
+        return technology;
+    }
+
+    private List<String> readRows(final File file) throws IOException {
+        try (InputStream inputStream = new GZIPInputStream(new FileInputStream(file))) {
+            String content = new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+
+            assertEquals('\uFEFF', content.charAt(0));
+
+            List<String> lines = Lists.newArrayList(content.substring(1).split("\n"));
+
+            return lines.subList(1, lines.size());
+        }
+    }
+
+    private List<String> expectedRows(final boolean acceptedOnly) {
+        List<String> rows = Lists.newArrayList();
+
+        for (long id = 1; id <= L_TECHNOLOGIES; id++) {
+            if (!acceptedOnly || id % 3 == 0) {
+                rows.add(String.format("\"T%03d\"|\"M%03d\"|\"%d\"", id, id, id));
+            }
+        }
+
+        return rows;
+    }
+
+    private String describe(final String row) {
+        String[] columns = row.split("\\|");
+
+        return columns[0] + "|" + columns[9] + "|" + columns[11];
+    }
+
+    @Test
+    public final void shouldStreamPagesInOrderOfNumbersToGzippedFiles() throws IOException {
+        // given
+        File acceptedTechnologiesFile = temporaryFolder.newFile("accepted.csv.gz");
+        File allTechnologiesFile = temporaryFolder.newFile("all.csv.gz");
+
+        // when
+        technologyExportService.exportToFiles(acceptedTechnologiesFile, allTechnologiesFile, "2026-01-01");
+
+        // then
+        assertEquals(Lists.newArrayList(0, 100, 200), offsets);
+        assertEquals(L_THREADS, workerThreadNames.size());
+        assertEquals(expectedRows(false),
+                readRows(allTechnologiesFile).stream().map(this::describe).collect(Collectors.toList()));
+        assertEquals(expectedRows(true),
+                readRows(acceptedTechnologiesFile).stream().map(this::describe).collect(Collectors.toList()));
+    }
+
+}
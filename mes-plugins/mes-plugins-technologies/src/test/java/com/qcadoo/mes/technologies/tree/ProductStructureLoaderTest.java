@@ -0,0 +1,203 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class ProductStructureLoaderTest {
+
+    private static final Timestamp L_STATE_CHANGE_DATE = new Timestamp(1000000L);
+
+    private ProductStructureLoader productStructureLoader;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private Set<Long> loadedTechnologyIds;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productStructureLoader = new ProductStructureLoader();
+
+        ReflectionTestUtils.setField(productStructureLoader, "jdbcTemplate", jdbcTemplate);
+    }
+
+    @SafeVarargs
+    private final void stubQuery(final String queryPrefix, final Map<String, Object>... rows) {
+        willAnswer(invocation -> {
+            SqlParameterSource params = (SqlParameterSource) invocation.getArguments()[1];
+            RowCallbackHandler rowCallbackHandler = (RowCallbackHandler) invocation.getArguments()[2];
+
+            if (params.hasValue("technologyIds")) {
+                loadedTechnologyIds = Sets.newHashSet((Set<Long>) params.getValue("technologyIds"));
+            }
+
+            for (Map<String, Object> row : rows) {
+                rowCallbackHandler.processRow(mockResultSet(row));
+            }
+
+            return null;
+        }).given(jdbcTemplate).query(startsWith(queryPrefix), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+    }
+
+    private ResultSet mockResultSet(final Map<String, Object> row) throws SQLException {
+        ResultSet resultSet = mock(ResultSet.class);
+        boolean[] wasNull = new boolean[1];
+
+        given(resultSet.getLong(anyString())).willAnswer(invocation -> {
+            Object value = row.get(invocation.getArguments()[0]);
+
+            wasNull[0] = value == null;
+
+            return value == null ? 0L : value;
+        });
+        given(resultSet.wasNull()).willAnswer(invocation -> wasNull[0]);
+        given(resultSet.getBoolean(anyString())).willAnswer(invocation -> Boolean.TRUE.equals(row.get(invocation.getArguments()[0])));
+        given(resultSet.getString(anyString())).willAnswer(invocation -> row.get(invocation.getArguments()[0]));
+        given(resultSet.getBigDecimal(anyString())).willAnswer(invocation -> row.get(invocation.getArguments()[0]));
+        given(resultSet.getTimestamp(anyString())).willAnswer(invocation -> row.get(invocation.getArguments()[0]));
+
+        return resultSet;
+    }
+
+    private Map<String, Object> technology(final Long id, final Long technologyGroupId, final boolean expanded) {
+        Map<String, Object> row = Maps.newHashMap();
+
+        row.put("id", id);
+        row.put("technologyGroupId", technologyGroupId);
+        row.put("expanded", expanded);
+        row.put("lastStateChangeDate", L_STATE_CHANGE_DATE);
+
+        return row;
+    }
+
+    private Map<String, Object> operation(final Long operationId, final Long technologyId, final Long parentId,
+            final Long inputProductId, final Long productId, final Long defaultTechnologyId) {
+        Map<String, Object> row = Maps.newHashMap();
+
+        row.put("operationId", operationId);
+        row.put("technologyId", technologyId);
+        row.put("parentId", parentId);
+        row.put("inputProductId", inputProductId);
+        row.put("productId", productId);
+        row.put("productNumber", "P" + productId);
+        row.put("quantity", BigDecimal.ONE);
+        row.put("defaultTechnologyId", defaultTechnologyId);
+
+        return row;
+    }
+
+    private Map<String, Object> outputProduct(final Long operationId, final Long productId) {
+        return ImmutableMap.of("operationId", operationId, "productId", productId, "quantity", BigDecimal.ONE);
+    }
+
+    @Test
+    public final void shouldLoadOperationsOfExpandedTechnologiesOnly() {
+        // given
+        stubQuery("WITH RECURSIVE", technology(1L, 7L, true), technology(2L, null, true), technology(3L, null, false));
+        stubQuery("SELECT toc.id", operation(10L, 1L, null, 1001L, 101L, null), operation(10L, 1L, null, 1002L, 102L, 2L),
+                operation(11L, 1L, 10L, 1005L, 105L, 3L), operation(12L, 1L, 11L, null, null, null),
+                operation(20L, 2L, null, 1006L, 106L, null));
+        stubQuery("SELECT opoc.", outputProduct(10L, 100L), outputProduct(11L, 101L), outputProduct(12L, 105L),
+                outputProduct(20L, 102L));
+        stubQuery("SELECT pbsg.");
+
+        // when
+        ProductStructure productStructure = productStructureLoader.load(1L);
+
+        // then
+        assertEquals(Sets.newHashSet(1L, 2L), loadedTechnologyIds);
+
+        assertEquals(Long.valueOf(7L), productStructure.getTechnology(1L).getTechnologyGroupId());
+        assertNull(productStructure.getTechnology(2L).getTechnologyGroupId());
+        assertEquals(L_STATE_CHANGE_DATE, productStructure.getTechnology(3L).getLastStateChangeDate());
+        assertNull(productStructure.findOperationForProductAndTechnology(105L, 3L));
+    }
+
+    @Test
+    public final void shouldResolveDefaultTechnologiesAndChildOperations() {
+        // given
+        stubQuery("WITH RECURSIVE", technology(1L, null, true), technology(2L, null, true), technology(3L, null, false));
+        stubQuery("SELECT toc.id", operation(10L, 1L, null, 1001L, 101L, null), operation(10L, 1L, null, 1002L, 102L, 2L),
+                operation(11L, 1L, 10L, 1005L, 105L, 3L), operation(12L, 1L, 11L, null, null, null),
+                operation(20L, 2L, null, 1006L, 106L, null));
+        stubQuery("SELECT opoc.", outputProduct(10L, 100L), outputProduct(11L, 101L), outputProduct(12L, 105L),
+                outputProduct(20L, 102L));
+        stubQuery("SELECT pbsg.");
+
+        // when
+        ProductStructure productStructure = productStructureLoader.load(1L);
+
+        // then
+        ProductStructure.Operation rootOperation = productStructure.findOperationForProductAndTechnology(100L, 1L);
+        ProductStructure.Operation operation = productStructure.findOperationForProductWithinChildren(101L, rootOperation);
+
+        assertNotNull(rootOperation);
+        assertEquals(Lists.newArrayList(1001L, 1002L),
+                Lists.transform(rootOperation.getInputProducts(), ProductStructure.InputProduct::getId));
+        assertEquals(Long.valueOf(11L), operation.getId());
+        assertEquals(Long.valueOf(12L), productStructure.findOperationForProductWithinChildren(105L, operation).getId());
+        assertEquals(1, productStructure.findOperationForProductAndTechnology(102L, 2L).getInputProducts().size());
+
+        assertTrue(productStructure.containsProduct(101L));
+        assertNull(productStructure.findTechnologyForProduct(101L));
+        assertEquals(Long.valueOf(2L), productStructure.findTechnologyForProduct(102L));
+        assertEquals(Long.valueOf(3L), productStructure.findTechnologyForProduct(105L));
+        assertFalse(productStructure.containsProduct(100L));
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class ProductStructureTreeCacheTest {
+
+    private ProductStructureTreeCache productStructureTreeCache;
+
+    @Before
+    public final void init() {
+        productStructureTreeCache = spy(new ProductStructureTreeCache());
+
+        doReturn(1).when(productStructureTreeCache).getCurrentTenantId();
+    }
+
+    @After
+    public final void clear() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public final void shouldRememberRootOfUpToDateTree() {
+        // when
+        productStructureTreeCache.markUpToDate(1L, 500L);
+
+        // then
+        assertTrue(productStructureTreeCache.isUpToDate(1L, 500L));
+        assertFalse(productStructureTreeCache.isUpToDate(1L, 501L));
+        assertFalse(productStructureTreeCache.isUpToDate(1L, null));
+        assertFalse(productStructureTreeCache.isUpToDate(2L, 500L));
+    }
+
+    @Test
+    public final void shouldKeepTreesOfTenantsApart() {
+        // given
+        productStructureTreeCache.markUpToDate(1L, 500L);
+
+        // when
+        doReturn(2).when(productStructureTreeCache).getCurrentTenantId();
+
+        // then
+        assertFalse(productStructureTreeCache.isUpToDate(1L, 500L));
+    }
+
+    @Test
+    public final void shouldInvalidateImmediatelyWithoutTransaction() {
+        // given
+        productStructureTreeCache.markUpToDate(1L, 500L);
+
+        // when
+        productStructureTreeCache.invalidate();
+
+        // then
+        assertFalse(productStructureTreeCache.isUpToDate(1L, 500L));
+    }
+
+    @Test
+    public final void shouldInvalidateAfterCommit() {
+        // given
+        productStructureTreeCache.markUpToDate(1L, 500L);
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        // when
+        productStructureTreeCache.invalidate();
+
+        // then
+        assertTrue(productStructureTreeCache.isUpToDate(1L, 500L));
+
+        // when
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCommit();
+        }
+
+        // then
+        assertFalse(productStructureTreeCache.isUpToDate(1L, 500L));
+    }
+
+}
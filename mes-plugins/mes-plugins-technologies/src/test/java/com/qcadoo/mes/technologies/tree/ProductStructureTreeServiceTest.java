@@ -0,0 +1,331 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.tree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.willAnswer;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.TechnologyService;
+import com.qcadoo.mes.technologies.constants.ProductStructureTreeNodeFields;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.hooks.TechnologyModelHooks;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class ProductStructureTreeServiceTest {
+
+    private static final Date L_TREE_CREATE_DATE = new Date(2000000L);
+
+    private static final Date L_BEFORE_TREE_CREATE_DATE = new Date(1000000L);
+
+    private static final Date L_AFTER_TREE_CREATE_DATE = new Date(3000000L);
+
+    private ProductStructureTreeService productStructureTreeService;
+
+    private ProductStructureTreeCache productStructureTreeCache;
+
+    private TechnologyModelHooks technologyModelHooks;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private TechnologyService technologyService;
+
+    @Mock
+    private ProductStructureLoader productStructureLoader;
+
+    @Mock
+    private DataDefinition technologyDD, productStructureTreeNodeDD;
+
+    @Mock
+    private Entity technology, technologyFromDB, product, rootNode;
+
+    @Mock
+    private EntityTree tree;
+
+    private List<Entity> savedNodes;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productStructureTreeCache = spy(new ProductStructureTreeCache());
+        doReturn(1).when(productStructureTreeCache).getCurrentTenantId();
+
+        productStructureTreeService = new ProductStructureTreeService();
+        ReflectionTestUtils.setField(productStructureTreeService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(productStructureTreeService, "technologyService", technologyService);
+        ReflectionTestUtils.setField(productStructureTreeService, "productStructureLoader", productStructureLoader);
+        ReflectionTestUtils.setField(productStructureTreeService, "productStructureTreeCache", productStructureTreeCache);
+
+        technologyModelHooks = new TechnologyModelHooks();
+        ReflectionTestUtils.setField(technologyModelHooks, "productStructureTreeCache", productStructureTreeCache);
+
+        given(dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY))
+                .willReturn(technologyDD);
+        given(dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_PRODUCT_STRUCTURE_TREE_NODE)).willReturn(productStructureTreeNodeDD);
+        given(technologyService.getStandardPerformance(any(Entity.class))).willReturn(Optional.empty());
+
+        given(product.getId()).willReturn(100L);
+        given(technology.getId()).willReturn(1L);
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(product);
+        given(technology.getDataDefinition()).willReturn(technologyDD);
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.DRAFT);
+        given(technologyDD.get(1L)).willReturn(technologyFromDB);
+        given(technologyFromDB.getTreeField(TechnologyFields.PRODUCT_STRUCTURE_TREE)).willReturn(tree);
+
+        savedNodes = Lists.newArrayList();
+
+        given(productStructureTreeNodeDD.create()).willAnswer(invocation -> mockNode());
+        given(productStructureTreeNodeDD.save(any(Entity.class))).willAnswer(invocation -> {
+            Entity node = (Entity) invocation.getArguments()[0];
+
+            savedNodes.add(node);
+
+            return node;
+        });
+
+        given(rootNode.getId()).willReturn(500L);
+        given(rootNode.getDateField(ProductStructureTreeNodeFields.CREATE_DATE)).willReturn(L_TREE_CREATE_DATE);
+        given(rootNode.getStringField(ProductStructureTreeNodeFields.ENTITY_TYPE)).willReturn("finalProduct");
+        given(rootNode.getDataDefinition()).willReturn(productStructureTreeNodeDD);
+    }
+
+    private Entity mockNode() {
+        Entity node = mock(Entity.class);
+        Map<String, Object> fields = Maps.newHashMap();
+
+        willAnswer(invocation -> fields.put((String) invocation.getArguments()[0], invocation.getArguments()[1])).given(node)
+                .setField(anyString(), any());
+        given(node.getField(anyString())).willAnswer(invocation -> fields.get(invocation.getArguments()[0]));
+        given(node.getDataDefinition()).willReturn(productStructureTreeNodeDD);
+
+        return node;
+    }
+
+    private void stubExistingTree(final Entity... nodes) {
+        SearchCriteriaBuilder searchCriteriaBuilder = mock(SearchCriteriaBuilder.class);
+        SearchResult searchResult = mock(SearchResult.class);
+
+        given(tree.getRoot()).willReturn(rootNode);
+        given(tree.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(nodes));
+    }
+
+    private ProductStructure.InputProduct inputProduct(final Long id, final Long productId, final long quantity) {
+        return new ProductStructure.InputProduct(id, productId, "P" + productId, "Product " + productId, null, "szt.",
+                BigDecimal.valueOf(quantity), false, false);
+    }
+
+    /**
+     * Technology 1 makes product 100 in operation 10 from intermediate 101 (operation 11, which takes intermediate 105 made in
+     * operation 12), component 102 (default technology 2), material 103 and component 108 (default technology 4). Product 105
+     * has default technology 3, but is made within child operation, so it stays in technology 1.
+     */
+    private ProductStructure createProductStructure(final Date subTechnologiesStateChangeDate) {
+        ProductStructure productStructure = new ProductStructure();
+
+        productStructure.addTechnology(new ProductStructure.Technology(1L, null, L_BEFORE_TREE_CREATE_DATE));
+        productStructure.addTechnology(new ProductStructure.Technology(2L, 7L, L_BEFORE_TREE_CREATE_DATE));
+        productStructure.addTechnology(new ProductStructure.Technology(3L, null, subTechnologiesStateChangeDate));
+        productStructure.addTechnology(new ProductStructure.Technology(4L, null, L_BEFORE_TREE_CREATE_DATE));
+
+        productStructure.addOperation(new ProductStructure.Operation(10L, 1L, null, null));
+        productStructure.addOperation(new ProductStructure.Operation(11L, 1L, 10L, null));
+        productStructure.addOperation(new ProductStructure.Operation(12L, 1L, 11L, null));
+        productStructure.addOperation(new ProductStructure.Operation(20L, 2L, null, null));
+        productStructure.addOperation(new ProductStructure.Operation(40L, 4L, null, null));
+
+        productStructure.addInputProduct(10L, inputProduct(1001L, 101L, 2L), null);
+        productStructure.addInputProduct(10L, inputProduct(1002L, 102L, 3L), 2L);
+        productStructure.addInputProduct(10L, inputProduct(1003L, 103L, 4L), null);
+        productStructure.addInputProduct(10L, inputProduct(1008L, 108L, 5L), 4L);
+        productStructure.addInputProduct(11L, inputProduct(1004L, 104L, 6L), null);
+        productStructure.addInputProduct(11L, inputProduct(1005L, 105L, 7L), 3L);
+        productStructure.addInputProduct(12L, inputProduct(1007L, 107L, 8L), null);
+        productStructure.addInputProduct(20L, inputProduct(1006L, 106L, 9L), null);
+
+        productStructure.addOutputProduct(10L, 100L, BigDecimal.ONE);
+        productStructure.addOutputProduct(11L, 101L, BigDecimal.valueOf(2L));
+        productStructure.addOutputProduct(12L, 105L, BigDecimal.valueOf(7L));
+        productStructure.addOutputProduct(20L, 102L, BigDecimal.ONE);
+        productStructure.addOutputProduct(40L, 108L, BigDecimal.ONE);
+
+        return productStructure;
+    }
+
+    private List<String> describe(final List<Entity> nodes) {
+        return nodes.stream().map(this::describe).collect(Collectors.toList());
+    }
+
+    private String describe(final Entity node) {
+        Entity parent = (Entity) node.getField(ProductStructureTreeNodeFields.PARENT);
+
+        return node.getField(ProductStructureTreeNodeFields.ENTITY_TYPE) + " "
+                + getId(node.getField(ProductStructureTreeNodeFields.PRODUCT)) + " "
+                + getId(node.getField(ProductStructureTreeNodeFields.TECHNOLOGY)) + " "
+                + getId(node.getField(ProductStructureTreeNodeFields.OPERATION)) + " "
+                + (parent == null ? "-" : parent.getField(ProductStructureTreeNodeFields.NUMBER)) + " "
+                + node.getField(ProductStructureTreeNodeFields.QUANTITY);
+    }
+
+    private Object getId(final Object value) {
+        return value instanceof Entity ? ((Entity) value).getId() : value;
+    }
+
+    @Test
+    public final void shouldGenerateSameTreeAsEntityWalk() {
+        // given
+        given(productStructureLoader.load(1L)).willReturn(createProductStructure(L_BEFORE_TREE_CREATE_DATE));
+
+        // when
+        productStructureTreeService.generateProductStructureTree(null, technology);
+
+        // then
+        // type, product, technology, operation, parent number and quantity of nodes made by entity walk of the structure
+        assertEquals(Lists.newArrayList("finalProduct 100 1 10 - 1", "intermediate 101 1 11 1 2", "material 104 1 11 2 6",
+                "intermediate 105 1 12 2 7", "material 107 1 12 4 8", "component 102 2 20 1 3", "material 106 2 20 6 9",
+                "material 103 1 10 1 4", "component 108 4 40 1 5"), describe(savedNodes));
+    }
+
+    @Test
+    public final void shouldKeepUpToDateTreeUntilTechnologyIsSaved() {
+        // given
+        stubExistingTree(rootNode);
+        given(productStructureLoader.load(1L)).willReturn(createProductStructure(L_BEFORE_TREE_CREATE_DATE));
+
+        // when
+        EntityTree first = productStructureTreeService.generateProductStructureTree(null, technology);
+        EntityTree second = productStructureTreeService.generateProductStructureTree(null, technology);
+
+        // then
+        assertSame(tree, first);
+        assertSame(tree, second);
+        verify(productStructureLoader, times(1)).load(1L);
+
+        // when
+        technologyModelHooks.onSave(technologyDD, technology);
+        productStructureTreeService.generateProductStructureTree(null, technology);
+
+        // then
+        verify(productStructureLoader, times(2)).load(1L);
+        verify(productStructureTreeNodeDD, never()).delete(any(Long.class));
+    }
+
+    @Test
+    public final void shouldRegenerateTreeIfDefaultTechnologyOfIntermediateChanged() {
+        // given
+        stubExistingTree(rootNode);
+        given(productStructureLoader.load(1L)).willReturn(createProductStructure(L_AFTER_TREE_CREATE_DATE));
+
+        // when
+        productStructureTreeService.generateProductStructureTree(null, technology);
+
+        // then
+        verify(productStructureTreeNodeDD).delete(500L);
+        assertEquals(9, savedNodes.size());
+    }
+
+    @Test
+    public final void shouldRegenerateTreeIfDefaultTechnologyOfProductChanged() {
+        // given
+        Entity oldTechnology = mock(Entity.class);
+        Entity componentProduct = mock(Entity.class);
+        Entity componentNode = mock(Entity.class);
+
+        given(oldTechnology.getId()).willReturn(5L);
+        given(componentProduct.getId()).willReturn(102L);
+        given(componentNode.getId()).willReturn(501L);
+        given(componentNode.getStringField(ProductStructureTreeNodeFields.ENTITY_TYPE)).willReturn("component");
+        given(componentNode.getBelongsToField(ProductStructureTreeNodeFields.PRODUCT)).willReturn(componentProduct);
+        given(componentNode.getBelongsToField(ProductStructureTreeNodeFields.TECHNOLOGY)).willReturn(oldTechnology);
+        given(componentNode.getDataDefinition()).willReturn(productStructureTreeNodeDD);
+
+        stubExistingTree(rootNode, componentNode);
+        given(productStructureLoader.load(1L)).willReturn(createProductStructure(L_BEFORE_TREE_CREATE_DATE));
+
+        // when
+        productStructureTreeService.generateProductStructureTree(null, technology);
+
+        // then
+        verify(productStructureTreeNodeDD).delete(500L);
+        verify(productStructureTreeNodeDD).delete(501L);
+        assertEquals(9, savedNodes.size());
+    }
+
+    @Test
+    public final void shouldStopCheckingSubTechnologiesOnCycle() {
+        // given
+        ProductStructure productStructure = createProductStructure(L_BEFORE_TREE_CREATE_DATE);
+
+        productStructure.addInputProduct(20L, inputProduct(1009L, 100L, 1L), 1L);
+        productStructure.addInputProduct(40L, inputProduct(1010L, 102L, 1L), 2L);
+
+        stubExistingTree(rootNode);
+        given(productStructureLoader.load(1L)).willReturn(productStructure);
+
+        // when
+        EntityTree result = productStructureTreeService.generateProductStructureTree(null, technology);
+
+        // then
+        assertSame(tree, result);
+        verify(productStructureTreeNodeDD, never()).delete(any(Long.class));
+        verify(productStructureTreeNodeDD, never()).create();
+    }
+
+}
@@ -26,6 +26,7 @@ package com.qcadoo.mes.timeGapsPreview;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -34,6 +35,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.jobs.MultiTenantJobRunner;
 import com.qcadoo.mes.timeGapsPreview.constants.TimeGapsPreviewConstants;
 import com.qcadoo.model.api.*;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
@@ -46,9 +48,18 @@ public class TimeGapsCleanUpService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TimeGapsCleanUpService.class);
 
+    private static final long L_TIMEOUT_MINUTES = 30;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private MultiTenantJobRunner multiTenantJobRunner;
+
+    public void cleanUpTrigger() {
+        multiTenantJobRunner.runForAllTenants("cleanUpTimeGapsContexts", L_TIMEOUT_MINUTES, TimeUnit.MINUTES, this::cleanUp);
+    }
+
     @RunIfEnabled(TimeGapsPreviewConstants.PLUGIN_IDENTIFIER)
     public void cleanUp() {
         info("Starting clean up.");
@@ -23,24 +23,15 @@
  */
 package com.qcadoo.mes.timeGapsPreview;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import com.qcadoo.mes.basic.util.IntervalSet;
 import com.qcadoo.mes.timeGapsPreview.constants.TimeGapsPreviewConstants;
 import com.qcadoo.mes.timeGapsPreview.provider.OrderAndChangeoverIntervalsProvider;
 import com.qcadoo.mes.timeGapsPreview.provider.ShiftIntervalsProvider;
-import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilder;
-import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilderImpl;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Set;
-
-import org.joda.time.DateTime;
-import org.joda.time.Duration;
 import org.joda.time.Interval;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -58,43 +49,23 @@ public class TimeGapsGenerator {
     private DataDefinitionService dataDefinitionService;
 
     public TimeGapsSearchResult generate(final TimeGapsContext timeGapsContext) {
-        Multimap<Long, Interval> occupiedIntervals = createMultiMapWithKeys(timeGapsContext.getProductionLines());
-        occupiedIntervals.putAll(orderAndChangeoverIntervalsProvider.getIntervalsPerProductionLine(timeGapsContext));
-        occupiedIntervals.putAll(shiftIntervalsProvider.getIntervalsPerProductionLine(timeGapsContext));
+        Multimap<Long, Interval> occupiedIntervals = orderAndChangeoverIntervalsProvider
+                .getIntervalsPerProductionLine(timeGapsContext);
+        IntervalSet workIntervals = shiftIntervalsProvider.getWorkIntervals(timeGapsContext);
+        long minDuration = timeGapsContext.getDuration().getMillis();
 
         Multimap<Long, Interval> timeGaps = HashMultimap.create();
-        for (Map.Entry<Long, Collection<Interval>> lineIntervals : occupiedIntervals.asMap().entrySet()) {
-            Collection<Interval> gapsForLine = invertOccupiedIntervals(timeGapsContext.getInterval(), lineIntervals.getValue());
-            Collection<Interval> gapsForLineFilteredByDuration = Collections2.filter(gapsForLine, new Predicate<Interval>() {
-
-                @Override
-                public boolean apply(final Interval interval) {
-                    if (interval == null) {
-                        return false;
-                    }
-                    return interval.toDuration().compareTo(timeGapsContext.getDuration()) >= 0;
+        for (Long productionLineId : timeGapsContext.getProductionLines()) {
+            IntervalSet gapsForLine = workIntervals.subtract(IntervalSet.of(occupiedIntervals.get(productionLineId)));
+            for (int i = 0; i < gapsForLine.size(); i++) {
+                if (gapsForLine.getEnd(i) - gapsForLine.getStart(i) >= minDuration) {
+                    timeGaps.put(productionLineId, new Interval(gapsForLine.getStart(i), gapsForLine.getEnd(i)));
                 }
-            });
-            timeGaps.putAll(lineIntervals.getKey(), gapsForLineFilteredByDuration);
+            }
         }
         return TimeGapsSearchResult.create(timeGaps, getTimeGapDataDef());
     }
 
-    private Multimap<Long, Interval> createMultiMapWithKeys(final Set<Long> keys) {
-        Multimap<Long, Interval> multiMap = HashMultimap.create();
-        Interval emptyInterval = new Interval(new DateTime(0L), Duration.ZERO);
-        for (Long key : keys) {
-            multiMap.put(key, emptyInterval);
-        }
-        return multiMap;
-    }
-
-    private Collection<Interval> invertOccupiedIntervals(final Interval domainInterval, final Iterable<Interval> occupiedIntervals) {
-        TimeGapsBuilder gapsBuilder = new TimeGapsBuilderImpl(domainInterval);
-        gapsBuilder.addOccupiedIntervals(occupiedIntervals);
-        return gapsBuilder.calculateGaps();
-    }
-
     private DataDefinition getTimeGapDataDef() {
         return dataDefinitionService.get(TimeGapsPreviewConstants.PLUGIN_IDENTIFIER, TimeGapsPreviewConstants.MODEL_TIME_GAP);
     }
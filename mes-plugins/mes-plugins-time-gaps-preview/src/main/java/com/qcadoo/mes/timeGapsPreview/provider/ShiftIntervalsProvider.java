@@ -25,32 +25,26 @@ package com.qcadoo.mes.timeGapsPreview.provider;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
-import com.qcadoo.mes.basic.ShiftsService;
-import com.qcadoo.mes.basic.shift.Shift;
-import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.mes.basic.WorkingTimeCalendarService;
+import com.qcadoo.mes.basic.util.IntervalSet;
 import com.qcadoo.mes.timeGapsPreview.TimeGapsContext;
-import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilder;
-import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilderImpl;
 import org.joda.time.Interval;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.Collection;
-import java.util.Date;
 import java.util.List;
-import java.util.Set;
 
 @Service
 public class ShiftIntervalsProvider implements IntervalsProvider {
 
     @Autowired
-    private ShiftsService shiftsService;
+    private WorkingTimeCalendarService workingTimeCalendarService;
 
     @Override
     public Multimap<Long, Interval> getIntervalsPerProductionLine(final TimeGapsContext context) {
-        Set<Interval> workIntervals = getWorkIntervals(context);
-        Collection<Interval> spareTimeIntervals = invertIntervals(context.getInterval(), workIntervals);
+        Interval searchInterval = context.getInterval();
+        List<Interval> spareTimeIntervals = getWorkIntervals(context)
+                .complement(searchInterval.getStartMillis(), searchInterval.getEndMillis()).toIntervals();
         Multimap<Long, Interval> spareTimeMultiMap = HashMultimap.create();
         for (Long productionLne : context.getProductionLines()) {
             spareTimeMultiMap.putAll(productionLne, spareTimeIntervals);
@@ -58,24 +52,13 @@ public class ShiftIntervalsProvider implements IntervalsProvider {
         return spareTimeMultiMap;
     }
 
-    private Collection<Interval> invertIntervals(final Interval domainInterval, final Iterable<Interval> intervals) {
-        TimeGapsBuilder gapsBuilder = new TimeGapsBuilderImpl(domainInterval);
-        gapsBuilder.addOccupiedIntervals(intervals);
-        return gapsBuilder.calculateGaps();
-    }
-
-    private Set<Interval> getWorkIntervals(final TimeGapsContext context) {
+    /**
+     * Work time of shifts in the search interval, taken from the cached working time calendar.
+     */
+    public IntervalSet getWorkIntervals(final TimeGapsContext context) {
         Interval searchInterval = context.getInterval();
-        Date fromDate = searchInterval.getStart().toDate();
-        Date toDate = searchInterval.getEnd().toDate();
-        List<Shift> shifts = shiftsService.findAll();
-        List<DateTimeRange> dateTimeRanges = shiftsService.getDateTimeRanges(shifts, fromDate, toDate);
-        Set<Interval> shiftWorkTimeIntervals = Sets.newHashSet();
-        for (DateTimeRange dateTimeRange : dateTimeRanges) {
-            Interval shiftWorkTimeInterval = new Interval(dateTimeRange.getFrom(), dateTimeRange.getTo());
-            shiftWorkTimeIntervals.add(shiftWorkTimeInterval);
-        }
-        return shiftWorkTimeIntervals;
+        return workingTimeCalendarService.getWorkingIntervals(null, searchInterval.getStart().toDate(),
+                searchInterval.getEnd().toDate(), true);
     }
 
 }
@@ -30,17 +30,18 @@ import org.joda.time.Interval;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.util.IntervalSet;
 
 public class TimeGapsBuilderImpl implements TimeGapsBuilder {
 
     private final Interval searchInterval;
 
-    private final SortedSet<Interval> occupiedIntervals;
+    private final IntervalSet.Builder occupiedIntervals;
 
     public TimeGapsBuilderImpl(final Interval interval) {
         Preconditions.checkArgument(interval != null, "Search interval have to be provided.");
         searchInterval = interval;
-        occupiedIntervals = Sets.newTreeSet(IntervalsComparator.START_DATE_ASC_AND_DURATION_DESC);
+        occupiedIntervals = IntervalSet.builder();
     }
 
     @Override
@@ -62,50 +63,18 @@ public class TimeGapsBuilderImpl implements TimeGapsBuilder {
         if (intervalsSet.size() < 2) {
             return intervalsSet;
         }
-        SortedSet<Interval> flattenIntervals = newSortedSet();
-        Interval prev = intervalsSet.first();
-
-        flattenIntervals.add(prev);
-        for (Interval interval : intervalsSet) {
-            if (interval.contains(prev.getEnd()) || interval.abuts(prev)) {
-                Interval sumInterval = new Interval(prev.getStart(), interval.getEnd());
-                flattenIntervals.remove(prev);
-                flattenIntervals.add(sumInterval);
-                prev = sumInterval;
-            } else if (!prev.contains(interval)) {
-                flattenIntervals.add(interval);
-                prev = interval;
-            }
-        }
-        return flattenIntervals;
+        return toSortedSet(IntervalSet.of(intervalsSet));
     }
 
-    private static SortedSet<Interval> newSortedSet() {
-        return Sets.newTreeSet(IntervalsComparator.START_DATE_ASC_AND_DURATION_DESC);
+    private static SortedSet<Interval> toSortedSet(final IntervalSet intervals) {
+        SortedSet<Interval> sortedSet = Sets.newTreeSet(IntervalsComparator.START_DATE_ASC_AND_DURATION_DESC);
+        sortedSet.addAll(intervals.toIntervals());
+        return sortedSet;
     }
 
     @Override
     public Collection<Interval> calculateGaps() {
-        SortedSet<Interval> gaps = newSortedSet();
-        SortedSet<Interval> flattenOccupiedIntervals = flatten(occupiedIntervals);
-        if (flattenOccupiedIntervals.isEmpty()) {
-            gaps.add(searchInterval);
-            return gaps;
-        }
-
-        Interval prev = flattenOccupiedIntervals.first();
-        if (searchInterval.getStart().isBefore(prev.getStart())) {
-            gaps.add(new Interval(searchInterval.getStart(), prev.getStart()));
-        }
-        flattenOccupiedIntervals.remove(prev);
-        for (Interval occupied : flattenOccupiedIntervals) {
-            gaps.add(prev.gap(occupied));
-            prev = occupied;
-        }
-        if (prev.getEnd().isBefore(searchInterval.getEnd())) {
-            gaps.add(new Interval(prev.getEnd(), searchInterval.getEnd()));
-        }
-        return gaps;
+        return toSortedSet(IntervalSet.of(searchInterval).subtract(occupiedIntervals.build()));
     }
 
 }